@@ -0,0 +1,151 @@
+import benchmarks.Fixture;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The data of the benchmarks (see benchmarks.Fixture). The GloVe CSV is looked for at the path of the glove.csv
+ * system property, by default the resources of the main project seen from the benchmarks directory. Synthetic rows are
+ * normally distributed words named w0, w1, ..., written with five decimals like the GloVe CSV
+ */
+public class SemanticFixture implements Fixture {
+    private static final String PROPERTY_GLOVE = "glove.csv";
+    private static final String DEFAULT_GLOVE = "../src/main/resources/glove.6B.50d_Reduced.csv";
+    private static final int QUERIES = 64;
+
+    private final int intVocabulary;
+    private final int intDimensions;
+    private Vector[] vecVectors = null;
+    private List<CosSimilarityPair> listPairs = null;
+    private final List<CosSimilarityPair> listSorted = new ArrayList<>();
+    private SemanticMain semanticMain = null;
+    private String[] strQueries = null;
+
+    public SemanticFixture(int _vocabulary, int _dimensions) {
+        intVocabulary = _vocabulary;
+        intDimensions = _dimensions;
+    }
+
+    @Override
+    public Path writeCsv(Path _dir) throws IOException {
+        Path csv = _dir.resolve("glove-" + intVocabulary + "x" + intDimensions + ".csv");
+        List<String> gloveRows = readGlove();
+
+        try (BufferedWriter myWriter = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+            if (gloveRows != null) {
+                for (String line : gloveRows) {
+                    myWriter.write(line);
+                    myWriter.newLine();
+                }
+            } else {
+                Random random = new Random(42);
+                StringBuilder line = new StringBuilder();
+                for (int i = 0; i < intVocabulary; i++) {
+                    line.setLength(0);
+                    line.append('w').append(i);
+                    for (int j = 0; j < intDimensions; j++)
+                        line.append(',').append((float) (Math.round(random.nextGaussian() * 0.4e5) / 1e5));
+                    myWriter.write(line.toString());
+                    myWriter.newLine();
+                }
+            }
+        }
+
+        return csv;
+    }
+
+    @Override
+    public void loadGlove(Path _csv) throws IOException { Toolkit.loadGLOVE(_csv); }
+
+    @Override
+    public void prepareVectors(int _count) {
+        Random random = new Random(42);
+        vecVectors = new Vector[_count];
+        for (int i = 0; i < _count; i++) {
+            double[] elements = new double[intDimensions];
+            for (int j = 0; j < intDimensions; j++) elements[j] = random.nextGaussian();
+            vecVectors[i] = new Vector(elements);
+        }
+    }
+
+    @Override
+    public double dotProduct(int _i) {
+        return vecVectors[_i % vecVectors.length].dotProduct(vecVectors[(_i + 1) % vecVectors.length]);
+    }
+
+    @Override
+    public double cosineSimilarity(int _i) {
+        return vecVectors[_i % vecVectors.length].cosineSimilarity(vecVectors[(_i + 1) % vecVectors.length]);
+    }
+
+    @Override
+    public void preparePairs() {
+        Random random = new Random(42);
+        listPairs = new ArrayList<>(intVocabulary);
+        for (int i = 0; i < intVocabulary; i++)
+            listPairs.add(new CosSimilarityPair("query", "w" + i, random.nextDouble() * 2 - 1));
+    }
+
+    @Override
+    public Object heapSort() {
+        listSorted.clear();
+        listSorted.addAll(listPairs);
+        return HeapSort.doHeapSort(listSorted);
+    }
+
+    @Override
+    public void prepareSearch(Path _dir) throws IOException {
+        Path csv = writeCsv(_dir);
+        Path binary = _dir.resolve(csv.getFileName() + ".bin");
+        EmbeddingFile.convert(csv, binary);
+
+        //SemanticMain() reads the CSV from its resources, so start from the binary file and then load the CSV into
+        //the heap the way SemanticMain.main() does
+        semanticMain = new SemanticMain(binary);
+        Toolkit.loadGLOVE(csv);
+        semanticMain.listVocabulary = Toolkit.getListVocabulary();
+        semanticMain.listVectors = Toolkit.getlistVectors();
+        semanticMain.listGlove = semanticMain.CreateGloveList();
+
+        int gloves = semanticMain.listGlove.size();
+        strQueries = new String[QUERIES + 2];
+        for (int i = 0; i < strQueries.length; i++)
+            strQueries[i] = semanticMain.listGlove.get((int) ((long) i * 7919 % gloves)).getVocabulary();
+    }
+
+    @Override
+    public Object wordsNearest(int _i, int _k) { return semanticMain.WordsNearest(strQueries[_i % QUERIES], _k); }
+
+    @Override
+    public Object logicalAnalogies(int _i, int _k) {
+        int i = _i % QUERIES;
+        return semanticMain.LogicalAnalogies(strQueries[i], strQueries[i + 1], strQueries[i + 2], _k);
+    }
+
+    /**
+     * @return the first intVocabulary rows of the GloVe CSV, or null if it is missing, too short, or has other
+     * dimensions
+     */
+    private List<String> readGlove() throws IOException {
+        Path glove = Paths.get(System.getProperty(PROPERTY_GLOVE, DEFAULT_GLOVE));
+        if (!Files.isRegularFile(glove)) return null;
+
+        List<String> rows;
+        try (Stream<String> lines = Files.lines(glove, StandardCharsets.UTF_8)) {
+            rows = lines.filter(line -> !line.isBlank()).limit(intVocabulary).collect(Collectors.toList());
+        }
+
+        if (rows.size() < intVocabulary || rows.get(0).chars().filter(c -> c == ',').count() != intDimensions)
+            return null;
+        return rows;
+    }
+}
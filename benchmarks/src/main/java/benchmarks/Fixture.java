@@ -0,0 +1,101 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * What the benchmarks run, implemented by SemanticFixture. JMH only accepts benchmarks in a named package, and a
+ * named package can't refer to the classes of the main project, which are in the default package, so the benchmarks
+ * reach them through this interface. Every call is monomorphic and inlined, so the indirection isn't measured
+ */
+public interface Fixture {
+    /**
+     * Creates the fixture of a vocabulary of a given size and dimensions. Nothing is generated until a prepare method
+     * is called
+     * @param _vocabulary number of words
+     * @param _dimensions number of elements of every vector
+     * @return the fixture
+     */
+    static Fixture create(int _vocabulary, int _dimensions) {
+        try {
+            return (Fixture) Class.forName("SemanticFixture").getConstructor(int.class, int.class)
+                    .newInstance(_vocabulary, _dimensions);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("SemanticFixture is missing from the benchmark jar", e);
+        }
+    }
+
+    /**
+     * Deletes a directory of benchmark files
+     * @param _dir the directory
+     * @throws IOException if a file can't be deleted
+     */
+    static void delete(Path _dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(_dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) Files.delete(path);
+        }
+    }
+
+    /**
+     * Writes the glove CSV of the fixture: the first rows of the GloVe CSV when it has the right dimensions, and
+     * otherwise synthetic rows
+     * @param _dir directory to write it in
+     * @return the CSV
+     * @throws IOException if the CSV can't be written
+     */
+    Path writeCsv(Path _dir) throws IOException;
+
+    /**
+     * Loads a glove CSV with Toolkit.loadGLOVE()
+     * @param _csv the CSV
+     * @throws IOException if the CSV can't be read
+     */
+    void loadGlove(Path _csv) throws IOException;
+
+    /**
+     * Generates the vectors of dotProduct() and cosineSimilarity()
+     * @param _count number of vectors
+     */
+    void prepareVectors(int _count);
+
+    /**
+     * @return Vector.dotProduct() of the vector _i and the one after it
+     */
+    double dotProduct(int _i);
+
+    /**
+     * @return Vector.cosineSimilarity() of the vector _i and the one after it
+     */
+    double cosineSimilarity(int _i);
+
+    /**
+     * Generates one unsorted pair per word for heapSort()
+     */
+    void preparePairs();
+
+    /**
+     * Sorts a fresh copy of the unsorted pairs with HeapSort.doHeapSort()
+     * @return the sorted pairs
+     */
+    Object heapSort();
+
+    /**
+     * Loads the vocabulary into a SemanticMain for wordsNearest() and logicalAnalogies()
+     * @param _dir directory for the files of the vocabulary
+     * @throws IOException if the files can't be written or read
+     */
+    void prepareSearch(Path _dir) throws IOException;
+
+    /**
+     * @return SemanticMain.WordsNearest() of the query word _i
+     */
+    Object wordsNearest(int _i, int _k);
+
+    /**
+     * @return SemanticMain.LogicalAnalogies() of the query words _i, _i + 1 and _i + 2
+     */
+    Object logicalAnalogies(int _i, int _k);
+}
@@ -0,0 +1,41 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HeapSort.doHeapSort() of one pair per word, as WordsNearest(word) sorts them. The sort is in place, so every
+ * operation includes copying the unsorted pairs into a reused list
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class HeapSortBenchmark {
+    @Param({"10000", "40000"})
+    public int vocabulary;
+
+    private Fixture fixture;
+
+    @Setup
+    public void setUp() {
+        fixture = Fixture.create(vocabulary, 0);
+        fixture.preparePairs();
+    }
+
+    @Benchmark
+    public Object doHeapSort() { return fixture.heapSort(); }
+}
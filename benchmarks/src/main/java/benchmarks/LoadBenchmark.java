@@ -0,0 +1,53 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Toolkit.loadGLOVE() of a CSV that is already in the page cache
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Benchmark)
+public class LoadBenchmark {
+    @Param({"10000", "40000"})
+    public int vocabulary;
+
+    @Param({"50", "300"})
+    public int dimensions;
+
+    private Fixture fixture;
+    private Path pathDir;
+    private Path pathCsv;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixture = Fixture.create(vocabulary, dimensions);
+        pathDir = Files.createTempDirectory("semantic-benchmark");
+        pathCsv = fixture.writeCsv(pathDir);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException { Fixture.delete(pathDir); }
+
+    @Benchmark
+    public void loadGLOVE() throws IOException { fixture.loadGlove(pathCsv); }
+}
@@ -0,0 +1,69 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SemanticMain.WordsNearest() and SemanticMain.LogicalAnalogies() with the default exact search, cycling through a
+ * fixed set of query words
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+    @Param({"10000", "40000"})
+    public int vocabulary;
+
+    @Param({"50", "300"})
+    public int dimensions;
+
+    @Param({"10"})
+    public int k;
+
+    private Fixture fixture;
+    private Path pathDir;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixture = Fixture.create(vocabulary, dimensions);
+        pathDir = Files.createTempDirectory("semantic-benchmark");
+        fixture.prepareSearch(pathDir);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException { Fixture.delete(pathDir); }
+
+    @Benchmark
+    public Object wordsNearest(QueryCounter _counter) { return fixture.wordsNearest(_counter.next(), k); }
+
+    @Benchmark
+    public Object logicalAnalogies(QueryCounter _counter) { return fixture.logicalAnalogies(_counter.next(), k); }
+
+    /**
+     * Per-thread position in the query words
+     */
+    @State(Scope.Thread)
+    public static class QueryCounter {
+        private int intNext = 0;
+
+        int next() { return intNext++ & Integer.MAX_VALUE; }
+    }
+}
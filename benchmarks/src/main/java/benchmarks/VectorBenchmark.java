@@ -0,0 +1,47 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vector.dotProduct() and Vector.cosineSimilarity() over a set of vectors larger than the L1 cache, taken in turn so
+ * that the same pair isn't scored twice in a row
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class VectorBenchmark {
+    private static final int VECTORS = 1024;
+
+    @Param({"50", "300"})
+    public int dimensions;
+
+    private Fixture fixture;
+    private int intNext = 0;
+
+    @Setup
+    public void setUp() {
+        fixture = Fixture.create(VECTORS, dimensions);
+        fixture.prepareVectors(VECTORS);
+    }
+
+    @Benchmark
+    public double dotProduct() { return fixture.dotProduct(intNext++ & (VECTORS - 1)); }
+
+    @Benchmark
+    public double cosineSimilarity() { return fixture.cosineSimilarity(intNext++ & (VECTORS - 1)); }
+}
@@ -0,0 +1,324 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Scores a model on an analogy test set like the Google analogy questions, where "athens greece baghdad iraq" asks
+ * for the word that is to baghdad what greece is to athens. Every question is answered by two methods over the unit
+ * rows of the model, leaving out its three input words:
+ * <ul>
+ * <li>3CosAdd, the word d maximising cos(d, b) - cos(d, a) + cos(d, c), the word nearest to b - a + c once the
+ * three are scaled to unit length; LogicalAnalogies() adds them as they are</li>
+ * <li>3CosMul, the word d maximising cos(d, b) * cos(d, c) / (cos(d, a) + 0.001), with every cosine shifted to
+ * [0, 1], which keeps one large similarity from outweighing the other two</li>
+ * </ul>
+ * Both only need the three cosines of every row, so they come out of the same pass. The questions are grouped into
+ * blocks, and every row is read once per block and scored against the three queries of every question of the block,
+ * four queries at a time as in BatchSearch; the blocks run in parallel. A whole test set therefore costs a few passes
+ * over the matrix rather than a scan and a sort per question.
+ */
+public class AnalogyEvaluator {
+    private static final int QUESTION_BLOCK = 32; //questions sharing one pass over the rows
+    private static final float MUL_EPSILON = 0.001f; //keeps 3CosMul from dividing by 0
+
+    /**
+     * Reads an analogy test set in the format of the Google analogy questions: a line ": name" starts a category, and
+     * every other line holds the four words of a question. Blank lines are skipped, and questions before the first
+     * category belong to the category "default"
+     * @param _path the test set
+     * @return the questions, in the order of the file
+     * @throws IOException thrown if the file can't be read or a line is not a question
+     */
+    public static List<Question> readQuestions(Path _path) throws IOException {
+        List<Question> result = new ArrayList<>();
+        String category = "default";
+
+        try (BufferedReader myReader = Files.newBufferedReader(_path, StandardCharsets.UTF_8)) {
+            int number = 0;
+            for (String line = myReader.readLine(); line != null; line = myReader.readLine()) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty()) continue;
+
+                if (line.startsWith(":")) {
+                    category = line.substring(1).trim();
+                    continue;
+                }
+
+                String[] words = line.split("\\s+");
+                if (words.length != 4)
+                    throw new IOException("line " + number + " of " + _path + " is not a question: " + line);
+
+                result.add(new Question(category, words[0], words[1], words[2], words[3]));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Same as evaluate(_model, readQuestions(_questions), _maxRank)
+     * @throws IOException thrown if the test set can't be read
+     */
+    public static Report evaluate(EmbeddingModel _model, Path _questions, int _maxRank) throws IOException {
+        return evaluate(_model, readQuestions(_questions), _maxRank);
+    }
+
+    /**
+     * Answers every question with 3CosAdd and 3CosMul and counts the right answers per category. A word is looked up
+     * as it is and then in lower case, since the test sets capitalize names and most models don't. Questions with a
+     * word outside the searched rows are skipped, as word2vec's compute-accuracy does
+     * @param _model the model to score
+     * @param _questions the questions
+     * @param _maxRank how many of the first rows of the model to search, typically 30000 for the Google test set, so
+     *                 that rare words don't crowd out the answers; 0 or less for every row
+     * @return the counts of every category, with the time taken
+     */
+    public static Report evaluate(EmbeddingModel _model, List<Question> _questions, int _maxRank) {
+        long start = System.nanoTime();
+        EmbeddingMatrix matrix = _model.getMatrix();
+        int rows = _maxRank > 0 ? Math.min(_maxRank, matrix.getRowCount()) : matrix.getRowCount();
+
+        //the rows of the questions that can be answered, four per question: a, b, c and the expected d
+        int[] answerable = new int[_questions.size()];
+        int[] questionRows = new int[_questions.size() * 4];
+        int count = 0;
+        for (int i = 0; i < _questions.size(); i++) {
+            Question question = _questions.get(i);
+            String[] words = {question.strA, question.strB, question.strC, question.strD};
+            boolean known = true;
+            for (int j = 0; j < 4 && known; j++) {
+                int row = rowOf(_model.getVocabularyIndex(), words[j]);
+                known = row >= 0 && row < rows;
+                questionRows[count * 4 + j] = row;
+            }
+
+            if (known) answerable[count++] = i;
+        }
+
+        int answered = count;
+        int[] answersAdd = new int[answered];
+        int[] answersMul = new int[answered];
+        int blocks = (answered + QUESTION_BLOCK - 1) / QUESTION_BLOCK;
+
+        //every block owns its part of the answers, so the blocks can be answered in parallel
+        IntStream.range(0, blocks).parallel().forEach(block -> answerBlock(matrix, rows, questionRows,
+                block * QUESTION_BLOCK, Math.min(answered, (block + 1) * QUESTION_BLOCK), answersAdd, answersMul,
+                SimilarityKernels.get()));
+
+        Map<String, Category> categories = new LinkedHashMap<>();
+        for (Question question : _questions)
+            categories.computeIfAbsent(question.strCategory, Category::new).intQuestions++;
+        for (int i = 0; i < answered; i++) {
+            Category category = categories.get(_questions.get(answerable[i]).strCategory);
+            int expected = questionRows[i * 4 + 3];
+            category.intAnswered++;
+            if (answersAdd[i] == expected) category.intCorrectAdd++;
+            if (answersMul[i] == expected) category.intCorrectMul++;
+        }
+
+        return new Report(new ArrayList<>(categories.values()), System.nanoTime() - start);
+    }
+
+    private static int rowOf(VocabularyIndex _index, String _word) {
+        int row = _index.get(_word);
+        return row >= 0 ? row : _index.get(_word.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Answers the questions _from to _to: packs their unit rows a, b and c back to back as the queries, scores every
+     * row against all of them, and keeps the best row of each question by either method
+     */
+    private static void answerBlock(EmbeddingMatrix _matrix, int _rows, int[] _questionRows, int _from, int _to,
+                                    int[] _answersAdd, int[] _answersMul, SimilarityKernel _kernel) {
+        int dims = _matrix.getDimensions();
+        int queries = (_to - _from) * 3;
+        int groups = (queries + 3) / 4;
+
+        //pad the last group of four with zero queries
+        float[] packed = new float[groups * 4 * dims];
+        for (int q = 0; q < queries; q++)
+            _matrix.copyUnitRow(_questionRows[(_from + q / 3) * 4 + q % 3], packed, q * dims);
+
+        float[] scores = new float[groups * 4];
+        float[] group = new float[4];
+        float[] bestAdd = new float[_to - _from];
+        float[] bestMul = new float[_to - _from];
+        Arrays.fill(bestAdd, Float.NEGATIVE_INFINITY);
+        Arrays.fill(bestMul, Float.NEGATIVE_INFINITY);
+        for (int i = _from; i < _to; i++) {
+            _answersAdd[i] = -1;
+            _answersMul[i] = -1;
+        }
+
+        for (int row = 0; row < _rows; row++) {
+            for (int g = 0; g < groups; g++) {
+                _matrix.cosine4(row, packed, g * 4 * dims, _kernel, group);
+                System.arraycopy(group, 0, scores, g * 4, 4);
+            }
+
+            for (int i = 0; i < _to - _from; i++) {
+                int question = (_from + i) * 4;
+                if (row == _questionRows[question] || row == _questionRows[question + 1]
+                        || row == _questionRows[question + 2])
+                    continue;
+
+                float a = scores[i * 3], b = scores[i * 3 + 1], c = scores[i * 3 + 2];
+                float add = b - a + c;
+                float mul = (b + 1) * (c + 1) / (2 * (a + 1 + 2 * MUL_EPSILON)); //the cosines shifted to [0, 1]
+                if (add > bestAdd[i]) {
+                    bestAdd[i] = add;
+                    _answersAdd[_from + i] = row;
+                }
+                if (mul > bestMul[i]) {
+                    bestMul[i] = mul;
+                    _answersMul[_from + i] = row;
+                }
+            }
+        }
+    }
+
+    /**
+     * Scores a model on a test set and prints the report
+     * @param args the model, a glove CSV or a binary embedding file; the test set; optionally how many of the first
+     *             rows to search, 30000 by default
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: AnalogyEvaluator <model> <questions> [max rank]");
+            return;
+        }
+
+        EmbeddingModel model = EmbeddingModel.load(Path.of(args[0]));
+        System.out.print(evaluate(model, Path.of(args[1]), args.length > 2 ? Integer.parseInt(args[2]) : 30000));
+    }
+
+    /**
+     * A question a:b :: c:d, with the category it belongs to
+     */
+    public static class Question {
+        private final String strCategory;
+        private final String strA;
+        private final String strB;
+        private final String strC;
+        private final String strD;
+
+        public Question(String _category, String _a, String _b, String _c, String _d) {
+            strCategory = _category;
+            strA = _a;
+            strB = _b;
+            strC = _c;
+            strD = _d;
+        }
+
+        public String getCategory() { return strCategory; }
+
+        public String getA() { return strA; }
+
+        public String getB() { return strB; }
+
+        public String getC() { return strC; }
+
+        public String getD() { return strD; }
+
+        @Override
+        public String toString() { return strA + " " + strB + " " + strC + " " + strD; }
+    }
+
+    /**
+     * The counts of one category of questions
+     */
+    public static class Category {
+        private final String strName;
+        private int intQuestions;
+        private int intAnswered; //questions whose four words were all searched
+        private int intCorrectAdd;
+        private int intCorrectMul;
+
+        private Category(String _name) { strName = _name; }
+
+        public String getName() { return strName; }
+
+        public int getQuestions() { return intQuestions; }
+
+        public int getAnswered() { return intAnswered; }
+
+        public int getCorrectAdd() { return intCorrectAdd; }
+
+        public int getCorrectMul() { return intCorrectMul; }
+
+        /**
+         * @return the share of the answered questions that 3CosAdd got right, or 0 if none was answered
+         */
+        public double getAccuracyAdd() { return intAnswered == 0 ? 0 : (double) intCorrectAdd / intAnswered; }
+
+        /**
+         * @return the share of the answered questions that 3CosMul got right, or 0 if none was answered
+         */
+        public double getAccuracyMul() { return intAnswered == 0 ? 0 : (double) intCorrectMul / intAnswered; }
+    }
+
+    /**
+     * The result of an evaluation: the counts of every category, in the order of the test set, and their total
+     */
+    public static class Report {
+        private final List<Category> listCategories;
+        private final Category total = new Category("total");
+        private final long lngElapsedNanos;
+
+        private Report(List<Category> _categories, long _elapsedNanos) {
+            listCategories = Collections.unmodifiableList(_categories);
+            lngElapsedNanos = _elapsedNanos;
+
+            for (Category category : _categories) {
+                total.intQuestions += category.intQuestions;
+                total.intAnswered += category.intAnswered;
+                total.intCorrectAdd += category.intCorrectAdd;
+                total.intCorrectMul += category.intCorrectMul;
+            }
+        }
+
+        public List<Category> getCategories() { return listCategories; }
+
+        public Category getTotal() { return total; }
+
+        public long getElapsedNanos() { return lngElapsedNanos; }
+
+        /**
+         * @return the questions of the test set, answered or skipped, evaluated per second
+         */
+        public double getQuestionsPerSecond() {
+            return lngElapsedNanos == 0 ? 0 : total.intQuestions * 1e9 / lngElapsedNanos;
+        }
+
+        /**
+         * @return a table with a line per category and one for the total, followed by the throughput
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "%-28s %9s %9s %8s %8s%n", "category",
+                    "questions", "answered", "3cosadd", "3cosmul"));
+
+            List<Category> lines = new ArrayList<>(listCategories);
+            lines.add(total);
+            for (Category category : lines)
+                sb.append(String.format(Locale.ROOT, "%-28s %9d %9d %8.4f %8.4f%n", category.strName,
+                        category.intQuestions, category.intAnswered, category.getAccuracyAdd(),
+                        category.getAccuracyMul()));
+
+            sb.append(String.format(Locale.ROOT, "%.0f questions/s in %.2f s%n", getQuestionsPerSecond(),
+                    lngElapsedNanos / 1e9));
+            return sb.toString();
+        }
+    }
+}
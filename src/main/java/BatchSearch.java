@@ -0,0 +1,81 @@
+import java.util.stream.IntStream;
+
+/**
+ * Nearest-neighbour search for many queries at once. Answering the queries one by one streams every candidate row from
+ * memory once per query; here the queries are grouped into blocks and the candidate rows into tiles small enough to
+ * stay in cache, like a blocked matrix multiplication. A tile is scored against every query of a block before the next
+ * tile is touched, four queries at a time so that each row element is loaded into a register once per group of four.
+ * A row therefore comes from memory once per query block instead of once per query, and the blocks run in parallel.
+ */
+public class BatchSearch {
+    private static final int QUERY_BLOCK = 32; //queries sharing one pass over the rows; a multiple of 4
+    private static final int ROW_TILE = 256; //rows scored against a whole block before moving on
+
+    /**
+     * Finds the _k rows most similar to every query
+     * @param _matrix matrix holding the rows
+     * @param _rows candidate rows
+     * @param _unitQueries queries scaled to unit length, each with _matrix.getDimensions() elements
+     * @param _k how many rows to keep per query
+     * @param _excluded if not null, the rows that must not be kept for every query
+     * @param _skipEqual if not null, for every query the values of rows to skip (or null to skip none)
+     * @param _kernel kernel computing the dot products
+     * @return one heap of the best rows per query, in the order of the queries
+     */
+    public static HeapSort.TopK[] search(EmbeddingMatrix _matrix, int[] _rows, float[][] _unitQueries, int _k,
+                                         int[][] _excluded, double[][] _skipEqual, SimilarityKernel _kernel) {
+        HeapSort.TopK[] result = new HeapSort.TopK[_unitQueries.length];
+
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new HeapSort.TopK(Math.max(0, Math.min(_k, _rows.length)));
+            if (_excluded != null && _excluded[i] != null) result[i].setExcluded(_excluded[i]);
+        }
+
+        int blocks = (_unitQueries.length + QUERY_BLOCK - 1) / QUERY_BLOCK;
+
+        //every block owns its heaps, so the blocks can be searched in parallel
+        IntStream.range(0, blocks).parallel().forEach(block -> searchBlock(_matrix, _rows, _unitQueries,
+                block * QUERY_BLOCK, Math.min(_unitQueries.length, (block + 1) * QUERY_BLOCK), result, _skipEqual,
+                _kernel));
+
+        return result;
+    }
+
+    private static void searchBlock(EmbeddingMatrix _matrix, int[] _rows, float[][] _unitQueries, int _from, int _to,
+                                    HeapSort.TopK[] _result, double[][] _skipEqual, SimilarityKernel _kernel) {
+        int dims = _matrix.getDimensions();
+        int groups = (_to - _from + 3) / 4;
+
+        //pack the block back to back, padding the last group of four with zero queries
+        float[] packed = new float[groups * 4 * dims];
+        for (int q = _from; q < _to; q++) System.arraycopy(_unitQueries[q], 0, packed, (q - _from) * dims, dims);
+
+        float[] scores = new float[4];
+
+        for (int tile = 0; tile < _rows.length; tile += ROW_TILE) {
+            int tileEnd = Math.min(_rows.length, tile + ROW_TILE);
+
+            for (int group = 0; group < groups; group++) {
+                int first = _from + group * 4;
+                int count = Math.min(4, _to - first);
+
+                for (int r = tile; r < tileEnd; r++) {
+                    int row = _rows[r];
+                    _matrix.cosine4(row, packed, group * 4 * dims, _kernel, scores);
+
+                    for (int j = 0; j < count; j++) {
+                        HeapSort.TopK topK = _result[first + j];
+                        float cs = scores[j];
+                        if (!(cs > topK.getThreshold())) continue;
+
+                        //only a row scoring ~1 can equal the input, so the element-wise comparison is rarely needed
+                        double[] skip = _skipEqual == null ? null : _skipEqual[first + j];
+                        if (skip != null && cs > 0.9999f && _matrix.rowEquals(row, skip)) continue;
+
+                        topK.offer(row, cs);
+                    }
+                }
+            }
+        }
+    }
+}
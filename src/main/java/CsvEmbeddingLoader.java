@@ -0,0 +1,330 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Parallel loader of glove CSVs: one word per line followed by its comma-separated elements. The file is split into
+ * byte ranges that start and end on line boundaries, every range is parsed straight from its bytes on the common
+ * ForkJoin pool, and the ranges are appended to the matrix in file order as they complete. The dimensions are taken
+ * from the first row, and every other row must have as many elements.
+ * <p>
+ * The file is streamed: only a few ranges per core are read or parsed at any time, and once the first range is in,
+ * the matrix is sized for the whole file from the rows per byte of that range, so that it isn't copied as it grows.
+ * The memory a load needs is therefore close to the size of the final matrix, whatever the size of the file. With
+ * -Dsemantic.offHeap=true the matrix is kept in direct buffers instead of the heap (see EmbeddingMatrix).
+ * <p>
+ * Elements are parsed without creating Strings: a number with at most seven significant digits and a decimal exponent
+ * of at most ten, which covers glove files, is one exactly rounded float multiplication or division. Anything else
+ * falls back to Float.parseFloat(), so the result is always the same as Float.parseFloat()'s.
+ */
+public class CsvEmbeddingLoader {
+    private static final int MIN_CHUNK_BYTES = 1 << 20;
+    private static final int MAX_CHUNK_BYTES = 1 << 26; //bounds the memory of a range in flight
+    private static final int SCAN_BYTES = 1 << 16; //read at a time while looking for the end of a line
+    private static final int RANGES_PER_CORE = 2; //ranges read or parsed at a time per core
+    private static final float[] POWERS_OF_TEN = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    private final List<String> listVocabulary;
+    private final EmbeddingMatrix matMatrix;
+
+    private CsvEmbeddingLoader(List<String> _vocabulary, EmbeddingMatrix _matrix) {
+        listVocabulary = _vocabulary;
+        matMatrix = _matrix;
+    }
+
+    /**
+     * Loads a CSV with ranges of about a quarter of the file per core, between 1 MB and 64 MB, off the heap if
+     * -Dsemantic.offHeap=true
+     * @param _csv the file
+     * @return the vocabulary and the matrix of the file
+     * @throws IOException if the file can't be read, has no rows, or has a malformed row
+     */
+    public static CsvEmbeddingLoader load(Path _csv) throws IOException {
+        try (FileChannel channel = FileChannel.open(_csv, StandardOpenOption.READ)) {
+            long target = channel.size() / (4L * ForkJoinPool.getCommonPoolParallelism());
+            return load(_csv, (int) Math.max(MIN_CHUNK_BYTES, Math.min(MAX_CHUNK_BYTES, target)),
+                    Boolean.getBoolean("semantic.offHeap"));
+        }
+    }
+
+    /**
+     * Loads a CSV into the heap
+     * @param _csv the file
+     * @param _chunkBytes size of the ranges parsed in parallel, before they are moved to the next line boundary
+     * @return the vocabulary and the matrix of the file
+     * @throws IOException if the file can't be read, has no rows, or has a malformed row
+     */
+    public static CsvEmbeddingLoader load(Path _csv, int _chunkBytes) throws IOException {
+        return load(_csv, _chunkBytes, false);
+    }
+
+    /**
+     * Loads a CSV
+     * @param _csv the file
+     * @param _chunkBytes size of the ranges parsed in parallel, before they are moved to the next line boundary
+     * @param _offHeap true to keep the matrix in direct buffers instead of the heap
+     * @return the vocabulary and the matrix of the file
+     * @throws IOException if the file can't be read, has no rows, or has a malformed row
+     */
+    public static CsvEmbeddingLoader load(Path _csv, int _chunkBytes, boolean _offHeap) throws IOException {
+        if (_chunkBytes < 1) throw new IllegalArgumentException("chunks must have at least one byte: " + _chunkBytes);
+
+        try (FileChannel channel = FileChannel.open(_csv, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int dims = firstRowDimensions(channel, size);
+            if (dims < 0) throw new IOException("no vectors found in " + _csv);
+            if (dims == 0) throw new IOException("the first row of " + _csv + " has no elements");
+
+            //range boundaries, each moved forward to the start of the next line
+            long start = Metrics.start();
+            List<Long> bounds = new ArrayList<>();
+            bounds.add(0L);
+            for (long at = _chunkBytes; at < size; at += _chunkBytes) {
+                long bound = nextLineStart(channel, at, size);
+                if (bound > bounds.get(bounds.size() - 1) && bound < size) bounds.add(bound);
+                at = Math.max(at, bound);
+            }
+            bounds.add(size);
+            Metrics.record(Metrics.Stage.LOAD_SPLIT, start);
+
+            start = Metrics.start();
+            int ranges = bounds.size() - 1;
+            int window = RANGES_PER_CORE * ForkJoinPool.getCommonPoolParallelism();
+            List<ForkJoinTask<Chunk>> tasks = new ArrayList<>();
+            for (int i = 0; i < Math.min(window, ranges); i++) tasks.add(submit(channel, bounds, i, dims));
+
+            //append the ranges in file order, letting go of every range once it is copied and starting the next one
+            List<String> vocabulary = new ArrayList<>();
+            EmbeddingMatrix matrix = new EmbeddingMatrix(dims, false, _offHeap);
+            try {
+                for (int i = 0; i < ranges; i++) {
+                    Chunk chunk = tasks.get(i).get();
+                    tasks.set(i, null);
+                    if (i + window < ranges) tasks.add(submit(channel, bounds, i + window, dims));
+
+                    int rows = chunk.listWords.size();
+                    if (vocabulary.isEmpty() && rows > 0 && i + 1 < ranges) {
+                        //a little more than the estimate, since trimming the spare rows is cheaper than growing
+                        long estimate = (long) Math.ceil((double) rows * size / bounds.get(i + 1) * 1.01);
+                        matrix.ensureCapacity((int) Math.min(Integer.MAX_VALUE - 8, estimate));
+                        vocabulary = new ArrayList<>((int) Math.min(Integer.MAX_VALUE - 8, estimate));
+                    }
+
+                    vocabulary.addAll(chunk.listWords);
+                    for (int row = 0; row < rows; row++) matrix.addRow(chunk.fltValues, row * dims);
+                }
+            } catch (ExecutionException e) {
+                tasks.forEach(task -> { if (task != null) task.cancel(false); });
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while loading " + _csv, e);
+            }
+
+            matrix.trimToSize();
+            Metrics.record(Metrics.Stage.LOAD_PARSE, start);
+            return new CsvEmbeddingLoader(vocabulary, matrix);
+        }
+    }
+
+    private static ForkJoinTask<Chunk> submit(FileChannel _channel, List<Long> _bounds, int _range, int _dims) {
+        long from = _bounds.get(_range), to = _bounds.get(_range + 1);
+        return ForkJoinPool.commonPool().submit(() -> Chunk.parse(_channel, from, to, _dims));
+    }
+
+    /**
+     * Parses a decimal number the way Float.parseFloat() does, without creating a String when it has at most seven
+     * significant digits and a decimal exponent of at most ten
+     * @param _bytes array holding the number as ASCII
+     * @param _from position of the first character
+     * @param _to position after the last character
+     * @return the number
+     * @throws NumberFormatException if the characters are not a number
+     */
+    public static float parseFloat(byte[] _bytes, int _from, int _to) {
+        int i = _from;
+        boolean negative = false;
+        if (i < _to && (_bytes[i] == '-' || _bytes[i] == '+')) negative = _bytes[i++] == '-';
+
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean exact = true; //false once a significant digit didn't fit in the mantissa
+
+        int start = i;
+        for (; i < _to && _bytes[i] >= '0' && _bytes[i] <= '9'; i++) {
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (_bytes[i] - '0');
+                if (mantissa != 0) digits++;
+            } else {
+                exponent++;
+                exact &= _bytes[i] == '0';
+            }
+        }
+        int integerDigits = i - start;
+
+        int fractionDigits = 0;
+        if (i < _to && _bytes[i] == '.') {
+            for (start = ++i; i < _to && _bytes[i] >= '0' && _bytes[i] <= '9'; i++) {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (_bytes[i] - '0');
+                    if (mantissa != 0) digits++;
+                    exponent--;
+                } else exact &= _bytes[i] == '0';
+            }
+            fractionDigits = i - start;
+        }
+
+        if (integerDigits + fractionDigits > 0 && i < _to && (_bytes[i] == 'e' || _bytes[i] == 'E')) {
+            int j = i + 1;
+            boolean negativeExponent = false;
+            if (j < _to && (_bytes[j] == '-' || _bytes[j] == '+')) negativeExponent = _bytes[j++] == '-';
+
+            int value = 0;
+            for (start = j; j < _to && _bytes[j] >= '0' && _bytes[j] <= '9'; j++)
+                value = Math.min(1000, value * 10 + (_bytes[j] - '0')); //far past the range of a float
+
+            if (j > start) {
+                exponent += negativeExponent ? -value : value;
+                i = j;
+            }
+        }
+
+        //the fast path: both operands are exact floats, so one operation rounds the result correctly
+        if (i == _to && integerDigits + fractionDigits > 0 && exact && mantissa < (1 << 24)
+                && Math.abs(exponent) < POWERS_OF_TEN.length) {
+            float value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+            return negative ? -value : value;
+        }
+
+        return Float.parseFloat(new String(_bytes, _from, _to - _from, StandardCharsets.ISO_8859_1));
+    }
+
+    public List<String> getVocabulary() { return listVocabulary; }
+
+    public EmbeddingMatrix getMatrix() { return matMatrix; }
+
+    /**
+     * Counts the elements of the first non-empty line
+     * @return the number of elements, or -1 if the file has no non-empty line
+     */
+    private static int firstRowDimensions(FileChannel _channel, long _size) throws IOException {
+        for (long position = 0; position < _size; ) {
+            long end = nextLineStart(_channel, position, _size);
+            byte[] line = read(_channel, position, end);
+
+            int length = line.length;
+            while (length > 0 && (line[length - 1] == '\n' || line[length - 1] == '\r')) length--;
+
+            if (length > 0) {
+                int commas = 0;
+                for (int i = 0; i < length; i++) if (line[i] == ',') commas++;
+                return commas;
+            }
+
+            position = end;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return the position after the first line feed at or after _position, or _size if there is none
+     */
+    private static long nextLineStart(FileChannel _channel, long _position, long _size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BYTES);
+
+        for (long position = _position; position < _size; position += buffer.limit()) {
+            buffer.clear();
+            if (_channel.read(buffer, position) < 0) break;
+            buffer.flip();
+
+            for (int i = 0; i < buffer.limit(); i++) if (buffer.get(i) == '\n') return position + i + 1;
+        }
+
+        return _size;
+    }
+
+    private static byte[] read(FileChannel _channel, long _from, long _to) throws IOException {
+        if (_to - _from > Integer.MAX_VALUE - 8) throw new IOException("a line or range is longer than 2 GB");
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) (_to - _from));
+        while (buffer.hasRemaining())
+            if (_channel.read(buffer, _from + buffer.position()) < 0) throw new IOException("the file got shorter");
+
+        return buffer.array();
+    }
+
+    /**
+     * The rows of one byte range of the file
+     */
+    private static class Chunk {
+        private final List<String> listWords = new ArrayList<>();
+        private float[] fltValues;
+
+        private static Chunk parse(FileChannel _channel, long _from, long _to, int _dims) throws IOException {
+            byte[] bytes = read(_channel, _from, _to);
+            Chunk chunk = new Chunk();
+            chunk.fltValues = new float[Math.max(_dims, bytes.length / 8)]; //at least a few bytes per element
+
+            int rows = 0;
+            for (int position = 0; position < bytes.length; ) {
+                int end = position;
+                while (end < bytes.length && bytes[end] != '\n') end++;
+
+                int lineEnd = end > position && bytes[end - 1] == '\r' ? end - 1 : end;
+                if (lineEnd > position) {
+                    if ((rows + 1) * (long) _dims > chunk.fltValues.length)
+                        chunk.fltValues = Arrays.copyOf(chunk.fltValues, Math.max((rows + 1) * _dims,
+                                chunk.fltValues.length + (chunk.fltValues.length >> 1)));
+
+                    chunk.parseRow(bytes, position, lineEnd, _dims, rows * _dims, _from);
+                    rows++;
+                }
+
+                position = end + 1;
+            }
+
+            return chunk;
+        }
+
+        private void parseRow(byte[] _bytes, int _from, int _to, int _dims, int _offset, long _fileOffset)
+                throws IOException {
+            int comma = _from;
+            while (comma < _to && _bytes[comma] != ',') comma++;
+            listWords.add(new String(_bytes, _from, comma - _from, StandardCharsets.UTF_8));
+
+            int start = comma + 1;
+            for (int i = 0; i < _dims; i++) {
+                if (start > _to) throw malformed(_fileOffset + _from, "has fewer than " + _dims + " elements");
+
+                int end = start;
+                while (end < _to && _bytes[end] != ',') end++;
+
+                try {
+                    fltValues[_offset + i] = parseFloat(_bytes, start, end);
+                } catch (NumberFormatException e) {
+                    throw malformed(_fileOffset + _from, "has an element that is not a number");
+                }
+
+                start = end + 1;
+            }
+
+            if (start <= _to) throw malformed(_fileOffset + _from, "has more than " + _dims + " elements");
+        }
+
+        private static IOException malformed(long _position, String _problem) {
+            return new IOException("the row at byte " + _position + " " + _problem);
+        }
+    }
+}
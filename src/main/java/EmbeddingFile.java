@@ -0,0 +1,326 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.stream.IntStream;
+
+/**
+ * Binary embedding file that is memory-mapped instead of parsed, so that loading it costs no more than reading the
+ * vocabulary: the vectors stay in the page cache, shared by every process that maps the same file, and are only paged
+ * in when they are first touched. convert() turns a glove CSV into this format once; open() maps it.
+ * <p>
+ * Everything is little-endian. The file starts with a 64-byte header: the magic "SEMB", the format version, the
+ * element type (0 for float32), the dimensions, the number of rows, flags (bit 0 when the rows are stored at unit
+ * length), followed by the offsets of the vector, norm and vocabulary blocks and the length of the vocabulary block.
+ * The vector block holds the rows back to back and starts right after the header, so it is 64-byte aligned. The norm
+ * block holds the magnitude of every row as a double, and the vocabulary block holds every word as its UTF-8 length
+ * followed by its bytes, in row order.
+ */
+public class EmbeddingFile {
+    public static final int VERSION = 1;
+    private static final int MAGIC = 0x424D4553; //"SEMB" read as a little-endian int
+    private static final int DTYPE_FLOAT32 = 0;
+    private static final int FLAG_NORMALIZED = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+    private final List<String> listVocabulary;
+    private final EmbeddingMatrix matMatrix;
+
+    private EmbeddingFile(List<String> _vocabulary, EmbeddingMatrix _matrix) {
+        listVocabulary = _vocabulary;
+        matMatrix = _matrix;
+    }
+
+    /**
+     * Converts a glove CSV into a binary embedding file: java EmbeddingFile input.csv output.bin
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("usage: java EmbeddingFile <input.csv> <output.bin>");
+            return;
+        }
+
+        convert(Path.of(args[0]), Path.of(args[1]));
+    }
+
+    /**
+     * Maps a binary embedding file. The vectors are not read: the matrix is a read-only view of the mapped file, which
+     * stays valid after this method has closed it. The norms and the vocabulary are decoded into the heap
+     * @param _path the file
+     * @return the vocabulary and the matrix of the file
+     * @throws IOException if the file can't be read or is not a valid embedding file of a supported version
+     */
+    public static EmbeddingFile open(Path _path) throws IOException {
+        try (FileChannel channel = FileChannel.open(_path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) throw new IOException("not an embedding file: " + _path);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) if (channel.read(header, header.position()) < 0) break;
+            header.flip();
+
+            if (header.getInt() != MAGIC) throw new IOException("not an embedding file: " + _path);
+
+            int version = header.getInt();
+            if (version < 1 || version > VERSION)
+                throw new IOException("unsupported embedding file version " + version);
+
+            int dtype = header.getInt();
+            int dims = header.getInt();
+            int count = header.getInt();
+            int flags = header.getInt();
+            long vectorsOffset = header.getLong();
+            long normsOffset = header.getLong();
+            long vocabularyOffset = header.getLong();
+            long vocabularyBytes = header.getLong();
+
+            if (dtype != DTYPE_FLOAT32) throw new IOException("unsupported element type " + dtype);
+            if (dims < 1 || count < 0) throw new IOException("invalid shape " + count + " x " + dims);
+            if (vectorsOffset < HEADER_BYTES || vectorsOffset + (long) count * dims * Float.BYTES > normsOffset
+                    || normsOffset + (long) count * Double.BYTES > vocabularyOffset
+                    || vocabularyOffset + vocabularyBytes > size)
+                throw new IOException("embedding file is truncated: " + _path);
+
+            //one mapping per chunk of the matrix, each well under the 2 GB a single mapping can cover
+            int rowsPerChunk = EmbeddingMatrix.getRowsPerChunk(dims);
+            ByteBuffer[] chunks = new ByteBuffer[(int) (((long) count + rowsPerChunk - 1) / rowsPerChunk)];
+            for (int i = 0; i < chunks.length; i++) {
+                long rows = Math.min(rowsPerChunk, count - (long) i * rowsPerChunk);
+                long offset = vectorsOffset + (long) i * rowsPerChunk * dims * Float.BYTES;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, rows * dims * Float.BYTES);
+            }
+
+            double[] norms = new double[count];
+            channel.map(FileChannel.MapMode.READ_ONLY, normsOffset, (long) count * Double.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(norms);
+
+            ByteBuffer words = channel.map(FileChannel.MapMode.READ_ONLY, vocabularyOffset, vocabularyBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            List<String> vocabulary = new ArrayList<>(count);
+            byte[] bytes = new byte[64];
+            for (int i = 0; i < count; i++) {
+                if (words.remaining() < Integer.BYTES) throw new IOException("embedding file is truncated: " + _path);
+
+                int length = words.getInt();
+                if (length < 0 || length > words.remaining())
+                    throw new IOException("embedding file is truncated: " + _path);
+                if (length > bytes.length) bytes = new byte[Math.max(length, bytes.length * 2)];
+
+                words.get(bytes, 0, length);
+                vocabulary.add(new String(bytes, 0, length, StandardCharsets.UTF_8));
+            }
+
+            boolean normalized = (flags & FLAG_NORMALIZED) != 0;
+            return new EmbeddingFile(vocabulary, EmbeddingMatrix.wrap(dims, normalized, chunks, count, norms));
+        }
+    }
+
+    /**
+     * Writes a vocabulary and its matrix as a binary embedding file. The file is written next to its destination and
+     * then moved over it, so a reader never maps a half-written file
+     * @param _path the file to write
+     * @param _vocabulary the word of every row of the matrix
+     * @param _matrix the vectors
+     * @throws IOException if the file can't be written
+     */
+    public static void write(Path _path, List<String> _vocabulary, EmbeddingMatrix _matrix) throws IOException {
+        write(_path, _vocabulary, _matrix, IntStream.range(0, _matrix.getRowCount()).toArray());
+    }
+
+    /**
+     * Same as write(_path, _vocabulary, _matrix) for some of the rows of the matrix, which become the rows of the file
+     * in the given order
+     * @param _path the file to write
+     * @param _vocabulary the word of every written row
+     * @param _matrix the vectors
+     * @param _rows the rows to write
+     * @throws IOException if the file can't be written
+     */
+    public static void write(Path _path, List<String> _vocabulary, EmbeddingMatrix _matrix, int[] _rows)
+            throws IOException {
+        int count = _rows.length;
+        if (_vocabulary.size() != count)
+            throw new IllegalArgumentException(_vocabulary.size() + " words for " + count + " rows");
+
+        int dims = _matrix.getDimensions();
+        double[] norms = new double[count];
+        float[] row = new float[dims];
+
+        Path temporary = temporaryFile(_path);
+        try (Output myOutput = new Output(temporary)) {
+            myOutput.seek(HEADER_BYTES);
+            for (int i = 0; i < count; i++) {
+                _matrix.copyRow(_rows[i], row, 0);
+                for (float value : row) myOutput.putFloat(value);
+                norms[i] = _matrix.norm(_rows[i]);
+            }
+
+            finish(myOutput, dims, count, _matrix.isNormalized() ? FLAG_NORMALIZED : 0, norms, _vocabulary);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+
+        Files.move(temporary, _path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Converts a glove CSV, one word per line followed by its comma-separated elements, into a binary embedding file.
+     * The vectors are streamed to the file as they are parsed, so only the vocabulary and the norms are held in memory
+     * @param _csv the CSV to read
+     * @param _path the binary file to write
+     * @throws IOException if either file can't be accessed, or the CSV is empty or has rows of different lengths
+     */
+    public static void convert(Path _csv, Path _path) throws IOException {
+        List<String> vocabulary = new ArrayList<>();
+        double[] norms = new double[1024];
+        int dims = -1;
+
+        Path temporary = temporaryFile(_path);
+        try (BufferedReader myReader = Files.newBufferedReader(_csv); Output myOutput = new Output(temporary)) {
+            myOutput.seek(HEADER_BYTES);
+
+            String line;
+            while ((line = myReader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+
+                StringTokenizer tokenizer = new StringTokenizer(line, ",");
+                String word = tokenizer.nextToken();
+
+                if (dims < 0) dims = tokenizer.countTokens();
+                if (dims == 0 || tokenizer.countTokens() != dims)
+                    throw new IOException("line " + (vocabulary.size() + 1) + " doesn't have " + dims + " elements");
+
+                double sum = 0;
+                for (int i = 0; i < dims; i++) {
+                    float value = Float.parseFloat(tokenizer.nextToken());
+                    sum += (double) value * value;
+                    myOutput.putFloat(value);
+                }
+
+                if (vocabulary.size() == norms.length) norms = Arrays.copyOf(norms, norms.length * 2);
+                norms[vocabulary.size()] = Math.sqrt(sum);
+                vocabulary.add(word);
+            }
+
+            if (dims < 0) throw new IOException("no vectors found in " + _csv);
+            finish(myOutput, dims, vocabulary.size(), 0, norms, vocabulary);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+
+        Files.move(temporary, _path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public List<String> getVocabulary() { return listVocabulary; }
+
+    public EmbeddingMatrix getMatrix() { return matMatrix; }
+
+    /**
+     * Writes the norm and vocabulary blocks after the vectors, then goes back to fill in the header
+     */
+    private static void finish(Output _output, int _dims, int _count, int _flags, double[] _norms,
+                               List<String> _vocabulary) throws IOException {
+        long vectorsOffset = HEADER_BYTES;
+        long normsOffset = vectorsOffset + (long) _count * _dims * Float.BYTES;
+        normsOffset = (normsOffset + Double.BYTES - 1) & -Double.BYTES; //keep the doubles aligned
+
+        _output.seek(normsOffset);
+        for (int i = 0; i < _count; i++) _output.putDouble(_norms[i]);
+
+        long vocabularyOffset = _output.position();
+        for (String word : _vocabulary) {
+            byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+            _output.putInt(bytes.length);
+            _output.put(bytes);
+        }
+        long vocabularyBytes = _output.position() - vocabularyOffset;
+
+        _output.seek(0);
+        _output.putInt(MAGIC);
+        _output.putInt(VERSION);
+        _output.putInt(DTYPE_FLOAT32);
+        _output.putInt(_dims);
+        _output.putInt(_count);
+        _output.putInt(_flags);
+        _output.putLong(vectorsOffset);
+        _output.putLong(normsOffset);
+        _output.putLong(vocabularyOffset);
+        _output.putLong(vocabularyBytes);
+        _output.flush();
+    }
+
+    private static Path temporaryFile(Path _path) {
+        return _path.resolveSibling(_path.getFileName() + ".tmp");
+    }
+
+    /**
+     * Buffered little-endian writer over a file channel that can go back to an earlier position
+     */
+    private static class Output implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private long lngPosition = 0; //file position of the start of the buffer
+
+        private Output(Path _path) throws IOException {
+            channel = FileChannel.open(_path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+        }
+
+        private long position() { return lngPosition + buffer.position(); }
+
+        private void seek(long _position) throws IOException {
+            flush();
+            lngPosition = _position;
+        }
+
+        private void putInt(int _value) throws IOException { ensure(Integer.BYTES).putInt(_value); }
+
+        private void putLong(long _value) throws IOException { ensure(Long.BYTES).putLong(_value); }
+
+        private void putFloat(float _value) throws IOException { ensure(Float.BYTES).putFloat(_value); }
+
+        private void putDouble(double _value) throws IOException { ensure(Double.BYTES).putDouble(_value); }
+
+        private void put(byte[] _bytes) throws IOException {
+            for (int from = 0; from < _bytes.length; ) {
+                int length = Math.min(_bytes.length - from, ensure(1).remaining());
+                buffer.put(_bytes, from, length);
+                from += length;
+            }
+        }
+
+        private ByteBuffer ensure(int _bytes) throws IOException {
+            if (buffer.remaining() < _bytes) flush();
+            return buffer;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) lngPosition += channel.write(buffer, lngPosition);
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,700 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Row-major float32 storage for the word vectors. Every word is identified by an int row id and its elements live in
+ * one contiguous stretch of a float array, so scanning the rows in order walks memory sequentially. The rows are split
+ * over several arrays once the matrix would pass the maximum array length, with a fixed power-of-two number of rows
+ * per array so that a row never straddles two of them.
+ * <p>
+ * The magnitude of every row is computed once when the row is added, so a cosine similarity against a unit-length
+ * query is a single dot product. A normalized matrix goes one step further and stores every row scaled to unit length,
+ * in which case the cosine similarity is the dot product itself.
+ * <p>
+ * A matrix can also be a read-only view of little-endian float32 rows held in byte buffers, typically the memory-mapped
+ * vector block of an EmbeddingFile. The rows then live in the page cache instead of the heap; see wrap(). A matrix
+ * created off-heap keeps its rows in direct buffers of the same layout, so that a model larger than the heap can still
+ * be loaded and appended to; the direct memory it may use is capped by -XX:MaxDirectMemorySize. Either kind can be
+ * extended with heap rows of its own without being copied or changed; see extend().
+ * <p>
+ * One thread may append rows while others read the rows that were already there: the backing arrays are replaced
+ * rather than changed in place, and a new row is only counted once it is complete.
+ */
+public class EmbeddingMatrix {
+    private static final int MAX_CHUNK_FLOATS = 1 << 28; //1 GB per backing array
+    private static final int INITIAL_ROWS = 1024;
+
+    private final int intDimensions;
+    private final boolean boolNormalized; //whether rows are stored scaled to unit length
+    private final int intChunkShift; //log2 of the number of rows per chunk
+    private final int intChunkMask;
+    private volatile float[][] fltChunks = new float[0][];
+    private final boolean boolOffHeap; //whether the rows are in bufChunks rather than fltChunks
+    private volatile ByteBuffer[] bufChunks = null; //the chunks of an off-heap or read-only matrix
+    private boolean boolReadOnly = false;
+    private ThreadLocal<float[]> threadRow = null; //scratch row of a matrix held in buffers
+    private volatile double[] doubNorms = new double[0]; //magnitude of every row as it was added
+    private volatile float[] fltScales = new float[0]; //turns a stored row's dot product with a unit query to a cosine
+    private volatile int intRows;
+    private final EmbeddingMatrix matBase; //the matrix extended, whose first intBaseRows rows come first; or null
+    private final int intBaseRows; //rows read from matBase, so the rows stored here start at this row id
+
+    public EmbeddingMatrix(int _dimensions) { this(_dimensions, false); }
+
+    /**
+     * @param _dimensions number of elements in every row
+     * @param _normalized true to store every row scaled to unit length. getRow() still returns the rows at their
+     *                    original scale, up to float rounding
+     */
+    public EmbeddingMatrix(int _dimensions, boolean _normalized) { this(_dimensions, _normalized, false); }
+
+    /**
+     * @param _dimensions number of elements in every row
+     * @param _normalized true to store every row scaled to unit length
+     * @param _offHeap true to keep the rows in direct buffers instead of float arrays
+     */
+    public EmbeddingMatrix(int _dimensions, boolean _normalized, boolean _offHeap) {
+        this(_dimensions, _normalized, _offHeap, null, 0);
+    }
+
+    private EmbeddingMatrix(int _dimensions, boolean _normalized, boolean _offHeap, EmbeddingMatrix _base,
+                            int _baseRows) {
+        if (_dimensions <= 0) throw new IllegalArgumentException("dimensions must be positive: " + _dimensions);
+
+        intDimensions = _dimensions;
+        boolNormalized = _normalized;
+        intChunkShift = 31 - Integer.numberOfLeadingZeros(getRowsPerChunk(_dimensions));
+        intChunkMask = (1 << intChunkShift) - 1;
+        boolOffHeap = _offHeap;
+        matBase = _base;
+        intBaseRows = _baseRows;
+        intRows = _baseRows;
+
+        if (_offHeap) bufChunks = new ByteBuffer[0];
+        if (_offHeap || _base != null) threadRow = ThreadLocal.withInitial(() -> new float[_dimensions]);
+    }
+
+    /**
+     * Returns how many rows a matrix of the given dimensions keeps per backing array or buffer. Every chunk but the
+     * last holds exactly this many rows
+     * @param _dimensions number of elements in every row
+     * @return the rows per chunk, a power of two
+     */
+    public static int getRowsPerChunk(int _dimensions) {
+        return Integer.highestOneBit(Math.max(1, MAX_CHUNK_FLOATS / _dimensions));
+    }
+
+    /**
+     * Creates a read-only matrix over rows that are already stored in buffers, without copying them. Chunk i must hold
+     * the rows from i * getRowsPerChunk(_dimensions) on, back to back, as little-endian float32
+     * @param _dimensions number of elements in every row
+     * @param _normalized whether the rows are stored at unit length
+     * @param _chunks the buffers holding the rows, starting at position 0
+     * @param _rows number of rows
+     * @param _norms magnitude of every row at its original scale
+     * @return the matrix
+     */
+    public static EmbeddingMatrix wrap(int _dimensions, boolean _normalized, ByteBuffer[] _chunks, int _rows,
+                                       double[] _norms) {
+        EmbeddingMatrix matrix = new EmbeddingMatrix(_dimensions, _normalized, true);
+        long rowsPerChunk = matrix.intChunkMask + 1;
+
+        if (_norms.length < _rows)
+            throw new IllegalArgumentException("expected " + _rows + " norms but got " + _norms.length);
+        if (_chunks.length != (_rows + rowsPerChunk - 1) / rowsPerChunk)
+            throw new IllegalArgumentException(_rows + " rows don't fit in " + _chunks.length + " chunks");
+
+        ByteBuffer[] chunks = new ByteBuffer[_chunks.length];
+        for (int i = 0; i < _chunks.length; i++) {
+            long rows = Math.min(rowsPerChunk, _rows - i * rowsPerChunk);
+            if (_chunks[i].capacity() < rows * _dimensions * Float.BYTES)
+                throw new IllegalArgumentException("chunk " + i + " is too small for " + rows + " rows");
+
+            chunks[i] = _chunks[i].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        matrix.bufChunks = chunks;
+        matrix.boolReadOnly = true;
+
+        matrix.doubNorms = Arrays.copyOf(_norms, _rows);
+        matrix.fltScales = new float[_rows];
+        for (int row = 0; row < _rows; row++) {
+            if (_norms[row] == 0) matrix.fltScales[row] = 0;
+            else matrix.fltScales[row] = _normalized ? 1 : (float) (1 / _norms[row]);
+        }
+        matrix.intRows = _rows;
+
+        return matrix;
+    }
+
+    /**
+     * Returns a matrix holding the first _rows rows of this one followed by the rows added to it, which are kept in
+     * heap arrays of its own. The rows of this matrix are read in place rather than copied, so that a read-only or
+     * memory-mapped matrix can take new rows, and this matrix is never changed by them; a model shared with other
+     * readers can be appended to this way
+     * @param _rows rows of this matrix the new one starts with, at most getRowCount()
+     * @return the writable matrix, with _rows rows
+     */
+    public EmbeddingMatrix extend(int _rows) {
+        if (_rows < 0 || _rows > intRows) throw new IndexOutOfBoundsException(_rows + " rows of " + intRows);
+        return new EmbeddingMatrix(intDimensions, boolNormalized, false, this, _rows);
+    }
+
+    /**
+     * Copies the given rows into a new matrix. If the list is itself the view returned by asList(), the matrix behind
+     * it is returned instead of a copy
+     * @param _rows rows of equal length
+     * @return a matrix holding the rows in the same order
+     */
+    public static EmbeddingMatrix of(List<double[]> _rows) { return of(_rows, false); }
+
+    /**
+     * Copies the given rows into a new matrix, optionally storing them at unit length. If the list is itself the view
+     * returned by asList(), the matrix behind it is returned instead of a copy
+     * @param _rows rows of equal length
+     * @param _normalized whether a new matrix stores its rows at unit length
+     * @return a matrix holding the rows in the same order
+     */
+    public static EmbeddingMatrix of(List<double[]> _rows, boolean _normalized) {
+        if (_rows instanceof RowList) return ((RowList) _rows).getMatrix();
+        if (_rows.isEmpty()) throw new IllegalArgumentException("cannot infer the dimensions of an empty list");
+
+        EmbeddingMatrix matrix = new EmbeddingMatrix(_rows.get(0).length, _normalized);
+        for (double[] row : _rows) matrix.addRow(row);
+        matrix.trimToSize();
+
+        return matrix;
+    }
+
+    /**
+     * Appends a row to the matrix, narrowing the elements to float
+     * @param _values elements of the row; must have exactly getDimensions() elements
+     * @return the row id of the new row
+     */
+    public int addRow(double[] _values) {
+        checkWritable();
+        checkLength(_values.length);
+
+        int row = reserveRow();
+        int offset = (row & intChunkMask) * intDimensions;
+
+        if (boolOffHeap) {
+            ByteBuffer chunk = bufChunks[row >>> intChunkShift];
+            for (int i = 0; i < intDimensions; i++) chunk.putFloat((offset + i) * Float.BYTES, (float) _values[i]);
+            completeRow(row, chunk, offset);
+        } else {
+            float[] chunk = fltChunks[row >>> intChunkShift];
+            for (int i = 0; i < intDimensions; i++) chunk[offset + i] = (float) _values[i];
+            completeRow(row, chunk, offset);
+        }
+
+        intRows = intBaseRows + row + 1;
+        return intBaseRows + row;
+    }
+
+    /**
+     * Appends a row to the matrix
+     * @param _values array holding the elements of the row
+     * @param _offset position of the first element in _values
+     * @return the row id of the new row
+     */
+    public int addRow(float[] _values, int _offset) {
+        checkWritable();
+        int row = reserveRow();
+        int offset = (row & intChunkMask) * intDimensions;
+
+        if (boolOffHeap) {
+            ByteBuffer chunk = bufChunks[row >>> intChunkShift];
+            for (int i = 0; i < intDimensions; i++) chunk.putFloat((offset + i) * Float.BYTES, _values[_offset + i]);
+            completeRow(row, chunk, offset);
+        } else {
+            float[] chunk = fltChunks[row >>> intChunkShift];
+            System.arraycopy(_values, _offset, chunk, offset, intDimensions);
+            completeRow(row, chunk, offset);
+        }
+
+        intRows = intBaseRows + row + 1;
+        return intBaseRows + row;
+    }
+
+    /**
+     * Records the magnitude of a freshly written row, and scales the row to unit length if the matrix is normalized
+     */
+    private void completeRow(int _row, float[] _chunk, int _offset) {
+        double sum = 0;
+        for (int i = 0; i < intDimensions; i++) sum += (double) _chunk[_offset + i] * _chunk[_offset + i];
+
+        double norm = Math.sqrt(sum);
+        doubNorms[_row] = norm;
+        if (norm == 0) fltScales[_row] = 0;
+        else fltScales[_row] = boolNormalized ? 1 : (float) (1 / norm);
+
+        if (boolNormalized && norm > 0)
+            for (int i = 0; i < intDimensions; i++) _chunk[_offset + i] = (float) (_chunk[_offset + i] / norm);
+    }
+
+    /**
+     * Same as completeRow() for a row of an off-heap chunk
+     */
+    private void completeRow(int _row, ByteBuffer _chunk, int _offset) {
+        double sum = 0;
+        for (int i = 0; i < intDimensions; i++) {
+            float value = _chunk.getFloat((_offset + i) * Float.BYTES);
+            sum += (double) value * value;
+        }
+
+        double norm = Math.sqrt(sum);
+        doubNorms[_row] = norm;
+        if (norm == 0) fltScales[_row] = 0;
+        else fltScales[_row] = boolNormalized ? 1 : (float) (1 / norm);
+
+        if (boolNormalized && norm > 0) {
+            for (int i = 0; i < intDimensions; i++) {
+                int at = (_offset + i) * Float.BYTES;
+                _chunk.putFloat(at, (float) (_chunk.getFloat(at) / norm));
+            }
+        }
+    }
+
+    public int getDimensions() { return intDimensions; }
+
+    public int getRowCount() { return intRows; }
+
+    public boolean isNormalized() { return boolNormalized; }
+
+    /**
+     * @return true if the matrix is a view of buffers created by wrap(), which can't take new rows
+     */
+    public boolean isReadOnly() { return boolReadOnly; }
+
+    /**
+     * @return true if the rows are held outside the heap, in direct or mapped buffers
+     */
+    public boolean isOffHeap() { return boolOffHeap; }
+
+    public float get(int _row, int _column) {
+        checkRow(_row);
+        if (_row < intBaseRows) return matBase.get(_row, _column);
+        _row -= intBaseRows;
+
+        float value = element(_row, _column);
+        return boolNormalized ? (float) (value * doubNorms[_row]) : value;
+    }
+
+    /**
+     * Copies the elements of a row into the destination array as they are stored, which is at unit length if the matrix
+     * is normalized
+     * @param _row row id
+     * @param _dst destination array
+     * @param _dstOffset position in _dst to copy the first element to
+     */
+    public void copyRow(int _row, float[] _dst, int _dstOffset) {
+        checkRow(_row);
+        if (_row < intBaseRows) {
+            matBase.copyRow(_row, _dst, _dstOffset);
+            return;
+        }
+        _row -= intBaseRows;
+
+        if (boolOffHeap) {
+            for (int i = 0; i < intDimensions; i++) _dst[_dstOffset + i] = element(_row, i);
+            return;
+        }
+
+        System.arraycopy(fltChunks[_row >>> intChunkShift], (_row & intChunkMask) * intDimensions, _dst, _dstOffset,
+                intDimensions);
+    }
+
+    /**
+     * Returns a copy of the row widened to double precision
+     * @param _row row id
+     * @return the elements of the row
+     */
+    public double[] getRow(int _row) {
+        double[] result = new double[intDimensions];
+        copyRow(_row, result, 0);
+
+        return result;
+    }
+
+    /**
+     * Copies the row widened to double precision into the destination array, for example Vector.scratch(), with the
+     * values getRow() returns
+     * @param _row row id
+     * @param _dst destination array
+     * @param _dstOffset position in _dst to copy the first element to
+     */
+    public void copyRow(int _row, double[] _dst, int _dstOffset) {
+        checkRow(_row);
+        if (_row < intBaseRows) {
+            matBase.copyRow(_row, _dst, _dstOffset);
+            return;
+        }
+        _row -= intBaseRows;
+
+        double scale = boolNormalized ? doubNorms[_row] : 1;
+        if (boolOffHeap) {
+            for (int i = 0; i < intDimensions; i++) _dst[_dstOffset + i] = element(_row, i) * scale;
+            return;
+        }
+
+        float[] chunk = fltChunks[_row >>> intChunkShift];
+        int offset = (_row & intChunkMask) * intDimensions;
+        for (int i = 0; i < intDimensions; i++) _dst[_dstOffset + i] = chunk[offset + i] * scale;
+    }
+
+    public Vector getVector(int _row) { return new Vector(getRow(_row)); }
+
+    /**
+     * Calculates the dot product of a row, as it is stored, with the given query, accumulating in double precision
+     * @param _row row id
+     * @param _query query with getDimensions() elements
+     * @return the dot product
+     */
+    public double dot(int _row, double[] _query) {
+        if (_row < intBaseRows) return matBase.dot(_row, _query);
+        _row -= intBaseRows;
+        double sum = 0;
+
+        if (boolOffHeap) {
+            for (int i = 0; i < intDimensions; i++) sum += element(_row, i) * _query[i];
+            return sum;
+        }
+
+        float[] chunk = fltChunks[_row >>> intChunkShift];
+        int offset = (_row & intChunkMask) * intDimensions;
+        for (int i = 0; i < intDimensions; i++) sum += chunk[offset + i] * _query[i];
+
+        return sum;
+    }
+
+    /**
+     * Returns the magnitude ||v|| of a row, computed when the row was added
+     * @param _row row id
+     * @return magnitude of the row
+     */
+    public double norm(int _row) { return _row < intBaseRows ? matBase.norm(_row) : doubNorms[_row - intBaseRows]; }
+
+    /**
+     * Calculates the cosine similarity between a row and a query that has already been scaled to unit length, which
+     * takes a single pass over the row
+     * @param _row row id
+     * @param _unitQuery query with getDimensions() elements and a magnitude of 1
+     * @return the cosine similarity, or 0 for a row of zeros
+     */
+    public double cosine(int _row, double[] _unitQuery) {
+        double dot = dot(_row, _unitQuery);
+
+        if (boolNormalized) return dot;
+        double norm = norm(_row);
+        return norm == 0 ? 0 : dot / norm;
+    }
+
+    /**
+     * Calculates the cosine similarity between a row and a unit-length float query with the given kernel. This is the
+     * scan path: a single float dot product per row, scaled by the inverse magnitude recorded when the row was added
+     * @param _row row id
+     * @param _unitQuery query with getDimensions() elements and a magnitude of 1
+     * @param _kernel kernel computing the dot product
+     * @return the cosine similarity in float precision, or 0 for a row of zeros
+     */
+    public float cosine(int _row, float[] _unitQuery, SimilarityKernel _kernel) {
+        if (_row < intBaseRows) return matBase.cosine(_row, _unitQuery, _kernel);
+        _row -= intBaseRows;
+        int offset = (_row & intChunkMask) * intDimensions;
+
+        float dot = boolOffHeap
+                ? _kernel.dot(bufChunks[_row >>> intChunkShift], offset, _unitQuery, 0, intDimensions)
+                : _kernel.dot(fltChunks[_row >>> intChunkShift], offset, _unitQuery, 0, intDimensions);
+
+        return dot * fltScales[_row];
+    }
+
+    /**
+     * Calculates the cosine similarity between two rows with the given kernel
+     * @param _row1 first row id
+     * @param _row2 second row id
+     * @param _kernel kernel computing the dot product
+     * @return the cosine similarity in float precision
+     */
+    public float cosineRows(int _row1, int _row2, SimilarityKernel _kernel) {
+        if (_row1 < intBaseRows && _row2 < intBaseRows) return matBase.cosineRows(_row1, _row2, _kernel);
+        if (_row1 < intBaseRows || _row2 < intBaseRows) { //one row is in the base, so it is scored as a query
+            float[] row2 = threadRow.get();
+            copyUnitRow(_row2, row2, 0);
+
+            return cosine(_row1, row2, _kernel);
+        }
+        _row1 -= intBaseRows;
+        _row2 -= intBaseRows;
+
+        if (boolOffHeap) { //two buffers can't be multiplied directly, so one row is copied out first
+            float[] row2 = threadRow.get();
+            copyRow(_row2, row2, 0);
+
+            return _kernel.dot(bufChunks[_row1 >>> intChunkShift], (_row1 & intChunkMask) * intDimensions, row2, 0,
+                    intDimensions) * fltScales[_row1] * fltScales[_row2];
+        }
+
+        return _kernel.dot(fltChunks[_row1 >>> intChunkShift], (_row1 & intChunkMask) * intDimensions,
+                fltChunks[_row2 >>> intChunkShift], (_row2 & intChunkMask) * intDimensions, intDimensions)
+                * fltScales[_row1] * fltScales[_row2];
+    }
+
+    /**
+     * Copies a row scaled to unit length into the destination array, ready to be used as a query
+     * @param _row row id
+     * @param _dst destination array
+     * @param _dstOffset position in _dst to copy the first element to
+     */
+    public void copyUnitRow(int _row, float[] _dst, int _dstOffset) {
+        if (_row < intBaseRows) {
+            matBase.copyUnitRow(_row, _dst, _dstOffset);
+            return;
+        }
+        copyRow(_row, _dst, _dstOffset);
+
+        float scale = fltScales[_row - intBaseRows];
+        for (int i = 0; i < intDimensions; i++) _dst[_dstOffset + i] *= scale;
+    }
+
+    /**
+     * Calculates the cosine similarities between a row and four unit-length queries packed back to back, reading the
+     * row once for all of them
+     * @param _row row id
+     * @param _queries array holding the four queries, each of getDimensions() elements
+     * @param _queryOffset position of the first element of the first query
+     * @param _kernel kernel computing the dot products
+     * @param _out receives the four cosine similarities
+     */
+    public void cosine4(int _row, float[] _queries, int _queryOffset, SimilarityKernel _kernel, float[] _out) {
+        if (_row < intBaseRows) {
+            matBase.cosine4(_row, _queries, _queryOffset, _kernel, _out);
+            return;
+        }
+        _row -= intBaseRows;
+        int offset = (_row & intChunkMask) * intDimensions;
+
+        if (boolOffHeap)
+            _kernel.dot4(bufChunks[_row >>> intChunkShift], offset, _queries, _queryOffset, intDimensions, _out);
+        else _kernel.dot4(fltChunks[_row >>> intChunkShift], offset, _queries, _queryOffset, intDimensions, _out);
+
+        float scale = fltScales[_row];
+        for (int i = 0; i < 4; i++) _out[i] *= scale;
+    }
+
+    /**
+     * Checks whether a row holds exactly the given values once they are narrowed to float, which is how they would
+     * have been stored. Rows of a normalized matrix are compared within float rounding instead
+     * @param _row row id
+     * @param _values values to compare to
+     * @return true if every element is equal
+     */
+    public boolean rowEquals(int _row, double[] _values) {
+        if (_values.length != intDimensions) return false;
+        if (_row < intBaseRows) return matBase.rowEquals(_row, _values);
+        _row -= intBaseRows;
+
+        //a normalized row only comes back to its original scale up to float rounding, so compare within that
+        if (boolNormalized) {
+            for (int i = 0; i < intDimensions; i++) {
+                double difference = Math.abs(element(_row, i) * doubNorms[_row] - _values[i]);
+                if (difference > 1e-6 * Math.max(1, Math.abs(_values[i]))) return false;
+            }
+        } else {
+            for (int i = 0; i < intDimensions; i++) if (element(_row, i) != (float) _values[i]) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Releases the spare capacity of the last backing array once no more rows are going to be added
+     */
+    public void trimToSize() {
+        if (boolReadOnly) return;
+
+        int rows = intRows - intBaseRows; //the rows stored here
+        if (boolOffHeap && bufChunks.length > 0) {
+            int last = bufChunks.length - 1;
+            int used = (rows - (last << intChunkShift)) * intDimensions;
+            if (bufChunks[last].capacity() != used * Float.BYTES) {
+                ByteBuffer[] chunks = bufChunks.clone();
+                chunks[last] = copyOf(bufChunks[last], used);
+                bufChunks = chunks;
+            }
+        } else if (!boolOffHeap && fltChunks.length > 0) {
+            int last = fltChunks.length - 1;
+            int used = (rows - (last << intChunkShift)) * intDimensions;
+            if (fltChunks[last].length != used) {
+                float[][] chunks = fltChunks.clone();
+                chunks[last] = Arrays.copyOf(fltChunks[last], used);
+                fltChunks = chunks;
+            }
+        }
+        if (doubNorms.length != rows) doubNorms = Arrays.copyOf(doubNorms, rows);
+        if (fltScales.length != rows) fltScales = Arrays.copyOf(fltScales, rows);
+    }
+
+    /**
+     * Reserves room for the given total number of rows, so that a matrix whose size is known or estimated up front
+     * doesn't copy its last chunk every time it grows. Chunks are only allocated up to the chunk holding the last
+     * reserved row, and trimToSize() gives back what isn't used
+     * @param _rows rows the matrix should hold without growing
+     */
+    public void ensureCapacity(int _rows) {
+        checkWritable();
+        if (_rows <= intRows) return;
+        int rows = intRows - intBaseRows; //the rows stored here
+        _rows -= intBaseRows; //and the rows to make room for
+
+        int lastChunk = (_rows - 1) >>> intChunkShift;
+        int rowsPerChunk = intChunkMask + 1;
+        for (int chunk = rows >>> intChunkShift; chunk <= lastChunk; chunk++) {
+            int floats = (chunk < lastChunk ? rowsPerChunk : ((_rows - 1) & intChunkMask) + 1) * intDimensions;
+            if (boolOffHeap) {
+                ByteBuffer[] chunks = Arrays.copyOf(bufChunks, Math.max(bufChunks.length, chunk + 1));
+                if (chunk == bufChunks.length) chunks[chunk] = allocate(floats);
+                else if (chunks[chunk].capacity() < floats * Float.BYTES) chunks[chunk] = copyOf(chunks[chunk], floats);
+                bufChunks = chunks;
+            } else {
+                float[][] chunks = Arrays.copyOf(fltChunks, Math.max(fltChunks.length, chunk + 1));
+                if (chunk == fltChunks.length) chunks[chunk] = new float[floats];
+                else if (chunks[chunk].length < floats) chunks[chunk] = Arrays.copyOf(chunks[chunk], floats);
+                fltChunks = chunks;
+            }
+        }
+
+        if (doubNorms.length < _rows) {
+            doubNorms = Arrays.copyOf(doubNorms, _rows);
+            fltScales = Arrays.copyOf(fltScales, _rows);
+        }
+    }
+
+    /**
+     * Returns a read-only list view of the rows where every get() widens the row into a new double array. No per-row
+     * arrays are kept, so the view costs nothing until it is read
+     * @return list view of the rows
+     */
+    public List<double[]> asList() { return new RowList(this, -1); }
+
+    /**
+     * Same as asList() for the first _rows rows only, so that rows added afterwards don't show up in the view
+     * @param _rows number of rows in the view, at most getRowCount()
+     * @return list view of the first _rows rows
+     */
+    public List<double[]> asList(int _rows) {
+        if (_rows < 0 || _rows > intRows) throw new IndexOutOfBoundsException(_rows + " rows of " + intRows);
+        return new RowList(this, _rows);
+    }
+
+    /**
+     * Makes room for the next row stored here
+     * @return its position among the rows stored here, which is its row id less intBaseRows
+     */
+    private int reserveRow() {
+        int row = intRows - intBaseRows;
+        int chunkIndex = row >>> intChunkShift;
+        int needed = ((row & intChunkMask) + 1) * intDimensions;
+
+        //a grown array is filled before it is published, so that readers never see it half copied
+        if (boolOffHeap) {
+            ByteBuffer[] buffers = bufChunks;
+            if (chunkIndex == buffers.length) {
+                ByteBuffer[] chunks = Arrays.copyOf(buffers, chunkIndex + 1);
+                chunks[chunkIndex] = allocate(Math.min(INITIAL_ROWS, intChunkMask + 1) * intDimensions);
+                bufChunks = chunks;
+            } else if (buffers[chunkIndex].capacity() < needed * Float.BYTES) {
+                int floats = buffers[chunkIndex].capacity() / Float.BYTES;
+                int capacity = (int) Math.min((long) (intChunkMask + 1) * intDimensions,
+                        Math.max(needed, floats + (long) (floats >> 1)));
+                ByteBuffer[] chunks = buffers.clone();
+                chunks[chunkIndex] = copyOf(buffers[chunkIndex], capacity);
+                bufChunks = chunks;
+            }
+        } else if (chunkIndex == fltChunks.length) {
+            float[][] chunks = Arrays.copyOf(fltChunks, chunkIndex + 1);
+            chunks[chunkIndex] = new float[Math.min(INITIAL_ROWS, intChunkMask + 1) * intDimensions];
+            fltChunks = chunks;
+        } else if (fltChunks[chunkIndex].length < needed) {
+            //grow the last chunk by half again, capped at the full chunk size
+            int capacity = (int) Math.min((long) (intChunkMask + 1) * intDimensions,
+                    Math.max(needed, fltChunks[chunkIndex].length + (long) (fltChunks[chunkIndex].length >> 1)));
+            float[][] chunks = fltChunks.clone();
+            chunks[chunkIndex] = Arrays.copyOf(fltChunks[chunkIndex], capacity);
+            fltChunks = chunks;
+        }
+
+        if (row == doubNorms.length) {
+            doubNorms = Arrays.copyOf(doubNorms, Math.max(INITIAL_ROWS, row + (row >> 1)));
+            fltScales = Arrays.copyOf(fltScales, doubNorms.length);
+        }
+
+        return row; //counted by the caller once the row is written
+    }
+
+    /**
+     * Allocates an off-heap chunk of the given number of floats, in the byte order of the read-only views
+     */
+    private static ByteBuffer allocate(int _floats) {
+        return ByteBuffer.allocateDirect(_floats * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Copies an off-heap chunk into a new one of the given number of floats, truncating or leaving zeros at the end.
+     * The old chunk is freed once the garbage collector finds it unreachable
+     */
+    private static ByteBuffer copyOf(ByteBuffer _chunk, int _floats) {
+        ByteBuffer result = allocate(_floats);
+        result.put(0, _chunk, 0, Math.min(_chunk.capacity(), result.capacity()));
+        return result;
+    }
+
+    /**
+     * Reads one element of a row as it is stored, from whichever storage the matrix uses
+     */
+    private float element(int _row, int _column) {
+        int offset = (_row & intChunkMask) * intDimensions + _column;
+
+        if (boolOffHeap) return bufChunks[_row >>> intChunkShift].getFloat(offset * Float.BYTES);
+        return fltChunks[_row >>> intChunkShift][offset];
+    }
+
+    private void checkWritable() {
+        if (boolReadOnly) throw new UnsupportedOperationException("the matrix is a read-only view of buffers");
+    }
+
+    private void checkLength(int _length) {
+        if (_length != intDimensions)
+            throw new IllegalArgumentException("expected " + intDimensions + " elements but got " + _length);
+    }
+
+    private void checkRow(int _row) {
+        if (_row < 0 || _row >= intRows) throw new IndexOutOfBoundsException("row " + _row + " of " + intRows);
+    }
+
+    private static class RowList extends AbstractList<double[]> implements RandomAccess {
+        private final EmbeddingMatrix matMatrix;
+        private final int intSize; //-1 to follow the rows of the matrix
+
+        private RowList(EmbeddingMatrix _matrix, int _size) {
+            matMatrix = _matrix;
+            intSize = _size;
+        }
+
+        private EmbeddingMatrix getMatrix() { return matMatrix; }
+
+        @Override
+        public double[] get(int _index) {
+            if (intSize >= 0 && _index >= intSize)
+                throw new IndexOutOfBoundsException("row " + _index + " of " + intSize);
+            return matMatrix.getRow(_index);
+        }
+
+        @Override
+        public int size() { return intSize >= 0 ? intSize : matMatrix.getRowCount(); }
+    }
+}
@@ -0,0 +1,88 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One loaded set of word vectors: the vocabulary, the index from every word to its row, and the matrix holding the
+ * rows with their norms. A model is never changed once it is built, so a thread holding one can keep using it while
+ * another model is loaded and swapped in; see Toolkit.getModel() and SemanticMain.reload(). Rows appended to the
+ * matrix later, like the words SemanticMain.addWord() adds, are not part of the model.
+ */
+public class EmbeddingModel {
+    private final List<String> listVocabulary;
+    private final VocabularyIndex vocabularyIndex;
+    private final EmbeddingMatrix matMatrix;
+    private final List<double[]> listVectors;
+
+    /**
+     * @param _vocabulary word of every row of the matrix
+     * @param _index row of every word; it must not be changed afterwards
+     * @param _matrix the vectors
+     */
+    public EmbeddingModel(List<String> _vocabulary, VocabularyIndex _index, EmbeddingMatrix _matrix) {
+        if (_vocabulary.size() != _matrix.getRowCount())
+            throw new IllegalArgumentException(_vocabulary.size() + " words for " + _matrix.getRowCount() + " rows");
+
+        listVocabulary = Collections.unmodifiableList(_vocabulary);
+        vocabularyIndex = _index;
+        matMatrix = _matrix;
+        listVectors = _matrix.asList(_matrix.getRowCount());
+    }
+
+    /**
+     * Builds a model, indexing every word by its row. The first row of a word that appears more than once wins
+     * @param _vocabulary word of every row of the matrix
+     * @param _matrix the vectors
+     * @return the model
+     */
+    public static EmbeddingModel of(List<String> _vocabulary, EmbeddingMatrix _matrix) {
+        long start = Metrics.start();
+        VocabularyIndex index = VocabularyIndex.of(_vocabulary);
+        Metrics.record(Metrics.Stage.LOAD_INDEX, start);
+
+        return new EmbeddingModel(_vocabulary, index, _matrix);
+    }
+
+    /**
+     * Loads a model from a glove CSV, parsed in parallel by CsvEmbeddingLoader, or from a binary embedding file, which
+     * is mapped rather than read (see EmbeddingFile). The two are told apart by the .csv extension
+     * @param _path the file
+     * @return the model
+     * @throws IOException thrown if the file can't be read or is not a valid embedding file
+     */
+    public static EmbeddingModel load(Path _path) throws IOException {
+        long start = Metrics.start();
+        SemanticEvents.ModelLoad event = new SemanticEvents.ModelLoad();
+        event.begin();
+        EmbeddingModel result;
+        boolean csv = _path.getFileName().toString().toLowerCase().endsWith(".csv");
+        if (csv) {
+            CsvEmbeddingLoader myLoader = CsvEmbeddingLoader.load(_path);
+            result = of(myLoader.getVocabulary(), myLoader.getMatrix());
+        } else {
+            EmbeddingFile myFile = EmbeddingFile.open(_path);
+            result = of(myFile.getVocabulary(), myFile.getMatrix());
+        }
+
+        Metrics.record(Metrics.Stage.LOAD, start);
+        SemanticEvents.commitLoad(event, _path, csv ? "csv" : "binary", result.getMatrix());
+        return result;
+    }
+
+    /**
+     * @return the word of every row, unmodifiable
+     */
+    public List<String> getVocabulary() { return listVocabulary; }
+
+    public VocabularyIndex getVocabularyIndex() { return vocabularyIndex; }
+
+    public EmbeddingMatrix getMatrix() { return matMatrix; }
+
+    /**
+     * @return a read-only view of the rows of the model, always the same list for the same model
+     */
+    public List<double[]> getVectors() { return listVectors; }
+
+    public int size() { return listVocabulary.size(); }
+}
@@ -1,15 +1,36 @@
 public class Glove {
     private String strVocabulary;
     private Vector vecVector;
+    private EmbeddingMatrix matMatrix;
+    private int intRow = -1;
 
     public Glove(String _vocabulary, Vector _vector) {
         strVocabulary = _vocabulary;
         vecVector = _vector;
     }
 
+    /**
+     * Creates a glove that views a row of an embedding matrix instead of holding its own vector. The vector is only
+     * materialised when getVector() is called
+     * @param _vocabulary the word
+     * @param _matrix matrix holding the vector of the word
+     * @param _row row of the word in the matrix
+     */
+    public Glove(String _vocabulary, EmbeddingMatrix _matrix, int _row) {
+        strVocabulary = _vocabulary;
+        matMatrix = _matrix;
+        intRow = _row;
+    }
+
     public String getVocabulary() { return strVocabulary; }
-    public Vector getVector() { return vecVector; }
+    public Vector getVector() { return vecVector != null ? vecVector : matMatrix.getVector(intRow); }
+    public EmbeddingMatrix getMatrix() { return matMatrix; }
+    public int getRow() { return intRow; }
 
     public void setVocabulary(String _vocabulary) { strVocabulary = _vocabulary; }
-    public void setVector(Vector _vector) { vecVector = _vector; }
-}
\ No newline at end of file
+    public void setVector(Vector _vector) {
+        vecVector = _vector;
+        matMatrix = null;
+        intRow = -1;
+    }
+}
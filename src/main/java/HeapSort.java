@@ -76,4 +76,174 @@ public class HeapSort {
             _rootindex = smallest;
         }
     }
+
+    /**
+     * Fixed-size min-heap that keeps the _capacity highest scoring ids offered to it. Ids and scores are stored in
+     * parallel primitive arrays so that a scan over the whole vocabulary allocates nothing, and an offer that doesn't
+     * beat the lowest kept score costs a single comparison. Ids can be excluded up front, either a few at a time or as
+     * the tombstones of deleted ids, in which case they are only looked up once their score would have made it into the
+     * heap
+     */
+    public static class TopK {
+        private final int[] intIds;
+        private final float[] fltScores;
+        private int intSize = 0;
+        private int[] intExcluded = new int[0];
+        private Tombstones deleted = null; //ids to reject
+        private long[] lngAllowed = null; //bit id % 64 of long id / 64 is set for every id that may be kept
+        private long lngScanned = 0; //rows scored on the way to this heap, whether or not they were offered
+
+        public TopK(int _capacity) {
+            if (_capacity < 0) throw new IllegalArgumentException("capacity must not be negative: " + _capacity);
+
+            intIds = new int[_capacity];
+            fltScores = new float[_capacity];
+        }
+
+        /**
+         * Sets the ids that offer() must reject regardless of their score
+         * @param _ids excluded ids
+         */
+        public void setExcluded(int... _ids) { intExcluded = _ids; }
+
+        /**
+         * Sets the ids that offer() must reject regardless of their score, typically rows that have been deleted
+         * @param _deleted the deleted ids, or null to accept every id
+         */
+        public void setDeleted(Tombstones _deleted) { deleted = _deleted; }
+
+        /**
+         * Same as setDeleted(Tombstones) with a bitmap, bit id % 64 of long id / 64. Ids past the end of the bitmap are
+         * accepted
+         * @param _deleted the bitmap, or null to accept every id
+         */
+        public void setDeleted(long[] _deleted) { deleted = _deleted == null ? null : Tombstones.of(_deleted); }
+
+        public Tombstones getDeleted() { return deleted; }
+
+        /**
+         * Sets a bitmap of the only ids that offer() may keep, typically the rows of a RowFilter. Ids past the end of
+         * the bitmap are rejected. The bitmap is read, not copied
+         * @param _allowed the bitmap, or null to accept every id
+         */
+        public void setAllowed(long[] _allowed) { lngAllowed = _allowed; }
+
+        public long[] getAllowed() { return lngAllowed; }
+
+        /**
+         * Adds to the count of rows scored for this heap, which searches report so that the cost of a query can be
+         * traced (see SemanticEvents). The heap itself doesn't use it
+         * @param _rows rows scored
+         */
+        public void addScanned(long _rows) { lngScanned += _rows; }
+
+        public long getScanned() { return lngScanned; }
+
+        /**
+         * Offers an id to the heap. It is kept if the heap isn't full yet or if its score beats the lowest kept score,
+         * which is then dropped
+         * @param _id id to offer
+         * @param _score score of the id
+         * @return true if the id was kept
+         */
+        public boolean offer(int _id, float _score) {
+            if (intSize == intIds.length && (intSize == 0 || !(_score > fltScores[0]))) return false;
+            if (!accepts(_id)) return false;
+
+            if (intSize < intIds.length) {
+                //append at the bottom and sift up
+                int child = intSize++;
+
+                while (child > 0) {
+                    int parent = (child - 1) / 2;
+                    if (fltScores[parent] <= _score) break;
+
+                    intIds[child] = intIds[parent];
+                    fltScores[child] = fltScores[parent];
+                    child = parent;
+                }
+
+                intIds[child] = _id;
+                fltScores[child] = _score;
+            } else {
+                //replace the lowest score at the root and sift down
+                intIds[0] = _id;
+                fltScores[0] = _score;
+                heapify(0, intSize);
+            }
+
+            return true;
+        }
+
+        /**
+         * Tells whether offer() may keep an id whatever its score: it is neither excluded nor deleted, and the allowed
+         * bitmap, if any, holds it. A search that keeps candidates of its own can use it to keep only the ones that
+         * count
+         * @param _id the id
+         * @return false if offer() rejects the id
+         */
+        public boolean accepts(int _id) {
+            for (int excluded : intExcluded) if (excluded == _id) return false;
+            if (deleted != null && deleted.contains(_id)) return false;
+
+            return lngAllowed == null || _id >>> 6 < lngAllowed.length && (lngAllowed[_id >>> 6] & 1L << _id) != 0;
+        }
+
+        /**
+         * Returns the score an id must beat to be kept, which is negative infinity until the heap is full
+         * @return the lowest kept score
+         */
+        public float getThreshold() {
+            return intSize < intIds.length || intSize == 0 ? Float.NEGATIVE_INFINITY : fltScores[0];
+        }
+
+        public int size() { return intSize; }
+
+        public int getCapacity() { return intIds.length; }
+
+        public int getExcludedCount() { return intExcluded.length; }
+
+        public int getId(int _index) { return intIds[_index]; }
+
+        public float getScore(int _index) { return fltScores[_index]; }
+
+        /**
+         * Sorts the kept ids from the highest score to the lowest, the same order doHeapSort() produces. Afterwards
+         * getId(0) is the best id. The heap must be cleared before it is offered more ids
+         */
+        public void sort() {
+            for (int j = intSize - 1; j > 0; j--) {
+                swap(0, j);
+                heapify(0, j);
+            }
+        }
+
+        public void clear() { intSize = 0; }
+
+        private void heapify(int _rootindex, int _n) {
+            while (2 * _rootindex + 2 <= _n) {
+                int crIndex = 2 * _rootindex + 2;
+                int clIndex = 2 * _rootindex + 1;
+                int smallest = clIndex;
+
+                if (crIndex < _n && fltScores[clIndex] > fltScores[crIndex])
+                    smallest = crIndex;
+                if (fltScores[_rootindex] <= fltScores[smallest])
+                    break;
+
+                swap(_rootindex, smallest);
+                _rootindex = smallest;
+            }
+        }
+
+        private void swap(int _i, int _j) {
+            int id = intIds[_i];
+            intIds[_i] = intIds[_j];
+            intIds[_j] = id;
+
+            float score = fltScores[_i];
+            fltScores[_i] = fltScores[_j];
+            fltScores[_j] = score;
+        }
+    }
 }
@@ -0,0 +1,577 @@
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+/**
+ * Hierarchical navigable small world graph over rows of an embedding matrix (Malkov and Yashunin). Every indexed row is
+ * a node with a random top level; on each level up to its own, a node is linked to its nearest neighbours, chosen with
+ * the diversity heuristic so that the links spread in different directions. A query descends greedily through the
+ * sparse upper levels and then runs a best-first search of width efSearch on level 0, which touches a small fraction
+ * of the rows.
+ * <p>
+ * Nodes are inserted in parallel. Each node's links are guarded by one of a fixed set of striped locks, and a thread
+ * only ever holds one lock at a time. Queries read the links without locking, and the entry point with its level is
+ * published as one immutable pair that they read without locking either.
+ * <p>
+ * The level-0 links, which take 2 * M + 1 ints per node and most of the memory of the graph, are held in an IntBuffer:
+ * a heap array when the graph is built, and the mapped section of the snapshot when it is loaded (see IndexFile), so
+ * a loaded graph is paged in as the searches walk it. Extending a loaded graph copies them to the heap.
+ */
+public class HnswIndex implements NearestNeighbourIndex {
+    public static final String TYPE = "hnsw";
+    private static final int LOCK_STRIPES = 1 << 12;
+    private static final long SEED = 42;
+    //shared by every index a thread searches, so a thread holds one visited array, as long as the largest index
+    private static final ThreadLocal<SearchContext> THREAD_CONTEXT = ThreadLocal.withInitial(SearchContext::new);
+
+    private final EmbeddingMatrix matMatrix;
+    private final int[] intRows; //matrix row of every node
+    private final int intM; //links per node on the upper levels
+    private final int intM0; //links per node on level 0
+    private final int intEfConstruction;
+    private volatile int intEfSearch;
+    private final int[] intLevels; //top level of every node
+    private final IntBuffer bufLinks0; //level 0 links, intM0 + 1 slots per node: the count followed by the neighbours
+    private final int[][] intUpperLinks; //levels 1 and up, intM + 1 slots per level, for the nodes that reach them
+    private final Object[] objLocks = new Object[LOCK_STRIPES];
+    private final AtomicReference<EntryPoint> refEntryPoint = new AtomicReference<>(EntryPoint.NONE);
+
+    private HnswIndex(EmbeddingMatrix _matrix, int[] _rows, int _m, int _efConstruction) {
+        this(_matrix, _rows, _m, _efConstruction, drawLevels(_rows.length, _m),
+                IntBuffer.wrap(new int[_rows.length * (2 * _m + 1)]), new int[_rows.length][]);
+
+        for (int node = 0; node < _rows.length; node++)
+            if (intLevels[node] > 0) intUpperLinks[node] = new int[intLevels[node] * (intM + 1)];
+    }
+
+    private HnswIndex(EmbeddingMatrix _matrix, int[] _rows, int _m, int _efConstruction, int[] _levels,
+                      IntBuffer _links0, int[][] _upperLinks) {
+        matMatrix = _matrix;
+        intRows = _rows;
+        intM = _m;
+        intM0 = 2 * _m;
+        intEfConstruction = Math.max(_efConstruction, _m);
+        intEfSearch = Math.max(_m, 64);
+        intLevels = _levels;
+        bufLinks0 = _links0;
+        intUpperLinks = _upperLinks;
+
+        for (int i = 0; i < LOCK_STRIPES; i++) objLocks[i] = new Object();
+    }
+
+    /**
+     * Draws the levels of the nodes up front from a seeded generator: level = floor(-ln(U) / ln(M))
+     */
+    private static int[] drawLevels(int _nodes, int _m) { return drawLevels(_nodes, _m, SEED); }
+
+    private static int[] drawLevels(int _nodes, int _m, long _seed) {
+        if (_m < 2) throw new IllegalArgumentException("M must be at least 2: " + _m);
+
+        Random myRandom = new Random(_seed);
+        double levelMultiplier = 1 / Math.log(_m);
+        int[] levels = new int[_nodes];
+        for (int node = 0; node < _nodes; node++)
+            levels[node] = (int) (-Math.log(1 - myRandom.nextDouble()) * levelMultiplier);
+
+        return levels;
+    }
+
+    /**
+     * Builds an index over the given rows, inserting them in parallel on all cores
+     * @param _matrix matrix holding the rows
+     * @param _rows rows to index
+     * @param _m links per node on the upper levels; level 0 gets twice as many. 12 to 48 is typical
+     * @param _efConstruction width of the search that finds the links of a new node; higher builds a better graph
+     *                        more slowly
+     * @return the index
+     */
+    public static HnswIndex build(EmbeddingMatrix _matrix, int[] _rows, int _m, int _efConstruction) {
+        HnswIndex index = new HnswIndex(_matrix, _rows, _m, _efConstruction);
+
+        if (_rows.length > 0) index.insert(0);
+        IntStream.range(1, _rows.length).parallel().forEach(index::insert);
+
+        return index;
+    }
+
+    /**
+     * Reads an index written by save(); see IndexFile
+     * @param _matrix the matrix the index was built over
+     * @param _file the snapshot
+     * @return the index
+     * @throws IOException if a section is missing or doesn't fit the others
+     */
+    public static HnswIndex load(EmbeddingMatrix _matrix, IndexFile _file) throws IOException {
+        int[] rows = _file.getInts("rows");
+        int[] levels = _file.getInts("levels");
+        IntBuffer links0 = _file.mapInts("links0");
+        int[] upper = _file.getInts("upperLinks");
+        int m = _file.getInt("m");
+
+        if (m < 2 || levels.length != rows.length || links0.capacity() != (long) rows.length * (2 * m + 1))
+            throw new IOException("the hnsw sections don't fit together");
+
+        //split the upper links back into one array per node that reaches level 1
+        int[][] upperLinks = new int[rows.length][];
+        for (int node = 0, from = 0; node < rows.length; node++) {
+            if (levels[node] == 0) continue;
+
+            upperLinks[node] = Arrays.copyOfRange(upper, from, from + levels[node] * (m + 1));
+            from += levels[node] * (m + 1);
+        }
+
+        HnswIndex index = new HnswIndex(_matrix, rows, m, _file.getInt("efConstruction"), levels, links0, upperLinks);
+        index.setEfSearch(_file.getInt("efSearch"));
+        index.refEntryPoint.set(new EntryPoint(_file.getInt("entryPoint"), _file.getInt("maxLevel")));
+
+        return index;
+    }
+
+    @Override
+    public void save(IndexFile.Writer _writer) {
+        int upperSlots = 0;
+        for (int level : intLevels) upperSlots += level * (intM + 1);
+
+        int[] upper = new int[upperSlots];
+        for (int node = 0, from = 0; node < intRows.length; node++) {
+            if (intLevels[node] == 0) continue;
+
+            System.arraycopy(intUpperLinks[node], 0, upper, from, intUpperLinks[node].length);
+            from += intUpperLinks[node].length;
+        }
+
+        _writer.putString("type", TYPE);
+        _writer.putInt("m", intM);
+        _writer.putInt("efConstruction", intEfConstruction);
+        _writer.putInt("efSearch", intEfSearch);
+        EntryPoint top = refEntryPoint.get();
+        _writer.putInt("entryPoint", top.intNode);
+        _writer.putInt("maxLevel", top.intLevel);
+        _writer.putInts("rows", intRows);
+        _writer.putInts("levels", intLevels);
+        _writer.putInts("links0", bufLinks0, bufLinks0.capacity());
+        _writer.putInts("upperLinks", upper);
+    }
+
+    /**
+     * Copies the graph and links the new rows into the copy, in parallel as build() does
+     */
+    @Override
+    public HnswIndex withRows(EmbeddingMatrix _matrix, int[] _rows) {
+        int nodes = intRows.length + _rows.length;
+        int[] rows = Arrays.copyOf(intRows, nodes);
+        System.arraycopy(_rows, 0, rows, intRows.length, _rows.length);
+
+        int[] levels = Arrays.copyOf(intLevels, nodes);
+        System.arraycopy(drawLevels(_rows.length, intM, SEED + intRows.length), 0, levels, intRows.length,
+                _rows.length);
+
+        //the links of the existing nodes change as the new nodes are linked to them, so they are copied too
+        int[][] upperLinks = new int[nodes][];
+        for (int node = 0; node < nodes; node++) {
+            if (node < intRows.length && intUpperLinks[node] != null) upperLinks[node] = intUpperLinks[node].clone();
+            else if (levels[node] > 0) upperLinks[node] = new int[levels[node] * (intM + 1)];
+        }
+
+        int[] links0 = new int[nodes * (intM0 + 1)];
+        bufLinks0.get(0, links0, 0, bufLinks0.capacity());
+
+        HnswIndex index = new HnswIndex(_matrix, rows, intM, intEfConstruction, levels, IntBuffer.wrap(links0),
+                upperLinks);
+        index.intEfSearch = intEfSearch;
+        index.refEntryPoint.set(refEntryPoint.get());
+
+        int first = intRows.length;
+        if (index.refEntryPoint.get().intNode < 0 && nodes > first) index.insert(first++);
+        IntStream.range(first, nodes).parallel().forEach(index::insert);
+
+        return index;
+    }
+
+    /**
+     * Sets the width of the best-first search on level 0. Higher values find more of the true nearest neighbours at
+     * the cost of scoring more rows. The width is never below the number of results asked for
+     * @param _efSearch search width
+     */
+    public void setEfSearch(int _efSearch) { intEfSearch = Math.max(1, _efSearch); }
+
+    public int getEfSearch() { return intEfSearch; }
+
+    public int getM() { return intM; }
+
+    public int getEfConstruction() { return intEfConstruction; }
+
+    public int size() { return intRows.length; }
+
+    @Override
+    public String getName() { return "hnsw(M=" + intM + ", efConstruction=" + intEfConstruction + ", efSearch=" + intEfSearch + ")"; }
+
+    @Override
+    public void search(float[] _unitQuery, HeapSort.TopK _topK) {
+        EntryPoint top = refEntryPoint.get();
+        if (top.intNode < 0 || _topK.getCapacity() == 0) return;
+
+        SearchContext context = THREAD_CONTEXT.get();
+        context.intScored = 0;
+        int current = greedyDescent(_unitQuery, top.intNode, top.intLevel, 0, context, false);
+
+        //the rows the caller rejects are walked through but never take a place among the ef best
+        int ef = Math.max(intEfSearch, _topK.getCapacity());
+        HeapSort.TopK found = searchLevel(_unitQuery, current, ef, 0, context, false, _topK);
+
+        for (int i = 0; i < found.size(); i++) _topK.offer(intRows[found.getId(i)], found.getScore(i));
+        _topK.addScanned(context.intScored);
+    }
+
+    /**
+     * Links a node into the graph
+     */
+    private void insert(int _node) {
+        SearchContext context = THREAD_CONTEXT.get();
+        float[] query = context.query(matMatrix.getDimensions());
+        matMatrix.copyUnitRow(intRows[_node], query, 0);
+
+        int level = intLevels[_node];
+        EntryPoint top = refEntryPoint.get();
+        if (top.intNode < 0) { //the first node becomes the entry point
+            if (refEntryPoint.compareAndSet(top, new EntryPoint(_node, level))) return;
+
+            top = refEntryPoint.get();
+        }
+
+        int current = greedyDescent(query, top.intNode, top.intLevel, level, context, true);
+
+        for (int l = Math.min(level, top.intLevel); l >= 0; l--) {
+            HeapSort.TopK found = searchLevel(query, current, intEfConstruction, l, context, true, null);
+            found.sort(); //best candidate first, as the heuristic expects
+
+            current = found.getId(0);
+            int[] selected = selectNeighbours(found, intM, context);
+
+            synchronized (lockOf(_node)) { setLinks(_node, l, selected, selected.length); }
+            for (int neighbour : selected) link(neighbour, _node, l, context);
+        }
+
+        //another node may have raised the top level since; the highest one wins
+        while (level > top.intLevel && !refEntryPoint.compareAndSet(top, new EntryPoint(_node, level)))
+            top = refEntryPoint.get();
+    }
+
+    /**
+     * Adds _node to the links of _neighbour on the given level, re-selecting the neighbour's links with the heuristic
+     * when they are full
+     */
+    private void link(int _neighbour, int _node, int _level, SearchContext _context) {
+        int capacity = _level == 0 ? intM0 : intM;
+
+        synchronized (lockOf(_neighbour)) {
+            int count = linkAt(_neighbour, _level, 0);
+
+            for (int i = 1; i <= count; i++) if (linkAt(_neighbour, _level, i) == _node) return;
+
+            if (count < capacity) {
+                setLinkAt(_neighbour, _level, count + 1, _node);
+                setLinkAt(_neighbour, _level, 0, count + 1);
+                return;
+            }
+
+            //score the existing links and the new node against the neighbour and keep the best diverse set
+            HeapSort.TopK candidates = new HeapSort.TopK(count + 1);
+            int row = intRows[_neighbour];
+            for (int i = 1; i <= count; i++) {
+                int link = linkAt(_neighbour, _level, i);
+                candidates.offer(link, matMatrix.cosineRows(row, intRows[link], _context.kernel));
+            }
+            candidates.offer(_node, matMatrix.cosineRows(row, intRows[_node], _context.kernel));
+            candidates.sort();
+
+            int[] selected = selectNeighbours(candidates, capacity, _context);
+            setLinks(_neighbour, _level, selected, selected.length);
+        }
+    }
+
+    /**
+     * Keeps a candidate only if it is closer to the query than to every candidate already kept, so that the links
+     * don't all point into the same cluster
+     * @param _candidates candidates sorted from the most similar to the query
+     * @param _max maximum number of candidates to keep
+     * @return the kept candidates
+     */
+    private int[] selectNeighbours(HeapSort.TopK _candidates, int _max, SearchContext _context) {
+        int[] selected = new int[Math.min(_max, _candidates.size())];
+        int count = 0;
+
+        for (int i = 0; i < _candidates.size() && count < selected.length; i++) {
+            int candidate = _candidates.getId(i);
+            float toQuery = _candidates.getScore(i);
+            boolean diverse = true;
+
+            for (int j = 0; j < count && diverse; j++)
+                if (matMatrix.cosineRows(intRows[candidate], intRows[selected[j]], _context.kernel) > toQuery)
+                    diverse = false;
+
+            if (diverse) selected[count++] = candidate;
+        }
+
+        return Arrays.copyOf(selected, count);
+    }
+
+    /**
+     * Walks from the entry point towards the query on every level above _stopLevel, moving to a neighbour as long as
+     * one is more similar to the query
+     * @return the node reached on level _stopLevel + 1, or the entry point if there is no such level
+     */
+    private int greedyDescent(float[] _query, int _entry, int _maxLevel, int _stopLevel, SearchContext _context,
+                              boolean _lock) {
+        int current = _entry;
+        float currentScore = score(_query, current, _context);
+
+        for (int l = _maxLevel; l > _stopLevel; l--) {
+            boolean changed = true;
+
+            while (changed) {
+                changed = false;
+                int[] links = _context.links(intM0);
+                int count = readLinks(current, l, links, _lock);
+
+                for (int i = 0; i < count; i++) {
+                    int neighbour = links[i];
+                    float s = score(_query, neighbour, _context);
+
+                    if (s > currentScore) {
+                        currentScore = s;
+                        current = neighbour;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Best-first search of one level: expands the most similar unexpanded node until no unexpanded node can improve the
+     * _ef best nodes found so far. Nodes whose rows _filter doesn't accept are expanded like the others, so that the
+     * graph stays connected, but are not counted among the best; a narrow filter therefore walks further rather than
+     * coming back with fewer nodes
+     * @param _filter the heap the nodes are meant for, or null to count every node
+     * @return the best nodes found, by node id
+     */
+    private HeapSort.TopK searchLevel(float[] _query, int _entry, int _ef, int _level, SearchContext _context,
+                                      boolean _lock, HeapSort.TopK _filter) {
+        HeapSort.TopK found = new HeapSort.TopK(_ef);
+        CandidateQueue queue = _context.queue;
+        queue.clear();
+        _context.nextVisit(intRows.length);
+
+        float entryScore = score(_query, _entry, _context);
+        _context.visit(_entry);
+        if (_filter == null || _filter.accepts(intRows[_entry])) found.offer(_entry, entryScore);
+        queue.push(_entry, entryScore);
+
+        while (queue.size() > 0) {
+            float best = queue.peekScore();
+            if (found.size() == _ef && best < found.getThreshold()) break;
+
+            int node = queue.pop();
+            int[] links = _context.links(intM0);
+            int count = readLinks(node, _level, links, _lock);
+
+            for (int i = 0; i < count; i++) {
+                int neighbour = links[i];
+                if (!_context.visit(neighbour)) continue;
+
+                float s = score(_query, neighbour, _context);
+                if (found.size() < _ef || s > found.getThreshold()) {
+                    if (_filter == null || _filter.accepts(intRows[neighbour])) found.offer(neighbour, s);
+                    queue.push(neighbour, s);
+                }
+            }
+        }
+
+        return found;
+    }
+
+    private float score(float[] _query, int _node, SearchContext _context) {
+        _context.intScored++;
+        return matMatrix.cosine(intRows[_node], _query, _context.kernel);
+    }
+
+    /**
+     * Copies the links of a node on a level into _dst
+     * @return the number of links copied
+     */
+    private int readLinks(int _node, int _level, int[] _dst, boolean _lock) {
+        if (!_lock) return copyLinks(_node, _level, _dst);
+
+        synchronized (lockOf(_node)) { return copyLinks(_node, _level, _dst); }
+    }
+
+    private int copyLinks(int _node, int _level, int[] _dst) {
+        int base = baseOf(_node, _level);
+        int count;
+
+        if (_level == 0) {
+            count = bufLinks0.get(base);
+            bufLinks0.get(base + 1, _dst, 0, count);
+        } else {
+            count = intUpperLinks[_node][base];
+            System.arraycopy(intUpperLinks[_node], base + 1, _dst, 0, count);
+        }
+
+        return count;
+    }
+
+    private void setLinks(int _node, int _level, int[] _links, int _count) {
+        int base = baseOf(_node, _level);
+
+        if (_level == 0) {
+            bufLinks0.put(base + 1, _links, 0, _count);
+            bufLinks0.put(base, _count);
+        } else {
+            System.arraycopy(_links, 0, intUpperLinks[_node], base + 1, _count);
+            intUpperLinks[_node][base] = _count;
+        }
+    }
+
+    /**
+     * Reads one slot of the links of a node on a level: the count in slot 0, then the neighbours
+     */
+    private int linkAt(int _node, int _level, int _slot) {
+        int at = baseOf(_node, _level) + _slot;
+        return _level == 0 ? bufLinks0.get(at) : intUpperLinks[_node][at];
+    }
+
+    private void setLinkAt(int _node, int _level, int _slot, int _value) {
+        int at = baseOf(_node, _level) + _slot;
+        if (_level == 0) bufLinks0.put(at, _value);
+        else intUpperLinks[_node][at] = _value;
+    }
+
+    private int baseOf(int _node, int _level) { return _level == 0 ? _node * (intM0 + 1) : (_level - 1) * (intM + 1); }
+
+    private Object lockOf(int _node) { return objLocks[_node & (LOCK_STRIPES - 1)]; }
+
+    /**
+     * The node the searches start from, with its top level, which is the top level of the graph
+     */
+    private static class EntryPoint {
+        private static final EntryPoint NONE = new EntryPoint(-1, -1);
+
+        private final int intNode;
+        private final int intLevel;
+
+        private EntryPoint(int _node, int _level) {
+            intNode = _node;
+            intLevel = _level;
+        }
+    }
+
+    /**
+     * Per-thread scratch space, so that searches don't allocate a visited set or a candidate queue. The arrays are
+     * grown to the index being searched; the generation stamps left by another index are all older than the current
+     * generation, so they read as unvisited
+     */
+    private static class SearchContext {
+        private int[] intVisited = new int[0]; //the visit generation in which each node was last visited
+        private int intGeneration = 0;
+        private int intScored = 0; //nodes scored since the current search started
+        private int[] intLinks = new int[0];
+        private float[] fltQuery = new float[0];
+        private final CandidateQueue queue = new CandidateQueue();
+        private final SimilarityKernel kernel = SimilarityKernels.get();
+
+        /**
+         * Starts a new visit of an index
+         * @param _nodes the node count of the index
+         */
+        private void nextVisit(int _nodes) {
+            if (intVisited.length < _nodes) intVisited = new int[_nodes]; //zero, older than every generation
+
+            if (++intGeneration == 0) { //wrapped around; start again from a clean slate
+                Arrays.fill(intVisited, 0);
+                intGeneration = 1;
+            }
+        }
+
+        private int[] links(int _capacity) {
+            if (intLinks.length < _capacity) intLinks = new int[_capacity];
+            return intLinks;
+        }
+
+        private float[] query(int _dimensions) {
+            if (fltQuery.length != _dimensions) fltQuery = new float[_dimensions];
+            return fltQuery;
+        }
+
+        /**
+         * @return true if the node had not been visited yet in this search
+         */
+        private boolean visit(int _node) {
+            if (intVisited[_node] == intGeneration) return false;
+
+            intVisited[_node] = intGeneration;
+            return true;
+        }
+    }
+
+    /**
+     * Growable max-heap of nodes to expand, ordered by their similarity to the query
+     */
+    private static class CandidateQueue {
+        private int[] intNodes = new int[64];
+        private float[] fltScores = new float[64];
+        private int intSize = 0;
+
+        private void clear() { intSize = 0; }
+
+        private int size() { return intSize; }
+
+        private float peekScore() { return fltScores[0]; }
+
+        private void push(int _node, float _score) {
+            if (intSize == intNodes.length) {
+                intNodes = Arrays.copyOf(intNodes, intSize * 2);
+                fltScores = Arrays.copyOf(fltScores, intSize * 2);
+            }
+
+            int child = intSize++;
+            while (child > 0) {
+                int parent = (child - 1) / 2;
+                if (fltScores[parent] >= _score) break;
+
+                intNodes[child] = intNodes[parent];
+                fltScores[child] = fltScores[parent];
+                child = parent;
+            }
+
+            intNodes[child] = _node;
+            fltScores[child] = _score;
+        }
+
+        private int pop() {
+            int top = intNodes[0];
+            int lastNode = intNodes[--intSize];
+            float lastScore = fltScores[intSize];
+            int parent = 0;
+
+            while (2 * parent + 1 < intSize) {
+                int child = 2 * parent + 1;
+                if (child + 1 < intSize && fltScores[child + 1] > fltScores[child]) child++;
+                if (fltScores[child] <= lastScore) break;
+
+                intNodes[parent] = intNodes[child];
+                fltScores[parent] = fltScores[child];
+                parent = child;
+            }
+
+            intNodes[parent] = lastNode;
+            fltScores[parent] = lastScore;
+            return top;
+        }
+    }
+}
@@ -0,0 +1,435 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Snapshot of a nearest-neighbour index, so that a restarted process reads a prebuilt index instead of building it
+ * again. An index writes itself as named sections of flat arrays (see NearestNeighbourIndex.save()), and reads them
+ * back in a static load method that takes the matrix the index was built over.
+ * <p>
+ * Everything is little-endian. The file starts with a 32-byte header: the magic "SIDX", the format version, a CRC32C
+ * of everything after the header, the number of sections and the fingerprint of the indexed rows (see fingerprint()),
+ * followed by the length of the section table. Every entry of the table holds the section's name as its UTF-8 length
+ * and bytes, its element type (0 for int32, 1 for float32, 2 for bytes, 3 for int64), its number of elements and its
+ * offset. Every section starts on a 64-byte boundary.
+ * <p>
+ * Loading saves the time of a build, and for the large sections its memory too. The small sections are copied into
+ * heap arrays with a bulk get, while the HNSW level-0 links, the PQ and int8 codes and the LSH signatures are read in
+ * place through the mapped buffers of mapInts(), mapBytes() and mapLongs(). Like the rows of an EmbeddingFile, those
+ * are paged in as the searches touch them and shared between the processes that load the same snapshot. A mapping
+ * stays valid after the file is closed, and a snapshot saved over it later is written to another file and moved in,
+ * so the mapped sections never change under an index.
+ */
+public class IndexFile implements AutoCloseable {
+    public static final int VERSION = 1;
+    private static final int MAGIC = 0x58444953; //"SIDX" read as a little-endian int
+    private static final int HEADER_BYTES = 32;
+    private static final int ALIGNMENT = 64;
+    private static final int INTS = 0, FLOATS = 1, BYTES = 2, LONGS = 3;
+    private static final int[] ELEMENT_BYTES = {Integer.BYTES, Float.BYTES, 1, Long.BYTES};
+    private static final long CHECKSUM_WINDOW = 1 << 30; //bytes mapped at a time to compute the checksum
+
+    private final FileChannel channel;
+    private final Map<String, Section> sections;
+
+    private IndexFile(FileChannel _channel, Map<String, Section> _sections) {
+        channel = _channel;
+        sections = _sections;
+    }
+
+    /**
+     * Returns the conventional path of the snapshot of an index next to an embedding file, for example
+     * glove.bin.hnsw.idx for the HNSW index over glove.bin
+     * @param _embeddingFile the embedding file
+     * @param _kind what kind of index the snapshot holds
+     * @return the path of the snapshot
+     */
+    public static Path pathFor(Path _embeddingFile, String _kind) {
+        return _embeddingFile.resolveSibling(_embeddingFile.getFileName() + "." + _kind.toLowerCase() + ".idx");
+    }
+
+    /**
+     * Summarizes the rows an index is built over: the shape of the matrix, the indexed rows, and the norm of every row
+     * of the matrix, which changes with almost any change to the vectors. A snapshot is only loaded over rows with the
+     * same fingerprint
+     * @param _matrix the matrix
+     * @param _rows the indexed rows
+     * @return the fingerprint
+     */
+    public static long fingerprint(EmbeddingMatrix _matrix, int[] _rows) {
+        long hash = mix(mix(mix(0, _matrix.getDimensions()), _matrix.getRowCount()), _matrix.isNormalized() ? 1 : 0);
+
+        hash = mix(hash, _rows.length);
+        for (int row : _rows) hash = mix(hash, row);
+        for (int row = 0; row < _matrix.getRowCount(); row++)
+            hash = mix(hash, Double.doubleToLongBits(_matrix.norm(row)));
+
+        return hash;
+    }
+
+    /**
+     * Writes a snapshot of an index. The file is written next to its destination and then moved over it
+     * @param _path the file to write
+     * @param _index the index
+     * @param _kind what kind of index this is, checked by load()
+     * @param _fingerprint fingerprint of the rows the index is built over
+     * @throws IOException if the file can't be written
+     * @throws UnsupportedOperationException if the index can't be saved
+     */
+    public static void save(Path _path, NearestNeighbourIndex _index, String _kind, long _fingerprint)
+            throws IOException {
+        Writer myWriter = new Writer();
+        myWriter.putString("kind", _kind);
+        _index.save(myWriter);
+        myWriter.write(_path, _fingerprint);
+    }
+
+    /**
+     * Loads a snapshot of an index
+     * @param _path the snapshot
+     * @param _kind the kind of index expected
+     * @param _matrix the matrix the index is built over
+     * @param _rows the rows the index is built over
+     * @return the index
+     * @throws IOException if the file can't be read, is damaged, or holds another kind of index or another set of rows
+     */
+    public static NearestNeighbourIndex load(Path _path, String _kind, EmbeddingMatrix _matrix, int[] _rows)
+            throws IOException {
+        try (IndexFile myFile = open(_path, fingerprint(_matrix, _rows))) {
+            String kind = myFile.getString("kind");
+            if (!kind.equals(_kind)) throw new IOException("the snapshot holds a " + kind + " index, not " + _kind);
+
+            String type = myFile.getString("type");
+            switch (type) {
+                case HnswIndex.TYPE: return HnswIndex.load(_matrix, myFile);
+                case IvfIndex.TYPE: return IvfIndex.load(_matrix, myFile);
+                case PqIndex.TYPE: return PqIndex.load(_matrix, myFile);
+                case Int8Index.TYPE: return Int8Index.load(_matrix, myFile);
+                case LshIndex.TYPE: return LshIndex.load(_matrix, myFile);
+                default: throw new IOException("unknown index type " + type);
+            }
+        } catch (RuntimeException e) { //sections of the wrong size or inconsistent with each other
+            throw new IOException("the snapshot is inconsistent: " + _path, e);
+        }
+    }
+
+    private static IndexFile open(Path _path, long _fingerprint) throws IOException {
+        FileChannel channel = FileChannel.open(_path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER_BYTES) throw new IOException("not an index file: " + _path);
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC) throw new IOException("not an index file: " + _path);
+
+            int version = header.getInt();
+            if (version < 1 || version > VERSION) throw new IOException("unsupported index file version " + version);
+
+            int checksum = header.getInt();
+            int count = header.getInt();
+            long fingerprint = header.getLong();
+            long tableBytes = header.getLong();
+
+            if (fingerprint != _fingerprint) throw new IOException("the snapshot was built over other rows: " + _path);
+            if (count < 0 || tableBytes < 0 || HEADER_BYTES + tableBytes > size)
+                throw new IOException("index file is truncated: " + _path);
+
+            CRC32C crc = new CRC32C();
+            for (long from = HEADER_BYTES; from < size; from += CHECKSUM_WINDOW)
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(CHECKSUM_WINDOW, size - from)));
+            if ((int) crc.getValue() != checksum) throw new IOException("index file is damaged: " + _path);
+
+            ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, tableBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            Map<String, Section> sections = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[table.getInt()];
+                table.get(name);
+
+                Section section = new Section(table.getInt(), table.getLong(), table.getLong());
+                if (section.intType < 0 || section.intType >= ELEMENT_BYTES.length || section.lngCount < 0
+                        || section.lngOffset + section.lngCount * ELEMENT_BYTES[section.intType] > size)
+                    throw new IOException("index file is truncated: " + _path);
+
+                sections.put(new String(name, StandardCharsets.UTF_8), section);
+            }
+
+            return new IndexFile(channel, sections);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            if (e instanceof IOException) throw (IOException) e;
+            throw new IOException("index file is damaged: " + _path, e);
+        }
+    }
+
+    public int[] getInts(String _name) throws IOException {
+        int[] result = new int[length(_name, INTS)];
+        map(_name).asIntBuffer().get(result);
+        return result;
+    }
+
+    public float[] getFloats(String _name) throws IOException {
+        float[] result = new float[length(_name, FLOATS)];
+        map(_name).asFloatBuffer().get(result);
+        return result;
+    }
+
+    public byte[] getBytes(String _name) throws IOException {
+        byte[] result = new byte[length(_name, BYTES)];
+        map(_name).get(result);
+        return result;
+    }
+
+    public long[] getLongs(String _name) throws IOException {
+        long[] result = new long[length(_name, LONGS)];
+        map(_name).asLongBuffer().get(result);
+        return result;
+    }
+
+    /**
+     * Maps a section of ints instead of copying it. The buffer is read-only and stays valid after close()
+     */
+    public IntBuffer mapInts(String _name) throws IOException { return mapSection(_name, INTS).asIntBuffer(); }
+
+    /**
+     * Maps a section of bytes instead of copying it. The buffer is read-only and stays valid after close()
+     */
+    public ByteBuffer mapBytes(String _name) throws IOException { return mapSection(_name, BYTES); }
+
+    /**
+     * Maps a section of longs instead of copying it. The buffer is read-only and stays valid after close()
+     */
+    public LongBuffer mapLongs(String _name) throws IOException { return mapSection(_name, LONGS).asLongBuffer(); }
+
+    /**
+     * Reads a section written by Writer.putInt()
+     */
+    public int getInt(String _name) throws IOException {
+        int[] values = getInts(_name);
+        if (values.length != 1) throw new IOException("section " + _name + " is not a single int");
+        return values[0];
+    }
+
+    public String getString(String _name) throws IOException {
+        return new String(getBytes(_name), StandardCharsets.UTF_8);
+    }
+
+    private int length(String _name, int _type) throws IOException {
+        Section section = sections.get(_name);
+        if (section == null) throw new IOException("the snapshot has no section " + _name);
+        if (section.intType != _type) throw new IOException("section " + _name + " has the wrong element type");
+        if (section.lngCount > Integer.MAX_VALUE - 8) throw new IOException("section " + _name + " is too long");
+
+        return (int) section.lngCount;
+    }
+
+    private ByteBuffer mapSection(String _name, int _type) throws IOException {
+        if ((long) length(_name, _type) * ELEMENT_BYTES[_type] > Integer.MAX_VALUE)
+            throw new IOException("section " + _name + " is too long to map");
+
+        return map(_name);
+    }
+
+    private ByteBuffer map(String _name) throws IOException {
+        Section section = sections.get(_name);
+        return channel.map(FileChannel.MapMode.READ_ONLY, section.lngOffset,
+                section.lngCount * ELEMENT_BYTES[section.intType]).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public void close() throws IOException { channel.close(); }
+
+    private static long mix(long _hash, long _value) {
+        long h = (_hash ^ _value) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * Collects the sections of a snapshot. The arrays and buffers are referenced rather than copied, so they must not
+     * change until the snapshot is written
+     */
+    public static class Writer {
+        private final List<String> listNames = new ArrayList<>();
+        private final List<Object> listArrays = new ArrayList<>();
+        private final List<Integer> listLengths = new ArrayList<>();
+
+        private Writer() { }
+
+        public void putInts(String _name, int[] _values, int _length) { add(_name, _values, _length); }
+
+        public void putInts(String _name, int[] _values) { add(_name, _values, _values.length); }
+
+        public void putFloats(String _name, float[] _values) { add(_name, _values, _values.length); }
+
+        public void putBytes(String _name, byte[] _values) { add(_name, _values, _values.length); }
+
+        public void putLongs(String _name, long[] _values, int _length) { add(_name, _values, _length); }
+
+        /**
+         * Same as putInts() for the first _length elements of a buffer, such as a section mapped by mapInts()
+         */
+        public void putInts(String _name, IntBuffer _values, int _length) { add(_name, _values, _length); }
+
+        public void putBytes(String _name, ByteBuffer _values, int _length) { add(_name, _values, _length); }
+
+        public void putLongs(String _name, LongBuffer _values, int _length) { add(_name, _values, _length); }
+
+        public void putInt(String _name, int _value) { putInts(_name, new int[]{_value}); }
+
+        public void putString(String _name, String _value) { putBytes(_name, _value.getBytes(StandardCharsets.UTF_8)); }
+
+        private void add(String _name, Object _array, int _length) {
+            if (listNames.contains(_name)) throw new IllegalArgumentException("section " + _name + " already exists");
+
+            listNames.add(_name);
+            listArrays.add(_array);
+            listLengths.add(_length);
+        }
+
+        private void write(Path _path, long _fingerprint) throws IOException {
+            ByteBuffer table = tableFor(new long[listNames.size()]);
+            long[] offsets = new long[listNames.size()];
+            long position = align(HEADER_BYTES + table.capacity());
+            for (int i = 0; i < listNames.size(); i++) {
+                offsets[i] = position;
+                position = align(position + (long) listLengths.get(i) * ELEMENT_BYTES[typeOf(listArrays.get(i))]);
+            }
+            table = tableFor(offsets);
+
+            Path temporary = _path.resolveSibling(_path.getFileName() + ".tmp");
+            try (FileChannel myChannel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                CRC32C crc = new CRC32C();
+                writeFully(myChannel, table, HEADER_BYTES, crc);
+
+                long written = HEADER_BYTES + table.capacity();
+                for (int i = 0; i < listNames.size(); i++) {
+                    written = pad(myChannel, written, offsets[i], crc);
+                    written += writeArray(myChannel, listArrays.get(i), listLengths.get(i), written, crc);
+                }
+                pad(myChannel, written, position, crc);
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt((int) crc.getValue()).putInt(listNames.size())
+                        .putLong(_fingerprint).putLong(table.capacity()).flip();
+                writeFully(myChannel, header, 0, null);
+                myChannel.force(false);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(temporary);
+                throw e;
+            }
+
+            Files.move(temporary, _path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private ByteBuffer tableFor(long[] _offsets) {
+            List<byte[]> names = new ArrayList<>();
+            int bytes = 0;
+            for (String name : listNames) {
+                names.add(name.getBytes(StandardCharsets.UTF_8));
+                bytes += Integer.BYTES + names.get(names.size() - 1).length + Integer.BYTES + 2 * Long.BYTES;
+            }
+
+            ByteBuffer table = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < names.size(); i++) {
+                table.putInt(names.get(i).length).put(names.get(i));
+                table.putInt(typeOf(listArrays.get(i))).putLong(listLengths.get(i)).putLong(_offsets[i]);
+            }
+
+            return table.flip();
+        }
+
+        /**
+         * Writes an array in blocks through a little-endian buffer
+         * @return the number of bytes written
+         */
+        private static long writeArray(FileChannel _channel, Object _array, int _length, long _position, CRC32C _crc)
+                throws IOException {
+            int type = typeOf(_array);
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            int perBlock = buffer.capacity() / ELEMENT_BYTES[type];
+            long position = _position;
+
+            for (int from = 0; from < _length; from += perBlock) {
+                int count = Math.min(perBlock, _length - from);
+                buffer.clear();
+                switch (type) {
+                    case INTS:
+                        if (_array instanceof IntBuffer) buffer.asIntBuffer().put(0, (IntBuffer) _array, from, count);
+                        else buffer.asIntBuffer().put((int[]) _array, from, count);
+                        break;
+                    case FLOATS: buffer.asFloatBuffer().put((float[]) _array, from, count); break;
+                    case BYTES:
+                        if (_array instanceof ByteBuffer) buffer.put(0, (ByteBuffer) _array, from, count);
+                        else buffer.put((byte[]) _array, from, count);
+                        break;
+                    default:
+                        if (_array instanceof LongBuffer)
+                            buffer.asLongBuffer().put(0, (LongBuffer) _array, from, count);
+                        else buffer.asLongBuffer().put((long[]) _array, from, count);
+                        break;
+                }
+                buffer.position(0).limit(count * ELEMENT_BYTES[type]);
+
+                position += writeFully(_channel, buffer, position, _crc);
+            }
+
+            return position - _position;
+        }
+
+        /**
+         * Writes zeros from _from up to _to
+         * @return _to
+         */
+        private static long pad(FileChannel _channel, long _from, long _to, CRC32C _crc) throws IOException {
+            if (_to > _from) writeFully(_channel, ByteBuffer.allocate((int) (_to - _from)), _from, _crc);
+            return _to;
+        }
+
+        private static int writeFully(FileChannel _channel, ByteBuffer _buffer, long _position, CRC32C _crc)
+                throws IOException {
+            if (_crc != null) _crc.update(_buffer.duplicate());
+
+            int bytes = _buffer.remaining();
+            for (long position = _position; _buffer.hasRemaining(); )
+                position += _channel.write(_buffer, position);
+
+            return bytes;
+        }
+
+        private static int typeOf(Object _array) {
+            if (_array instanceof int[] || _array instanceof IntBuffer) return INTS;
+            if (_array instanceof float[]) return FLOATS;
+            if (_array instanceof byte[] || _array instanceof ByteBuffer) return BYTES;
+            return LONGS;
+        }
+
+        private static long align(long _position) { return (_position + ALIGNMENT - 1) & -ALIGNMENT; }
+    }
+
+    private static class Section {
+        private final int intType;
+        private final long lngCount;
+        private final long lngOffset;
+
+        private Section(int _type, long _count, long _offset) {
+            intType = _type;
+            lngCount = _count;
+            lngOffset = _offset;
+        }
+    }
+}
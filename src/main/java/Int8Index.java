@@ -0,0 +1,224 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Scalar-quantized copy of rows of an embedding matrix, one byte per element. Every dimension of the unit-length rows
+ * is mapped linearly from its own minimum and maximum onto -128 to 127. A query is quantized the same way, so that the
+ * first pass over all rows is an integer dot product on a quarter of the bytes of the float rows; the best rerank rows
+ * of that pass are then scored again in float against the full rows, which the scan keeps alongside the bytes.
+ * <p>
+ * For a row x stored as codes c and a query y, x[j] ~ min[j] + scale[j] * (c[j] + 128), so
+ * y.x ~ sum(y[j] * (min[j] + 128 * scale[j])) + sum(y[j] * scale[j] * c[j]). The first sum only depends on the query,
+ * and the weights y[j] * scale[j] of the second are themselves rounded to bytes.
+ * <p>
+ * The codes of a built index are a heap array; those of an index loaded from a snapshot are read from the mapped
+ * section in place (see IndexFile).
+ */
+public class Int8Index implements NearestNeighbourIndex {
+    public static final String TYPE = "int8";
+    private static final int ENCODE_BLOCK = 1024; //rows encoded by a parallel task
+
+    private final EmbeddingMatrix matMatrix;
+    private final int[] intRows; //matrix row of every code
+    private final int intDimensions;
+    private final float[] fltMins; //smallest value of every dimension
+    private final float[] fltSteps; //value of one code step in every dimension
+    private final ByteBuffer bufCodes; //intDimensions codes per row, on the heap or mapped from a snapshot
+    private volatile int intRerank = 256;
+
+    private Int8Index(EmbeddingMatrix _matrix, int[] _rows, float[] _mins, float[] _steps, ByteBuffer _codes) {
+        matMatrix = _matrix;
+        intRows = _rows;
+        intDimensions = _matrix.getDimensions();
+        fltMins = _mins;
+        fltSteps = _steps;
+        bufCodes = _codes;
+    }
+
+    /**
+     * Quantizes the given rows in parallel on all cores
+     * @param _matrix matrix holding the rows
+     * @param _rows rows to quantize
+     * @return the index
+     */
+    public static Int8Index build(EmbeddingMatrix _matrix, int[] _rows) {
+        int dims = _matrix.getDimensions();
+        int blocks = (_rows.length + ENCODE_BLOCK - 1) / ENCODE_BLOCK;
+
+        //the range of every dimension, block by block and then over the blocks
+        float[][] blockRanges = new float[blocks][];
+        IntStream.range(0, blocks).parallel().forEach(block -> {
+            float[] range = new float[2 * dims]; //the minimums followed by the maximums
+            Arrays.fill(range, 0, dims, Float.POSITIVE_INFINITY);
+            Arrays.fill(range, dims, 2 * dims, Float.NEGATIVE_INFINITY);
+            float[] row = new float[dims];
+
+            for (int i = block * ENCODE_BLOCK; i < Math.min(_rows.length, (block + 1) * ENCODE_BLOCK); i++) {
+                _matrix.copyUnitRow(_rows[i], row, 0);
+                for (int j = 0; j < dims; j++) {
+                    range[j] = Math.min(range[j], row[j]);
+                    range[dims + j] = Math.max(range[dims + j], row[j]);
+                }
+            }
+
+            blockRanges[block] = range;
+        });
+
+        float[] mins = new float[dims];
+        float[] steps = new float[dims];
+        for (int j = 0; j < dims; j++) {
+            float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+            for (float[] range : blockRanges) {
+                min = Math.min(min, range[j]);
+                max = Math.max(max, range[dims + j]);
+            }
+
+            mins[j] = blocks == 0 ? 0 : min;
+            steps[j] = blocks == 0 || max == min ? 1 : (max - min) / 255;
+        }
+
+        byte[] codes = new byte[_rows.length * dims];
+        Int8Index index = new Int8Index(_matrix, _rows, mins, steps, ByteBuffer.wrap(codes));
+        IntStream.range(0, blocks).parallel().forEach(block -> {
+            float[] row = new float[dims];
+
+            for (int i = block * ENCODE_BLOCK; i < Math.min(_rows.length, (block + 1) * ENCODE_BLOCK); i++) {
+                _matrix.copyUnitRow(_rows[i], row, 0);
+                for (int j = 0; j < dims; j++)
+                    codes[i * dims + j] = (byte) (Math.round((row[j] - mins[j]) / steps[j]) - 128);
+            }
+        });
+
+        return index;
+    }
+
+    /**
+     * Reads an index written by save(); see IndexFile
+     * @param _matrix the matrix the index was built over
+     * @param _file the snapshot
+     * @return the index
+     * @throws IOException if a section is missing or doesn't fit the others
+     */
+    public static Int8Index load(EmbeddingMatrix _matrix, IndexFile _file) throws IOException {
+        int dims = _matrix.getDimensions();
+        int[] rows = _file.getInts("rows");
+        float[] mins = _file.getFloats("mins");
+        float[] steps = _file.getFloats("steps");
+        ByteBuffer codes = _file.mapBytes("codes");
+
+        if (mins.length != dims || steps.length != dims || codes.capacity() != (long) rows.length * dims)
+            throw new IOException("the int8 sections don't fit together");
+
+        Int8Index index = new Int8Index(_matrix, rows, mins, steps, codes);
+        index.setRerank(_file.getInt("rerank"));
+
+        return index;
+    }
+
+    @Override
+    public void save(IndexFile.Writer _writer) {
+        _writer.putString("type", TYPE);
+        _writer.putInt("rerank", intRerank);
+        _writer.putInts("rows", intRows);
+        _writer.putFloats("mins", fltMins);
+        _writer.putFloats("steps", fltSteps);
+        _writer.putBytes("codes", bufCodes, bufCodes.capacity());
+    }
+
+    /**
+     * Quantizes the new rows with the ranges of the rows the index was built over. Elements outside those ranges are
+     * clamped to them
+     */
+    @Override
+    public Int8Index withRows(EmbeddingMatrix _matrix, int[] _rows) {
+        int[] rows = Arrays.copyOf(intRows, intRows.length + _rows.length);
+        System.arraycopy(_rows, 0, rows, intRows.length, _rows.length);
+
+        byte[] codes = new byte[rows.length * intDimensions];
+        bufCodes.get(0, codes, 0, bufCodes.capacity());
+
+        Int8Index index = new Int8Index(_matrix, rows, fltMins, fltSteps, ByteBuffer.wrap(codes));
+        index.intRerank = intRerank;
+
+        float[] row = new float[intDimensions];
+        for (int i = intRows.length; i < rows.length; i++) {
+            _matrix.copyUnitRow(rows[i], row, 0);
+            for (int j = 0; j < intDimensions; j++) {
+                long code = Math.round((row[j] - fltMins[j]) / fltSteps[j]);
+                codes[i * intDimensions + j] = (byte) (Math.max(0, Math.min(255, code)) - 128);
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Sets how many of the best rows of the integer pass are scored again in float. 0 offers the integer scores as
+     * they are and never reads the matrix
+     * @param _rerank number of rows to score again; never fewer than the number of results asked for, unless 0
+     */
+    public void setRerank(int _rerank) { intRerank = Math.max(0, _rerank); }
+
+    public int getRerank() { return intRerank; }
+
+    public int size() { return intRows.length; }
+
+    /**
+     * @return the memory taken by the codes, in bytes
+     */
+    public long getCodeBytes() { return bufCodes.capacity(); }
+
+    @Override
+    public String getName() { return "int8(rerank=" + intRerank + ")"; }
+
+    @Override
+    public void search(float[] _unitQuery, HeapSort.TopK _topK) {
+        if (intRows.length == 0 || _topK.getCapacity() == 0) return;
+
+        //the part of every score that only depends on the query, and the weights of the codes
+        double offset = 0;
+        float maxWeight = 0;
+        float[] weights = new float[intDimensions];
+        for (int j = 0; j < intDimensions; j++) {
+            offset += _unitQuery[j] * ((double) fltMins[j] + 128.0 * fltSteps[j]);
+            weights[j] = _unitQuery[j] * fltSteps[j];
+            maxWeight = Math.max(maxWeight, Math.abs(weights[j]));
+        }
+
+        float weightStep = maxWeight == 0 ? 1 : maxWeight / 127;
+        byte[] query = new byte[intDimensions];
+        for (int j = 0; j < intDimensions; j++) query[j] = (byte) Math.round(weights[j] / weightStep);
+
+        SimilarityKernel kernel = SimilarityKernels.get();
+        int rerank = intRerank;
+
+        //without re-scoring the integer scores go straight to the caller, which also skips its excluded rows
+        HeapSort.TopK candidates = rerank == 0
+                ? _topK
+                : new HeapSort.TopK(Math.max(rerank, _topK.getCapacity()) + _topK.getExcludedCount());
+        if (rerank != 0) {
+            candidates.setDeleted(_topK.getDeleted());
+            candidates.setAllowed(_topK.getAllowed());
+        }
+
+        byte[] codes = bufCodes.hasArray() ? bufCodes.array() : null; //the array kernels are faster on the heap
+        for (int i = 0; i < intRows.length; i++) {
+            int dot = codes != null
+                    ? kernel.dot(codes, i * intDimensions, query, 0, intDimensions)
+                    : kernel.dot(bufCodes, i * intDimensions, query, 0, intDimensions);
+            float score = (float) offset + weightStep * dot;
+            if (score > candidates.getThreshold()) candidates.offer(intRows[i], score);
+        }
+
+        _topK.addScanned(intRows.length);
+        if (rerank == 0) return;
+
+        for (int i = 0; i < candidates.size(); i++) {
+            int row = candidates.getId(i);
+            _topK.offer(row, matMatrix.cosine(row, _unitQuery, kernel));
+        }
+        _topK.addScanned(candidates.size());
+    }
+}
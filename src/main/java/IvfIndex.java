@@ -0,0 +1,161 @@
+import java.io.IOException;
+
+/**
+ * Inverted-file index over rows of an embedding matrix. The rows are clustered with spherical k-means into nlist
+ * clusters, and the rows of every cluster are stored next to each other. A query is scored against the nlist centroids
+ * and only the rows of the nprobe nearest clusters are scanned, so each query does roughly nlist / nprobe times less
+ * work than the exact scan. The index is much cheaper to build than a graph index, at the cost of lower recall for the
+ * same amount of work per query.
+ */
+public class IvfIndex implements NearestNeighbourIndex {
+    public static final String TYPE = "ivf";
+    private static final int ITERATIONS = 10;
+    private static final long SEED = 42;
+
+    private final EmbeddingMatrix matMatrix;
+    private final int intNlist;
+    private final float[] fltCentroids; //intNlist unit-length centroids, back to back
+    private final int[] intListOffsets; //cluster c holds intListRows[intListOffsets[c]] to [intListOffsets[c + 1]]
+    private final int[] intListRows; //indexed rows, cluster after cluster
+    private volatile int intNprobe;
+
+    private IvfIndex(EmbeddingMatrix _matrix, int _nlist, float[] _centroids, int[] _listOffsets, int[] _listRows) {
+        matMatrix = _matrix;
+        intNlist = _nlist;
+        fltCentroids = _centroids;
+        intListOffsets = _listOffsets;
+        intListRows = _listRows;
+        intNprobe = Math.min(8, _nlist);
+    }
+
+    /**
+     * Builds an index over the given rows with about the square root of the number of rows as clusters
+     * @param _matrix matrix holding the rows
+     * @param _rows rows to index
+     * @return the index
+     */
+    public static IvfIndex build(EmbeddingMatrix _matrix, int[] _rows) {
+        return build(_matrix, _rows, (int) Math.round(Math.sqrt(_rows.length)));
+    }
+
+    /**
+     * Builds an index over the given rows, training the centroids and assigning the rows in parallel on all cores
+     * @param _matrix matrix holding the rows
+     * @param _rows rows to index
+     * @param _nlist number of clusters; capped at the number of rows
+     * @return the index
+     */
+    public static IvfIndex build(EmbeddingMatrix _matrix, int[] _rows, int _nlist) {
+        int nlist = Math.max(1, Math.min(_nlist, _rows.length));
+        if (_rows.length == 0) return new IvfIndex(_matrix, nlist, new float[_matrix.getDimensions()], new int[2], _rows);
+
+        float[] centroids = KMeans.train(_matrix, _rows, nlist, ITERATIONS, SEED);
+        int[] assignment = KMeans.assign(_matrix, _rows, centroids, nlist);
+        int[] offsets = new int[nlist + 1];
+        int[] listRows = KMeans.group(_rows, assignment, nlist, offsets);
+
+        return new IvfIndex(_matrix, nlist, centroids, offsets, listRows);
+    }
+
+    /**
+     * Reads an index written by save(); see IndexFile
+     * @param _matrix the matrix the index was built over
+     * @param _file the snapshot
+     * @return the index
+     * @throws IOException if a section is missing or doesn't fit the others
+     */
+    public static IvfIndex load(EmbeddingMatrix _matrix, IndexFile _file) throws IOException {
+        int nlist = _file.getInt("nlist");
+        float[] centroids = _file.getFloats("centroids");
+        int[] offsets = _file.getInts("listOffsets");
+        int[] listRows = _file.getInts("listRows");
+
+        if (nlist < 1 || centroids.length != nlist * _matrix.getDimensions() || offsets.length != nlist + 1
+                || offsets[nlist] != listRows.length)
+            throw new IOException("the ivf sections don't fit together");
+
+        IvfIndex index = new IvfIndex(_matrix, nlist, centroids, offsets, listRows);
+        index.setNprobe(_file.getInt("nprobe"));
+
+        return index;
+    }
+
+    @Override
+    public void save(IndexFile.Writer _writer) {
+        _writer.putString("type", TYPE);
+        _writer.putInt("nlist", intNlist);
+        _writer.putInt("nprobe", intNprobe);
+        _writer.putFloats("centroids", fltCentroids);
+        _writer.putInts("listOffsets", intListOffsets);
+        _writer.putInts("listRows", intListRows);
+    }
+
+    /**
+     * Assigns the new rows to the nearest of the trained centroids
+     */
+    @Override
+    public IvfIndex withRows(EmbeddingMatrix _matrix, int[] _rows) {
+        int[] assignment = KMeans.assign(_matrix, _rows, fltCentroids, intNlist);
+        int[] offsets = new int[intNlist + 1];
+        for (int list : assignment) offsets[list + 1]++;
+        for (int c = 0; c < intNlist; c++) offsets[c + 1] += offsets[c] + getListSize(c);
+
+        //every cluster keeps its rows, followed by the new rows assigned to it
+        int[] listRows = new int[intListRows.length + _rows.length];
+        int[] next = new int[intNlist];
+        for (int c = 0; c < intNlist; c++) {
+            System.arraycopy(intListRows, intListOffsets[c], listRows, offsets[c], getListSize(c));
+            next[c] = offsets[c] + getListSize(c);
+        }
+        for (int i = 0; i < _rows.length; i++) listRows[next[assignment[i]]++] = _rows[i];
+
+        IvfIndex index = new IvfIndex(_matrix, intNlist, fltCentroids, offsets, listRows);
+        index.intNprobe = intNprobe;
+
+        return index;
+    }
+
+    /**
+     * Sets how many of the nearest clusters are scanned per query. Higher values find more of the true nearest
+     * neighbours at the cost of scanning more rows; nlist makes the search exact
+     * @param _nprobe number of clusters to scan, between 1 and nlist
+     */
+    public void setNprobe(int _nprobe) { intNprobe = Math.max(1, Math.min(_nprobe, intNlist)); }
+
+    public int getNprobe() { return intNprobe; }
+
+    public int getNlist() { return intNlist; }
+
+    public int size() { return intListRows.length; }
+
+    /**
+     * @return the number of rows in a cluster
+     */
+    public int getListSize(int _list) { return intListOffsets[_list + 1] - intListOffsets[_list]; }
+
+    @Override
+    public String getName() { return "ivf(nlist=" + intNlist + ", nprobe=" + intNprobe + ")"; }
+
+    @Override
+    public void search(float[] _unitQuery, HeapSort.TopK _topK) {
+        if (intListRows.length == 0 || _topK.getCapacity() == 0) return;
+
+        SimilarityKernel kernel = SimilarityKernels.get();
+        int dims = matMatrix.getDimensions();
+
+        //the query and the centroids have unit length, so their dot products rank the clusters
+        HeapSort.TopK probes = new HeapSort.TopK(intNprobe);
+        for (int c = 0; c < intNlist; c++) probes.offer(c, kernel.dot(fltCentroids, c * dims, _unitQuery, 0, dims));
+
+        for (int p = 0; p < probes.size(); p++) {
+            int list = probes.getId(p);
+            _topK.addScanned(intListOffsets[list + 1] - intListOffsets[list]);
+
+            for (int i = intListOffsets[list]; i < intListOffsets[list + 1]; i++) {
+                int row = intListRows[i];
+                float cs = matMatrix.cosine(row, _unitQuery, kernel);
+                if (cs > _topK.getThreshold()) _topK.offer(row, cs);
+            }
+        }
+    }
+}
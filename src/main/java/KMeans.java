@@ -0,0 +1,232 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Spherical k-means over rows of an embedding matrix: rows are compared by cosine similarity and every centroid is
+ * kept at unit length, so the nearest centroid of a row is the one with the highest dot product. Assigning the rows,
+ * which is almost all of the work, runs in parallel and reads each row once for four centroids at a time.
+ */
+public class KMeans {
+    private static final int MAX_SAMPLE_PER_CENTROID = 64; //training rows per centroid; more barely moves the centroids
+
+    /**
+     * Clusters the given rows. The centroids are trained on a random sample of at most 64 rows per centroid and start
+     * from randomly chosen rows of that sample
+     * @param _matrix matrix holding the rows
+     * @param _rows rows to cluster
+     * @param _k number of centroids, at most _rows.length
+     * @param _iterations number of assignment and update rounds
+     * @param _seed seed of the random sample and of the starting centroids
+     * @return the centroids packed back to back, each with _matrix.getDimensions() elements and unit length
+     */
+    public static float[] train(EmbeddingMatrix _matrix, int[] _rows, int _k, int _iterations, long _seed) {
+        if (_k < 1 || _k > _rows.length)
+            throw new IllegalArgumentException("k must be between 1 and the number of rows: " + _k);
+
+        int dims = _matrix.getDimensions();
+        Random myRandom = new Random(_seed);
+        int[] sample = sample(_rows, Math.min(_rows.length, _k * MAX_SAMPLE_PER_CENTROID), myRandom);
+
+        float[] centroids = new float[_k * dims];
+        for (int c = 0; c < _k; c++) _matrix.copyUnitRow(sample[c], centroids, c * dims); //sample is shuffled
+
+        for (int iteration = 0; iteration < _iterations; iteration++) {
+            int[] assignment = assign(_matrix, sample, centroids, _k);
+            int[] offsets = new int[_k + 1];
+            int[] members = group(sample, assignment, _k, offsets);
+
+            IntStream.range(0, _k).parallel().forEach(c -> update(_matrix, members, offsets[c], offsets[c + 1],
+                    centroids, c * dims));
+
+            //a centroid that lost all its rows starts again from a random row
+            for (int c = 0; c < _k; c++)
+                if (offsets[c] == offsets[c + 1])
+                    _matrix.copyUnitRow(sample[myRandom.nextInt(sample.length)], centroids, c * dims);
+        }
+
+        return centroids;
+    }
+
+    /**
+     * Finds the nearest centroid of every row
+     * @param _matrix matrix holding the rows
+     * @param _rows rows to assign
+     * @param _centroids unit-length centroids packed back to back
+     * @param _k number of centroids
+     * @return for every row, in the same order, the index of its nearest centroid
+     */
+    public static int[] assign(EmbeddingMatrix _matrix, int[] _rows, float[] _centroids, int _k) {
+        int dims = _matrix.getDimensions();
+
+        //pad the centroids to a multiple of four so that cosine4 can always read four of them
+        int groups = (_k + 3) / 4;
+        float[] padded = _centroids.length == groups * 4 * dims
+                ? _centroids
+                : Arrays.copyOf(_centroids, groups * 4 * dims);
+
+        SimilarityKernel kernel = SimilarityKernels.get();
+        int[] result = new int[_rows.length];
+        IntStream.range(0, _rows.length).parallel().forEach(i -> {
+            float[] scores = new float[4];
+            float best = Float.NEGATIVE_INFINITY;
+            int bestCentroid = 0;
+
+            for (int group = 0; group < groups; group++) {
+                _matrix.cosine4(_rows[i], padded, group * 4 * dims, kernel, scores);
+
+                for (int j = 0; j < 4 && group * 4 + j < _k; j++) {
+                    if (scores[j] > best) {
+                        best = scores[j];
+                        bestCentroid = group * 4 + j;
+                    }
+                }
+            }
+
+            result[i] = bestCentroid;
+        });
+
+        return result;
+    }
+
+    /**
+     * Groups rows by their cluster, keeping the order of the rows within a cluster
+     * @param _rows rows to group
+     * @param _assignment cluster of every row
+     * @param _k number of clusters
+     * @param _offsets receives _k + 1 offsets: the rows of cluster c are at positions _offsets[c] to _offsets[c + 1]
+     * @return the rows, cluster after cluster
+     */
+    public static int[] group(int[] _rows, int[] _assignment, int _k, int[] _offsets) {
+        Arrays.fill(_offsets, 0);
+        for (int c : _assignment) _offsets[c + 1]++;
+        for (int c = 0; c < _k; c++) _offsets[c + 1] += _offsets[c];
+
+        int[] next = Arrays.copyOf(_offsets, _k);
+        int[] result = new int[_rows.length];
+        for (int i = 0; i < _rows.length; i++) result[next[_assignment[i]]++] = _rows[i];
+
+        return result;
+    }
+
+    /**
+     * Plain k-means by Euclidean distance over points packed back to back, for small spaces such as the sub-spaces of
+     * product quantization. Runs on the calling thread; callers parallelize over independent spaces
+     * @param _points the points, _dims elements each
+     * @param _count number of points
+     * @param _dims elements per point
+     * @param _k number of centroids; if there are fewer points, some centroids start as copies of the same point
+     * @param _iterations number of assignment and update rounds
+     * @param _seed seed of the starting centroids
+     * @return the centroids packed back to back
+     */
+    public static float[] trainPoints(float[] _points, int _count, int _dims, int _k, int _iterations, long _seed) {
+        if (_count < 1) throw new IllegalArgumentException("no points to cluster");
+
+        Random myRandom = new Random(_seed);
+        int[] start = sample(IntStream.range(0, _count).toArray(), Math.min(_k, _count), myRandom);
+
+        float[] centroids = new float[_k * _dims];
+        for (int c = 0; c < _k; c++) {
+            int point = c < start.length ? start[c] : myRandom.nextInt(_count);
+            System.arraycopy(_points, point * _dims, centroids, c * _dims, _dims);
+        }
+
+        int[] assignment = new int[_count];
+        double[] sums = new double[_k * _dims];
+        int[] sizes = new int[_k];
+
+        for (int iteration = 0; iteration < _iterations; iteration++) {
+            for (int i = 0; i < _count; i++) assignment[i] = nearest(centroids, _k, _points, i * _dims, _dims);
+
+            Arrays.fill(sums, 0);
+            Arrays.fill(sizes, 0);
+            for (int i = 0; i < _count; i++) {
+                int c = assignment[i];
+                sizes[c]++;
+                for (int j = 0; j < _dims; j++) sums[c * _dims + j] += _points[i * _dims + j];
+            }
+
+            for (int c = 0; c < _k; c++) {
+                if (sizes[c] == 0) { //an empty cluster starts again from a random point
+                    System.arraycopy(_points, myRandom.nextInt(_count) * _dims, centroids, c * _dims, _dims);
+                    continue;
+                }
+
+                for (int j = 0; j < _dims; j++) centroids[c * _dims + j] = (float) (sums[c * _dims + j] / sizes[c]);
+            }
+        }
+
+        return centroids;
+    }
+
+    /**
+     * Finds the centroid closest to a point by Euclidean distance
+     * @param _centroids centroids packed back to back
+     * @param _k number of centroids
+     * @param _points array holding the point
+     * @param _offset position of the first element of the point
+     * @param _dims elements per point
+     * @return the index of the closest centroid
+     */
+    public static int nearest(float[] _centroids, int _k, float[] _points, int _offset, int _dims) {
+        float best = Float.POSITIVE_INFINITY;
+        int bestCentroid = 0;
+
+        for (int c = 0; c < _k; c++) {
+            float distance = 0;
+            for (int j = 0; j < _dims; j++) {
+                float d = _points[_offset + j] - _centroids[c * _dims + j];
+                distance += d * d;
+            }
+
+            if (distance < best) {
+                best = distance;
+                bestCentroid = c;
+            }
+        }
+
+        return bestCentroid;
+    }
+
+    /**
+     * Moves a centroid to the normalized mean of the unit-length rows of its cluster. The centroid is left as it is if
+     * the cluster is empty
+     */
+    private static void update(EmbeddingMatrix _matrix, int[] _members, int _from, int _to, float[] _centroids,
+                               int _offset) {
+        if (_from == _to) return;
+
+        int dims = _matrix.getDimensions();
+        float[] row = new float[dims];
+        double[] sum = new double[dims];
+
+        for (int i = _from; i < _to; i++) {
+            _matrix.copyUnitRow(_members[i], row, 0);
+            for (int j = 0; j < dims; j++) sum[j] += row[j];
+        }
+
+        double norm = 0;
+        for (double x : sum) norm += x * x;
+        norm = Math.sqrt(norm);
+        if (norm == 0) return;
+
+        for (int j = 0; j < dims; j++) _centroids[_offset + j] = (float) (sum[j] / norm);
+    }
+
+    /**
+     * Picks _size distinct rows at random with a partial Fisher-Yates shuffle
+     */
+    private static int[] sample(int[] _rows, int _size, Random _random) {
+        int[] shuffled = _rows.clone();
+
+        for (int i = 0; i < _size; i++) {
+            int j = i + _random.nextInt(shuffled.length - i);
+            int tmp = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = tmp;
+        }
+
+        return Arrays.copyOf(shuffled, _size);
+    }
+}
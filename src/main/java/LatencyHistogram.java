@@ -0,0 +1,124 @@
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds. Values below 16 get a bucket each; every power of two above is
+ * split into 8 buckets, so a percentile is off by at most an eighth of its value, and the whole range of a long fits in
+ * 488 buckets. Every bucket is a LongAdder, so threads recording at the same time don't contend on one counter.
+ * <p>
+ * A snapshot taken while values are being recorded may miss some of them; the count, the sum and the buckets are read
+ * one after the other, not atomically.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 3; //8 buckets per power of two
+    private static final int LINEAR = 2 << SUB_BITS; //values below get a bucket each
+    private static final int BUCKETS = LINEAR + (63 - (SUB_BITS + 1)) * (1 << SUB_BITS);
+
+    private final LongAdder[] lngBuckets = new LongAdder[BUCKETS];
+    private final LongAdder lngSum = new LongAdder();
+    private final LongAccumulator lngMax = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) lngBuckets[i] = new LongAdder();
+    }
+
+    /**
+     * Records one latency
+     * @param _nanos the latency; negative values, which a clock going backwards can produce, count as 0
+     */
+    public void record(long _nanos) {
+        long value = Math.max(0, _nanos);
+        lngBuckets[bucketOf(value)].increment();
+        lngSum.add(value);
+        lngMax.accumulate(value);
+    }
+
+    public void reset() {
+        for (LongAdder bucket : lngBuckets) bucket.reset();
+        lngSum.reset();
+        lngMax.reset();
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = lngBuckets[i].sum();
+            count += counts[i];
+        }
+
+        return new Snapshot(counts, count, lngSum.sum(), lngMax.get());
+    }
+
+    static int bucketOf(long _value) {
+        if (_value < LINEAR) return (int) _value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(_value);
+        int sub = (int) (_value >>> (exponent - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+        return LINEAR + (exponent - SUB_BITS - 1 << SUB_BITS) + sub;
+    }
+
+    /**
+     * @return the smallest value of a bucket
+     */
+    static long lowerBound(int _bucket) {
+        if (_bucket < LINEAR) return _bucket;
+
+        int exponent = (_bucket - LINEAR >> SUB_BITS) + SUB_BITS + 1;
+        int sub = _bucket - LINEAR & ((1 << SUB_BITS) - 1);
+        return (long) ((1 << SUB_BITS) + sub) << (exponent - SUB_BITS);
+    }
+
+    /**
+     * The recorded latencies at one point in time. The getters make it an open type, so that the metrics MBean can
+     * return it (see Metrics)
+     */
+    public static class Snapshot {
+        private final long[] lngCounts;
+        private final long lngCount;
+        private final long lngSum;
+        private final long lngMax;
+
+        private Snapshot(long[] _counts, long _count, long _sum, long _max) {
+            lngCounts = _counts;
+            lngCount = _count;
+            lngSum = _sum;
+            lngMax = _max;
+        }
+
+        public long getCount() { return lngCount; }
+
+        public long getSumNanos() { return lngSum; }
+
+        public long getMaxNanos() { return lngMax; }
+
+        public long getMeanNanos() { return lngCount == 0 ? 0 : lngSum / lngCount; }
+
+        public long getP50Nanos() { return percentile(0.5); }
+
+        public long getP90Nanos() { return percentile(0.9); }
+
+        public long getP99Nanos() { return percentile(0.99); }
+
+        public long getP999Nanos() { return percentile(0.999); }
+
+        /**
+         * Returns the latency that the given share of the recorded latencies doesn't exceed, rounded up to the end of
+         * its bucket but never above the largest latency recorded
+         * @param _quantile the share, from 0 to 1
+         * @return the latency in nanoseconds, or 0 if nothing was recorded
+         */
+        public long percentile(double _quantile) {
+            if (lngCount == 0) return 0;
+
+            long rank = Math.max(1, (long) Math.ceil(_quantile * lngCount));
+            long seen = 0;
+            for (int i = 0; i < lngCounts.length; i++) {
+                seen += lngCounts[i];
+                if (seen >= rank) return Math.min(lngMax, i + 1 < lngCounts.length ? lowerBound(i + 1) - 1 : lngMax);
+            }
+
+            return lngMax;
+        }
+    }
+}
@@ -0,0 +1,427 @@
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * Locality-sensitive hashing of rows of an embedding matrix for cosine similarity (random hyperplanes, Charikar). Each
+ * of L tables draws b random hyperplanes, and the b-bit signature of a row records on which side of every hyperplane
+ * the row lies. Two rows at angle theta disagree on a bit with probability theta / pi, so similar rows tend to share a
+ * signature. Signatures are packed into one long per table.
+ * <p>
+ * A query looks up its own bucket in every table and the buckets whose signatures differ from it in at most
+ * probeRadius bits, and scores the rows found there exactly. Rows can be added one by one, and a shard only needs the
+ * same seed to produce compatible signatures. Adding is safe while other threads search: the buckets grow in place, so
+ * a search holds the read lock and an add the write lock, which only waits for the searches running and is over in
+ * the time it takes to append to L buckets.
+ * <p>
+ * In prefilter mode the index doesn't use its buckets: it scans all rows, but compares the signatures first. The
+ * number of differing bits out of all L * b estimates the angle to the query, and the dot product is only computed for
+ * rows whose estimate, allowing prefilterSlack bits of error, could still beat the heap.
+ * <p>
+ * An index loaded from a snapshot reads the signatures from the mapped section in place (see IndexFile), and only
+ * copies them to the heap when a row is added to it.
+ */
+public class LshIndex implements NearestNeighbourIndex {
+    public static final String TYPE = "lsh";
+    private static final long SEED = 42;
+
+    private final EmbeddingMatrix matMatrix;
+    private final int intTables;
+    private final int intBits;
+    private final float[] fltPlanes; //intTables * intBits hyperplanes of the matrix dimensions, back to back
+    private final BucketMap[] buckets;
+    private final float[] fltCosines; //estimated cosine for every number of differing bits out of intTables * intBits
+    private int[] intRows = new int[16]; //matrix row of every node
+    private LongBuffer bufSignatures; //intTables signatures per node, on the heap or mapped from a snapshot
+    private volatile int intSize = 0;
+    private final ReadWriteLock objLock = new ReentrantReadWriteLock(); //the write lock guards every change of the nodes
+    private volatile int intProbeRadius = 1;
+    private volatile int intPrefilterSlack = -1; //negative when the buckets are used
+    private final ThreadLocal<int[]> threadVisited = ThreadLocal.withInitial(() -> new int[1]); //generation first
+
+    /**
+     * Creates an empty index
+     * @param _matrix matrix holding the rows that will be added
+     * @param _tables number of hash tables, L
+     * @param _bits signature bits per table, b, between 1 and 64
+     * @param _seed seed of the hyperplanes; indexes with the same seed, tables and bits produce the same signatures
+     */
+    public LshIndex(EmbeddingMatrix _matrix, int _tables, int _bits, long _seed) {
+        this(_matrix, _tables, _bits, drawPlanes(_tables * _bits * _matrix.getDimensions(), _seed));
+    }
+
+    private LshIndex(EmbeddingMatrix _matrix, int _tables, int _bits, float[] _planes) {
+        if (_tables < 1) throw new IllegalArgumentException("there must be at least one table: " + _tables);
+        if (_bits < 1 || _bits > 64) throw new IllegalArgumentException("bits must be between 1 and 64: " + _bits);
+        if (_planes.length != _tables * _bits * _matrix.getDimensions())
+            throw new IllegalArgumentException("expected " + _tables * _bits + " hyperplanes");
+
+        matMatrix = _matrix;
+        intTables = _tables;
+        intBits = _bits;
+        bufSignatures = LongBuffer.wrap(new long[intRows.length * _tables]);
+        buckets = new BucketMap[_tables];
+        for (int t = 0; t < _tables; t++) buckets[t] = new BucketMap();
+        fltPlanes = _planes;
+
+        int totalBits = _tables * _bits;
+        fltCosines = new float[totalBits + 1];
+        for (int h = 0; h <= totalBits; h++) fltCosines[h] = (float) Math.cos(Math.PI * h / totalBits);
+    }
+
+    /**
+     * Builds an index over the given rows with 16 tables of about log2(rows / 8) bits, so that a bucket holds about
+     * eight rows
+     * @param _matrix matrix holding the rows
+     * @param _rows rows to index
+     * @return the index
+     */
+    public static LshIndex build(EmbeddingMatrix _matrix, int[] _rows) {
+        int bits = (int) Math.round(Math.log(Math.max(2, _rows.length / 8.0)) / Math.log(2));
+        return build(_matrix, _rows, 16, Math.max(1, Math.min(64, bits)));
+    }
+
+    /**
+     * Builds an index over the given rows, computing the signatures in parallel on all cores
+     * @param _matrix matrix holding the rows
+     * @param _rows rows to index
+     * @param _tables number of hash tables, L
+     * @param _bits signature bits per table, b, between 1 and 64
+     * @return the index
+     */
+    public static LshIndex build(EmbeddingMatrix _matrix, int[] _rows, int _tables, int _bits) {
+        LshIndex index = new LshIndex(_matrix, _tables, _bits, SEED);
+        long[] signatures = new long[_rows.length * _tables];
+
+        IntStream.range(0, _rows.length).parallel().forEach(i -> {
+            float[] row = new float[_matrix.getDimensions()];
+            _matrix.copyUnitRow(_rows[i], row, 0);
+            index.sign(row, signatures, i * _tables);
+        });
+
+        for (int i = 0; i < _rows.length; i++) index.add(_rows[i], signatures, i * _tables);
+
+        return index;
+    }
+
+    /**
+     * Reads an index written by save(); see IndexFile. The buckets are filled again from the saved signatures, which
+     * takes one pass over them
+     * @param _matrix the matrix the index was built over
+     * @param _file the snapshot
+     * @return the index
+     * @throws IOException if a section is missing or doesn't fit the others
+     */
+    public static LshIndex load(EmbeddingMatrix _matrix, IndexFile _file) throws IOException {
+        int tables = _file.getInt("tables");
+        int bits = _file.getInt("bits");
+        int[] rows = _file.getInts("rows");
+        LongBuffer signatures = _file.mapLongs("signatures");
+
+        if (tables < 1 || signatures.capacity() != (long) rows.length * tables)
+            throw new IOException("the lsh sections don't fit together");
+
+        //the index takes over the rows and the mapped signatures, and only the buckets are filled again
+        LshIndex index = new LshIndex(_matrix, tables, bits, _file.getFloats("planes"));
+        index.intRows = rows;
+        index.bufSignatures = signatures;
+        for (int node = 0; node < rows.length; node++)
+            for (int t = 0; t < tables; t++) index.buckets[t].add(signatures.get(node * tables + t), node);
+        index.intSize = rows.length;
+        index.setProbeRadius(_file.getInt("probeRadius"));
+        index.setPrefilterSlack(_file.getInt("prefilterSlack"));
+
+        return index;
+    }
+
+    @Override
+    public void save(IndexFile.Writer _writer) {
+        objLock.readLock().lock();
+        try {
+            saveNodes(_writer);
+        } finally {
+            objLock.readLock().unlock();
+        }
+    }
+
+    private void saveNodes(IndexFile.Writer _writer) {
+        _writer.putString("type", TYPE);
+        _writer.putInt("tables", intTables);
+        _writer.putInt("bits", intBits);
+        _writer.putInt("probeRadius", intProbeRadius);
+        _writer.putInt("prefilterSlack", intPrefilterSlack);
+        _writer.putFloats("planes", fltPlanes);
+        _writer.putInts("rows", intRows, intSize);
+        _writer.putLongs("signatures", bufSignatures, intSize * intTables);
+    }
+
+    /**
+     * Adds a row to the index. Searches running at the same time either find the row or don't
+     * @param _row matrix row to add
+     */
+    public void add(int _row) {
+        float[] row = new float[matMatrix.getDimensions()];
+        matMatrix.copyUnitRow(_row, row, 0);
+
+        long[] signatures = new long[intTables];
+        sign(row, signatures, 0);
+        add(_row, signatures, 0);
+    }
+
+    /**
+     * Copies the signatures into a new index with the same hyperplanes and adds the new rows to it
+     */
+    @Override
+    public LshIndex withRows(EmbeddingMatrix _matrix, int[] _rows) {
+        LshIndex index = new LshIndex(_matrix, intTables, intBits, fltPlanes);
+        objLock.readLock().lock();
+        try {
+            long[] signatures = new long[intTables];
+            for (int i = 0; i < intSize; i++) {
+                bufSignatures.get(i * intTables, signatures, 0, intTables);
+                index.add(intRows[i], signatures, 0);
+            }
+        } finally {
+            objLock.readLock().unlock();
+        }
+        for (int row : _rows) index.add(row);
+        index.intProbeRadius = intProbeRadius;
+        index.intPrefilterSlack = intPrefilterSlack;
+
+        return index;
+    }
+
+    /**
+     * Sets how many bits a probed bucket's signature may differ from the query's in. 0 only probes the query's own
+     * bucket; every step multiplies the number of buckets probed by about b / radius
+     * @param _radius probe radius in bits
+     */
+    public void setProbeRadius(int _radius) { intProbeRadius = Math.max(0, Math.min(_radius, intBits)); }
+
+    public int getProbeRadius() { return intProbeRadius; }
+
+    /**
+     * Switches to prefilter mode, or back to bucket probing for a negative slack
+     * @param _slack how many bits the signatures' estimate of a row's angle may be off by before the row is skipped;
+     *               higher skips fewer rows
+     */
+    public void setPrefilterSlack(int _slack) { intPrefilterSlack = _slack; }
+
+    public int getPrefilterSlack() { return intPrefilterSlack; }
+
+    public int getTables() { return intTables; }
+
+    public int getBits() { return intBits; }
+
+    public int size() { return intSize; }
+
+    @Override
+    public String getName() {
+        return intPrefilterSlack >= 0
+                ? "lsh-prefilter(L=" + intTables + ", b=" + intBits + ", slack=" + intPrefilterSlack + ")"
+                : "lsh(L=" + intTables + ", b=" + intBits + ", radius=" + intProbeRadius + ")";
+    }
+
+    @Override
+    public void search(float[] _unitQuery, HeapSort.TopK _topK) {
+        if (intSize == 0 || _topK.getCapacity() == 0) return;
+
+        long[] query = new long[intTables];
+        sign(_unitQuery, query, 0);
+
+        objLock.readLock().lock();
+        try {
+            search(_unitQuery, query, _topK);
+        } finally {
+            objLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Does the work of search() holding the read lock, with the signatures of the query
+     */
+    private void search(float[] _unitQuery, long[] _query, HeapSort.TopK _topK) {
+        SimilarityKernel kernel = SimilarityKernels.get();
+        int slack = intPrefilterSlack;
+        if (slack >= 0) {
+            prefilterScan(_unitQuery, _query, slack, _topK, kernel);
+            return;
+        }
+
+        //a row can sit in the probed buckets of several tables, so the rows already scored are marked
+        int[] visited = threadVisited.get();
+        if (visited.length < intSize + 1) {
+            visited = new int[intSize + 1];
+            threadVisited.set(visited);
+        }
+        if (++visited[0] == Integer.MAX_VALUE) {
+            Arrays.fill(visited, 0);
+            visited[0] = 1;
+        }
+
+        for (int t = 0; t < intTables; t++)
+            probe(t, _query[t], 0, intProbeRadius, _unitQuery, _topK, visited, kernel);
+    }
+
+    /**
+     * Scores the rows of the bucket with the given signature, then flips every bit from _fromBit on and recurses,
+     * so that every signature within _radius bits is probed once
+     */
+    private void probe(int _table, long _signature, int _fromBit, int _radius, float[] _query, HeapSort.TopK _topK,
+                       int[] _visited, SimilarityKernel _kernel) {
+        BucketMap map = buckets[_table];
+        int slot = map.find(_signature);
+
+        if (slot >= 0) {
+            int[] nodes = map.intLists[slot];
+            for (int i = 0; i < map.intSizes[slot]; i++) {
+                int node = nodes[i];
+                if (_visited[node + 1] == _visited[0]) continue;
+
+                _visited[node + 1] = _visited[0];
+                int row = intRows[node];
+                _topK.offer(row, matMatrix.cosine(row, _query, _kernel));
+                _topK.addScanned(1);
+            }
+        }
+
+        if (_radius == 0) return;
+        for (int bit = _fromBit; bit < intBits; bit++)
+            probe(_table, _signature ^ (1L << bit), bit + 1, _radius - 1, _query, _topK, _visited, _kernel);
+    }
+
+    private void prefilterScan(float[] _query, long[] _signatures, int _slack, HeapSort.TopK _topK,
+                               SimilarityKernel _kernel) {
+        int scored = 0;
+        for (int node = 0; node < intSize; node++) {
+            int differing = 0;
+            for (int t = 0; t < intTables; t++)
+                differing += Long.bitCount(bufSignatures.get(node * intTables + t) ^ _signatures[t]);
+
+            //skip the row if even its most optimistic estimate can't beat the worst row kept
+            if (fltCosines[Math.max(0, differing - _slack)] < _topK.getThreshold()) continue;
+
+            int row = intRows[node];
+            _topK.offer(row, matMatrix.cosine(row, _query, _kernel));
+            scored++;
+        }
+        _topK.addScanned(scored);
+    }
+
+    /**
+     * Computes the signature of a vector in every table: bit i is set when the vector lies on the positive side of
+     * hyperplane i
+     */
+    private void sign(float[] _vector, long[] _dst, int _offset) {
+        SimilarityKernel kernel = SimilarityKernels.get();
+        int dims = matMatrix.getDimensions();
+
+        for (int t = 0; t < intTables; t++) {
+            long signature = 0;
+            for (int bit = 0; bit < intBits; bit++) {
+                int plane = (t * intBits + bit) * dims;
+                if (kernel.dot(fltPlanes, plane, _vector, 0, dims) >= 0) signature |= 1L << bit;
+            }
+            _dst[_offset + t] = signature;
+        }
+    }
+
+    private static float[] drawPlanes(int _length, long _seed) {
+        Random myRandom = new Random(_seed);
+        float[] planes = new float[_length];
+        for (int i = 0; i < _length; i++) planes[i] = (float) myRandom.nextGaussian();
+
+        return planes;
+    }
+
+    private void add(int _row, long[] _signatures, int _offset) {
+        objLock.writeLock().lock();
+        try {
+            int node = intSize;
+            if (node == intRows.length) {
+                //also moves the signatures of a loaded index from its snapshot to the heap, the first time
+                long[] signatures = new long[Math.max(16, node * 2) * intTables];
+                bufSignatures.get(0, signatures, 0, node * intTables);
+
+                intRows = Arrays.copyOf(intRows, Math.max(16, node * 2));
+                bufSignatures = LongBuffer.wrap(signatures);
+            }
+
+            intRows[node] = _row;
+            bufSignatures.put(node * intTables, _signatures, _offset, intTables);
+            for (int t = 0; t < intTables; t++) buckets[t].add(_signatures[_offset + t], node);
+            intSize = node + 1;
+        } finally {
+            objLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Open-addressing map from a signature to the list of nodes in its bucket
+     */
+    private static class BucketMap {
+        private long[] lngKeys = new long[16];
+        private int[][] intLists = new int[16][];
+        private int[] intSizes = new int[16];
+        private int intMask = 15;
+        private int intBuckets = 0;
+
+        /**
+         * @return the slot of the bucket, or -1 if there is none
+         */
+        private int find(long _signature) {
+            for (int slot = hash(_signature) & intMask; intLists[slot] != null; slot = (slot + 1) & intMask)
+                if (lngKeys[slot] == _signature) return slot;
+
+            return -1;
+        }
+
+        private void add(long _signature, int _node) {
+            int slot = hash(_signature) & intMask;
+            while (intLists[slot] != null && lngKeys[slot] != _signature) slot = (slot + 1) & intMask;
+
+            if (intLists[slot] == null) {
+                lngKeys[slot] = _signature;
+                intLists[slot] = new int[2];
+                if (++intBuckets * 2 > intLists.length) {
+                    rehash();
+                    slot = find(_signature);
+                }
+            }
+
+            if (intSizes[slot] == intLists[slot].length)
+                intLists[slot] = Arrays.copyOf(intLists[slot], intSizes[slot] * 2);
+            intLists[slot][intSizes[slot]++] = _node;
+        }
+
+        private void rehash() {
+            long[] keys = lngKeys;
+            int[][] lists = intLists;
+            int[] sizes = intSizes;
+
+            lngKeys = new long[keys.length * 2];
+            intLists = new int[keys.length * 2][];
+            intSizes = new int[keys.length * 2];
+            intMask = keys.length * 2 - 1;
+
+            for (int i = 0; i < keys.length; i++) {
+                if (lists[i] == null) continue;
+
+                int slot = hash(keys[i]) & intMask;
+                while (intLists[slot] != null) slot = (slot + 1) & intMask;
+                lngKeys[slot] = keys[i];
+                intLists[slot] = lists[i];
+                intSizes[slot] = sizes[i];
+            }
+        }
+
+        private static int hash(long _signature) {
+            long h = _signature * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
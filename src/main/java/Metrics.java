@@ -0,0 +1,185 @@
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where the time goes: a latency histogram per stage of loading and searching, and a few counters, recorded without
+ * locks so that they can stay on under full load. A stage is timed with
+ * <pre>
+ * long start = Metrics.start();
+ * ...
+ * Metrics.record(Metrics.Stage.SCAN, start);
+ * </pre>
+ * which costs two System.nanoTime() calls and a few LongAdder increments, and nothing but a volatile read when the
+ * metrics are off. They are on unless the JVM runs with -Dsemantic.metrics=false, and can be switched at runtime.
+ * <p>
+ * The numbers can be read with snapshot() and getCount(), as a plain-text table with dump(), and over JMX once
+ * registerMBean() has been called, under semantic:type=Metrics.
+ */
+public class Metrics {
+    public static final String MBEAN_NAME = "semantic:type=Metrics";
+
+    /**
+     * Stages timed. The load stages time Toolkit.loadGLOVE() and the models of SemanticMain.reload(); the search
+     * stages are nested inside the end-to-end NEAREST, BATCH and ANALOGY
+     */
+    public enum Stage {
+        LOAD, //a whole model load
+        LOAD_SPLIT, //finding the line boundaries the CSV is parsed in parallel between
+        LOAD_PARSE, //parsing the CSV ranges and appending them to the matrix
+        LOAD_INDEX, //indexing the vocabulary
+        RESOLVE, //looking up the input words and scaling the query to unit length
+        SCAN, //scoring the rows, through the index or one by one, into the bounded top-k heap
+        TOP_K, //sorting the kept rows and turning them into cosine similarity pairs
+        NEAREST, //WordsNearest() end to end, including the result cache
+        BATCH, //WordsNearestBatch() and WordsNearestVectorBatch() end to end
+        ANALOGY //LogicalAnalogies() end to end, including the result cache
+    }
+
+    public enum Counter {
+        QUERIES, //words or vectors searched, one per input of a batch
+        ROWS_SCORED, //rows scored one by one, by the exact scan or after the index
+        INDEX_SEARCHES, //searches answered by an approximate index
+        UNKNOWN_WORDS, //input words outside the vocabulary, searched as "error"
+        SERVER_ERRORS //requests SemanticServer failed to answer with 500 Internal Server Error
+    }
+
+    private static volatile boolean boolEnabled = !"false".equals(System.getProperty("semantic.metrics"));
+    private static final Map<Stage, LatencyHistogram> HISTOGRAMS = new EnumMap<>(Stage.class);
+    private static final Map<Counter, LongAdder> COUNTERS = new EnumMap<>(Counter.class);
+
+    static {
+        for (Stage stage : Stage.values()) HISTOGRAMS.put(stage, new LatencyHistogram());
+        for (Counter counter : Counter.values()) COUNTERS.put(counter, new LongAdder());
+    }
+
+    public static boolean isEnabled() { return boolEnabled; }
+
+    public static void setEnabled(boolean _enabled) { boolEnabled = _enabled; }
+
+    /**
+     * @return the start time of a stage to pass to record(), or 0 when the metrics are off
+     */
+    public static long start() { return boolEnabled ? System.nanoTime() : 0; }
+
+    /**
+     * Records the time since start() in the histogram of a stage. Nothing is recorded if the metrics were off when the
+     * stage started
+     * @param _stage the stage
+     * @param _start what start() returned
+     */
+    public static void record(Stage _stage, long _start) {
+        if (_start != 0) HISTOGRAMS.get(_stage).record(System.nanoTime() - _start);
+    }
+
+    public static void count(Counter _counter, long _amount) {
+        if (boolEnabled) COUNTERS.get(_counter).add(_amount);
+    }
+
+    public static LatencyHistogram.Snapshot snapshot(Stage _stage) { return HISTOGRAMS.get(_stage).snapshot(); }
+
+    public static long getCount(Counter _counter) { return COUNTERS.get(_counter).sum(); }
+
+    /**
+     * Empties every histogram and counter
+     */
+    public static void reset() {
+        HISTOGRAMS.values().forEach(LatencyHistogram::reset);
+        COUNTERS.values().forEach(LongAdder::reset);
+    }
+
+    /**
+     * Formats the stages that have been recorded as a table in microseconds, followed by the counters
+     * @return the table, one line per stage or counter
+     */
+    public static String dump() {
+        StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "%-10s %10s %10s %10s %10s %10s %10s%n",
+                "stage", "count", "mean_us", "p50_us", "p99_us", "p999_us", "max_us"));
+
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram.Snapshot snapshot = snapshot(stage);
+            if (snapshot.getCount() == 0) continue;
+
+            sb.append(String.format(Locale.ROOT, "%-10s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    stage.name().toLowerCase(), snapshot.getCount(), snapshot.getMeanNanos() / 1e3,
+                    snapshot.getP50Nanos() / 1e3, snapshot.getP99Nanos() / 1e3, snapshot.getP999Nanos() / 1e3,
+                    snapshot.getMaxNanos() / 1e3));
+        }
+
+        for (Counter counter : Counter.values())
+            sb.append(String.format(Locale.ROOT, "%-14s %d%n", counter.name().toLowerCase(), getCount(counter)));
+
+        return sb.toString();
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, for JConsole, Mission Control or any JMX client. Calling
+     * it again does nothing
+     * @return the name of the MBean
+     */
+    public static synchronized ObjectName registerMBean() {
+        try {
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name)) server.registerMBean(new MBean(), name);
+
+            return name;
+        } catch (JMException e) {
+            throw new IllegalStateException("the metrics MBean can't be registered", e);
+        }
+    }
+
+    /**
+     * The JMX view of the metrics. The stages come out as a table of composite values with the getters of
+     * LatencyHistogram.Snapshot, in nanoseconds
+     */
+    public interface MetricsMXBean {
+        boolean isEnabled();
+
+        void setEnabled(boolean _enabled);
+
+        Map<String, LatencyHistogram.Snapshot> getStages();
+
+        Map<String, Long> getCounters();
+
+        String getDump();
+
+        void reset();
+    }
+
+    private static class MBean implements MetricsMXBean {
+        @Override
+        public boolean isEnabled() { return Metrics.isEnabled(); }
+
+        @Override
+        public void setEnabled(boolean _enabled) { Metrics.setEnabled(_enabled); }
+
+        @Override
+        public Map<String, LatencyHistogram.Snapshot> getStages() {
+            Map<String, LatencyHistogram.Snapshot> result = new LinkedHashMap<>();
+            for (Stage stage : Stage.values()) result.put(stage.name(), snapshot(stage));
+
+            return result;
+        }
+
+        @Override
+        public Map<String, Long> getCounters() {
+            Map<String, Long> result = new LinkedHashMap<>();
+            for (Counter counter : Counter.values()) result.put(counter.name(), getCount(counter));
+
+            return result;
+        }
+
+        @Override
+        public String getDump() { return dump(); }
+
+        @Override
+        public void reset() { Metrics.reset(); }
+    }
+}
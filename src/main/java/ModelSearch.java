@@ -0,0 +1,330 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Routes the searches of SemanticMain over a snapshot. A query is resolved to a unit-length float vector and scored by
+ * the approximate index of the snapshot, by the exact scan of its rows, or by a scan of the bitmap of a filter that
+ * keeps too few rows for the index to be worth it, with the rows added since the last compaction scanned next to the
+ * index; the rows kept are then scored again in double precision and turned into cosine similarity pairs. Every method
+ * reads one snapshot and nothing else, so SemanticMain only takes the snapshot, counts the query and caches the result
+ */
+public class ModelSearch {
+    private ModelSearch() { }
+
+    /**
+     * Finds the row of the input word if the word is in listVocabulary. Otherwise, the row of the word "error" is
+     * returned
+     * @param _word word to find the row of
+     * @return the matrix row of the input word
+     */
+    static int getRow(ModelSnapshot _snapshot, String _word) {
+        int row = _snapshot.rowOf(_word);
+        if (row >= 0) return row;
+
+        Metrics.count(Metrics.Counter.UNKNOWN_WORDS, 1);
+        return _snapshot.rowOf("error");
+    }
+
+    static List<CosSimilarityPair> nearestToWord(ModelSnapshot _snapshot, String _word, int _k, RowFilter _filter,
+                                                 SemanticEvents.Query _event) {
+        long start = Metrics.start();
+        EmbeddingMatrix matrix = _snapshot.matrix;
+        int row = getRow(_snapshot, _word);
+        double[] query = unit(matrix.getRow(row)); //get the vector representation of the input word
+        Metrics.record(Metrics.Stage.RESOLVE, start);
+
+        HeapSort.TopK topK = scan(_snapshot, toFloats(query), null, _k, _filter, row);
+        trace(_event, _snapshot, topK);
+        return toPairs(_snapshot, topK, null, _k, candidate -> matrix.cosine(candidate, query),
+                candidate -> new CosSimilarityPair(_word, _snapshot.wordOf(candidate), 0));
+    }
+
+    /**
+     * Scores the input vector against every row of listGlove, or of the filter, and keeps the _k best rows, except for
+     * the excluded rows and the rows equal to the input vector
+     */
+    static List<CosSimilarityPair> nearestToVector(ModelSnapshot _snapshot, Vector _vector, int _k,
+                                                   RowFilter _filter, SemanticEvents.Query _event,
+                                                   int... _excluded) {
+        EmbeddingMatrix matrix = _snapshot.matrix;
+        //normalize once so that every row costs a single dot product
+        double[] unitQuery = unit(_vector.getAllElements());
+        IntFunction<CosSimilarityPair> pair = candidate -> new CosSimilarityPair(_vector, _snapshot.wordOf(candidate),
+                0);
+
+        //vectors of a different size keep the re-sizing behaviour of Vector.cosineSimilarity()
+        if (_vector.getVectorSize() != matrix.getDimensions()) {
+            IntToDoubleFunction score = candidate -> {
+                double[] row = Vector.scratch(matrix.getDimensions());
+                matrix.copyRow(candidate, row, 0);
+                return _vector.cosineSimilarity(row, matrix.getDimensions());
+            };
+            HeapSort.TopK topK = scanResized(_snapshot, score, _vector.getAllElements(), _k, _filter, _excluded);
+            trace(_event, _snapshot, topK);
+            return toPairs(_snapshot, topK, null, _k, score, pair);
+        }
+
+        HeapSort.TopK topK = scan(_snapshot, toFloats(unitQuery), _vector.getAllElements(), _k, _filter, _excluded);
+        trace(_event, _snapshot, topK);
+        return toPairs(_snapshot, topK, _vector.getAllElements(), _k, candidate -> matrix.cosine(candidate, unitQuery),
+                pair);
+    }
+
+    static List<CosSimilarityPair> analogy(ModelSnapshot _snapshot, String _secISRef, String _firISRef,
+                                           String _firTORef, int _top, RowFilter _filter,
+                                           SemanticEvents.Query _event) {
+        //call WordsNearest on the mathematical operation secIs - firIs + firTo, leaving out the rows of the input
+        //words. The rows are accumulated in place into the query rather than through a Vector per operation, but
+        //nearestToVector() still allocates the unit query twice, as doubles for re-scoring and as floats for the scan
+        long start = Metrics.start();
+        EmbeddingMatrix matrix = _snapshot.matrix;
+        int dims = matrix.getDimensions();
+        double[] query = new double[dims];
+        double[] row = Vector.scratch(dims);
+        matrix.copyRow(getRow(_snapshot, _secISRef), query, 0);
+        matrix.copyRow(getRow(_snapshot, _firISRef), row, 0);
+        Vector.subInto(query, 0, row, 0, dims);
+        matrix.copyRow(getRow(_snapshot, _firTORef), row, 0);
+        Vector.addInto(query, 0, row, 0, dims);
+        Vector vector = new Vector(query);
+        Metrics.record(Metrics.Stage.RESOLVE, start);
+        return nearestToVector(_snapshot, vector, _top, _filter, _event, _snapshot.rowOf(_secISRef),
+                _snapshot.rowOf(_firISRef), _snapshot.rowOf(_firTORef));
+    }
+
+    /**
+     * Runs scan() for every query: in one blocked pass over the rows for the exact scan, or one index search per query
+     * in parallel
+     */
+    static HeapSort.TopK[] searchAll(ModelSnapshot _snapshot, float[][] _unitQueries, int _k, RowFilter _filter,
+                                     int[][] _excluded, double[][] _skipEqual) {
+        if (_snapshot.index.get() == null) {
+            long start = Metrics.start();
+            int[] rows = _filter == null ? _snapshot.liveRows(0) : _snapshot.liveRows(_filter.bits(_snapshot));
+            HeapSort.TopK[] result = BatchSearch.search(_snapshot.matrix, rows, _unitQueries, _k, _excluded,
+                    _skipEqual, SimilarityKernels.get());
+            for (HeapSort.TopK topK : result) topK.addScanned(rows.length);
+            Metrics.count(Metrics.Counter.ROWS_SCORED, (long) rows.length * _unitQueries.length);
+            Metrics.record(Metrics.Stage.SCAN, start);
+            return result;
+        }
+
+        HeapSort.TopK[] result = new HeapSort.TopK[_unitQueries.length];
+        IntStream.range(0, result.length).parallel().forEach(i -> result[i] = scan(_snapshot, _unitQueries[i],
+                _skipEqual == null ? null : _skipEqual[i], _k, _filter,
+                _excluded == null ? new int[0] : _excluded[i]));
+
+        return result;
+    }
+
+    /**
+     * Keeps the _k rows of listGlove with the highest cosine similarity to the query in a bounded heap, using the
+     * approximate index if there is one and scanning every row otherwise. The index doesn't compare values, so it asks
+     * for one more row when rows equal to the query must be skipped; toPairs() drops that row.
+     * <p>
+     * A filter that keeps fewer rows than an eighth of the index is scanned exactly, row by row of its bitmap, which is
+     * then cheaper than the index and finds every row. Otherwise the index skips the rows the filter leaves out, and
+     * the rows it keeps outside the index are scanned exactly
+     * @param _unitQuery query scaled to unit length
+     * @param _skipEqual if not null, rows holding exactly these values are skipped
+     * @param _k how many rows to keep
+     * @param _filter the rows that may be kept, or null for the rows of listGlove
+     * @param _excluded rows that must not be kept
+     * @return the heap of the best rows
+     */
+    static HeapSort.TopK scan(ModelSnapshot _snapshot, float[] _unitQuery, double[] _skipEqual, int _k,
+                              RowFilter _filter, int... _excluded) {
+        NearestNeighbourIndex index = _snapshot.index.get();
+        if (_filter != null && (index == null || _filter.count(_snapshot) < _snapshot.intIndexedCount >> 3)) {
+            long start = Metrics.start();
+            HeapSort.TopK topK = new HeapSort.TopK(Math.max(0, Math.min(_k, _filter.count(_snapshot))));
+            topK.setExcluded(_excluded);
+            scanBits(_snapshot, _unitQuery, _skipEqual, _filter.bits(_snapshot), null, topK);
+            Metrics.record(Metrics.Stage.SCAN, start);
+            return topK;
+        }
+        if (index == null) return scanExact(_snapshot, _unitQuery, _skipEqual, _k, _excluded);
+
+        long start = Metrics.start();
+        HeapSort.TopK topK = new HeapSort.TopK(Math.max(0, Math.min(_k + (_skipEqual != null ? 1 : 0),
+                _snapshot.intScanCount)));
+        topK.setExcluded(_excluded);
+
+        //removed words are skipped through their tombstones, and the words added since the index was extended last
+        //are scanned exactly into the same heap
+        topK.setDeleted(_snapshot.tombstones);
+        if (_filter != null) topK.setAllowed(_filter.bits(_snapshot));
+        index.search(_unitQuery, topK);
+        Metrics.count(Metrics.Counter.INDEX_SEARCHES, 1);
+
+        if (_filter != null) {
+            scanBits(_snapshot, _unitQuery, null, _filter.bits(_snapshot), _snapshot.indexedRows(), topK);
+            Metrics.record(Metrics.Stage.SCAN, start);
+            return topK;
+        }
+
+        EmbeddingMatrix matrix = _snapshot.matrix;
+        SimilarityKernel kernel = SimilarityKernels.get();
+        for (int i = _snapshot.intIndexedCount; i < _snapshot.intScanCount; i++) {
+            int row = _snapshot.intScanRows[i];
+            float cs = matrix.cosine(row, _unitQuery, kernel);
+            if (cs > topK.getThreshold()) topK.offer(row, cs);
+        }
+        topK.addScanned(_snapshot.intScanCount - _snapshot.intIndexedCount);
+
+        Metrics.count(Metrics.Counter.ROWS_SCORED, _snapshot.intScanCount - _snapshot.intIndexedCount);
+        Metrics.record(Metrics.Stage.SCAN, start);
+        return topK;
+    }
+
+    /**
+     * Scores the rows set in a bitmap into the heap, walking the set bits a long at a time so that the rows left out
+     * cost nothing. Deleted rows are skipped the same way
+     * @param _bits the rows to score, bit row % 64 of long row / 64
+     * @param _minus rows of _bits not to score, in the same layout, or null
+     */
+    private static void scanBits(ModelSnapshot _snapshot, float[] _unitQuery, double[] _skipEqual, long[] _bits,
+                                 long[] _minus, HeapSort.TopK _topK) {
+        EmbeddingMatrix matrix = _snapshot.matrix;
+        SimilarityKernel kernel = SimilarityKernels.get();
+        Tombstones deleted = _snapshot.tombstones;
+        int scored = 0;
+
+        for (int i = 0; i < _bits.length; i++) {
+            long word = _bits[i];
+            word &= ~deleted.word(i);
+            if (_minus != null && i < _minus.length) word &= ~_minus[i];
+
+            for (; word != 0; word &= word - 1) {
+                int row = i << 6 | Long.numberOfTrailingZeros(word);
+                float cs = matrix.cosine(row, _unitQuery, kernel);
+                scored++;
+                if (!(cs > _topK.getThreshold())) continue;
+
+                //only a row scoring ~1 can equal the input, so the element-wise comparison is rarely needed
+                if (_skipEqual != null && cs > 0.9999f && matrix.rowEquals(row, _skipEqual)) continue;
+
+                _topK.offer(row, cs);
+            }
+        }
+        _topK.addScanned(scored);
+
+        Metrics.count(Metrics.Counter.ROWS_SCORED, scored);
+    }
+
+    /**
+     * Scans the rows of listGlove in order and keeps the _k rows with the highest cosine similarity to the query in a
+     * bounded heap. Every row costs one dot product of the similarity kernel
+     */
+    private static HeapSort.TopK scanExact(ModelSnapshot _snapshot, float[] _unitQuery, double[] _skipEqual, int _k,
+                                           int... _excluded) {
+        long start = Metrics.start();
+        EmbeddingMatrix matrix = _snapshot.matrix;
+        SimilarityKernel kernel = SimilarityKernels.get();
+        int[] rows = _snapshot.intScanRows;
+        int count = _snapshot.intScanCount;
+        HeapSort.TopK topK = new HeapSort.TopK(Math.max(0, Math.min(_k, count)));
+        topK.setExcluded(_excluded);
+        topK.setDeleted(_snapshot.tombstones);
+
+        for (int i = 0; i < count; i++) {
+            int row = rows[i];
+            float cs = matrix.cosine(row, _unitQuery, kernel);
+            if (!(cs > topK.getThreshold())) continue;
+
+            //only a row scoring ~1 can equal the input, so the element-wise comparison is rarely needed
+            if (_skipEqual != null && cs > 0.9999f && matrix.rowEquals(row, _skipEqual)) continue;
+
+            topK.offer(row, cs);
+        }
+        topK.addScanned(count);
+
+        Metrics.count(Metrics.Counter.ROWS_SCORED, count);
+        Metrics.record(Metrics.Stage.SCAN, start);
+        return topK;
+    }
+
+    /**
+     * Same as scan() for queries whose size differs from the matrix dimensions, scoring every row with the given
+     * function instead of the kernel
+     */
+    private static HeapSort.TopK scanResized(ModelSnapshot _snapshot, IntToDoubleFunction _score, double[] _skipEqual,
+                                             int _k, RowFilter _filter, int... _excluded) {
+        EmbeddingMatrix matrix = _snapshot.matrix;
+        int[] rows = _filter == null ? _snapshot.liveRows(0) : _snapshot.liveRows(_filter.bits(_snapshot));
+        HeapSort.TopK topK = new HeapSort.TopK(Math.max(0, Math.min(_k, rows.length)));
+        topK.setExcluded(_excluded);
+
+        for (int row : rows) if (!matrix.rowEquals(row, _skipEqual)) topK.offer(row, (float) _score.applyAsDouble(row));
+        topK.addScanned(rows.length);
+
+        return topK;
+    }
+
+    /**
+     * Turns the rows kept in the heap into cosine similarity pairs. The heap ranks rows by float scores, so the kept
+     * rows are scored again in double precision and ordered by those scores. Rows equal to _skipEqual are dropped and
+     * at most _k pairs are returned
+     */
+    static List<CosSimilarityPair> toPairs(ModelSnapshot _snapshot, HeapSort.TopK _topK, double[] _skipEqual,
+                                           int _k, IntToDoubleFunction _score,
+                                           IntFunction<CosSimilarityPair> _pair) {
+        long start = Metrics.start();
+        EmbeddingMatrix matrix = _snapshot.matrix;
+        _topK.sort();
+        List<CosSimilarityPair> result = new ArrayList<>(_topK.size());
+
+        for (int i = 0; i < _topK.size() && result.size() < _k; i++) {
+            int row = _topK.getId(i);
+            double cs = _score.applyAsDouble(row);
+
+            //the heap's scores may be approximate, so the check for an equal row uses the exact score
+            if (_skipEqual != null && cs > 0.9999 && matrix.rowEquals(row, _skipEqual)) continue;
+
+            CosSimilarityPair pair = _pair.apply(row);
+            pair.setCosineSimilarity(cs);
+            result.add(pair);
+        }
+
+        result = HeapSort.doHeapSort(result); //order the list
+        Metrics.record(Metrics.Stage.TOP_K, start);
+        return result;
+    }
+
+    /**
+     * Adds the rows scored for a heap to a query event, if one was begun, along with the index that scored them
+     */
+    static void trace(SemanticEvents.Query _event, ModelSnapshot _snapshot, HeapSort.TopK _topK) {
+        if (_event == null) return;
+
+        NearestNeighbourIndex index = _snapshot.index.get(); //already resolved by the search
+        _event.lngScanned += _topK.getScanned();
+        _event.strIndexMode = index == null ? "exact" : index.getName();
+    }
+
+    static float[] toFloats(double[] _v) {
+        float[] result = new float[_v.length];
+        for (int i = 0; i < _v.length; i++) result[i] = (float) _v[i];
+
+        return result;
+    }
+
+    /**
+     * Returns a copy of the input scaled to unit length. A vector of zeros is returned as is
+     * @param _v vector elements
+     * @return the unit-length copy
+     */
+    static double[] unit(double[] _v) {
+        double sum = 0;
+        for (double x : _v) sum += x * x;
+
+        double norm = Math.sqrt(sum);
+        double[] result = new double[_v.length];
+        for (int i = 0; i < _v.length; i++) result[i] = norm == 0 ? 0 : _v[i] / norm;
+
+        return result;
+    }
+}
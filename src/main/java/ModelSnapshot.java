@@ -0,0 +1,523 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiFunction;
+
+/**
+ * Everything a search reads, taken together: the matrix, the row of every word, the rows searched and the index
+ * over them, along with the words added, updated or removed since the lists were set. Once published through
+ * refSnapshot a snapshot is never changed again: a writer copies it, changes the copy and publishes the copy, so a
+ * search works with one consistent model however long it takes, and a model swapped in meanwhile only affects the
+ * searches that start after it. The arrays the words and rows are appended to are shared between copies, since a
+ * copy only ever reads the part it counts.
+ * <p>
+ * The rows of every snapshot of the same lists keep their words, so they share the key that the bitmaps of the
+ * row filters are compiled under.
+ * <p>
+ * SemanticMain publishes the snapshots and holds the lock their writers take; the copies themselves are made here.
+ * withWord() and withoutWord() record one word update, and a Compaction folds the updates into a new base and
+ * extends the index with the added rows, doing the slow part before the lock is taken.
+ */
+public class ModelSnapshot implements RowFilter.Rows {
+    private final List<String> listVocabulary; //the lists the snapshot was taken of
+    private final List<double[]> listVectors;
+    private final List<Glove> listGlove;
+    private final Object objRowsKey; //the same for every snapshot of the lists; see RowFilter.Rows
+    private final VocabularyIndex stopwords;
+    EmbeddingMatrix matrix; //the matrix of listVectors, extended with the added rows after the first update
+    boolean boolExtended; //whether matrix is the extension the added rows go to
+    private List<String> listBaseWords; //word of every row below intBaseRows
+    private VocabularyIndex baseIndex; //row of every word as of intBaseRows, never changed once published
+    private int intBaseRows;
+    private String[] strNewWords; //word of every row from intBaseRows on
+    private int intNewWords;
+    private ChangedWords changedWords; //latest row, or -1 once removed, of every word changed since the base
+    int[] intScanRows; //rows searched: the rows the index holds, then the rows added since
+    int intScanCount;
+    private boolean boolSharedRows; //whether intScanRows is still the glove rows array, which must not be written
+    LazyIndex index; //index over the first intIndexedCount scan rows
+    int intIndexedCount;
+    private volatile long[] lngIndexed; //bit of every row the index holds, set the first time a filter needs it
+    private int intDeletedSinceBuild; //rows deleted since the index was last built from scratch
+    Tombstones tombstones; //every removed or replaced row
+    int intChanges; //updates since the last compaction
+    private int intCompactions;
+    long lngBase = -1; //generation of the first snapshot of the lists, set when it is published
+    long lngGeneration;
+
+    ModelSnapshot(List<String> _vocabulary, List<double[]> _vectors, List<Glove> _gloves,
+                  EmbeddingMatrix _matrix, VocabularyIndex _index, int[] _rows, LazyIndex _nnIndex,
+                  VocabularyIndex _stopwords) {
+        listVocabulary = _vocabulary;
+        listVectors = _vectors;
+        listGlove = _gloves;
+        objRowsKey = new Object();
+        stopwords = _stopwords;
+        matrix = _matrix;
+        listBaseWords = _vocabulary;
+        baseIndex = _index;
+        intBaseRows = _vocabulary.size(); //the matrix may have rows past the words, appended by its owner
+        strNewWords = new String[16];
+        changedWords = ChangedWords.NONE;
+        intScanRows = _rows;
+        intScanCount = _rows.length;
+        boolSharedRows = true;
+        index = _nnIndex;
+        intIndexedCount = _rows.length;
+        tombstones = Tombstones.NONE;
+    }
+
+    private ModelSnapshot(ModelSnapshot _other) {
+        listVocabulary = _other.listVocabulary;
+        listVectors = _other.listVectors;
+        listGlove = _other.listGlove;
+        objRowsKey = _other.objRowsKey;
+        stopwords = _other.stopwords;
+        matrix = _other.matrix;
+        boolExtended = _other.boolExtended;
+        listBaseWords = _other.listBaseWords;
+        baseIndex = _other.baseIndex;
+        intBaseRows = _other.intBaseRows;
+        strNewWords = _other.strNewWords;
+        intNewWords = _other.intNewWords;
+        changedWords = _other.changedWords;
+        intScanRows = _other.intScanRows;
+        intScanCount = _other.intScanCount;
+        boolSharedRows = _other.boolSharedRows;
+        index = _other.index;
+        intIndexedCount = _other.intIndexedCount;
+        lngIndexed = _other.lngIndexed;
+        intDeletedSinceBuild = _other.intDeletedSinceBuild;
+        tombstones = _other.tombstones;
+        intChanges = _other.intChanges;
+        intCompactions = _other.intCompactions;
+        lngBase = _other.lngBase;
+        lngGeneration = _other.lngGeneration;
+    }
+
+    /**
+     * @return whether the snapshot was taken of the lists the SemanticMain currently has
+     */
+    boolean isOf(SemanticMain _main) {
+        return listVocabulary == _main.listVocabulary && listVectors == _main.listVectors
+                && listGlove == _main.listGlove;
+    }
+
+    int rowOf(String _word) {
+        Integer row = changedWords.get(_word);
+        return row != null ? row : baseIndex.get(_word);
+    }
+
+    @Override
+    public Object getKey() { return objRowsKey; }
+
+    @Override
+    public int size() { return intBaseRows + intNewWords; }
+
+    @Override
+    public String wordOf(int _row) {
+        return _row < intBaseRows ? listBaseWords.get(_row) : strNewWords[_row - intBaseRows];
+    }
+
+    @Override
+    public boolean isStopword(int _row) { return stopwords.contains(wordOf(_row)); }
+
+    boolean isDeleted(int _row) {
+        return tombstones.contains(_row);
+    }
+
+    /**
+     * @return the scan rows from _from on that are not deleted, in order
+     */
+    int[] liveRows(int _from) {
+        int[] rows = new int[liveRowCount(_from, intScanCount)];
+        for (int i = _from, n = 0; i < intScanCount; i++)
+            if (!isDeleted(intScanRows[i])) rows[n++] = intScanRows[i];
+
+        return rows;
+    }
+
+    /**
+     * @return the rows set in a bitmap that are not deleted, in order
+     */
+    int[] liveRows(long[] _bits) {
+        long[] live = _bits.clone();
+        int count = 0;
+        for (int i = 0; i < live.length; i++) {
+            live[i] &= ~tombstones.word(i);
+            count += Long.bitCount(live[i]);
+        }
+
+        int[] rows = new int[count];
+        for (int i = 0, n = 0; i < live.length; i++)
+            for (long word = live[i]; word != 0; word &= word - 1)
+                rows[n++] = i << 6 | Long.numberOfTrailingZeros(word);
+
+        return rows;
+    }
+
+    /**
+     * @return the bitmap of the rows the index holds, the first intIndexedCount scan rows
+     */
+    long[] indexedRows() {
+        long[] result = lngIndexed;
+        if (result == null) {
+            result = new long[(size() + 63) >>> 6];
+            for (int i = 0; i < intIndexedCount; i++) result[intScanRows[i] >>> 6] |= 1L << intScanRows[i];
+            lngIndexed = result;
+        }
+
+        return result;
+    }
+
+    int liveRowCount(int _from, int _to) {
+        int count = 0;
+        for (int i = _from; i < _to; i++) if (!isDeleted(intScanRows[i])) count++;
+
+        return count;
+    }
+
+    /**
+     * @return a copy whose matrix is an extension of this one that the added rows go to (see EmbeddingMatrix.extend()),
+     * since the matrix of the model may be a read-only mapping and is shared with whoever loaded the model
+     */
+    ModelSnapshot extended() {
+        ModelSnapshot next = new ModelSnapshot(this);
+        next.matrix = matrix.extend(size()); //the index keeps reading the rows of the model
+        next.boolExtended = true;
+        return next;
+    }
+
+    /**
+     * Appends the vector of a word as a new row of the extended matrix. Rows beyond the published ones are invisible
+     * to the searches of this snapshot, so only the copy sees the row
+     * @param _searchable false for a stop word, which is looked up but never found by a search
+     * @param _replaced the row the word had before, which is marked as deleted, or -1
+     * @return the copy recording the word
+     */
+    ModelSnapshot withWord(String _word, double[] _vector, boolean _searchable, int _replaced) {
+        ModelSnapshot next = new ModelSnapshot(this);
+        int row = next.matrix.addRow(_vector);
+        next.appendRow(_word, _searchable);
+        next.changeWord(_word, row);
+        if (_replaced >= 0) next.delete(_replaced);
+
+        return next;
+    }
+
+    /**
+     * @return a copy where the word is gone and its row is marked as deleted
+     */
+    ModelSnapshot withoutWord(String _word) {
+        ModelSnapshot next = new ModelSnapshot(this);
+        int row = rowOf(_word);
+        next.changeWord(_word, -1);
+        if (row >= 0) next.delete(row);
+
+        return next;
+    }
+
+    /**
+     * Records the word of the row just appended to the matrix, and makes the row searchable unless it is the row
+     * of a stop word
+     */
+    private void appendRow(String _word, boolean _searchable) {
+        if (intNewWords == strNewWords.length) strNewWords = Arrays.copyOf(strNewWords, intNewWords * 2);
+        strNewWords[intNewWords++] = _word;
+
+        if (_searchable) {
+            if (boolSharedRows || intScanCount == intScanRows.length)
+                intScanRows = Arrays.copyOf(intScanRows, intScanCount + (intScanCount >> 1) + 16);
+            boolSharedRows = false;
+            intScanRows[intScanCount++] = intBaseRows + intNewWords - 1;
+        }
+    }
+
+    private void changeWord(String _word, int _row) { changedWords = changedWords.with(_word, _row); }
+
+    private void delete(int _row) {
+        tombstones = tombstones.with(_row);
+        intDeletedSinceBuild++;
+    }
+
+    /**
+     * A compaction of the word updates of a snapshot: the words of every row folded into a new vocabulary index, and
+     * the index extended with the live rows added since the last compaction, or built again once the deleted rows
+     * make up more than an eighth of it. The constructor does that work on the snapshot as it was when the compaction
+     * started, without any lock; applyTo() then carries the updates made in the meantime over to the result
+     */
+    static class Compaction {
+        private final ModelSnapshot start;
+        private final boolean boolChanged; //whether any word was added, updated or removed
+        private final String[] strWords; //word of every row, when changed
+        private final VocabularyIndex vocabulary;
+        private final int[] intLive; //the live scan rows, the rows the index holds first
+        private final LazyIndex index;
+        private final int intDeletedSinceBuild;
+
+        /**
+         * @param _start the snapshot to compact
+         * @param _rebuild true to leave the index as it is, for applyTo() to replace
+         */
+        Compaction(ModelSnapshot _start, boolean _rebuild) {
+            start = _start;
+
+            //the live rows keep their order, so the rows the index already holds come first
+            intLive = _start.liveRows(0);
+            boolChanged = _start.intNewWords > 0 || !_start.changedWords.isEmpty();
+            strWords = new String[boolChanged ? _start.intBaseRows + _start.intNewWords : 0];
+            vocabulary = new VocabularyIndex(strWords.length);
+            for (int row = 0; row < strWords.length; row++) {
+                strWords[row] = _start.wordOf(row);
+                vocabulary.putIfAbsent(strWords[row], _start.rowOf(strWords[row])); //-1 for a removed word
+            }
+
+            LazyIndex index = _start.index;
+            int deletedSinceBuild = _start.intDeletedSinceBuild;
+            NearestNeighbourIndex built = _rebuild ? null : index.get();
+            int indexedLive = _start.liveRowCount(0, _start.intIndexedCount);
+            if (built != null && deletedSinceBuild > _start.intIndexedCount >> 3) {
+                index = index.over(_start.matrix, intLive);
+                index.get();
+                deletedSinceBuild = 0;
+            } else if (built != null && indexedLive < intLive.length) {
+                SemanticEvents.IndexBuild event = new SemanticEvents.IndexBuild();
+                event.begin();
+                try {
+                    NearestNeighbourIndex extended = built.withRows(_start.matrix,
+                            Arrays.copyOfRange(intLive, indexedLive, intLive.length));
+                    SemanticEvents.commitBuild(event, index.kind(), extended, "extended", intLive.length - indexedLive,
+                            null);
+                    index = index.resolved(extended);
+                } catch (UnsupportedOperationException e) {
+                    index = index.over(_start.matrix, intLive);
+                    index.get();
+                    deletedSinceBuild = 0;
+                }
+            }
+
+            this.index = index;
+            intDeletedSinceBuild = deletedSinceBuild;
+        }
+
+        /**
+         * @return whether there were no word updates to fold and the index stayed as it was
+         */
+        boolean isEmpty() { return !boolChanged && index == start.index; }
+
+        /**
+         * @return whether _current follows the snapshot this compaction started from, with the same lists and no other
+         * compaction since
+         */
+        boolean isStartOf(ModelSnapshot _current) {
+            return _current.lngBase == start.lngBase && _current.intCompactions == start.intCompactions;
+        }
+
+        /**
+         * Returns the compacted copy of _current, which must follow the start (see isStartOf()), with the updates made
+         * after the start still recorded as updates
+         * @param _settings settings to build the index with over the live rows instead of keeping it, or null
+         * @return the compacted snapshot
+         */
+        ModelSnapshot applyTo(ModelSnapshot _current, LazyIndex _settings) {
+            ModelSnapshot compacted = new ModelSnapshot(_current);
+            compacted.intCompactions++;
+            if (boolChanged) {
+                int folded = strWords.length - _current.intBaseRows;
+                compacted.listBaseWords = Arrays.asList(strWords);
+                compacted.baseIndex = vocabulary;
+                compacted.intBaseRows = strWords.length;
+                compacted.strNewWords = Arrays.copyOfRange(_current.strNewWords, folded,
+                        Math.max(folded + 16, _current.strNewWords.length));
+                compacted.intNewWords = _current.intNewWords - folded;
+
+                compacted.changedWords = _current.changedWords.since(start.changedWords);
+            }
+
+            //the rows added after the compaction started follow the live ones
+            int added = _current.intScanCount - start.intScanCount;
+            compacted.intScanRows = Arrays.copyOf(intLive, intLive.length + added + 16);
+            System.arraycopy(_current.intScanRows, start.intScanCount, compacted.intScanRows, intLive.length, added);
+            compacted.intScanCount = intLive.length + added;
+            compacted.boolSharedRows = false;
+            compacted.index = _settings != null ? _settings.over(_current.matrix, intLive) : index;
+            compacted.intIndexedCount = intLive.length;
+            compacted.lngIndexed = null;
+            compacted.intDeletedSinceBuild = (_settings != null ? 0 : intDeletedSinceBuild)
+                    + _current.intDeletedSinceBuild - start.intDeletedSinceBuild;
+            compacted.intChanges = _current.intChanges - start.intChanges;
+
+            return compacted;
+        }
+    }
+
+    /**
+     * The latest row, or -1 once removed, of every word changed since the base of a snapshot. Like Tombstones, a
+     * ChangedWords never changes once created and with() returns a copy. The words are spread over segments by their
+     * hash, and a copy shares every segment but the one of the word it changes, so an update copies about a
+     * sixty-fourth of the changed words rather than all of them
+     */
+    private static class ChangedWords {
+        private static final int SEGMENTS = 64;
+        private static final ChangedWords NONE = new ChangedWords(Collections.nCopies(SEGMENTS, Map.of()), 0);
+
+        private final List<Map<String, Integer>> listSegments;
+        private final int intSize;
+
+        private ChangedWords(List<Map<String, Integer>> _segments, int _size) {
+            listSegments = _segments;
+            intSize = _size;
+        }
+
+        private Integer get(String _word) { return listSegments.get(segment(_word)).get(_word); }
+
+        private boolean isEmpty() { return intSize == 0; }
+
+        /**
+         * @return a copy where the word has the given row, sharing the segments of the other words
+         */
+        private ChangedWords with(String _word, int _row) {
+            int segment = segment(_word);
+            Map<String, Integer> changed = new HashMap<>(listSegments.get(segment));
+            boolean added = changed.put(_word, _row) == null;
+
+            List<Map<String, Integer>> segments = new ArrayList<>(listSegments);
+            segments.set(segment, changed);
+            return new ChangedWords(segments, added ? intSize + 1 : intSize);
+        }
+
+        /**
+         * @return the changes that are not in an earlier ChangedWords with the same row, which are the ones made
+         * since it
+         */
+        private ChangedWords since(ChangedWords _earlier) {
+            List<Map<String, Integer>> segments = new ArrayList<>(SEGMENTS);
+            int size = 0;
+            for (int i = 0; i < SEGMENTS; i++) {
+                Map<String, Integer> earlier = _earlier.listSegments.get(i);
+                Map<String, Integer> segment = new HashMap<>();
+                listSegments.get(i).forEach((word, row) -> {
+                    if (!row.equals(earlier.get(word))) segment.put(word, row);
+                });
+                segments.add(segment);
+                size += segment.size();
+            }
+
+            return new ChangedWords(segments, size);
+        }
+
+        private static int segment(String _word) {
+            int hash = _word.hashCode();
+            return (hash ^ hash >>> 16) & (SEGMENTS - 1);
+        }
+    }
+
+    /**
+     * The approximate index of a snapshot with the settings it is built with, loaded or built the first time a search
+     * needs it. Copies of a snapshot share it, so it is built once
+     */
+    static class LazyIndex {
+        private final BiFunction<EmbeddingMatrix, int[], NearestNeighbourIndex> indexFactory;
+        private final SearchMode searchMode;
+        private final Path pathSnapshot; //where the index is saved and loaded, null to always build it
+        private EmbeddingMatrix matrix; //what the index is built over, dropped once it is built
+        private int[] intRows;
+        private NearestNeighbourIndex index;
+        private volatile boolean boolResolved = false;
+
+        LazyIndex(BiFunction<EmbeddingMatrix, int[], NearestNeighbourIndex> _factory, SearchMode _mode, Path _snapshot,
+                  EmbeddingMatrix _matrix, int[] _rows) {
+            indexFactory = _factory;
+            searchMode = _mode;
+            pathSnapshot = _snapshot;
+            matrix = _matrix;
+            intRows = _rows;
+        }
+
+        /**
+         * @return an index with the same settings over other rows, built when it is first needed
+         */
+        private LazyIndex over(EmbeddingMatrix _matrix, int[] _rows) {
+            return new LazyIndex(indexFactory, searchMode, pathSnapshot, _matrix, _rows);
+        }
+
+        /**
+         * @return an index with the same settings that is already built
+         */
+        private LazyIndex resolved(NearestNeighbourIndex _index) {
+            LazyIndex result = over(null, null);
+            result.index = _index;
+            result.boolResolved = true;
+            return result;
+        }
+
+        /**
+         * @return the name of the search mode, or custom for an index factory
+         */
+        private String kind() { return searchMode == null ? "custom" : searchMode.name(); }
+
+        boolean hasSettingsOf(LazyIndex _other) {
+            return indexFactory == _other.indexFactory && searchMode == _other.searchMode
+                    && Objects.equals(pathSnapshot, _other.pathSnapshot);
+        }
+
+        /**
+         * @return the index, or null if the nearest words are found by the exact scan
+         */
+        NearestNeighbourIndex get() {
+            if (!boolResolved) {
+                synchronized (this) {
+                    if (!boolResolved) {
+                        index = loadOrBuild();
+                        matrix = null;
+                        intRows = null;
+                        boolResolved = true;
+                    }
+                }
+            }
+
+            return index;
+        }
+
+        /**
+         * Loads the index from its snapshot when there is one over the same rows, and otherwise builds it and saves it
+         * as the new snapshot. A snapshot that can't be read or written only costs a build, so the problem is reported
+         * and the index is still returned
+         */
+        private NearestNeighbourIndex loadOrBuild() {
+            if (searchMode == SearchMode.EXACT) return null;
+
+            SemanticEvents.IndexBuild event = new SemanticEvents.IndexBuild();
+            event.begin();
+            String kind = kind();
+            if (pathSnapshot != null && Files.exists(pathSnapshot)) {
+                try {
+                    NearestNeighbourIndex index = IndexFile.load(pathSnapshot, kind, matrix, intRows);
+                    SemanticEvents.commitBuild(event, kind, index, "loaded", intRows.length, pathSnapshot);
+                    return index;
+                } catch (IOException e) {
+                    System.err.println("Rebuilding the index: " + e.getMessage());
+                }
+            }
+
+            NearestNeighbourIndex index = indexFactory.apply(matrix, intRows);
+            if (index != null && pathSnapshot != null) {
+                try {
+                    IndexFile.save(pathSnapshot, index, kind, IndexFile.fingerprint(matrix, intRows));
+                } catch (IOException | UnsupportedOperationException e) {
+                    System.err.println("The index wasn't saved: " + e.getMessage());
+                }
+            }
+
+            SemanticEvents.commitBuild(event, kind, index, "built", intRows.length, pathSnapshot);
+            return index;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * An index over rows of an embedding matrix that answers nearest-neighbour queries by cosine similarity without
+ * scoring every row. Implementations are approximate: they trade some recall against the exact scan for speed, which
+ * SemanticMain.RecallAtK() measures.
+ */
+public interface NearestNeighbourIndex {
+    /**
+     * Offers the indexed rows that are most similar to the query to the heap, with their cosine similarity as the score.
+     * The heap's capacity is the number of results wanted and its excluded ids are honoured. The rows scored on the
+     * way, exactly or approximately, are added to the heap's scanned count
+     * @param _unitQuery query scaled to unit length
+     * @param _topK heap receiving the candidate rows
+     */
+    void search(float[] _unitQuery, HeapSort.TopK _topK);
+
+    String getName();
+
+    /**
+     * Writes the index into a snapshot, as sections of flat arrays that the index's static load method reads back; see
+     * IndexFile. The index must not change while it is saved
+     * @param _writer receives the sections
+     * @throws UnsupportedOperationException if the index can't be saved
+     */
+    default void save(IndexFile.Writer _writer) {
+        throw new UnsupportedOperationException(getName() + " can't be saved");
+    }
+
+    /**
+     * Returns a new index over the rows of this one followed by the given rows. The new rows are placed with what this
+     * index has already learned, such as its graph, centroids or codebooks, instead of training it again. This index is
+     * left as it is, so searches running on it are unaffected
+     * @param _matrix matrix holding the indexed rows and the new rows, under the same row ids as before
+     * @param _rows rows to add
+     * @return the new index
+     * @throws UnsupportedOperationException if the index can only be built from scratch
+     */
+    default NearestNeighbourIndex withRows(EmbeddingMatrix _matrix, int[] _rows) {
+        throw new UnsupportedOperationException(getName() + " can't take new rows");
+    }
+}
@@ -0,0 +1,287 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Product-quantized store of rows of an embedding matrix. Every unit-length row is split into m sub-vectors, and each
+ * sub-vector is replaced by the index of the nearest of 256 centroids trained for its sub-space, so a row takes m bytes
+ * instead of 4 bytes per dimension. A query is scored by asymmetric distance computation: the query is kept exact, its
+ * dot product with every centroid of every sub-space is computed once into a lookup table, and a row then costs m
+ * table lookups. With the default of one byte per four dimensions, a code is 16 times smaller than a float row, but
+ * the codes are held besides the rows rather than instead of them.
+ * <p>
+ * The scores are approximate, so by default the 100 best rows by their codes are scored again against the rows of the
+ * matrix before being offered to the caller; with setRerank(0) the scores of the codes are offered as they are and
+ * the matrix is never read.
+ * <p>
+ * The matrix, which SemanticMain also reads for the query words and the filtered scans, stays searchable, so the codes
+ * only save memory when its rows are not on the heap. SemanticMain.setSearchMode(PQ) therefore writes the rows of a
+ * model loaded from a glove CSV to a binary EmbeddingFile in the temporary directory and maps it, once, before the
+ * codes are built. The heap then holds the m code bytes, the 4-byte row id and the 12 bytes of norm and scale of every
+ * row, plus 1 KB of codebooks per dimension, while the float rows stay in the page cache and only the pages of the
+ * query and re-ranked rows are read. Converting a CSV once with EmbeddingFile.convert() skips that copy, and codes
+ * loaded from a snapshot are mapped from it rather than held on the heap (see IndexFile).
+ */
+public class PqIndex implements NearestNeighbourIndex {
+    public static final String TYPE = "pq";
+    private static final int CENTROIDS = 256; //one byte per code
+    private static final int MAX_TRAINING_ROWS = CENTROIDS * 64;
+    private static final int ITERATIONS = 10;
+    private static final int ENCODE_BLOCK = 1024; //rows encoded by a parallel task
+    private static final long SEED = 42;
+
+    private final EmbeddingMatrix matMatrix;
+    private final int[] intRows; //matrix row of every code
+    private final int intSubspaces;
+    private final int[] intSubOffsets; //sub-space s covers elements intSubOffsets[s] to intSubOffsets[s + 1]
+    private final float[][] fltCodebooks; //256 centroids per sub-space, back to back
+    private final ByteBuffer bufCodes; //intSubspaces codes per row, on the heap or mapped from a snapshot
+    private volatile int intRerank = 100;
+
+    private PqIndex(EmbeddingMatrix _matrix, int[] _rows, int _subspaces) {
+        this(_matrix, _rows, _subspaces, ByteBuffer.wrap(new byte[_rows.length * _subspaces]));
+    }
+
+    private PqIndex(EmbeddingMatrix _matrix, int[] _rows, int _subspaces, ByteBuffer _codes) {
+        int dims = _matrix.getDimensions();
+        if (_subspaces < 1 || _subspaces > dims)
+            throw new IllegalArgumentException("sub-spaces must be between 1 and " + dims + ": " + _subspaces);
+
+        matMatrix = _matrix;
+        intRows = _rows;
+        intSubspaces = _subspaces;
+        intSubOffsets = new int[_subspaces + 1];
+        for (int s = 0; s <= _subspaces; s++) intSubOffsets[s] = s * dims / _subspaces;
+        fltCodebooks = new float[_subspaces][];
+        bufCodes = _codes;
+    }
+
+    /**
+     * Builds a store over the given rows with one sub-space per four dimensions
+     * @param _matrix matrix holding the rows
+     * @param _rows rows to encode
+     * @return the store
+     */
+    public static PqIndex build(EmbeddingMatrix _matrix, int[] _rows) {
+        return build(_matrix, _rows, Math.max(1, _matrix.getDimensions() / 4));
+    }
+
+    /**
+     * Builds a store over the given rows. The codebooks are trained on a sample of at most 16384 rows, one sub-space
+     * per core, and the rows are then encoded in parallel
+     * @param _matrix matrix holding the rows
+     * @param _rows rows to encode
+     * @param _subspaces bytes per row, between 1 and the number of dimensions
+     * @return the store
+     */
+    public static PqIndex build(EmbeddingMatrix _matrix, int[] _rows, int _subspaces) {
+        PqIndex index = new PqIndex(_matrix, _rows, _subspaces);
+        int dims = _matrix.getDimensions();
+
+        //training rows spread evenly over the indexed rows
+        int count = Math.max(1, Math.min(_rows.length, MAX_TRAINING_ROWS));
+        float[] training = new float[count * dims];
+        for (int i = 0; i < _rows.length && i < count; i++)
+            _matrix.copyUnitRow(_rows[(int) ((long) i * _rows.length / count)], training, i * dims);
+
+        IntStream.range(0, _subspaces).parallel().forEach(s -> {
+            int from = index.intSubOffsets[s];
+            int subDims = index.intSubOffsets[s + 1] - from;
+
+            float[] points = new float[count * subDims];
+            for (int i = 0; i < count; i++) System.arraycopy(training, i * dims + from, points, i * subDims, subDims);
+
+            index.fltCodebooks[s] = KMeans.trainPoints(points, count, subDims, CENTROIDS, ITERATIONS, SEED + s);
+        });
+
+        int blocks = (_rows.length + ENCODE_BLOCK - 1) / ENCODE_BLOCK;
+        IntStream.range(0, blocks).parallel().forEach(block -> {
+            float[] row = new float[dims];
+
+            for (int i = block * ENCODE_BLOCK; i < Math.min(_rows.length, (block + 1) * ENCODE_BLOCK); i++) {
+                _matrix.copyUnitRow(_rows[i], row, 0);
+                index.encode(row, index.bufCodes, i * _subspaces);
+            }
+        });
+
+        return index;
+    }
+
+    /**
+     * Reads a store written by save(); see IndexFile
+     * @param _matrix the matrix the store was built over
+     * @param _file the snapshot
+     * @return the store
+     * @throws IOException if a section is missing or doesn't fit the others
+     */
+    public static PqIndex load(EmbeddingMatrix _matrix, IndexFile _file) throws IOException {
+        int[] rows = _file.getInts("rows");
+        int subspaces = _file.getInt("subspaces");
+        ByteBuffer codes = _file.mapBytes("codes");
+        float[] codebooks = _file.getFloats("codebooks");
+
+        if (subspaces < 1 || subspaces > _matrix.getDimensions() || codes.capacity() != (long) rows.length * subspaces
+                || codebooks.length != CENTROIDS * _matrix.getDimensions())
+            throw new IOException("the pq sections don't fit together");
+
+        PqIndex index = new PqIndex(_matrix, rows, subspaces, codes);
+        for (int s = 0, from = 0; s < subspaces; s++) { //sub-space s has 256 centroids of its own width
+            int length = CENTROIDS * (index.intSubOffsets[s + 1] - index.intSubOffsets[s]);
+            index.fltCodebooks[s] = Arrays.copyOfRange(codebooks, from, from + length);
+            from += length;
+        }
+        index.setRerank(_file.getInt("rerank"));
+
+        return index;
+    }
+
+    @Override
+    public void save(IndexFile.Writer _writer) {
+        float[] codebooks = new float[CENTROIDS * matMatrix.getDimensions()];
+        for (int s = 0, from = 0; s < intSubspaces; s++) {
+            System.arraycopy(fltCodebooks[s], 0, codebooks, from, fltCodebooks[s].length);
+            from += fltCodebooks[s].length;
+        }
+
+        _writer.putString("type", TYPE);
+        _writer.putInt("subspaces", intSubspaces);
+        _writer.putInt("rerank", intRerank);
+        _writer.putInts("rows", intRows);
+        _writer.putBytes("codes", bufCodes, bufCodes.capacity());
+        _writer.putFloats("codebooks", codebooks);
+    }
+
+    /**
+     * Encodes the new rows with the trained codebooks, which the new index shares
+     */
+    @Override
+    public PqIndex withRows(EmbeddingMatrix _matrix, int[] _rows) {
+        int[] rows = Arrays.copyOf(intRows, intRows.length + _rows.length);
+        System.arraycopy(_rows, 0, rows, intRows.length, _rows.length);
+
+        byte[] codes = new byte[rows.length * intSubspaces];
+        bufCodes.get(0, codes, 0, bufCodes.capacity());
+
+        PqIndex index = new PqIndex(_matrix, rows, intSubspaces, ByteBuffer.wrap(codes));
+        System.arraycopy(fltCodebooks, 0, index.fltCodebooks, 0, intSubspaces);
+        index.intRerank = intRerank;
+
+        float[] row = new float[_matrix.getDimensions()];
+        for (int i = intRows.length; i < rows.length; i++) {
+            _matrix.copyUnitRow(rows[i], row, 0);
+            index.encode(row, index.bufCodes, i * intSubspaces);
+        }
+
+        return index;
+    }
+
+    /**
+     * Sets how many of the best rows by their codes are scored again against the full rows. 0 offers the approximate
+     * scores as they are and never reads the matrix
+     * @param _rerank number of rows to score again; never fewer than the number of results asked for, unless 0
+     */
+    public void setRerank(int _rerank) { intRerank = Math.max(0, _rerank); }
+
+    public int getRerank() { return intRerank; }
+
+    public int getSubspaces() { return intSubspaces; }
+
+    public int size() { return intRows.length; }
+
+    /**
+     * @return the memory taken by the codes and the codebooks, in bytes, leaving out the row ids and the matrix
+     */
+    public long getCodeBytes() {
+        long bytes = bufCodes.capacity();
+        for (float[] codebook : fltCodebooks) bytes += 4L * codebook.length;
+
+        return bytes;
+    }
+
+    /**
+     * Writes the approximation of a row that its codes stand for
+     * @param _index position of the row among the indexed rows
+     * @param _dst receives the matrix dimensions' worth of elements
+     */
+    public void decode(int _index, float[] _dst) {
+        for (int s = 0; s < intSubspaces; s++) {
+            int from = intSubOffsets[s];
+            int subDims = intSubOffsets[s + 1] - from;
+            int code = bufCodes.get(_index * intSubspaces + s) & 0xFF;
+
+            System.arraycopy(fltCodebooks[s], code * subDims, _dst, from, subDims);
+        }
+    }
+
+    @Override
+    public String getName() { return "pq(m=" + intSubspaces + ", rerank=" + intRerank + ")"; }
+
+    @Override
+    public void search(float[] _unitQuery, HeapSort.TopK _topK) {
+        if (intRows.length == 0 || _topK.getCapacity() == 0) return;
+
+        float[] table = lookupTable(_unitQuery);
+        int rerank = intRerank;
+
+        //without re-ranking the approximate scores go straight to the caller, which also skips its excluded rows
+        HeapSort.TopK candidates = rerank == 0
+                ? _topK
+                : new HeapSort.TopK(Math.max(rerank, _topK.getCapacity()) + _topK.getExcludedCount());
+        if (rerank != 0) {
+            candidates.setDeleted(_topK.getDeleted());
+            candidates.setAllowed(_topK.getAllowed());
+        }
+
+        ByteBuffer codes = bufCodes;
+        for (int i = 0, code = 0; i < intRows.length; i++) {
+            float score = 0;
+            for (int s = 0; s < intSubspaces; s++, code++) score += table[s * CENTROIDS + (codes.get(code) & 0xFF)];
+
+            if (score > candidates.getThreshold()) candidates.offer(intRows[i], score);
+        }
+
+        _topK.addScanned(intRows.length);
+        if (rerank == 0) return;
+
+        SimilarityKernel kernel = SimilarityKernels.get();
+        for (int i = 0; i < candidates.size(); i++) {
+            int row = candidates.getId(i);
+            _topK.offer(row, matMatrix.cosine(row, _unitQuery, kernel));
+        }
+        _topK.addScanned(candidates.size());
+    }
+
+    /**
+     * Computes the dot product of every sub-vector of the query with every centroid of its sub-space
+     * @return 256 scores per sub-space, back to back
+     */
+    private float[] lookupTable(float[] _query) {
+        float[] table = new float[intSubspaces * CENTROIDS];
+
+        for (int s = 0; s < intSubspaces; s++) {
+            int from = intSubOffsets[s];
+            int subDims = intSubOffsets[s + 1] - from;
+            float[] codebook = fltCodebooks[s];
+
+            for (int c = 0; c < CENTROIDS; c++) {
+                float dot = 0;
+                for (int j = 0; j < subDims; j++) dot += _query[from + j] * codebook[c * subDims + j];
+                table[s * CENTROIDS + c] = dot;
+            }
+        }
+
+        return table;
+    }
+
+    /**
+     * Replaces every sub-vector of a unit-length row with the index of its nearest centroid
+     */
+    private void encode(float[] _row, ByteBuffer _dst, int _offset) {
+        for (int s = 0; s < intSubspaces; s++) {
+            int from = intSubOffsets[s];
+            int subDims = intSubOffsets[s + 1] - from;
+            _dst.put(_offset + s, (byte) KMeans.nearest(fltCodebooks[s], CENTROIDS, _row, from, subDims));
+        }
+    }
+}
@@ -0,0 +1,178 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Concurrent cache bounded by the total weight of its values, evicting the least recently used entries first. Keys
+ * are spread over 16 segments, each guarded by its own lock and holding a sixteenth of the weight, so that threads
+ * looking up different keys rarely wait on each other. Hits, misses and evictions are counted.
+ * <p>
+ * computeIfAbsent() computes a missing value without holding any lock, so that a slow computation doesn't block the
+ * other keys of its segment. Two threads missing the same key at the same time both compute it, and the last one wins.
+ * @param <K> type of the keys, which must have equals() and hashCode()
+ * @param <V> type of the values
+ */
+public class ResultCache<K, V> {
+    private static final int SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+    private final ToLongFunction<V> weigher;
+    private final long lngMaxWeight;
+    private final LongAdder lngHits = new LongAdder();
+    private final LongAdder lngMisses = new LongAdder();
+    private final LongAdder lngEvictions = new LongAdder();
+
+    /**
+     * @param _maxWeight total weight the cache may hold
+     * @param _weigher weight of a value, at least 1; a value heavier than a segment's share is never cached
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ResultCache(long _maxWeight, ToLongFunction<V> _weigher) {
+        if (_maxWeight < 1) throw new IllegalArgumentException("the cache must hold some weight: " + _maxWeight);
+
+        lngMaxWeight = _maxWeight;
+        weigher = _weigher;
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment<>(Math.max(1, _maxWeight / SEGMENTS));
+    }
+
+    /**
+     * Looks up a value, making it the most recently used entry of its segment
+     * @param _key the key
+     * @return the value, or null if it is not cached
+     */
+    public V get(K _key) {
+        V value = segmentOf(_key).get(_key);
+
+        if (value == null) lngMisses.increment();
+        else lngHits.increment();
+
+        return value;
+    }
+
+    /**
+     * Looks up a value, computing and caching it if it is not cached
+     * @param _key the key
+     * @param _loader computes the value of a missing key; it must not return null
+     * @return the cached or computed value
+     */
+    public V computeIfAbsent(K _key, Function<K, V> _loader) {
+        V value = get(_key);
+        if (value != null) return value;
+
+        value = _loader.apply(_key);
+        put(_key, value);
+
+        return value;
+    }
+
+    /**
+     * Caches a value, evicting the least recently used entries of its segment until it fits
+     * @param _key the key
+     * @param _value the value
+     */
+    public void put(K _key, V _value) {
+        long weight = Math.max(1, weigher.applyAsLong(_value));
+        lngEvictions.add(segmentOf(_key).put(_key, _value, weight));
+    }
+
+    /**
+     * Removes every entry. The counters are kept
+     */
+    public void clear() {
+        for (Segment<K, V> segment : segments) segment.clear();
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment<K, V> segment : segments) size += segment.size();
+
+        return size;
+    }
+
+    /**
+     * @return the total weight of the cached values
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Segment<K, V> segment : segments) weight += segment.weight();
+
+        return weight;
+    }
+
+    public long getMaxWeight() { return lngMaxWeight; }
+
+    public long getHits() { return lngHits.sum(); }
+
+    public long getMisses() { return lngMisses.sum(); }
+
+    public long getEvictions() { return lngEvictions.sum(); }
+
+    @Override
+    public String toString() {
+        return "cache(size=" + size() + ", weight=" + getWeight() + "/" + lngMaxWeight + ", hits=" + getHits()
+                + ", misses=" + getMisses() + ", evictions=" + getEvictions() + ")";
+    }
+
+    private Segment<K, V> segmentOf(K _key) {
+        int h = _key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * One lock's worth of entries, in access order
+     */
+    private static class Segment<K, V> {
+        private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final long lngMaxWeight;
+        private long lngWeight = 0;
+
+        private Segment(long _maxWeight) { lngMaxWeight = _maxWeight; }
+
+        private synchronized V get(K _key) {
+            Entry<V> entry = entries.get(_key);
+            return entry == null ? null : entry.value;
+        }
+
+        /**
+         * @return the number of entries evicted
+         */
+        private synchronized int put(K _key, V _value, long _weight) {
+            Entry<V> previous = entries.remove(_key);
+            if (previous != null) lngWeight -= previous.lngWeight;
+            if (_weight > lngMaxWeight) return 0;
+
+            int evicted = 0;
+            for (Iterator<Entry<V>> it = entries.values().iterator(); lngWeight + _weight > lngMaxWeight; evicted++) {
+                lngWeight -= it.next().lngWeight; //the least recently used entry comes first
+                it.remove();
+            }
+
+            entries.put(_key, new Entry<>(_value, _weight));
+            lngWeight += _weight;
+
+            return evicted;
+        }
+
+        private synchronized void clear() {
+            entries.clear();
+            lngWeight = 0;
+        }
+
+        private synchronized int size() { return entries.size(); }
+
+        private synchronized long weight() { return lngWeight; }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long lngWeight;
+
+        private Entry(V _value, long _weight) {
+            value = _value;
+            lngWeight = _weight;
+        }
+    }
+}
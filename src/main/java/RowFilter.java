@@ -0,0 +1,204 @@
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Per-query restriction of the words a search may return, for example
+ * <pre>
+ * RowFilter filter = RowFilter.rankBelow(50000).and(RowFilter.lowercase()).and(RowFilter.stopwords().not());
+ * mySM.WordsNearest("computer", 10, filter);
+ * </pre>
+ * A filter is compiled into a bitmap with one bit per row of the model, bit row % 64 of long row / 64, the layout of
+ * the tombstones of removed words. The scan walks the set bits a long at a time, so a filtered search scores only the
+ * rows it keeps and costs no more than an unfiltered one; an approximate index skips the other rows as it offers them.
+ * <p>
+ * Filters are immutable and meant to be kept and reused: a filter keeps the bitmap of the last model it was compiled
+ * against, extends it when words are added, and combinations reuse the bitmaps of their parts, so a reused filter
+ * costs one bitmap lookup per query. It is also part of the result cache key, by identity. A filter picks among all
+ * the words of the model, stop words included, unlike the unfiltered searches, which search listGlove.
+ */
+public class RowFilter {
+    private final String strDescription;
+    private final Compiler compiler;
+    private volatile Compiled compiled; //the bitmap of the rows it was last compiled against
+
+    private RowFilter(String _description, Compiler _compiler) {
+        strDescription = _description;
+        compiler = _compiler;
+    }
+
+    /**
+     * @return a filter that keeps every word
+     */
+    public static RowFilter all() { return matching("all", (rows, row) -> true); }
+
+    /**
+     * @return a filter that keeps the stop words of the search, so that stopwords().not() leaves them out
+     */
+    public static RowFilter stopwords() { return matching("stopwords", (rows, row) -> rows.isStopword(row)); }
+
+    /**
+     * Keeps the words among the _rank most frequent ones. Glove files list the words from the most frequent, so the
+     * rank of a word is its row; words added after the model was loaded come after every word of the model
+     * @param _rank how many of the most frequent words to keep
+     * @return the filter
+     */
+    public static RowFilter rankBelow(int _rank) { return matching("rank<" + _rank, (rows, row) -> row < _rank); }
+
+    /**
+     * @return a filter that keeps the words without upper case letters
+     */
+    public static RowFilter lowercase() {
+        return matching("lowercase", (rows, row) -> rows.wordOf(row).chars().noneMatch(Character::isUpperCase));
+    }
+
+    /**
+     * Keeps the words of a list, an allow list or the words carrying some tag; words(...).not() is a deny list
+     * @param _words the words to keep, copied
+     * @return the filter
+     */
+    public static RowFilter words(Collection<String> _words) {
+        Set<String> words = new HashSet<>(_words);
+        return matching("words(" + words.size() + ")", (rows, row) -> words.contains(rows.wordOf(row)));
+    }
+
+    /**
+     * Keeps the words that pass a test of their own
+     * @param _name name of the filter in toString()
+     * @param _word the test, which must always give the same answer for the same word
+     * @return the filter
+     */
+    public static RowFilter matching(String _name, Predicate<String> _word) {
+        return matching(_name, (rows, row) -> _word.test(rows.wordOf(row)));
+    }
+
+    /**
+     * @return a filter that keeps the words both filters keep
+     */
+    public RowFilter and(RowFilter _other) {
+        return new RowFilter("(" + this + " and " + _other + ")", (rows, previous) -> {
+            long[] a = bits(rows), b = _other.bits(rows);
+            long[] result = new long[a.length];
+            for (int i = 0; i < result.length; i++) result[i] = a[i] & b[i];
+            return result;
+        });
+    }
+
+    /**
+     * @return a filter that keeps the words either filter keeps
+     */
+    public RowFilter or(RowFilter _other) {
+        return new RowFilter("(" + this + " or " + _other + ")", (rows, previous) -> {
+            long[] a = bits(rows), b = _other.bits(rows);
+            long[] result = new long[a.length];
+            for (int i = 0; i < result.length; i++) result[i] = a[i] | b[i];
+            return result;
+        });
+    }
+
+    /**
+     * @return a filter that keeps the words this one leaves out
+     */
+    public RowFilter not() {
+        return new RowFilter("not " + this, (rows, previous) -> {
+            long[] a = bits(rows);
+            long[] result = new long[a.length];
+            for (int i = 0; i < result.length; i++) result[i] = ~a[i];
+            if ((rows.size() & 63) != 0) result[result.length - 1] &= -1L >>> -rows.size(); //no rows past the end
+
+            return result;
+        });
+    }
+
+    /**
+     * Returns the bitmap of the rows kept, compiling it if the rows changed since the last call. Every bit past the
+     * last row is clear
+     * @param _rows the rows of a model
+     * @return the bitmap, one long per 64 rows; must not be changed
+     */
+    long[] bits(Rows _rows) { return compile(_rows).lngBits; }
+
+    /**
+     * @return the number of rows kept
+     */
+    int count(Rows _rows) { return compile(_rows).intCount; }
+
+    @Override
+    public String toString() { return strDescription; }
+
+    private Compiled compile(Rows _rows) {
+        Compiled current = compiled;
+        if (current != null && current.objKey == _rows.getKey() && current.intRows == _rows.size()) return current;
+
+        Compiled previous = current != null && current.objKey == _rows.getKey() && current.intRows < _rows.size()
+                ? current
+                : null;
+        long[] bits = compiler.compile(_rows, previous);
+        int count = 0;
+        for (long word : bits) count += Long.bitCount(word);
+
+        current = new Compiled(_rows.getKey(), _rows.size(), bits, count);
+        compiled = current;
+        return current;
+    }
+
+    /**
+     * A filter that tests the rows one by one. Once compiled, only the rows added since are tested again
+     */
+    private static RowFilter matching(String _name, RowPredicate _predicate) {
+        return new RowFilter(_name, (rows, previous) -> {
+            int size = rows.size();
+            long[] result = new long[(size + 63) >>> 6];
+            int from = 0;
+            if (previous != null) {
+                System.arraycopy(previous.lngBits, 0, result, 0, previous.lngBits.length);
+                from = previous.intRows;
+            }
+
+            for (int row = from; row < size; row++) if (_predicate.test(rows, row)) result[row >>> 6] |= 1L << row;
+            return result;
+        });
+    }
+
+    /**
+     * The rows of a model as a filter sees them
+     */
+    interface Rows {
+        /**
+         * @return an object that stays the same as long as the rows keep their words and only new rows are added
+         */
+        Object getKey();
+
+        int size();
+
+        String wordOf(int _row);
+
+        boolean isStopword(int _row);
+    }
+
+    private interface RowPredicate {
+        boolean test(Rows _rows, int _row);
+    }
+
+    private interface Compiler {
+        /**
+         * @param _previous the bitmap of fewer rows with the same key, or null
+         */
+        long[] compile(Rows _rows, Compiled _previous);
+    }
+
+    private static class Compiled {
+        private final Object objKey;
+        private final int intRows;
+        private final long[] lngBits;
+        private final int intCount;
+
+        private Compiled(Object _key, int _rows, long[] _bits, int _count) {
+            objKey = _key;
+            intRows = _rows;
+            lngBits = _bits;
+            intCount = _count;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Plain Java implementation of the similarity kernel. The float dot product keeps four independent partial sums so
+ * that the additions don't wait on each other; the JIT can auto-vectorize the element-wise operations.
+ */
+public class ScalarKernel implements SimilarityKernel {
+    @Override
+    public float dot(float[] _a, int _aOffset, float[] _b, int _bOffset, int _length) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+
+        for (; i + 3 < _length; i += 4) {
+            s0 += _a[_aOffset + i] * _b[_bOffset + i];
+            s1 += _a[_aOffset + i + 1] * _b[_bOffset + i + 1];
+            s2 += _a[_aOffset + i + 2] * _b[_bOffset + i + 2];
+            s3 += _a[_aOffset + i + 3] * _b[_bOffset + i + 3];
+        }
+        for (; i < _length; i++) s0 += _a[_aOffset + i] * _b[_bOffset + i];
+
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public void dot4(float[] _a, int _aOffset, float[] _queries, int _queryOffset, int _length, float[] _out) {
+        int q1 = _queryOffset + _length, q2 = q1 + _length, q3 = q2 + _length;
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+
+        for (int i = 0; i < _length; i++) {
+            float a = _a[_aOffset + i];
+            s0 += a * _queries[_queryOffset + i];
+            s1 += a * _queries[q1 + i];
+            s2 += a * _queries[q2 + i];
+            s3 += a * _queries[q3 + i];
+        }
+
+        _out[0] = s0;
+        _out[1] = s1;
+        _out[2] = s2;
+        _out[3] = s3;
+    }
+
+    @Override
+    public float dot(ByteBuffer _a, int _aOffset, float[] _b, int _bOffset, int _length) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+
+        for (; i + 3 < _length; i += 4) {
+            int at = (_aOffset + i) * Float.BYTES;
+            s0 += _a.getFloat(at) * _b[_bOffset + i];
+            s1 += _a.getFloat(at + 4) * _b[_bOffset + i + 1];
+            s2 += _a.getFloat(at + 8) * _b[_bOffset + i + 2];
+            s3 += _a.getFloat(at + 12) * _b[_bOffset + i + 3];
+        }
+        for (; i < _length; i++) s0 += _a.getFloat((_aOffset + i) * Float.BYTES) * _b[_bOffset + i];
+
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public void dot4(ByteBuffer _a, int _aOffset, float[] _queries, int _queryOffset, int _length, float[] _out) {
+        int q1 = _queryOffset + _length, q2 = q1 + _length, q3 = q2 + _length;
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+
+        for (int i = 0; i < _length; i++) {
+            float a = _a.getFloat((_aOffset + i) * Float.BYTES);
+            s0 += a * _queries[_queryOffset + i];
+            s1 += a * _queries[q1 + i];
+            s2 += a * _queries[q2 + i];
+            s3 += a * _queries[q3 + i];
+        }
+
+        _out[0] = s0;
+        _out[1] = s1;
+        _out[2] = s2;
+        _out[3] = s3;
+    }
+
+    @Override
+    public int dot(byte[] _a, int _aOffset, byte[] _b, int _bOffset, int _length) {
+        int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+
+        for (; i + 3 < _length; i += 4) {
+            s0 += _a[_aOffset + i] * _b[_bOffset + i];
+            s1 += _a[_aOffset + i + 1] * _b[_bOffset + i + 1];
+            s2 += _a[_aOffset + i + 2] * _b[_bOffset + i + 2];
+            s3 += _a[_aOffset + i + 3] * _b[_bOffset + i + 3];
+        }
+        for (; i < _length; i++) s0 += _a[_aOffset + i] * _b[_bOffset + i];
+
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public int dot(ByteBuffer _a, int _aOffset, byte[] _b, int _bOffset, int _length) {
+        int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+
+        for (; i + 3 < _length; i += 4) {
+            int at = _aOffset + i;
+            s0 += _a.get(at) * _b[_bOffset + i];
+            s1 += _a.get(at + 1) * _b[_bOffset + i + 1];
+            s2 += _a.get(at + 2) * _b[_bOffset + i + 2];
+            s3 += _a.get(at + 3) * _b[_bOffset + i + 3];
+        }
+        for (; i < _length; i++) s0 += _a.get(_aOffset + i) * _b[_bOffset + i];
+
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public double dot(double[] _a, int _aOffset, double[] _b, int _bOffset, int _length) {
+        double sum = 0;
+        for (int i = 0; i < _length; i++) sum += _a[_aOffset + i] * _b[_bOffset + i];
+
+        return sum;
+    }
+
+    @Override
+    public double cosine(double[] _a, int _aOffset, double[] _b, int _bOffset, int _length) {
+        double dot = 0, aa = 0, bb = 0;
+
+        for (int i = 0; i < _length; i++) {
+            double a = _a[_aOffset + i], b = _b[_bOffset + i];
+            dot += a * b;
+            aa += a * a;
+            bb += b * b;
+        }
+
+        return dot / (Math.sqrt(aa) * Math.sqrt(bb));
+    }
+
+    @Override
+    public void add(double[] _a, double[] _b, double[] _dst, int _length) {
+        for (int i = 0; i < _length; i++) _dst[i] = _a[i] + _b[i];
+    }
+
+    @Override
+    public void subtract(double[] _a, double[] _b, double[] _dst, int _length) {
+        for (int i = 0; i < _length; i++) _dst[i] = _a[i] - _b[i];
+    }
+
+    @Override
+    public void axpy(double _alpha, double[] _x, int _xOffset, double[] _y, int _yOffset, int _length) {
+        for (int i = 0; i < _length; i++) _y[_yOffset + i] += _alpha * _x[_xOffset + i];
+    }
+
+    @Override
+    public String getName() { return "scalar"; }
+}
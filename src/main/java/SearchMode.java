@@ -0,0 +1,57 @@
+/**
+ * How SemanticMain finds the nearest words. EXACT scores every row of listGlove; the other modes build an approximate
+ * index over those rows with default parameters. Use SemanticMain.setIndexFactory() to build one with other parameters.
+ */
+public enum SearchMode {
+    EXACT {
+        @Override
+        public NearestNeighbourIndex build(EmbeddingMatrix _matrix, int[] _rows) { return null; }
+    },
+    HNSW {
+        @Override
+        public NearestNeighbourIndex build(EmbeddingMatrix _matrix, int[] _rows) {
+            return HnswIndex.build(_matrix, _rows, 16, 200);
+        }
+    },
+    IVF {
+        @Override
+        public NearestNeighbourIndex build(EmbeddingMatrix _matrix, int[] _rows) {
+            return IvfIndex.build(_matrix, _rows);
+        }
+    },
+    PQ {
+        @Override
+        public NearestNeighbourIndex build(EmbeddingMatrix _matrix, int[] _rows) {
+            return PqIndex.build(_matrix, _rows);
+        }
+    },
+    INT8 {
+        @Override
+        public NearestNeighbourIndex build(EmbeddingMatrix _matrix, int[] _rows) {
+            return Int8Index.build(_matrix, _rows);
+        }
+    },
+    LSH {
+        @Override
+        public NearestNeighbourIndex build(EmbeddingMatrix _matrix, int[] _rows) {
+            return LshIndex.build(_matrix, _rows);
+        }
+    },
+    LSH_PREFILTER {
+        @Override
+        public NearestNeighbourIndex build(EmbeddingMatrix _matrix, int[] _rows) {
+            //256 signature bits; 16 bits of slack is about two standard deviations of the bits that differ
+            LshIndex index = LshIndex.build(_matrix, _rows, 4, 64);
+            index.setPrefilterSlack(16);
+            return index;
+        }
+    };
+
+    /**
+     * Builds the index of this mode over the given rows
+     * @param _matrix matrix holding the rows
+     * @param _rows rows to index
+     * @return the index, or null for the exact scan
+     */
+    public abstract NearestNeighbourIndex build(EmbeddingMatrix _matrix, int[] _rows);
+}
@@ -0,0 +1,161 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.nio.file.Path;
+
+/**
+ * Flight recorder events for the model loads, the searches and the index builds, so that a slow query can be lined up
+ * with the garbage collections, safepoints and compilations around it in JDK Mission Control. Metrics aggregates the
+ * same work; these events keep every call with the fields needed to explain its cost.
+ * <p>
+ * They are recorded by any recording that enables them, for example
+ * <pre>
+ * java -XX:StartFlightRecording:filename=semantic.jfr,settings=profile ...
+ * </pre>
+ * and cost nothing otherwise: the callers only create an event once enabled() says a recording wants it, and the JIT
+ * folds the checks of a disabled event away.
+ */
+public class SemanticEvents {
+    private static final Query QUERY = new Query(); //never committed, only asked whether queries are recorded
+
+    /**
+     * @return a new query event that has begun, or null if no recording wants query events
+     */
+    static Query beginQuery(String _kind, int _k, int _queries) {
+        if (!QUERY.isEnabled()) return null;
+
+        Query result = new Query();
+        result.strKind = _kind;
+        result.intK = _k;
+        result.intQueries = _queries;
+        result.begin();
+        return result;
+    }
+
+    /**
+     * Fills in and commits a model load event that has begun
+     * @param _path the file the model was read from
+     * @param _format csv or binary
+     * @param _matrix the vectors read
+     */
+    static void commitLoad(ModelLoad _event, Path _path, String _format, EmbeddingMatrix _matrix) {
+        if (!_event.shouldCommit()) return;
+
+        _event.strPath = _path.toString();
+        _event.strFormat = _format;
+        _event.intRows = _matrix.getRowCount();
+        _event.intDimensions = _matrix.getDimensions();
+        _event.lngBytes = _path.toFile().length();
+        _event.commit();
+    }
+
+    /**
+     * Fills in and commits an index build event that has begun, unless no index came out of it
+     * @param _mode the search mode, or custom for an index factory
+     * @param _source built, loaded or extended
+     * @param _rows rows the index was built over, or rows added to it
+     * @param _snapshot the snapshot file, or null
+     */
+    static void commitBuild(IndexBuild _event, String _mode, NearestNeighbourIndex _index, String _source, int _rows,
+                            Path _snapshot) {
+        if (_index == null || !_event.shouldCommit()) return;
+
+        _event.strMode = _mode;
+        _event.strIndex = _index.getName();
+        _event.strSource = _source;
+        _event.intRows = _rows;
+        _event.strSnapshot = _snapshot == null ? null : _snapshot.toString();
+        _event.commit();
+    }
+
+    @Name("semantic.ModelLoad")
+    @Label("Model Load")
+    @Category("Semantic")
+    @Description("An embedding model read from a glove CSV or a binary embedding file")
+    public static class ModelLoad extends Event {
+        @Label("Path")
+        String strPath;
+
+        @Label("Format")
+        @Description("csv when the file is parsed, binary when it is mapped")
+        String strFormat;
+
+        @Label("Rows")
+        int intRows;
+
+        @Label("Dimensions")
+        int intDimensions;
+
+        @Label("File Size")
+        @DataAmount
+        long lngBytes;
+    }
+
+    @Name("semantic.Query")
+    @Label("Query")
+    @Category("Semantic")
+    @Description("A WordsNearest, batch or LogicalAnalogies call, from the snapshot it read to the sorted results")
+    @StackTrace(false)
+    public static class Query extends Event {
+        @Label("Kind")
+        @Description("nearest, nearestVector, batch, vectorBatch or analogy")
+        String strKind;
+
+        @Label("Words")
+        @Description("The input words, comma separated; empty for vectors and batches")
+        String strWords;
+
+        @Label("K")
+        int intK;
+
+        @Label("Queries")
+        @Description("Words or vectors searched; more than one for a batch")
+        int intQueries;
+
+        @Label("Candidates Scanned")
+        @Description("Rows scored, exactly or approximately, by the index and the exact scan; 0 on a cache hit")
+        long lngScanned;
+
+        @Label("Index Mode")
+        @Description("The name of the approximate index searched, or exact; empty on a cache hit")
+        String strIndexMode;
+
+        @Label("Cache Hit")
+        boolean boolCacheHit;
+
+        @Label("Results")
+        int intResults;
+
+        @Label("Generation")
+        @Description("Generation of the snapshot the query read")
+        long lngGeneration;
+    }
+
+    @Name("semantic.IndexBuild")
+    @Label("Index Build")
+    @Category("Semantic")
+    @Description("An approximate index built, loaded from its snapshot file, or extended with new rows")
+    public static class IndexBuild extends Event {
+        @Label("Mode")
+        String strMode;
+
+        @Label("Index")
+        String strIndex;
+
+        @Label("Source")
+        @Description("built, loaded or extended")
+        String strSource;
+
+        @Label("Rows")
+        int intRows;
+
+        @Label("Snapshot")
+        @Description("The snapshot file the index was loaded from or saved to, if any")
+        String strSnapshot;
+    }
+}
@@ -1,23 +1,60 @@
 import org.apache.commons.lang3.time.StopWatch;
-import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class SemanticMain {
+    private static final int MIN_COMPACTION_CHANGES = 1024; //word updates before a background compaction
     public List<String> listVocabulary = new ArrayList<>();  //List that contains all the vocabularies loaded from the csv file.
     public List<double[]> listVectors = new ArrayList<>(); //Associated vectors from the csv file.
     public List<Glove> listGlove = new ArrayList<>();
     public final List<String> STOPWORDS;
+    private final VocabularyIndex stopwordIndex;
+    private VocabularyIndex vocabularyIndex = null; //maps every word of listVocabulary to its row
+    private List<String> listIndexedVocabulary = null; //the vocabulary list that vocabularyIndex was built from
+    private EmbeddingMatrix embeddingMatrix = null; //row-major storage of listVectors
+    private List<double[]> listMatrixVectors = null; //the vector list that embeddingMatrix was built from
+    private int[] intGloveRows = new int[0]; //matrix row of every glove in listGlove, in the same order
+    private List<Glove> listRowGlove = null; //the glove list that intGloveRows was built from
+    private BiFunction<EmbeddingMatrix, int[], NearestNeighbourIndex> indexFactory = SearchMode.EXACT::build;
+    private SearchMode searchMode = SearchMode.EXACT; //the mode indexFactory builds, null for a custom factory
+    private Path pathEmbeddingFile = null; //the binary embedding file this was started from, if any
+    private Path pathIndexSnapshot = null; //where the index is saved and loaded, null for next to the embedding file
+    private volatile ResultCache<List<Object>, List<CosSimilarityPair>> resultCache = null; //null when not caching
+    private final AtomicReference<ModelSnapshot> refSnapshot = new AtomicReference<>(); //what the searches run against
+    private final Object objLock = new Object(); //held by every writer of refSnapshot; searches never take it
+    private boolean boolCompacting = false; //whether a background compaction is running, guarded by objLock
+    private long lngGeneration = 0; //generation of the last published snapshot, guarded by objLock
 
     public SemanticMain() throws IOException {
         STOPWORDS = Toolkit.loadStopWords();
+        stopwordIndex = VocabularyIndex.of(STOPWORDS);
         Toolkit.loadGLOVE();
     }
 
+    /**
+     * Starts from another embedding file than the glove CSV, of any dimensions: a binary embedding file (see
+     * EmbeddingFile), which maps the vectors rather than parsing them, or a CSV ending in .csv
+     * @param _embeddingFile the embedding file
+     * @throws IOException thrown if the stop words or the embedding file can't be read
+     */
+    public SemanticMain(Path _embeddingFile) throws IOException {
+        STOPWORDS = Toolkit.loadStopWords();
+        stopwordIndex = VocabularyIndex.of(STOPWORDS);
+        Toolkit.load(_embeddingFile);
+        pathEmbeddingFile = _embeddingFile;
+    }
+
     public static void main(String[] args) throws IOException {
         StopWatch mySW = new StopWatch();
         mySW.start();
@@ -26,10 +63,10 @@ public class SemanticMain {
         mySM.listVectors = Toolkit.getlistVectors();
         mySM.listGlove = mySM.CreateGloveList();
 
-        List<CosSimilarityPair> listWN = mySM.WordsNearest("computer");
+        List<CosSimilarityPair> listWN = mySM.WordsNearest("computer", 5);
         Toolkit.PrintSemantic(listWN, 5);
 
-        listWN = mySM.WordsNearest("phd");
+        listWN = mySM.WordsNearest("phd", 5);
         Toolkit.PrintSemantic(listWN, 5);
 
         List<CosSimilarityPair> listLA = mySM.LogicalAnalogies("china", "uk", "london", 5);
@@ -50,29 +87,496 @@ public class SemanticMain {
 
     /**
      * Instantiates a glove object for all the vocabularies in listVocabulary unless the word in question is in the
-     * STOPWORDS list
+     * STOPWORDS list. The gloves are views of the rows of the embedding matrix rather than copies of the vectors
      * @return a list of gloves
      */
     public List<Glove> CreateGloveList() {
-        return listVocabulary.stream().parallel() //instantiate a stream
-                .filter(word -> !STOPWORDS.contains(word)) //filter out words included in STOPWORDS
-                .map(word -> new Glove(word, new Vector(listVectors.get(listVocabulary.indexOf(word))))) //creates a new glove for each word by accessing the parallel arrays for the vector
+        synchronized (objLock) {
+            VocabularyIndex index = getVocabularyIndex();
+            EmbeddingMatrix matrix = getEmbeddingMatrix();
+            int[] rows = searchableRows(listVocabulary, index);
+            List<Glove> gloves = createGloves(listVocabulary, matrix, rows);
+
+            intGloveRows = rows;
+            listRowGlove = gloves;
+            return gloves;
+        }
+    }
+
+    /**
+     * @return the row of every word of the vocabulary that is not in the STOPWORDS list, in the vocabulary's order
+     */
+    private int[] searchableRows(List<String> _vocabulary, VocabularyIndex _index) {
+        return _vocabulary.stream()
+                .filter(word -> !stopwordIndex.contains(word)) //filter out words included in STOPWORDS
+                .mapToInt(_index::get) //look up the row of each word in the index
+                .toArray();
+    }
+
+    private static List<Glove> createGloves(List<String> _vocabulary, EmbeddingMatrix _matrix, int[] _rows) {
+        return Arrays.stream(_rows).parallel()
+                .mapToObj(row -> new Glove(_vocabulary.get(row), _matrix, row)) //creates a new glove viewing each row
                 .collect(Collectors.toList());
     }
 
     /**
-     * Finds the vector associated with the input word in listVectors if the word is in listVocabulary. Otherwise, the
-     * vector associated with the word "error" is returned
-     * @param _word word to find the vector of
-     * @return the vector representation of the input word
+     * Returns the index over listVocabulary, rebuilding it if listVocabulary has been replaced since the last call. The
+     * index of the model loaded by Toolkit is reused when listVocabulary is that model's vocabulary. Must be called
+     * holding objLock
+     * @return the vocabulary index
+     */
+    private VocabularyIndex getVocabularyIndex() {
+        if (listIndexedVocabulary != listVocabulary) {
+            EmbeddingModel model = Toolkit.getModel();
+            vocabularyIndex = model != null && listVocabulary == model.getVocabulary()
+                    ? model.getVocabularyIndex()
+                    : VocabularyIndex.of(listVocabulary);
+            listIndexedVocabulary = listVocabulary;
+        }
+
+        return vocabularyIndex;
+    }
+
+    /**
+     * Returns the matrix holding listVectors, copying listVectors into a new matrix only if it was not loaded as a view
+     * of one (see Toolkit.getlistVectors()). Must be called holding objLock
+     * @return the embedding matrix
+     */
+    private EmbeddingMatrix getEmbeddingMatrix() {
+        if (listMatrixVectors != listVectors) {
+            embeddingMatrix = EmbeddingMatrix.of(listVectors);
+            listMatrixVectors = listVectors;
+        }
+
+        return embeddingMatrix;
+    }
+
+    /**
+     * Returns the matrix rows of the gloves in listGlove. The rows recorded by CreateGloveList() are reused unless
+     * listGlove has been replaced, in which case they are looked up again. Must be called holding objLock
+     * @return the rows to scan
+     */
+    private int[] getGloveRows() {
+        if (listRowGlove != listGlove) {
+            EmbeddingMatrix matrix = getEmbeddingMatrix();
+            VocabularyIndex index = getVocabularyIndex();
+
+            intGloveRows = listGlove.stream()
+                    .mapToInt(glove -> glove.getMatrix() == matrix ? glove.getRow() : index.get(glove.getVocabulary()))
+                    .filter(row -> row >= 0) //gloves of words outside the vocabulary can't be scanned
+                    .toArray();
+            listRowGlove = listGlove;
+        }
+
+        return intGloveRows;
+    }
+
+    /**
+     * Returns the snapshot the searches run against, taking a new one if listVocabulary, listVectors or listGlove has
+     * been replaced since the last one. A search takes the snapshot once and runs to the end against it, whatever is
+     * published in the meantime, so only the first search after the lists are replaced waits for objLock
+     * @return the current snapshot
      */
-    @NotNull
-    private Vector getVector(String _word) {
-        return listGlove.get(!listVocabulary.contains(_word)
-                ? listVocabulary.indexOf("error")
-                : listVocabulary.indexOf(_word)).getVector();
+    private ModelSnapshot snapshot() {
+        ModelSnapshot snapshot = refSnapshot.get();
+        if (snapshot != null && snapshot.isOf(this)) return snapshot;
+
+        synchronized (objLock) {
+            snapshot = refSnapshot.get();
+            if (snapshot != null && snapshot.isOf(this)) return snapshot;
+
+            EmbeddingMatrix matrix = getEmbeddingMatrix();
+            int[] rows = getGloveRows();
+            snapshot = new ModelSnapshot(listVocabulary, listVectors, listGlove, matrix, getVocabularyIndex(), rows,
+                    lazyIndex(matrix, rows, pathEmbeddingFile), stopwordIndex);
+            publish(snapshot);
+
+            return snapshot;
+        }
+    }
+
+    /**
+     * Makes a snapshot the one new searches run against and empties the result cache. A snapshot of new lists starts
+     * a new base, which tells a compaction that the lists it worked on are gone. Must be called holding objLock
+     */
+    private void publish(ModelSnapshot _snapshot) {
+        _snapshot.lngGeneration = ++lngGeneration;
+        if (_snapshot.lngBase < 0) _snapshot.lngBase = _snapshot.lngGeneration;
+        refSnapshot.set(_snapshot);
+
+        ResultCache<List<Object>, List<CosSimilarityPair>> cache = resultCache;
+        if (cache != null) cache.clear(); //the generation already tells the results apart; this frees the space
+    }
+
+    /**
+     * Replaces the words and vectors searched by those of a loaded model, for example Toolkit.getModel(). The index of
+     * an approximate search mode is loaded or built first, so searches keep running against the old model until the
+     * new one is complete and then switch over at once, without ever seeing a mix of the two or waiting on a lock.
+     * listVocabulary, listVectors and listGlove are replaced by the lists of the new model, and the words added,
+     * updated or removed since the last model are dropped
+     * @param _model the new model
+     */
+    public void setModel(EmbeddingModel _model) { swap(_model, null); }
+
+    /**
+     * Loads a model in the background and swaps it in once it and its index are ready; see setModel(). Searches keep
+     * running against the current model the whole time. A binary embedding file also becomes the file the index
+     * snapshots are kept next to
+     * @param _path a glove CSV or a binary embedding file; see EmbeddingModel.load()
+     * @return completes once searches run against the new model, or exceptionally if it couldn't be loaded
+     */
+    public CompletableFuture<Void> reload(Path _path) {
+        return CompletableFuture.runAsync(() -> {
+            EmbeddingModel model;
+            try {
+                model = EmbeddingModel.load(_path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            swap(model, _path.getFileName().toString().toLowerCase().endsWith(".csv") ? null : _path);
+        });
+    }
+
+    /**
+     * Prepares the snapshot of a model and its index without holding objLock, and then publishes it
+     * @param _embeddingFile the binary embedding file the model was loaded from, or null to keep the current one
+     */
+    private void swap(EmbeddingModel _model, Path _embeddingFile) {
+        EmbeddingModel model = _model;
+        boolean pq;
+        synchronized (objLock) {
+            pq = searchMode == SearchMode.PQ;
+        }
+        if (pq && !model.getMatrix().isOffHeap()) {
+            model = mapped(model.getVocabulary(), model.getMatrix(),
+                    IntStream.range(0, model.getMatrix().getRowCount()).toArray());
+            Toolkit.replaceModel(_model, model);
+        }
+
+        List<String> vocabulary = model.getVocabulary();
+        EmbeddingMatrix matrix = model.getMatrix();
+        int[] rows = searchableRows(vocabulary, model.getVocabularyIndex());
+        List<Glove> gloves = createGloves(vocabulary, matrix, rows);
+
+        ModelSnapshot.LazyIndex index;
+        synchronized (objLock) {
+            index = lazyIndex(matrix, rows, _embeddingFile != null ? _embeddingFile : pathEmbeddingFile);
+        }
+        index.get(); //the slow part, done while the searches still run against the old model
+
+        synchronized (objLock) {
+            if (_embeddingFile != null) pathEmbeddingFile = _embeddingFile;
+
+            //the settings may have changed while the index was built, in which case the new ones win
+            ModelSnapshot.LazyIndex current = lazyIndex(matrix, rows, pathEmbeddingFile);
+            if (!index.hasSettingsOf(current)) index = current;
+
+            listVocabulary = vocabulary;
+            listVectors = model.getVectors();
+            listGlove = gloves;
+            vocabularyIndex = model.getVocabularyIndex();
+            listIndexedVocabulary = vocabulary;
+            embeddingMatrix = matrix;
+            listMatrixVectors = listVectors;
+            intGloveRows = rows;
+            listRowGlove = gloves;
+            publish(new ModelSnapshot(vocabulary, listVectors, gloves, matrix, vocabularyIndex, rows, index,
+                    stopwordIndex));
+        }
+    }
+
+    /**
+     * Chooses how the nearest words are found. The index of an approximate mode is built over the rows of listGlove
+     * the next time it is needed, and again whenever listGlove or listVectors is replaced
+     * @param _mode the search mode
+     */
+    public void setSearchMode(SearchMode _mode) { setIndexFactory(_mode::build, _mode); }
+
+    /**
+     * Same as setSearchMode() with a custom way of building the index, for example an HNSW graph with other
+     * parameters: setIndexFactory((matrix, rows) -> HnswIndex.build(matrix, rows, 32, 400))
+     * @param _factory builds the index over the given rows of the given matrix, or returns null for the exact scan
+     */
+    public void setIndexFactory(BiFunction<EmbeddingMatrix, int[], NearestNeighbourIndex> _factory) {
+        setIndexFactory(_factory, null);
+    }
+
+    private void setIndexFactory(BiFunction<EmbeddingMatrix, int[], NearestNeighbourIndex> _factory,
+                                 SearchMode _mode) {
+        synchronized (objLock) {
+            indexFactory = _factory;
+            searchMode = _mode;
+        }
+
+        if (_mode == SearchMode.PQ && mapRows()) return; //the swap already built the index with the new settings
+
+        boolean done = false;
+        while (!done) done = compact(true); //a background compaction got there first; start again from its result
+    }
+
+    /**
+     * Moves the rows searched off the heap, since the PQ codes only save memory when the float rows aren't held there
+     * as well. The rows of a model loaded from a CSV, with the words changed since, are written to a binary embedding
+     * file in the temporary directory, which is mapped and swapped in as setModel() does. Toolkit.getModel() is
+     * replaced too while it is still the model the lists came from, so nothing keeps the rows on the heap. Word
+     * updates wait for the swap; searches keep running against the heap rows until it is published
+     * @return false if nothing is loaded or the rows already were off the heap
+     */
+    private boolean mapRows() {
+        synchronized (objLock) {
+            if (listVectors == null || getEmbeddingMatrix().isOffHeap()) return false;
+
+            ModelSnapshot snapshot = snapshot();
+            int[] live = IntStream.range(0, snapshot.size()).filter(row -> !snapshot.isDeleted(row)).toArray();
+            List<String> words = new ArrayList<>(live.length);
+            for (int row : live) words.add(snapshot.wordOf(row));
+
+            EmbeddingModel loaded = Toolkit.getModel();
+            EmbeddingModel model = mapped(words, snapshot.matrix, live);
+            if (loaded != null && loaded.getVectors() == listVectors) Toolkit.replaceModel(loaded, model);
+            swap(model, null);
+            return true;
+        }
+    }
+
+    /**
+     * Writes rows of a matrix to a binary embedding file in the temporary directory, deleted when the JVM exits, and
+     * maps it back
+     * @return the model of the mapped file
+     */
+    private static EmbeddingModel mapped(List<String> _words, EmbeddingMatrix _matrix, int[] _rows) {
+        try {
+            Path file = Files.createTempFile("semantic", ".bin");
+            file.toFile().deleteOnExit();
+            EmbeddingFile.write(file, _words, _matrix, _rows);
+            EmbeddingFile myFile = EmbeddingFile.open(file);
+            return EmbeddingModel.of(myFile.getVocabulary(), myFile.getMatrix());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Sets the file an approximate index is saved to once built, and loaded from instead of being built again when it
+     * was saved over the same rows (see IndexFile). Without it, a SemanticMain started from a binary embedding file
+     * keeps the index of each search mode next to that file, for example glove.bin.hnsw.idx, and any other doesn't
+     * save its index
+     * @param _snapshot the snapshot file, or null for the default
+     */
+    public void setIndexSnapshot(Path _snapshot) {
+        synchronized (objLock) {
+            pathIndexSnapshot = _snapshot;
+        }
+
+        boolean done = false;
+        while (!done) done = compact(true);
+    }
+
+    /**
+     * Returns the approximate index over the rows of listGlove, loading it from its snapshot or building it if needed.
+     * After word updates, this is the index the updates extend, which leaves out the words added since the last
+     * compaction and may still hold removed ones
+     * @return the index, or null if the nearest words are found by the exact scan
+     */
+    public NearestNeighbourIndex getIndex() { return snapshot().index.get(); }
+
+    /**
+     * Captures the current index settings for an index over the given rows, loaded or built when it is first needed.
+     * Must be called holding objLock
+     */
+    private ModelSnapshot.LazyIndex lazyIndex(EmbeddingMatrix _matrix, int[] _rows, Path _embeddingFile) {
+        Path snapshot = pathIndexSnapshot;
+        if (snapshot == null && _embeddingFile != null && searchMode != null)
+            snapshot = IndexFile.pathFor(_embeddingFile, searchMode.name());
+
+        return new ModelSnapshot.LazyIndex(indexFactory, searchMode, snapshot, _matrix, _rows);
+    }
+
+    /**
+     * Caches the results of WordsNearest(word, k) and LogicalAnalogies(), keyed by the input words and the number of
+     * results, so that a repeated query costs a hash lookup instead of a scan. The cache is emptied whenever
+     * listVocabulary, listVectors or listGlove is replaced, a model is swapped in, the search mode changes or a word is
+     * updated, and evicts the least recently used results once it holds more than _maxPairs pairs. Every call returns
+     * its own copy of the cached pairs
+     * @param _maxPairs how many pairs the cache may hold in total, or 0 to stop caching
+     */
+    public void setResultCache(long _maxPairs) {
+        resultCache = _maxPairs > 0 ? new ResultCache<>(_maxPairs, pairs -> pairs.size() + 1) : null;
+    }
+
+    /**
+     * @return the result cache, with its hit, miss and eviction counters, or null if results aren't cached
+     */
+    public ResultCache<List<Object>, List<CosSimilarityPair>> getResultCache() { return resultCache; }
+
+    /**
+     * Copies cached pairs, so that callers changing the pairs they get back can't change the cache
+     */
+    private static List<CosSimilarityPair> copyPairs(List<CosSimilarityPair> _pairs) {
+        List<CosSimilarityPair> result = new ArrayList<>(_pairs.size());
+
+        for (CosSimilarityPair pair : _pairs) {
+            String word1 = pair.getWord1();
+            CosSimilarityPair copy = new CosSimilarityPair(word1, pair.getWord2(), pair.getCosineSimilarity());
+            copy.setVector(pair.getVector());
+            result.add(copy);
+        }
+
+        return result;
+    }
+
+    /**
+     * Adds a word to the vocabulary without rebuilding listGlove or the index. The vector is appended to the embedding
+     * matrix and, unless the word is a stop word, is found by WordsNearest() and LogicalAnalogies() from then on.
+     * Searches running at the same time are never blocked; they either see the word or they don't.
+     * <p>
+     * The updates live next to listVocabulary, listVectors and listGlove, which are left as they are, and are dropped
+     * when any of the three lists is replaced or another model is swapped in. Once enough words have changed, the
+     * updates are folded into a new vocabulary index in the background and the index is extended with the added words
+     * (see compact())
+     * @param _word the new word
+     * @param _vector its vector, with as many elements as the other vectors
+     * @return the matrix row of the word
+     * @throws IllegalArgumentException if the word is already in the vocabulary or the vector has another size
+     */
+    public int addWord(String _word, double[] _vector) {
+        synchronized (objLock) {
+            ModelSnapshot snapshot = getWritableSnapshot();
+            if (snapshot.rowOf(_word) >= 0)
+                throw new IllegalArgumentException("\"" + _word + "\" is already in the vocabulary");
+
+            return appendWord(snapshot, _word, _vector, -1);
+        }
+    }
+
+    /**
+     * Replaces the vector of a word. The new vector is appended to the embedding matrix like an added word, and the
+     * old row is left out of every search from then on; see addWord()
+     * @param _word a word of the vocabulary
+     * @param _vector its new vector, with as many elements as the other vectors
+     * @return the new matrix row of the word
+     * @throws IllegalArgumentException if the word is not in the vocabulary or the vector has another size
+     */
+    public int updateWord(String _word, double[] _vector) {
+        synchronized (objLock) {
+            ModelSnapshot snapshot = getWritableSnapshot();
+            int row = snapshot.rowOf(_word);
+            if (row < 0) throw new IllegalArgumentException("\"" + _word + "\" is not in the vocabulary");
+
+            return appendWord(snapshot, _word, _vector, row);
+        }
     }
 
+    /**
+     * Removes a word from the vocabulary. Its row stays in the embedding matrix, marked as deleted, and is left out of
+     * every search from then on; see addWord()
+     * @param _word the word to remove
+     * @return true if the word was in the vocabulary
+     */
+    public boolean removeWord(String _word) {
+        synchronized (objLock) {
+            ModelSnapshot snapshot = getWritableSnapshot();
+            int row = snapshot.rowOf(_word);
+            if (row < 0) return false;
+
+            publishUpdate(snapshot.withoutWord(_word));
+
+            return true;
+        }
+    }
+
+    /**
+     * Folds the word updates into a new vocabulary index and extends the index with the words added since the last
+     * compaction, so that searches stop scanning them one by one. Removed rows stay marked as deleted; the index is
+     * built again instead of extended once they make up more than an eighth of it. This runs in the background on its
+     * own; calling it waits for it to finish
+     */
+    public void compact() {
+        boolean done = false;
+        while (!done) done = compact(false); //a background compaction got there first; fold what is left
+    }
+
+    /**
+     * Returns the current snapshot, ready to take word updates. The first update of a model extends its matrix with
+     * heap rows of its own (see EmbeddingMatrix.extend()) rather than appending to it, since the matrix may be a
+     * read-only mapping and is shared with whoever loaded the model. Must be called holding objLock
+     */
+    private ModelSnapshot getWritableSnapshot() {
+        ModelSnapshot snapshot = snapshot();
+        if (snapshot.boolExtended) return snapshot;
+
+        ModelSnapshot next = snapshot.extended();
+        publish(next);
+
+        return next;
+    }
+
+    /**
+     * Appends the vector of a word as a new row and publishes the snapshot recording it
+     * @param _replaced the row the word had before, which is marked as deleted, or -1
+     */
+    private int appendWord(ModelSnapshot _snapshot, String _word, double[] _vector, int _replaced) {
+        ModelSnapshot next = _snapshot.withWord(_word, _vector, !stopwordIndex.contains(_word), _replaced);
+        publishUpdate(next);
+
+        return next.rowOf(_word);
+    }
+
+    /**
+     * Publishes a snapshot holding one more word update, and starts a background compaction once enough words have
+     * changed since the last one. Must be called holding objLock
+     */
+    private void publishUpdate(ModelSnapshot _snapshot) {
+        _snapshot.intChanges++;
+        publish(_snapshot);
+
+        if (!boolCompacting && _snapshot.intChanges >= Math.max(MIN_COMPACTION_CHANGES, _snapshot.intScanCount >> 6)) {
+            boolCompacting = true;
+            CompletableFuture.runAsync(() -> {
+                try {
+                    compact(false);
+                } catch (RuntimeException e) {
+                    System.err.println("The word updates weren't compacted: " + e);
+                } finally {
+                    synchronized (objLock) {
+                        boolCompacting = false;
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Does the work of compact() outside objLock, on the snapshot as it was when it started, and then merges the
+     * updates made in the meantime into the result. Gives up if another model was swapped in or another compaction
+     * finished first
+     * @param _rebuild true to replace the index with one built with the current settings when it is next needed,
+     *                 instead of extending it
+     * @return false if another compaction finished first
+     */
+    private boolean compact(boolean _rebuild) {
+        ModelSnapshot start = refSnapshot.get();
+        if (start == null) return true; //nothing has been searched yet, so the settings apply from the first search
+
+        ModelSnapshot.Compaction compaction = new ModelSnapshot.Compaction(start, _rebuild);
+        if (!_rebuild && compaction.isEmpty()) return true; //nothing to fold
+
+        synchronized (objLock) {
+            ModelSnapshot current = refSnapshot.get();
+            if (!compaction.isStartOf(current)) return false;
+
+            publish(compaction.applyTo(current, _rebuild ? lazyIndex(null, null, pathEmbeddingFile) : null));
+            return true;
+        }
+    }
+
+    /**
+     * @param _word a word
+     * @return whether the word is in the vocabulary searched, with the words added or removed since it was loaded
+     */
+    public boolean contains(String _word) { return snapshot().rowOf(_word) >= 0; }
+
     /**
      * Returns an ordered list of cosine similarity pairs between the input word and all the words in listGlove. The
      * list is ordered by how similar the word is to the input word (how similar the vector representation of a word is
@@ -80,14 +584,39 @@ public class SemanticMain {
      * @param _word word to compare to
      * @return an ordered list of cosine similarity pairs
      */
-    public List<CosSimilarityPair> WordsNearest(String _word) {
-        Vector v = getVector(_word); //get the vector representation of the input word
+    public List<CosSimilarityPair> WordsNearest(String _word) { return WordsNearest(_word, snapshot().intScanCount); }
 
-        //call doHeapSort on the result of the stream to order the list
-        return HeapSort.doHeapSort(listGlove.stream()
-                .filter(glove -> !glove.getVocabulary().equals(_word)) //filter out the input word from listGlove
-                .map(glove -> new CosSimilarityPair(_word, glove.getVocabulary(), v.cosineSimilarity(glove.getVector()))) //creates a new CosSimilarityPair
-                .collect(Collectors.toList()));
+    /**
+     * Returns the _k words of listGlove that are most similar to the input word, ordered from the most similar. The
+     * input word itself is left out
+     * @param _word word to compare to
+     * @param _k how many words to return
+     * @return an ordered list of at most _k cosine similarity pairs
+     */
+    public List<CosSimilarityPair> WordsNearest(String _word, int _k) { return WordsNearest(_word, _k, null); }
+
+    /**
+     * Same as WordsNearest(_word, _k), among the words a filter keeps instead of listGlove
+     * @param _word word to compare to
+     * @param _k how many words to return
+     * @param _filter the words that may be returned, or null for the words of listGlove; see RowFilter
+     * @return an ordered list of at most _k cosine similarity pairs
+     */
+    public List<CosSimilarityPair> WordsNearest(String _word, int _k, RowFilter _filter) {
+        long start = Metrics.start();
+        Metrics.count(Metrics.Counter.QUERIES, 1);
+        SemanticEvents.Query event = SemanticEvents.beginQuery("nearest", _k, 1);
+        ModelSnapshot snapshot = snapshot();
+        ResultCache<List<Object>, List<CosSimilarityPair>> cache = resultCache;
+
+        List<CosSimilarityPair> result;
+        if (cache == null) result = ModelSearch.nearestToWord(snapshot, _word, _k, _filter, event);
+        else result = copyPairs(cache.computeIfAbsent(Arrays.asList("nearest", _word, _k, _filter,
+                snapshot.lngGeneration), ignored -> ModelSearch.nearestToWord(snapshot, _word, _k, _filter, event)));
+
+        Metrics.record(Metrics.Stage.NEAREST, start);
+        commit(event, snapshot, _word, cache != null, result.size());
+        return result;
     }
 
     /**
@@ -97,12 +626,238 @@ public class SemanticMain {
      * @return an ordered list of cosine similarity pairs
      */
     public List<CosSimilarityPair> WordsNearest(Vector _vector) {
+        return WordsNearest(_vector, snapshot().intScanCount);
+    }
+
+    /**
+     * Returns the _k words of listGlove whose vectors are most similar to the input vector, ordered from the most
+     * similar. Words whose vector is equal to the input vector are left out
+     * @param _vector vector to compare to
+     * @param _k how many words to return
+     * @return an ordered list of at most _k cosine similarity pairs
+     */
+    public List<CosSimilarityPair> WordsNearest(Vector _vector, int _k) { return WordsNearest(_vector, _k, null); }
+
+    /**
+     * Same as WordsNearest(_vector, _k), among the words a filter keeps instead of listGlove
+     * @param _vector vector to compare to
+     * @param _k how many words to return
+     * @param _filter the words that may be returned, or null for the words of listGlove; see RowFilter
+     * @return an ordered list of at most _k cosine similarity pairs
+     */
+    public List<CosSimilarityPair> WordsNearest(Vector _vector, int _k, RowFilter _filter) {
+        long start = Metrics.start();
+        Metrics.count(Metrics.Counter.QUERIES, 1);
+        SemanticEvents.Query event = SemanticEvents.beginQuery("nearestVector", _k, 1);
+        ModelSnapshot snapshot = snapshot();
+        List<CosSimilarityPair> result = ModelSearch.nearestToVector(snapshot, _vector, _k, _filter, event);
+        Metrics.record(Metrics.Stage.NEAREST, start);
+        commit(event, snapshot, "", false, result.size());
+
+        return result;
+    }
+
+    /**
+     * Runs WordsNearest(word, _k) for every input word in one blocked pass over the embedding matrix, which is much
+     * faster than calling WordsNearest in a loop when there are many words
+     * @param _words words to compare to
+     * @param _k how many words to return per input word
+     * @return for every input word, in the same order, an ordered list of at most _k cosine similarity pairs
+     */
+    public List<List<CosSimilarityPair>> WordsNearestBatch(List<String> _words, int _k) {
+        return WordsNearestBatch(_words, _k, null);
+    }
+
+    /**
+     * Same as WordsNearestBatch(_words, _k), among the words a filter keeps instead of listGlove
+     * @param _words words to compare to
+     * @param _k how many words to return per input word
+     * @param _filter the words that may be returned, or null for the words of listGlove; see RowFilter
+     * @return for every input word, in the same order, an ordered list of at most _k cosine similarity pairs
+     */
+    public List<List<CosSimilarityPair>> WordsNearestBatch(List<String> _words, int _k, RowFilter _filter) {
+        return nearestBatch(_words, _k, _filter, false);
+    }
+
+    /**
+     * Same as WordsNearestBatch(_words, _k), except that a word outside the vocabulary gets a null list rather than
+     * the list of the word "error". The words are looked up in the same vocabulary the search runs against, so a word
+     * removed by another thread meanwhile is either searched or reported unknown, never searched as "error"
+     * @param _words words to compare to
+     * @param _k how many words to return per input word
+     * @return for every input word, in the same order, an ordered list of at most _k cosine similarity pairs, or null
+     */
+    public List<List<CosSimilarityPair>> WordsNearestBatchKnown(List<String> _words, int _k) {
+        return nearestBatch(_words, _k, null, true);
+    }
+
+    private List<List<CosSimilarityPair>> nearestBatch(List<String> _words, int _k, RowFilter _filter,
+                                                       boolean _unknownAsNull) {
+        long start = Metrics.start();
+        Metrics.count(Metrics.Counter.QUERIES, _words.size());
+        SemanticEvents.Query event = SemanticEvents.beginQuery("batch", _k, _words.size());
+        ModelSnapshot snapshot = snapshot();
+        EmbeddingMatrix matrix = snapshot.matrix;
+        int[] rows = new int[_words.size()];
+        int known = 0;
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = _unknownAsNull ? snapshot.rowOf(_words.get(i)) : ModelSearch.getRow(snapshot, _words.get(i));
+            if (rows[i] >= 0) known++;
+            else if (_unknownAsNull) Metrics.count(Metrics.Counter.UNKNOWN_WORDS, 1);
+        }
 
-        //call doHeapSort on the result of the stream to order the list
-        return HeapSort.doHeapSort(listGlove.stream()
-                .filter(glove -> !glove.getVector().equals(_vector)) //filter out the input vector from listGlove if relevant
-                .map(glove -> new CosSimilarityPair(_vector, glove.getVocabulary(), _vector.cosineSimilarity(glove.getVector()))) //creates a new CosSimilarityPair
-                .collect(Collectors.toList()));
+        double[][] queries = new double[known][];
+        float[][] unitQueries = new float[known][];
+        int[][] excluded = new int[known][];
+        for (int i = 0, q = 0; i < rows.length; i++) {
+            if (rows[i] < 0) continue;
+
+            queries[q] = ModelSearch.unit(matrix.getRow(rows[i]));
+            unitQueries[q] = ModelSearch.toFloats(queries[q]);
+            excluded[q++] = new int[]{rows[i]}; //leave out the input word itself
+        }
+        Metrics.record(Metrics.Stage.RESOLVE, start);
+
+        HeapSort.TopK[] heaps = ModelSearch.searchAll(snapshot, unitQueries, _k, _filter, excluded, null);
+
+        List<List<CosSimilarityPair>> result = new ArrayList<>(rows.length);
+        int results = 0;
+        for (int i = 0, q = 0; i < rows.length; i++) {
+            if (rows[i] < 0) {
+                result.add(null);
+                continue;
+            }
+
+            String word = _words.get(i);
+            double[] query = queries[q];
+            ModelSearch.trace(event, snapshot, heaps[q]);
+            results += heaps[q].size();
+            result.add(ModelSearch.toPairs(snapshot, heaps[q++], null, _k, candidate -> matrix.cosine(candidate, query),
+                    candidate -> new CosSimilarityPair(word, snapshot.wordOf(candidate), 0)));
+        }
+
+        Metrics.record(Metrics.Stage.BATCH, start);
+        commit(event, snapshot, "", false, results);
+        return result;
+    }
+
+    /**
+     * Runs WordsNearest(vector, _k) for every input vector in one blocked pass over the embedding matrix
+     * @param _vectors vectors to compare to
+     * @param _k how many words to return per input vector
+     * @return for every input vector, in the same order, an ordered list of at most _k cosine similarity pairs
+     */
+    public List<List<CosSimilarityPair>> WordsNearestVectorBatch(List<Vector> _vectors, int _k) {
+        return WordsNearestVectorBatch(_vectors, _k, null);
+    }
+
+    /**
+     * Same as WordsNearestVectorBatch(_vectors, _k), among the words a filter keeps instead of listGlove
+     * @param _vectors vectors to compare to
+     * @param _k how many words to return per input vector
+     * @param _filter the words that may be returned, or null for the words of listGlove; see RowFilter
+     * @return for every input vector, in the same order, an ordered list of at most _k cosine similarity pairs
+     */
+    public List<List<CosSimilarityPair>> WordsNearestVectorBatch(List<Vector> _vectors, int _k, RowFilter _filter) {
+        long start = Metrics.start();
+        Metrics.count(Metrics.Counter.QUERIES, _vectors.size());
+        SemanticEvents.Query event = SemanticEvents.beginQuery("vectorBatch", _k, _vectors.size());
+        ModelSnapshot snapshot = snapshot();
+        EmbeddingMatrix matrix = snapshot.matrix;
+        double[][] queries = new double[_vectors.size()][];
+        float[][] unitQueries = new float[_vectors.size()][];
+        double[][] skipEqual = new double[_vectors.size()][];
+
+        for (int i = 0; i < queries.length; i++) {
+            //vectors of a different size can't share the blocked pass; they are answered one by one below
+            double[] elements = _vectors.get(i).getAllElements();
+            queries[i] = ModelSearch.unit(elements.length == matrix.getDimensions() ? elements
+                    : new double[matrix.getDimensions()]);
+            unitQueries[i] = ModelSearch.toFloats(queries[i]);
+            skipEqual[i] = elements;
+        }
+
+        HeapSort.TopK[] heaps = ModelSearch.searchAll(snapshot, unitQueries, _k, _filter, null, skipEqual);
+
+        List<List<CosSimilarityPair>> result = new ArrayList<>(heaps.length);
+        int results = 0;
+        for (int i = 0; i < heaps.length; i++) {
+            Vector vector = _vectors.get(i);
+            double[] query = queries[i];
+            ModelSearch.trace(event, snapshot, heaps[i]);
+
+            if (vector.getVectorSize() != matrix.getDimensions())
+                result.add(ModelSearch.nearestToVector(snapshot, vector, _k, _filter, event));
+            else result.add(ModelSearch.toPairs(snapshot, heaps[i], skipEqual[i], _k,
+                    candidate -> matrix.cosine(candidate, query),
+                    candidate -> new CosSimilarityPair(vector, snapshot.wordOf(candidate), 0)));
+            results += result.get(i).size();
+        }
+
+        Metrics.record(Metrics.Stage.BATCH, start);
+        commit(event, snapshot, "", false, results);
+        return result;
+    }
+
+    /**
+     * Fills in and commits a query event, if one was begun and a recording wants it
+     * @param _cached whether the query went through the result cache; it was a hit if trace() was never called
+     */
+    private static void commit(SemanticEvents.Query _event, ModelSnapshot _snapshot, String _words, boolean _cached,
+                               int _results) {
+        if (_event == null || !_event.shouldCommit()) return;
+
+        if (_cached && _event.strIndexMode == null) _event.boolCacheHit = true;
+        _event.strWords = _words;
+        _event.intResults = _results;
+        _event.lngGeneration = _snapshot.lngGeneration;
+        _event.commit();
+    }
+
+    /**
+     * Measures how many of the true nearest words the approximate index finds: for every input word, the share of its
+     * _k nearest words by the exact scan that the index also returns among its _k nearest, averaged over the words
+     * @param _words words to query, for example a random sample of listVocabulary
+     * @param _k how many nearest words to compare, typically 10
+     * @return the recall@_k, between 0 and 1; 1 if the nearest words are found by the exact scan
+     */
+    public double RecallAtK(List<String> _words, int _k) {
+        ModelSnapshot snapshot = snapshot();
+        if (snapshot.index.get() == null || _words.isEmpty() || _k <= 0) return 1;
+
+        EmbeddingMatrix matrix = snapshot.matrix;
+        float[][] unitQueries = new float[_words.size()][];
+        int[][] excluded = new int[_words.size()][];
+
+        for (int i = 0; i < unitQueries.length; i++) {
+            int row = ModelSearch.getRow(snapshot, _words.get(i));
+            unitQueries[i] = ModelSearch.toFloats(ModelSearch.unit(matrix.getRow(row)));
+            excluded[i] = new int[]{row};
+        }
+
+        HeapSort.TopK[] exact = BatchSearch.search(matrix, snapshot.liveRows(0), unitQueries, _k, excluded, null,
+                SimilarityKernels.get());
+        HeapSort.TopK[] approximate = ModelSearch.searchAll(snapshot, unitQueries, _k, null, excluded, null);
+
+        double sum = 0;
+        for (int i = 0; i < exact.length; i++) {
+            if (exact[i].size() == 0) {
+                sum += 1;
+                continue;
+            }
+
+            int[] truth = new int[exact[i].size()];
+            for (int j = 0; j < truth.length; j++) truth[j] = exact[i].getId(j);
+            Arrays.sort(truth);
+
+            int found = 0;
+            for (int j = 0; j < approximate[i].size(); j++)
+                if (Arrays.binarySearch(truth, approximate[i].getId(j)) >= 0) found++;
+
+            sum += (double) found / exact[i].size();
+        }
+
+        return sum / exact.length;
     }
 
     /**
@@ -120,16 +875,39 @@ public class SemanticMain {
      * @param _top How many vocabularies to include.
      */
     public List<CosSimilarityPair> LogicalAnalogies(String _secISRef, String _firISRef, String _firTORef, int _top) {
-        List<String> currentWords = List.of(_secISRef, _firISRef, _firTORef); //create a list of the input words. This is relevant for comparison
+        return LogicalAnalogies(_secISRef, _firISRef, _firTORef, _top, null);
+    }
+
+    /**
+     * Same as LogicalAnalogies(_secISRef, _firISRef, _firTORef, _top), among the words a filter keeps instead of
+     * listGlove
+     * @param _filter the words that may be returned, or null for the words of listGlove; see RowFilter
+     */
+    public List<CosSimilarityPair> LogicalAnalogies(String _secISRef, String _firISRef, String _firTORef, int _top,
+                                                    RowFilter _filter) {
+        long start = Metrics.start();
+        Metrics.count(Metrics.Counter.QUERIES, 1);
+        SemanticEvents.Query event = SemanticEvents.beginQuery("analogy", _top, 1);
+        List<String> currentWords = List.of(_secISRef, _firISRef, _firTORef); //create a list of the input words
+        ModelSnapshot snapshot = snapshot();
 
         //_top is less than or equal to 0, or listVocab doesn't have all three input words, return an empty arraylist
-        if (_top <= 0 || !new HashSet<>(listVocabulary).containsAll(currentWords)) return new ArrayList<>();
+        if (_top <= 0 || !currentWords.stream().allMatch(word -> snapshot.rowOf(word) >= 0)) {
+            commit(event, snapshot, String.join(",", currentWords), false, 0);
+            return new ArrayList<>();
+        }
+
+        ResultCache<List<Object>, List<CosSimilarityPair>> cache = resultCache;
+        List<CosSimilarityPair> result;
+        if (cache == null)
+            result = ModelSearch.analogy(snapshot, _secISRef, _firISRef, _firTORef, _top, _filter, event);
+        else result = copyPairs(cache.computeIfAbsent(Arrays.asList("analogy", _secISRef, _firISRef, _firTORef, _top,
+                _filter, snapshot.lngGeneration),
+                key -> ModelSearch.analogy(snapshot, _secISRef, _firISRef, _firTORef, _top, _filter, event)));
 
-        //call WordsNearest on the mathematical operation secIs - firIs + firTo to get a list of similar words
-        return WordsNearest(getVector(_secISRef).subtraction(getVector(_firISRef)).add(getVector(_firTORef)))
-                .stream().parallel()
-                .filter(pair -> !currentWords.contains(pair.getWord2())) //filter out words containing the input words
-                .limit(_top) //limit the list to the input _top
-                .toList();
+        Metrics.record(Metrics.Stage.ANALOGY, start);
+        commit(event, snapshot, String.join(",", currentWords), cache != null, result.size());
+        return result;
     }
+
 }
@@ -0,0 +1,410 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves the searches of a SemanticMain over HTTP with the JDK's built-in server. Every request runs on its own virtual
+ * thread when the JVM has them (Java 21 and later) and on a cached pool of daemon threads otherwise. Endpoints:
+ * <pre>
+ * GET  /nearest?word=computer&amp;k=10          WordsNearest(word, k)
+ * GET  /analogy?a=uk&amp;b=london&amp;c=china&amp;k=5    a is to b as c is to ?, LogicalAnalogies(c, a, b, k)
+ * POST /batch?k=10                           WordsNearestBatch() of the words in the body, one per line
+ * GET  /metrics                              Metrics.dump(), which is never turned away
+ * </pre>
+ * Results are compact JSON, for example {"word":"computer","results":[{"word":"computers","cs":0.9165}]}, or with
+ * format=bin (or Accept: application/octet-stream) a binary stream: the number of lists, then for every list the
+ * number of pairs and every pair as a modified-UTF-8 word (see DataOutput.writeUTF()) and a float similarity.
+ * <p>
+ * A word outside the vocabulary is answered with 404 Not Found and a bad parameter with 400 Bad Request, both with a
+ * one-line reason. A batch skips its unknown words instead: their lists are {"word":"...","unknown":true,"results":[]}
+ * in JSON and -1 pairs in the binary stream. A batch body is limited to MAX_BATCH_BYTES (413 Payload Too Large) and
+ * MAX_BATCH_WORDS words (400), since the whole batch is searched under one permit.
+ * <p>
+ * At most maxConcurrent requests are searched at a time; the others are answered at once with 429 Too Many Requests
+ * instead of queueing, so that an overloaded server sheds load rather than piling up latency. stop() drains: new
+ * requests get 503 while the ones in flight finish.
+ */
+public class SemanticServer {
+    private static final int DEFAULT_K = 10;
+    private static final int MAX_K = 10000;
+    static final int MAX_BATCH_BYTES = 1 << 20;
+    static final int MAX_BATCH_WORDS = 1000;
+
+    private final SemanticMain semantic;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Semaphore semPermits;
+    private final int intMaxConcurrent;
+    private volatile boolean boolDraining = false;
+    private boolean boolStopped = false; //guarded by this
+    private boolean boolDrained = false; //whether the searches in flight finished before the server stopped
+    private final LongAdder lngServed = new LongAdder();
+    private final LongAdder lngRejected = new LongAdder();
+
+    private SemanticServer(SemanticMain _semantic, HttpServer _server, int _maxConcurrent) {
+        semantic = _semantic;
+        server = _server;
+        intMaxConcurrent = _maxConcurrent;
+        semPermits = new Semaphore(_maxConcurrent);
+        executor = newExecutor();
+
+        server.createContext("/nearest", exchange -> handle(exchange, "GET", this::nearest));
+        server.createContext("/analogy", exchange -> handle(exchange, "GET", this::analogy));
+        server.createContext("/batch", exchange -> handle(exchange, "POST", this::batch));
+        server.createContext("/metrics", exchange -> {
+            try (exchange) {
+                send(exchange, 200, "text/plain", Metrics.dump().getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Starts serving the searches of a SemanticMain
+     * @param _semantic the SemanticMain to search, which must not be changed other than through its thread-safe
+     *                  methods (setModel(), reload(), addWord() and the like) while the server runs
+     * @param _address the address to listen on; port 0 picks a free port (see getPort())
+     * @param _maxConcurrent how many requests may be searched at a time, at least 1
+     * @return the running server
+     * @throws IOException thrown if the address can't be bound
+     */
+    public static SemanticServer start(SemanticMain _semantic, InetSocketAddress _address, int _maxConcurrent)
+            throws IOException {
+        if (_maxConcurrent < 1) throw new IllegalArgumentException("at least one request must be served");
+
+        SemanticServer result = new SemanticServer(_semantic, HttpServer.create(_address, 1024), _maxConcurrent);
+        result.server.start();
+        return result;
+    }
+
+    /**
+     * Starts a server on the given port, by default 8080, over the given embedding file, binary or CSV, by default the
+     * glove CSV, and drains it on shutdown. The search mode and the concurrency limit are read from -Dsemantic.mode
+     * (EXACT, HNSW, ...) and -Dsemantic.maxConcurrent, by default twice the number of processors. The metrics are
+     * registered over JMX as well
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        SemanticMain mySM = args.length > 1 ? new SemanticMain(Path.of(args[1])) : new SemanticMain();
+        mySM.setModel(Toolkit.getModel());
+        mySM.setSearchMode(SearchMode.valueOf(System.getProperty("semantic.mode", "EXACT")));
+        mySM.getIndex(); //build or load the index before the first request
+        Metrics.registerMBean();
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        int maxConcurrent = Integer.getInteger("semantic.maxConcurrent", 2 * processors);
+        SemanticServer myServer = start(mySM, new InetSocketAddress(port), maxConcurrent);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> myServer.stop(Duration.ofSeconds(10))));
+        System.out.println("Serving " + mySM.listVocabulary.size() + " words on port " + myServer.getPort());
+    }
+
+    /**
+     * Stops accepting searches and waits for the ones in flight to finish, at most _timeout, before closing the server.
+     * Requests arriving in the meantime are answered with 503 Service Unavailable. Calling it again does nothing
+     * @param _timeout how long to wait for the searches in flight
+     * @return true if every search finished in time
+     */
+    public synchronized boolean stop(Duration _timeout) {
+        if (boolStopped) return boolDrained;
+
+        boolDraining = true;
+        try {
+            boolDrained = semPermits.tryAcquire(intMaxConcurrent, _timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        server.stop(0);
+        executor.shutdown();
+        boolStopped = true;
+        return boolDrained;
+    }
+
+    public int getPort() { return server.getAddress().getPort(); }
+
+    /**
+     * @return the number of requests answered with search results
+     */
+    public long getServed() { return lngServed.sum(); }
+
+    /**
+     * @return the number of requests turned away with 429 because maxConcurrent searches were running
+     */
+    public long getRejected() { return lngRejected.sum(); }
+
+    /**
+     * @return a virtual-thread-per-task executor if the JVM has virtual threads, otherwise a cached pool of daemon
+     * threads. The pool is unbounded on purpose: the permits bound the searches, and a thread turning a request away
+     * finishes at once
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            //looked up reflectively so that the class still compiles and runs on Java 17
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "semantic-server");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Takes a permit for a search without waiting
+     * @return false if maxConcurrent searches are running
+     */
+    boolean tryEnter() { return semPermits.tryAcquire(); }
+
+    void exit() { semPermits.release(); }
+
+    /**
+     * Answers a request: checks the method and the permits, runs the endpoint and writes its response. A request the
+     * endpoint turns down is answered with the status and reason of its RequestError, and any other bad request with
+     * 400 and the reason. An unexpected failure is counted in Metrics as a server error and answered with 500 alone,
+     * without the details of the exception
+     */
+    private void handle(HttpExchange _exchange, String _method, Endpoint _endpoint) throws IOException {
+        try (_exchange) {
+            if (!_exchange.getRequestMethod().equals(_method)) {
+                _exchange.getResponseHeaders().set("Allow", _method);
+                send(_exchange, 405, "text/plain", ("use " + _method).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            if (boolDraining) {
+                send(_exchange, 503, "text/plain", "shutting down".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            if (!tryEnter()) {
+                lngRejected.increment();
+                _exchange.getResponseHeaders().set("Retry-After", "1");
+                send(_exchange, 429, "text/plain", "too many requests".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            try {
+                Map<String, String> params = parseQuery(_exchange.getRequestURI().getRawQuery());
+                List<String> words = new ArrayList<>();
+                List<List<CosSimilarityPair>> results = _endpoint.search(_exchange, params, words);
+                if (isBinary(_exchange, params)) send(_exchange, 200, "application/octet-stream", toBinary(results));
+                else send(_exchange, 200, "application/json", toJson(words, results));
+                lngServed.increment();
+            } catch (RequestError e) {
+                send(_exchange, e.intStatus, "text/plain", e.getMessage().getBytes(StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                send(_exchange, 400, "text/plain", String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+            } catch (RuntimeException e) {
+                Metrics.count(Metrics.Counter.SERVER_ERRORS, 1);
+                send(_exchange, 500, "text/plain", "internal error".getBytes(StandardCharsets.UTF_8));
+            } finally {
+                exit();
+            }
+        }
+    }
+
+    private List<List<CosSimilarityPair>> nearest(HttpExchange _exchange, Map<String, String> _params,
+                                                  List<String> _words) {
+        String word = requireWord(_params, "word");
+        _words.add(word);
+        return List.of(semantic.WordsNearest(word, parseK(_params)));
+    }
+
+    private List<List<CosSimilarityPair>> analogy(HttpExchange _exchange, Map<String, String> _params,
+                                                  List<String> _words) {
+        String a = requireWord(_params, "a");
+        String b = requireWord(_params, "b");
+        String c = requireWord(_params, "c");
+        _words.add(c);
+        return List.of(semantic.LogicalAnalogies(c, a, b, parseK(_params)));
+    }
+
+    /**
+     * Searches the known words of the body together and leaves a null list for every unknown one
+     */
+    private List<List<CosSimilarityPair>> batch(HttpExchange _exchange, Map<String, String> _params,
+                                                List<String> _words) {
+        int k = parseK(_params);
+        byte[] bytes;
+        try (InputStream body = _exchange.getRequestBody()) {
+            bytes = body.readNBytes(MAX_BATCH_BYTES + 1); //one byte more tells a body that is too large
+        } catch (IOException e) {
+            throw new IllegalArgumentException("the body can't be read: " + e.getMessage());
+        }
+        if (bytes.length > MAX_BATCH_BYTES)
+            throw new RequestError(413, "the body is larger than " + MAX_BATCH_BYTES + " bytes");
+
+        for (String line : new String(bytes, StandardCharsets.UTF_8).split("\n")) {
+            String word = line.strip();
+            if (!word.isEmpty()) _words.add(word);
+        }
+        if (_words.size() > MAX_BATCH_WORDS)
+            throw new IllegalArgumentException("a batch holds at most " + MAX_BATCH_WORDS + " words");
+
+        return semantic.WordsNearestBatchKnown(_words, k);
+    }
+
+    private static String require(Map<String, String> _params, String _name) {
+        String value = _params.get(_name);
+        if (value == null || value.isEmpty()) throw new IllegalArgumentException("missing parameter " + _name);
+
+        return value;
+    }
+
+    /**
+     * Same as require() for a word, which must also be in the vocabulary
+     */
+    private String requireWord(Map<String, String> _params, String _name) {
+        String word = require(_params, _name);
+        if (!semantic.contains(word)) throw new RequestError(404, "unknown word " + word);
+
+        return word;
+    }
+
+    private static int parseK(Map<String, String> _params) {
+        String value = _params.get("k");
+        if (value == null) return DEFAULT_K;
+
+        try {
+            int k = Integer.parseInt(value);
+            if (k >= 1 && k <= MAX_K) return k;
+        } catch (NumberFormatException ignored) { }
+
+        throw new IllegalArgumentException("k must be a number from 1 to " + MAX_K);
+    }
+
+    private static Map<String, String> parseQuery(String _rawQuery) {
+        Map<String, String> result = new HashMap<>();
+        if (_rawQuery == null) return result;
+
+        for (String param : _rawQuery.split("&")) {
+            int equals = param.indexOf('=');
+            String name = URLDecoder.decode(equals < 0 ? param : param.substring(0, equals), StandardCharsets.UTF_8);
+            String value = equals < 0 ? "" : URLDecoder.decode(param.substring(equals + 1), StandardCharsets.UTF_8);
+            result.putIfAbsent(name, value);
+        }
+
+        return result;
+    }
+
+    private static boolean isBinary(HttpExchange _exchange, Map<String, String> _params) {
+        String accept = _exchange.getRequestHeaders().getFirst("Accept");
+        return "bin".equals(_params.get("format")) || accept != null && accept.contains("application/octet-stream");
+    }
+
+    private static void send(HttpExchange _exchange, int _status, String _type, byte[] _body) throws IOException {
+        _exchange.getResponseHeaders().set("Content-Type", _type);
+        _exchange.sendResponseHeaders(_status, _body.length == 0 ? -1 : _body.length);
+        if (_body.length > 0) {
+            try (OutputStream out = _exchange.getResponseBody()) {
+                out.write(_body);
+            }
+        }
+    }
+
+    /**
+     * Writes one {"word":...,"results":[...]} object per list, as an array for the batch endpoint. Similarities are
+     * written as floats, which is all the precision the matrix holds. A null list is written as an unknown word
+     */
+    static byte[] toJson(List<String> _words, List<List<CosSimilarityPair>> _results) {
+        StringBuilder sb = new StringBuilder(64 + _results.size() * 256);
+        if (_results.size() != 1) sb.append('[');
+
+        for (int i = 0; i < _results.size(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"word\":");
+            appendString(sb, i < _words.size() ? _words.get(i) : "");
+            List<CosSimilarityPair> pairs = _results.get(i);
+            if (pairs == null) {
+                sb.append(",\"unknown\":true,\"results\":[]}");
+                continue;
+            }
+            sb.append(",\"results\":[");
+
+            for (int j = 0; j < pairs.size(); j++) {
+                if (j > 0) sb.append(',');
+                sb.append("{\"word\":");
+                appendString(sb, pairs.get(j).getWord2());
+                sb.append(",\"cs\":").append((float) pairs.get(j).getCosineSimilarity()).append('}');
+            }
+            sb.append("]}");
+        }
+
+        if (_results.size() != 1) sb.append(']');
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void appendString(StringBuilder _sb, String _value) {
+        _sb.append('"');
+        for (int i = 0; i < _value.length(); i++) {
+            char c = _value.charAt(i);
+            if (c == '"' || c == '\\') _sb.append('\\').append(c);
+            else if (c < 0x20) _sb.append(String.format("\\u%04x", (int) c));
+            else _sb.append(c);
+        }
+        _sb.append('"');
+    }
+
+    /**
+     * Writes the lists in the binary form, with -1 pairs for a null list
+     */
+    static byte[] toBinary(List<List<CosSimilarityPair>> _results) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + _results.size() * 128);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(_results.size());
+        for (List<CosSimilarityPair> pairs : _results) {
+            if (pairs == null) {
+                out.writeInt(-1);
+                continue;
+            }
+            out.writeInt(pairs.size());
+            for (CosSimilarityPair pair : pairs) {
+                out.writeUTF(pair.getWord2());
+                out.writeFloat((float) pair.getCosineSimilarity());
+            }
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * One search endpoint: returns the result lists and adds the input word of every list to _words
+     */
+    private interface Endpoint {
+        List<List<CosSimilarityPair>> search(HttpExchange _exchange, Map<String, String> _params, List<String> _words);
+    }
+
+    /**
+     * A request an endpoint turns down, with the status to answer it with
+     */
+    private static class RequestError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int intStatus;
+
+        private RequestError(int _status, String _message) {
+            super(_message);
+            intStatus = _status;
+        }
+    }
+}
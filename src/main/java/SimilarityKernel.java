@@ -0,0 +1,130 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The arithmetic at the bottom of every similarity computation. Implementations are stateless and thread-safe; use
+ * SimilarityKernels.get() to obtain the fastest one available on the running JVM.
+ */
+public interface SimilarityKernel {
+    /**
+     * Calculates the dot product of two float ranges
+     * @param _a first array
+     * @param _aOffset position of the first element in _a
+     * @param _b second array
+     * @param _bOffset position of the first element in _b
+     * @param _length number of elements to multiply
+     * @return the dot product
+     */
+    float dot(float[] _a, int _aOffset, float[] _b, int _bOffset, int _length);
+
+    /**
+     * Calculates the dot products of one float range with four queries packed one after the other, loading every
+     * element of _a once for all four. This is the register tile of the batched nearest-neighbour search
+     * @param _a array holding the row
+     * @param _aOffset position of the first element of the row in _a
+     * @param _queries array holding the four queries back to back
+     * @param _queryOffset position of the first element of the first query
+     * @param _length number of elements in the row and in every query
+     * @param _out receives the four dot products
+     */
+    void dot4(float[] _a, int _aOffset, float[] _queries, int _queryOffset, int _length, float[] _out);
+
+    /**
+     * Calculates the dot product of a float range stored in a buffer, such as a memory-mapped file, with a float array
+     * @param _a buffer holding float32 elements in its own byte order
+     * @param _aOffset position of the first element in _a, counted in floats from the start of the buffer
+     * @param _b array
+     * @param _bOffset position of the first element in _b
+     * @param _length number of elements to multiply
+     * @return the dot product
+     */
+    float dot(ByteBuffer _a, int _aOffset, float[] _b, int _bOffset, int _length);
+
+    /**
+     * Same as dot4() for a row stored in a buffer
+     * @param _a buffer holding float32 elements in its own byte order
+     * @param _aOffset position of the first element of the row, counted in floats from the start of the buffer
+     * @param _queries array holding the four queries back to back
+     * @param _queryOffset position of the first element of the first query
+     * @param _length number of elements in the row and in every query
+     * @param _out receives the four dot products
+     */
+    void dot4(ByteBuffer _a, int _aOffset, float[] _queries, int _queryOffset, int _length, float[] _out);
+
+    /**
+     * Calculates the dot product of two byte ranges as integers. Each product fits in 16 bits, so the sum can't
+     * overflow for fewer than 131072 elements
+     * @param _a first array
+     * @param _aOffset position of the first element in _a
+     * @param _b second array
+     * @param _bOffset position of the first element in _b
+     * @param _length number of elements to multiply
+     * @return the dot product
+     */
+    int dot(byte[] _a, int _aOffset, byte[] _b, int _bOffset, int _length);
+
+    /**
+     * Same as dot() of two byte ranges for a range stored in a buffer, such as a memory-mapped file
+     * @param _a buffer holding the bytes
+     * @param _aOffset position of the first element in _a, counted from the start of the buffer
+     * @param _b array
+     * @param _bOffset position of the first element in _b
+     * @param _length number of elements to multiply
+     * @return the dot product
+     */
+    int dot(ByteBuffer _a, int _aOffset, byte[] _b, int _bOffset, int _length);
+
+    /**
+     * Calculates the dot product of two double ranges
+     * @param _a first array
+     * @param _aOffset position of the first element in _a
+     * @param _b second array
+     * @param _bOffset position of the first element in _b
+     * @param _length number of elements to multiply
+     * @return the dot product
+     */
+    double dot(double[] _a, int _aOffset, double[] _b, int _bOffset, int _length);
+
+    /**
+     * Calculates the cosine similarity of the first _length elements of two arrays, accumulating the dot product and
+     * both magnitudes in one pass
+     * @param _a first array
+     * @param _b second array
+     * @param _length number of elements to compare
+     * @return the cosine similarity
+     */
+    default double cosine(double[] _a, double[] _b, int _length) { return cosine(_a, 0, _b, 0, _length); }
+
+    /**
+     * Same as cosine(_a, _b, _length) for two ranges
+     * @param _a first array
+     * @param _aOffset position of the first element in _a
+     * @param _b second array
+     * @param _bOffset position of the first element in _b
+     * @param _length number of elements to compare
+     * @return the cosine similarity
+     */
+    double cosine(double[] _a, int _aOffset, double[] _b, int _bOffset, int _length);
+
+    /**
+     * Adds the first _length elements of two arrays into the destination, which may be one of the inputs
+     */
+    void add(double[] _a, double[] _b, double[] _dst, int _length);
+
+    /**
+     * Subtracts the first _length elements of _b from those of _a into the destination, which may be one of the inputs
+     */
+    void subtract(double[] _a, double[] _b, double[] _dst, int _length);
+
+    /**
+     * Adds _alpha times a range of _x to a range of _y, in place
+     * @param _alpha factor of _x
+     * @param _x array added
+     * @param _xOffset position of the first element in _x
+     * @param _y array added to
+     * @param _yOffset position of the first element in _y
+     * @param _length number of elements to add
+     */
+    void axpy(double _alpha, double[] _x, int _xOffset, double[] _y, int _yOffset, int _length);
+
+    String getName();
+}
@@ -0,0 +1,38 @@
+/**
+ * Chooses the similarity kernel once per JVM. The Vector API kernel is used when the jdk.incubator.vector module is
+ * available and the CPU has wide enough vectors; otherwise the scalar kernel is the fallback. The choice can be forced
+ * with -Dsemantic.kernel=scalar or -Dsemantic.kernel=vector.
+ */
+public class SimilarityKernels {
+    private static final SimilarityKernel SCALAR = new ScalarKernel();
+    private static final SimilarityKernel DEFAULT = detect();
+
+    public static SimilarityKernel get() { return DEFAULT; }
+
+    public static SimilarityKernel scalar() { return SCALAR; }
+
+    /**
+     * Returns the Vector API kernel if it can be loaded on the running JVM
+     * @return the Vector API kernel, or null if the module is missing
+     */
+    public static SimilarityKernel vectorApi() {
+        try {
+            //loaded reflectively so that a missing incubator module fails here instead of when this class is verified
+            Class<?> kernelClass = Class.forName("VectorApiKernel");
+            if (!(boolean) kernelClass.getMethod("isAccelerated").invoke(null)) return null;
+
+            return (SimilarityKernel) kernelClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) { return null; }
+    }
+
+    private static SimilarityKernel detect() {
+        String choice = System.getProperty("semantic.kernel", "auto");
+        if (choice.equals("scalar")) return SCALAR;
+
+        SimilarityKernel kernel = vectorApi();
+        if (kernel == null && choice.equals("vector"))
+            System.err.println("The Vector API kernel is unavailable; run with --add-modules jdk.incubator.vector");
+
+        return kernel == null ? SCALAR : kernel;
+    }
+}
@@ -0,0 +1,76 @@
+import java.util.Arrays;
+
+/**
+ * Bitmap of deleted rows, which the searches skip. A bitmap never changes once created: with() returns a copy that
+ * holds one more row. The bits are split into chunks of 65536 rows, and a copy shares every chunk but the one it
+ * changes, so deleting a row copies one chunk and the array of chunks rather than a bit for every row of the matrix.
+ */
+public class Tombstones {
+    private static final int CHUNK_SHIFT = 10; //log2 of the longs per chunk
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+    public static final Tombstones NONE = new Tombstones(new long[0][], 0);
+
+    private final long[][] lngChunks; //null for a chunk without deleted rows
+    private final int intSize;
+
+    private Tombstones(long[][] _chunks, int _size) {
+        lngChunks = _chunks;
+        intSize = _size;
+    }
+
+    /**
+     * Copies a flat bitmap
+     * @param _bits the deleted rows, bit row % 64 of long row / 64
+     * @return the tombstones of the rows
+     */
+    public static Tombstones of(long[] _bits) {
+        long[][] chunks = new long[(_bits.length + CHUNK_MASK) >>> CHUNK_SHIFT][];
+        int size = 0;
+        for (int i = 0; i < _bits.length; i++) {
+            if (_bits[i] == 0) continue;
+
+            if (chunks[i >>> CHUNK_SHIFT] == null) chunks[i >>> CHUNK_SHIFT] = new long[CHUNK_MASK + 1];
+            chunks[i >>> CHUNK_SHIFT][i & CHUNK_MASK] = _bits[i];
+            size += Long.bitCount(_bits[i]);
+        }
+
+        return new Tombstones(chunks, size);
+    }
+
+    /**
+     * Returns a copy with one more deleted row, sharing the chunks the row is not in
+     * @param _row the row to delete
+     * @return the copy, or these tombstones if the row is already deleted
+     */
+    public Tombstones with(int _row) {
+        if (_row < 0) throw new IndexOutOfBoundsException("row " + _row);
+        if (contains(_row)) return this;
+
+        int index = _row >>> 6;
+        int chunk = index >>> CHUNK_SHIFT;
+        long[][] chunks = Arrays.copyOf(lngChunks, Math.max(lngChunks.length, chunk + 1));
+        chunks[chunk] = chunks[chunk] == null ? new long[CHUNK_MASK + 1] : chunks[chunk].clone();
+        chunks[chunk][index & CHUNK_MASK] |= 1L << _row;
+
+        return new Tombstones(chunks, intSize + 1);
+    }
+
+    public boolean contains(int _row) { return _row >= 0 && (word(_row >>> 6) & 1L << _row) != 0; }
+
+    /**
+     * Returns 64 bits of the bitmap in the layout of a flat one, so that a scan can mask a long of row bits at a time
+     * @param _index which 64 rows, from row _index * 64 on
+     * @return the bits of the deleted rows among them, 0 past the last chunk
+     */
+    public long word(int _index) {
+        int chunk = _index >>> CHUNK_SHIFT;
+        if (chunk >= lngChunks.length || lngChunks[chunk] == null) return 0;
+
+        return lngChunks[chunk][_index & CHUNK_MASK];
+    }
+
+    /**
+     * @return the number of deleted rows
+     */
+    public int size() { return intSize; }
+}
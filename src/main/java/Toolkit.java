@@ -1,46 +1,79 @@
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.List;
-import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 public class Toolkit {
-    private static List<String> listVocabulary = null;
-    private static List<double[]> listVectors = null;
+    //the loaded gloves, replaced as a whole so that the getters never mix two loads
+    private static final AtomicReference<EmbeddingModel> MODEL = new AtomicReference<>();
     private static final String FILENAME_GLOVE = "glove.6B.50d_Reduced.csv";
     private static final String FILENAME_STOPWORDS = "stopwords.csv";
 
     /**
-     * Loads the gloves from the relevant file and populates the listVectors and listVocabulary lists
+     * Loads the gloves from the relevant file into the embedding matrix and populates the listVocabulary list, along
+     * with the vocabulary index that maps every word to its row in the matrix. listVectors is a view of the matrix.
+     * -Dsemantic.embeddings=path loads another model instead, of any dimensions (see load())
      * @throws IOException thrown if the file uri cannot be parsed properly
      */
     public static void loadGLOVE() throws IOException {
-        try (BufferedReader myReader = new BufferedReader(new FileReader(getFileFromResource(FILENAME_GLOVE)))) {
-
-            //instantiate the lists we must populate. This also clears them if they were populated before
-            listVectors = new ArrayList<>();
-            listVocabulary = new ArrayList<>();
-
-            //iterate using lines()
-            myReader.lines()
-                    .map(line -> new StringTokenizer(line, ",")) //map every line to a StringTokenizer
-                    .forEach(tokenizer -> {
-                        double[] vector = new double[50]; //create a new double array for the vector numbers
-
-                        listVocabulary.add(tokenizer.nextToken()); //add the first token to the vocabulary list
+        String embeddings = System.getProperty("semantic.embeddings");
+        if (embeddings != null) {
+            load(Path.of(embeddings));
+            return;
+        }
+
+        try {
+            loadGLOVE(getFileFromResource(FILENAME_GLOVE).toPath());
+        } catch (URISyntaxException throwables) { throw new RuntimeException(throwables); }
+    }
 
-                        //iterate and parse the rest of the tokens, adding them to the vector array
-                        for (int i = 0; i < vector.length; i++) vector[i] = Double.parseDouble(tokenizer.nextToken());
+    /**
+     * Loads the gloves from the given CSV, parsing it in parallel (see CsvEmbeddingLoader), and publishes them the
+     * same way loadGLOVE() does. The load and its phases are timed in Metrics, and recorded as a flight recorder event
+     * (see SemanticEvents)
+     * @param _csv the glove CSV
+     * @throws IOException thrown if the file can't be read, has no vectors, or has a malformed row
+     */
+    public static void loadGLOVE(Path _csv) throws IOException {
+        long start = Metrics.start();
+        SemanticEvents.ModelLoad myEvent = new SemanticEvents.ModelLoad();
+        myEvent.begin();
+        CsvEmbeddingLoader myLoader = CsvEmbeddingLoader.load(_csv);
+        MODEL.set(EmbeddingModel.of(myLoader.getVocabulary(), myLoader.getMatrix()));
+        Metrics.record(Metrics.Stage.LOAD, start);
+        SemanticEvents.commitLoad(myEvent, _csv, "csv", myLoader.getMatrix());
+    }
 
-                        listVectors.add(vector); //add the vector array to the greater list of vectors
-                    });
+    /**
+     * Loads a model from a CSV or a binary embedding file, told apart by the .csv extension, and publishes it the same
+     * way loadGLOVE() does. The dimensions are taken from the file; see EmbeddingModel.load()
+     * @param _path the file
+     * @throws IOException thrown if the file can't be read or is not a valid embedding file
+     */
+    public static void load(Path _path) throws IOException { MODEL.set(EmbeddingModel.load(_path)); }
 
-        } catch (URISyntaxException throwables) { throw new RuntimeException(throwables); }
+    /**
+     * Maps a binary embedding file written by EmbeddingFile instead of parsing the gloves, and publishes its vocabulary
+     * and matrix the same way loadGLOVE() does. The vectors are not read into the heap; see EmbeddingFile.open()
+     * @param _path the binary embedding file
+     * @throws IOException thrown if the file can't be read or is not a valid embedding file
+     */
+    public static void loadBinary(Path _path) throws IOException {
+        long start = Metrics.start();
+        SemanticEvents.ModelLoad myEvent = new SemanticEvents.ModelLoad();
+        myEvent.begin();
+        EmbeddingFile myFile = EmbeddingFile.open(_path);
+        MODEL.set(EmbeddingModel.of(myFile.getVocabulary(), myFile.getMatrix()));
+        Metrics.record(Metrics.Stage.LOAD, start);
+        SemanticEvents.commitLoad(myEvent, _path, "binary", myFile.getMatrix());
     }
 
     /**
@@ -49,11 +82,15 @@ public class Toolkit {
      * @throws IOException thrown if the file uri cannot be parsed properly
      */
     public static List<String> loadStopWords() throws IOException {
-        try (BufferedReader myReader = new BufferedReader(new FileReader(getFileFromResource(FILENAME_STOPWORDS)))) {
+        InputStream myStream = Toolkit.class.getClassLoader().getResourceAsStream(FILENAME_STOPWORDS);
+        if (myStream == null) throw new IllegalArgumentException("file not found! " + FILENAME_STOPWORDS);
+
+        //read as a stream rather than a File, so that it also works when the resource is inside a jar
+        try (BufferedReader myReader = new BufferedReader(new InputStreamReader(myStream, StandardCharsets.UTF_8))) {
 
             return myReader.lines().collect(Collectors.toList()); //collect with lines() since nothing else is needed
 
-        } catch (URISyntaxException e) { throw new RuntimeException(e); }
+        }
     }
 
     private static File getFileFromResource(String fileName) throws URISyntaxException {
@@ -64,9 +101,41 @@ public class Toolkit {
         else return new File(resource.toURI());
     }
 
-    public static List<String> getListVocabulary() { return listVocabulary; }
+    /**
+     * Returns the gloves of the last load as one snapshot. A load running at the same time replaces the snapshot as a
+     * whole, so the vocabulary, the index and the matrix of a snapshot always belong together
+     * @return the loaded model, or null if nothing has been loaded
+     */
+    public static EmbeddingModel getModel() { return MODEL.get(); }
 
-    public static List<double[]> getlistVectors() { return listVectors; }
+    /**
+     * Replaces the loaded model by the same gloves stored elsewhere, as SemanticMain does when the PQ mode maps the
+     * rows. A load that happened in between wins
+     * @return true if _expected was still the loaded model
+     */
+    public static boolean replaceModel(EmbeddingModel _expected, EmbeddingModel _model) {
+        return MODEL.compareAndSet(_expected, _model);
+    }
+
+    public static List<String> getListVocabulary() {
+        EmbeddingModel myModel = MODEL.get();
+        return myModel == null ? null : myModel.getVocabulary();
+    }
+
+    public static List<double[]> getlistVectors() {
+        EmbeddingModel myModel = MODEL.get();
+        return myModel == null ? null : myModel.getVectors();
+    }
+
+    public static EmbeddingMatrix getEmbeddingMatrix() {
+        EmbeddingModel myModel = MODEL.get();
+        return myModel == null ? null : myModel.getMatrix();
+    }
+
+    public static VocabularyIndex getVocabularyIndex() {
+        EmbeddingModel myModel = MODEL.get();
+        return myModel == null ? null : myModel.getVocabularyIndex();
+    }
 
     /**
      * DO NOT MODIFY Method to print out the semantic information.
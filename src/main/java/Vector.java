@@ -1,6 +1,15 @@
 import java.util.Arrays;
 
+/**
+ * A vector of doubles. add(), subtraction() and reSize() return new vectors; the methods ending in Into, axpy() and
+ * normalizeInPlace() change the vector instead, and the static methods work on ranges of raw arrays, so that a hot
+ * path can build a query in one array without allocating. Vectors of different sizes are compared and combined as if
+ * the shorter one were padded with -1, like reSize() does; the padding goes through a buffer kept per thread rather
+ * than a new array.
+ */
 public class Vector {
+    private static final ThreadLocal<double[]> SCRATCH = ThreadLocal.withInitial(() -> new double[0]);
+    private static final ThreadLocal<double[]> PADDING = ThreadLocal.withInitial(() -> new double[0]);
     private final double[] doubElements;
 
     public Vector(double[] _elements) { doubElements = _elements; }
@@ -59,18 +68,12 @@ public class Vector {
      * @return the vector result of the addiction
      */
     public Vector add(Vector _v) {
-        Vector current = this; //track the current vector
-        Vector other = _v; //tracks the input vector
+        int size = Math.max(getVectorSize(), _v.getVectorSize());
+        double[] result = new double[size]; //new array for the added elements
 
-        //expend the smaller vector and store the expended version in the relevant variable
-        if (_v.getVectorSize() > getVectorSize()) current = reSize(_v.getVectorSize());
-        else if (_v.getVectorSize() < getVectorSize()) other = _v.reSize(getVectorSize());
-
-        double[] result = new double[current.getVectorSize()]; //new array for the added elements
-
-        //iterate and add the two numbers, saving the result in the new array
-        for (int i = 0; i < current.getVectorSize(); i++)
-            result[i] = current.getElementatIndex(i) + other.getElementatIndex(i);
+        //add the two arrays element-wise with the similarity kernel, saving the result in the new array; the smaller
+        //vector is expanded in the padding buffer
+        SimilarityKernels.get().add(padded(doubElements, size), padded(_v.doubElements, size), result, size);
 
         return new Vector(result);
     }
@@ -82,77 +85,180 @@ public class Vector {
      * @return the vector result of the subtraction
      */
     public Vector subtraction(Vector _v) {
-        Vector current = this; //track the current vector
-        Vector other = _v; //tracks the input vector
+        int size = Math.max(getVectorSize(), _v.getVectorSize());
+        double[] result = new double[size]; //new array for the subtracted elements
 
-        //expend the smaller vector and store the expended version in the relevant variable
-        if (_v.getVectorSize() > getVectorSize()) current = reSize(_v.getVectorSize());
-        else if (_v.getVectorSize() < getVectorSize()) other = _v.reSize(getVectorSize());
+        //subtract the two arrays element-wise with the similarity kernel, saving the result in the new array; the
+        //smaller vector is expanded in the padding buffer
+        SimilarityKernels.get().subtract(padded(doubElements, size), padded(_v.doubElements, size), result, size);
 
-        double[] result = new double[current.getVectorSize()]; //new array for the subtracted elements
+        return new Vector(result);
+    }
 
-        //iterate and subtract the two numbers, saving the result in the new array
-        for (int i = 0; i < current.getVectorSize(); i++)
-            result[i] = current.getElementatIndex(i) - other.getElementatIndex(i);
+    /**
+     * Calculates the dot product of two give vectors. In the case that one vector is smaller than the other, calls
+     * reSize() to make the smaller vector bigger
+     * @param _v vector to do dot product with
+     * @return the vector result of the dot product
+     */
+    public double dotProduct(Vector _v) {
+        int size = Math.max(getVectorSize(), _v.getVectorSize());
 
-        return new Vector(result);
+        //multiply and sum the relevant elements in one pass of the similarity kernel
+        return SimilarityKernels.get().dot(padded(doubElements, size), 0, padded(_v.doubElements, size), 0, size);
     }
 
     /**
-     * Helper method that multiplies the elements of two vectors of equal length together
-     * @param _v vector to multiply by
-     * @return the vector result of multiplication
+     * Calculates the cosine similarity between the current vector and the input vector. In the case that one vector is
+     * smaller than the other, calls reSize() to make the smaller vector bigger. The formula is the dot product divided
+     * by the magnitudes of each vector multiplied. The dot product and both magnitudes are accumulated in one pass
+     * @param _v vector to do cosine similarity with
+     * @return the cosine similarity
      */
-    private double[] multiply(Vector _v) {
-        double[] result = new double[getVectorSize()]; //new array for the multiplied elements
+    public double cosineSimilarity(Vector _v) { return cosineSimilarity(_v.doubElements, _v.getVectorSize()); }
 
-        //iterate and multiply tne two numbers, saving the result in the new array
-        for (int i = 0; i < getVectorSize(); i++) result[i] = getElementatIndex(i) * _v.getElementatIndex(i);
+    /**
+     * Same as cosineSimilarity() with the first _length elements of an array, for example a row copied into
+     * scratch(), without wrapping them in a vector
+     * @param _elements array holding the other vector
+     * @param _length number of elements of the other vector
+     * @return the cosine similarity
+     */
+    public double cosineSimilarity(double[] _elements, int _length) {
+        int size = Math.max(getVectorSize(), _length);
+        double[] other = _length == size ? _elements : padded(_elements, _length, size);
 
-        return result;
+        //using the formula, with the dot product and both magnitudes accumulated by the similarity kernel
+        return SimilarityKernels.get().cosine(padded(doubElements, size), other, size);
     }
 
     /**
-     * Calculates the dot product of two give vectors. In the case that one vector is smaller than the other, calls
-     * reSize() to make the smaller vector bigger
-     * @param _v vector to do dot product with
-     * @return the vector result of the dot product
+     * Adds the input vector to this one in place; see axpy()
+     * @param _v added vector, no longer than this one
+     * @return this vector
      */
-    public double dotProduct(Vector _v) {
-        Vector current = this; //track the current vector
-        Vector other = _v; //tracks the input vector
+    public Vector addInto(Vector _v) { return axpy(1, _v); }
 
-        //expend the smaller vector and store the expended version in the relevant variable
-        if (_v.getVectorSize() > getVectorSize()) current = reSize(_v.getVectorSize());
-        else if (_v.getVectorSize() < getVectorSize()) other = _v.reSize(getVectorSize());
+    /**
+     * Subtracts the input vector from this one in place; see axpy()
+     * @param _v vector to subtract, no longer than this one
+     * @return this vector
+     */
+    public Vector subInto(Vector _v) { return axpy(-1, _v); }
 
-        //multiply the relevant elements together using the multiply() method then use streams to sum easily.
-        return Arrays.stream(current.multiply(other)).sum();
+    /**
+     * Adds _alpha times the input vector to this one in place. A shorter input counts as padded with -1, so that
+     * addInto() and subInto() give the same elements as add() and subtraction()
+     * @param _alpha factor of the input vector
+     * @param _x vector to add, no longer than this one
+     * @return this vector
+     * @throws IllegalArgumentException if the input is longer, since this vector can't grow in place
+     */
+    public Vector axpy(double _alpha, Vector _x) {
+        int length = _x.getVectorSize();
+        if (length > getVectorSize())
+            throw new IllegalArgumentException("can't add " + length + " elements to " + getVectorSize() + " in place");
+
+        SimilarityKernels.get().axpy(_alpha, _x.doubElements, 0, doubElements, 0, length);
+        for (int i = length; i < getVectorSize(); i++) doubElements[i] -= _alpha; //_alpha times the padding
+
+        return this;
     }
 
     /**
-     * Helper method that returns the magnitude ||v|| of the current vector. It's the square root of the elements squared
-     * and added together
-     * @return magnitude of the current vector
+     * Scales this vector to unit length in place. A vector of zeros is left as is
+     * @return this vector
      */
-    private double magnitude() { return Math.sqrt(Arrays.stream(getAllElements()).map(x -> Math.pow(x, 2)).sum()); }
+    public Vector normalizeInPlace() {
+        normalizeInPlace(doubElements, 0, getVectorSize());
+        return this;
+    }
 
     /**
-     * Calculates the cosine similarity between the current vector and the input vector. In the case that one vector is
-     * smaller than the other, calls reSize() to make the smaller vector bigger. The formula is the dot product divided
-     * by the magnitudes of each vector multiplied
-     * @param _v vector to do cosine similarity with
-     * @return the cosine similarity
+     * Adds a range of _src to a range of _dst, in place
+     */
+    public static void addInto(double[] _dst, int _dstOffset, double[] _src, int _srcOffset, int _length) {
+        SimilarityKernels.get().axpy(1, _src, _srcOffset, _dst, _dstOffset, _length);
+    }
+
+    /**
+     * Subtracts a range of _src from a range of _dst, in place
+     */
+    public static void subInto(double[] _dst, int _dstOffset, double[] _src, int _srcOffset, int _length) {
+        SimilarityKernels.get().axpy(-1, _src, _srcOffset, _dst, _dstOffset, _length);
+    }
+
+    /**
+     * Adds _alpha times a range of _x to a range of _y, in place
      */
-    public double cosineSimilarity(Vector _v) {
-        Vector current = this; //track the current vector
-        Vector other = _v; //tracks the input vector
+    public static void axpy(double _alpha, double[] _x, int _xOffset, double[] _y, int _yOffset, int _length) {
+        SimilarityKernels.get().axpy(_alpha, _x, _xOffset, _y, _yOffset, _length);
+    }
 
-        //expend the smaller vector and store the expended version in the relevant variable
-        if (_v.getVectorSize() > getVectorSize()) current = reSize(_v.getVectorSize());
-        else if (_v.getVectorSize() < getVectorSize()) other = _v.reSize(getVectorSize());
+    /**
+     * Scales a range to unit length in place. A range of zeros is left as is
+     * @return the length the range had
+     */
+    public static double normalizeInPlace(double[] _v, int _offset, int _length) {
+        double norm = Math.sqrt(SimilarityKernels.get().dot(_v, _offset, _v, _offset, _length));
+        if (norm == 0) return 0;
+
+        for (int i = _offset; i < _offset + _length; i++) _v[i] /= norm;
+        return norm;
+    }
+
+    /**
+     * @return the dot product of two ranges
+     */
+    public static double dot(double[] _a, int _aOffset, double[] _b, int _bOffset, int _length) {
+        return SimilarityKernels.get().dot(_a, _aOffset, _b, _bOffset, _length);
+    }
 
-        return current.dotProduct(other) / (current.magnitude() * other.magnitude()); //using the formula
+    /**
+     * @return the cosine similarity of two ranges, with the dot product and both magnitudes accumulated in one pass
+     */
+    public static double cosine(double[] _a, int _aOffset, double[] _b, int _bOffset, int _length) {
+        return SimilarityKernels.get().cosine(_a, _aOffset, _b, _bOffset, _length);
+    }
+
+    /**
+     * Returns a buffer of at least _length elements that belongs to the calling thread, to accumulate a query or hold
+     * a copied row without allocating. Its elements are whatever the last user left, and it stays valid until the
+     * thread asks for a scratch buffer again; the other methods of Vector never use it
+     * @param _length how many elements are needed
+     * @return the buffer
+     */
+    public static double[] scratch(int _length) {
+        double[] result = SCRATCH.get();
+        if (result.length < _length) {
+            result = new double[_length];
+            SCRATCH.set(result);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the elements as they are if they have _size elements, or padded to _size with -1 like reSize() does
+     */
+    private static double[] padded(double[] _elements, int _size) {
+        return _elements.length == _size ? _elements : padded(_elements, _elements.length, _size);
+    }
+
+    /**
+     * Copies the first _length elements into the padding buffer of the thread and fills the rest up to _size with -1.
+     * The buffer is shared by the calls of one thread, so at most one operand of a call is padded
+     */
+    private static double[] padded(double[] _elements, int _length, int _size) {
+        double[] result = PADDING.get();
+        if (result.length < _size) {
+            result = new double[_size];
+            PADDING.set(result);
+        }
+
+        System.arraycopy(_elements, 0, result, 0, _length);
+        Arrays.fill(result, _length, _size, -1);
+        return result;
     }
 
     @Override
@@ -0,0 +1,256 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Similarity kernel on the JDK Vector API, using the widest species the CPU supports. The tails that don't fill a
+ * whole vector are finished with scalar code. Loading this class needs the jdk.incubator.vector module (--add-modules
+ * jdk.incubator.vector), so it is only ever instantiated reflectively by SimilarityKernels.
+ */
+public class VectorApiKernel implements SimilarityKernel {
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED; //a quarter of the lanes of BYTES
+
+    /**
+     * @return true if the preferred species is wide enough to beat the scalar kernel
+     */
+    public static boolean isAccelerated() { return FLOATS.length() >= 4; }
+
+    @Override
+    public float dot(float[] _a, int _aOffset, float[] _b, int _bOffset, int _length) {
+        FloatVector acc = FloatVector.zero(FLOATS);
+        int bound = FLOATS.loopBound(_length);
+        int i = 0;
+
+        for (; i < bound; i += FLOATS.length()) {
+            FloatVector va = FloatVector.fromArray(FLOATS, _a, _aOffset + i);
+            FloatVector vb = FloatVector.fromArray(FLOATS, _b, _bOffset + i);
+            acc = acc.add(va.mul(vb)); //mul and add rather than fma, which is emulated slowly without hardware FMA
+        }
+
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < _length; i++) sum += _a[_aOffset + i] * _b[_bOffset + i];
+
+        return sum;
+    }
+
+    @Override
+    public void dot4(float[] _a, int _aOffset, float[] _queries, int _queryOffset, int _length, float[] _out) {
+        int q1 = _queryOffset + _length, q2 = q1 + _length, q3 = q2 + _length;
+        FloatVector acc0 = FloatVector.zero(FLOATS), acc1 = acc0, acc2 = acc0, acc3 = acc0;
+        int bound = FLOATS.loopBound(_length);
+        int i = 0;
+
+        for (; i < bound; i += FLOATS.length()) {
+            FloatVector va = FloatVector.fromArray(FLOATS, _a, _aOffset + i); //loaded once for the four queries
+            acc0 = acc0.add(va.mul(FloatVector.fromArray(FLOATS, _queries, _queryOffset + i)));
+            acc1 = acc1.add(va.mul(FloatVector.fromArray(FLOATS, _queries, q1 + i)));
+            acc2 = acc2.add(va.mul(FloatVector.fromArray(FLOATS, _queries, q2 + i)));
+            acc3 = acc3.add(va.mul(FloatVector.fromArray(FLOATS, _queries, q3 + i)));
+        }
+
+        float s0 = acc0.reduceLanes(VectorOperators.ADD), s1 = acc1.reduceLanes(VectorOperators.ADD);
+        float s2 = acc2.reduceLanes(VectorOperators.ADD), s3 = acc3.reduceLanes(VectorOperators.ADD);
+
+        for (; i < _length; i++) {
+            float a = _a[_aOffset + i];
+            s0 += a * _queries[_queryOffset + i];
+            s1 += a * _queries[q1 + i];
+            s2 += a * _queries[q2 + i];
+            s3 += a * _queries[q3 + i];
+        }
+
+        _out[0] = s0;
+        _out[1] = s1;
+        _out[2] = s2;
+        _out[3] = s3;
+    }
+
+    @Override
+    public float dot(ByteBuffer _a, int _aOffset, float[] _b, int _bOffset, int _length) {
+        FloatVector acc = FloatVector.zero(FLOATS);
+        int bound = FLOATS.loopBound(_length);
+        int i = 0;
+
+        for (; i < bound; i += FLOATS.length()) {
+            FloatVector va = FloatVector.fromByteBuffer(FLOATS, _a, (_aOffset + i) * Float.BYTES, _a.order());
+            FloatVector vb = FloatVector.fromArray(FLOATS, _b, _bOffset + i);
+            acc = acc.add(va.mul(vb));
+        }
+
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < _length; i++) sum += _a.getFloat((_aOffset + i) * Float.BYTES) * _b[_bOffset + i];
+
+        return sum;
+    }
+
+    @Override
+    public void dot4(ByteBuffer _a, int _aOffset, float[] _queries, int _queryOffset, int _length, float[] _out) {
+        int q1 = _queryOffset + _length, q2 = q1 + _length, q3 = q2 + _length;
+        FloatVector acc0 = FloatVector.zero(FLOATS), acc1 = acc0, acc2 = acc0, acc3 = acc0;
+        int bound = FLOATS.loopBound(_length);
+        int i = 0;
+
+        for (; i < bound; i += FLOATS.length()) {
+            FloatVector va = FloatVector.fromByteBuffer(FLOATS, _a, (_aOffset + i) * Float.BYTES, _a.order());
+            acc0 = acc0.add(va.mul(FloatVector.fromArray(FLOATS, _queries, _queryOffset + i)));
+            acc1 = acc1.add(va.mul(FloatVector.fromArray(FLOATS, _queries, q1 + i)));
+            acc2 = acc2.add(va.mul(FloatVector.fromArray(FLOATS, _queries, q2 + i)));
+            acc3 = acc3.add(va.mul(FloatVector.fromArray(FLOATS, _queries, q3 + i)));
+        }
+
+        float s0 = acc0.reduceLanes(VectorOperators.ADD), s1 = acc1.reduceLanes(VectorOperators.ADD);
+        float s2 = acc2.reduceLanes(VectorOperators.ADD), s3 = acc3.reduceLanes(VectorOperators.ADD);
+
+        for (; i < _length; i++) {
+            float a = _a.getFloat((_aOffset + i) * Float.BYTES);
+            s0 += a * _queries[_queryOffset + i];
+            s1 += a * _queries[q1 + i];
+            s2 += a * _queries[q2 + i];
+            s3 += a * _queries[q3 + i];
+        }
+
+        _out[0] = s0;
+        _out[1] = s1;
+        _out[2] = s2;
+        _out[3] = s3;
+    }
+
+    @Override
+    public int dot(byte[] _a, int _aOffset, byte[] _b, int _bOffset, int _length) {
+        IntVector acc = IntVector.zero(INTS);
+        int bound = BYTES.loopBound(_length);
+        int i = 0;
+
+        for (; i < bound; i += BYTES.length()) {
+            ByteVector va = ByteVector.fromArray(BYTES, _a, _aOffset + i);
+            ByteVector vb = ByteVector.fromArray(BYTES, _b, _bOffset + i);
+
+            //widen each quarter of the bytes to ints before multiplying, so that the products can't overflow
+            for (int part = 0; part < 4; part++) {
+                IntVector ia = (IntVector) va.convertShape(VectorOperators.B2I, INTS, part);
+                IntVector ib = (IntVector) vb.convertShape(VectorOperators.B2I, INTS, part);
+                acc = acc.add(ia.mul(ib));
+            }
+        }
+
+        int sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < _length; i++) sum += _a[_aOffset + i] * _b[_bOffset + i];
+
+        return sum;
+    }
+
+    @Override
+    public int dot(ByteBuffer _a, int _aOffset, byte[] _b, int _bOffset, int _length) {
+        IntVector acc = IntVector.zero(INTS);
+        int bound = BYTES.loopBound(_length);
+        int i = 0;
+
+        for (; i < bound; i += BYTES.length()) {
+            ByteVector va = ByteVector.fromByteBuffer(BYTES, _a, _aOffset + i, _a.order());
+            ByteVector vb = ByteVector.fromArray(BYTES, _b, _bOffset + i);
+
+            for (int part = 0; part < 4; part++) {
+                IntVector ia = (IntVector) va.convertShape(VectorOperators.B2I, INTS, part);
+                IntVector ib = (IntVector) vb.convertShape(VectorOperators.B2I, INTS, part);
+                acc = acc.add(ia.mul(ib));
+            }
+        }
+
+        int sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < _length; i++) sum += _a.get(_aOffset + i) * _b[_bOffset + i];
+
+        return sum;
+    }
+
+    @Override
+    public double dot(double[] _a, int _aOffset, double[] _b, int _bOffset, int _length) {
+        DoubleVector acc = DoubleVector.zero(DOUBLES);
+        int bound = DOUBLES.loopBound(_length);
+        int i = 0;
+
+        for (; i < bound; i += DOUBLES.length()) {
+            DoubleVector va = DoubleVector.fromArray(DOUBLES, _a, _aOffset + i);
+            DoubleVector vb = DoubleVector.fromArray(DOUBLES, _b, _bOffset + i);
+            acc = acc.add(va.mul(vb));
+        }
+
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < _length; i++) sum += _a[_aOffset + i] * _b[_bOffset + i];
+
+        return sum;
+    }
+
+    @Override
+    public double cosine(double[] _a, int _aOffset, double[] _b, int _bOffset, int _length) {
+        DoubleVector dot = DoubleVector.zero(DOUBLES);
+        DoubleVector aa = DoubleVector.zero(DOUBLES);
+        DoubleVector bb = DoubleVector.zero(DOUBLES);
+        int bound = DOUBLES.loopBound(_length);
+        int i = 0;
+
+        for (; i < bound; i += DOUBLES.length()) {
+            DoubleVector va = DoubleVector.fromArray(DOUBLES, _a, _aOffset + i);
+            DoubleVector vb = DoubleVector.fromArray(DOUBLES, _b, _bOffset + i);
+            dot = dot.add(va.mul(vb));
+            aa = aa.add(va.mul(va));
+            bb = bb.add(vb.mul(vb));
+        }
+
+        double sumDot = dot.reduceLanes(VectorOperators.ADD);
+        double sumA = aa.reduceLanes(VectorOperators.ADD);
+        double sumB = bb.reduceLanes(VectorOperators.ADD);
+
+        for (; i < _length; i++) {
+            double a = _a[_aOffset + i], b = _b[_bOffset + i];
+            sumDot += a * b;
+            sumA += a * a;
+            sumB += b * b;
+        }
+
+        return sumDot / (Math.sqrt(sumA) * Math.sqrt(sumB));
+    }
+
+    @Override
+    public void add(double[] _a, double[] _b, double[] _dst, int _length) {
+        int bound = DOUBLES.loopBound(_length);
+        int i = 0;
+
+        for (; i < bound; i += DOUBLES.length())
+            DoubleVector.fromArray(DOUBLES, _a, i).add(DoubleVector.fromArray(DOUBLES, _b, i)).intoArray(_dst, i);
+        for (; i < _length; i++) _dst[i] = _a[i] + _b[i];
+    }
+
+    @Override
+    public void subtract(double[] _a, double[] _b, double[] _dst, int _length) {
+        int bound = DOUBLES.loopBound(_length);
+        int i = 0;
+
+        for (; i < bound; i += DOUBLES.length())
+            DoubleVector.fromArray(DOUBLES, _a, i).sub(DoubleVector.fromArray(DOUBLES, _b, i)).intoArray(_dst, i);
+        for (; i < _length; i++) _dst[i] = _a[i] - _b[i];
+    }
+
+    @Override
+    public void axpy(double _alpha, double[] _x, int _xOffset, double[] _y, int _yOffset, int _length) {
+        DoubleVector alpha = DoubleVector.broadcast(DOUBLES, _alpha);
+        int bound = DOUBLES.loopBound(_length);
+        int i = 0;
+
+        for (; i < bound; i += DOUBLES.length()) {
+            DoubleVector vx = DoubleVector.fromArray(DOUBLES, _x, _xOffset + i);
+            DoubleVector.fromArray(DOUBLES, _y, _yOffset + i).add(vx.mul(alpha)).intoArray(_y, _yOffset + i);
+        }
+        for (; i < _length; i++) _y[_yOffset + i] += _alpha * _x[_xOffset + i];
+    }
+
+    @Override
+    public String getName() { return "vector-api/" + FLOATS.vectorBitSize() + "bit"; }
+}
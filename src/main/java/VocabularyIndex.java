@@ -0,0 +1,144 @@
+import java.util.List;
+
+/**
+ * Open-addressing hash map from a vocabulary word to its row in the embedding table. Keys and values are kept in
+ * parallel primitive arrays (with the cached string hashes alongside) so that a lookup is a couple of array reads
+ * rather than a linear scan of the vocabulary list.
+ */
+public class VocabularyIndex {
+    private static final int NOT_FOUND = -1;
+    private static final float LOAD_FACTOR = 0.5f;
+    private static final int MAX_CAPACITY = 1 << 30; //the largest power of two an array can hold
+
+    private String[] strKeys;
+    private int[] intHashes;
+    private int[] intRows;
+    private int intMask;
+    private int intSize;
+
+    public VocabularyIndex(int _expected) { allocate(tableSizeFor(_expected)); }
+
+    public VocabularyIndex() { this(16); }
+
+    /**
+     * Builds an index over the given words where every word maps to its position in the list. If a word appears more
+     * than once, the first position is kept, the same as List.indexOf()
+     * @param _words words to index
+     * @return the populated index
+     */
+    public static VocabularyIndex of(List<String> _words) {
+        VocabularyIndex index = new VocabularyIndex(_words.size());
+
+        for (int i = 0; i < _words.size(); i++) index.putIfAbsent(_words.get(i), i);
+
+        return index;
+    }
+
+    /**
+     * Returns the row of the given word, or -1 if the word is not indexed
+     * @param _word word to look up
+     * @return the row of the word or -1
+     */
+    public int get(String _word) {
+        if (_word == null) return NOT_FOUND;
+
+        int hash = mix(_word.hashCode());
+
+        //probe linearly from the home slot until the word or an empty slot is found
+        for (int slot = hash & intMask; strKeys[slot] != null; slot = (slot + 1) & intMask)
+            if (intHashes[slot] == hash && strKeys[slot].equals(_word)) return intRows[slot];
+
+        return NOT_FOUND;
+    }
+
+    public boolean contains(String _word) { return get(_word) != NOT_FOUND; }
+
+    /**
+     * Maps the word to the given row, replacing any previous mapping
+     * @param _word word to index
+     * @param _row row of the word
+     * @return the previous row of the word or -1 if there was none
+     */
+    public int put(String _word, int _row) { return insert(_word, _row, true); }
+
+    /**
+     * Maps the word to the given row only if the word is not indexed yet
+     * @param _word word to index
+     * @param _row row of the word
+     * @return the existing row of the word or -1 if the mapping was added
+     */
+    public int putIfAbsent(String _word, int _row) { return insert(_word, _row, false); }
+
+    public int size() { return intSize; }
+
+    private int insert(String _word, int _row, boolean _replace) {
+        if (_word == null) throw new IllegalArgumentException("null words cannot be indexed");
+
+        int hash = mix(_word.hashCode());
+        int slot = hash & intMask;
+
+        for (; strKeys[slot] != null; slot = (slot + 1) & intMask) {
+            if (intHashes[slot] == hash && strKeys[slot].equals(_word)) {
+                int previous = intRows[slot];
+                if (_replace) intRows[slot] = _row;
+                return previous;
+            }
+        }
+
+        strKeys[slot] = _word;
+        intHashes[slot] = hash;
+        intRows[slot] = _row;
+
+        if (++intSize > intMask * LOAD_FACTOR) rehash();
+
+        return NOT_FOUND;
+    }
+
+    private void rehash() {
+        if (strKeys.length == MAX_CAPACITY)
+            throw new IllegalStateException("the index cannot hold more than " + intSize + " words");
+
+        String[] oldKeys = strKeys;
+        int[] oldHashes = intHashes;
+        int[] oldRows = intRows;
+
+        allocate(oldKeys.length * 2);
+
+        //re-insert every occupied slot into the doubled table; the cached hashes avoid calling hashCode() again
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null) continue;
+
+            int slot = oldHashes[i] & intMask;
+            while (strKeys[slot] != null) slot = (slot + 1) & intMask;
+
+            strKeys[slot] = oldKeys[i];
+            intHashes[slot] = oldHashes[i];
+            intRows[slot] = oldRows[i];
+        }
+    }
+
+    private void allocate(int _capacity) {
+        strKeys = new String[_capacity];
+        intHashes = new int[_capacity];
+        intRows = new int[_capacity];
+        intMask = _capacity - 1;
+    }
+
+    private static int tableSizeFor(int _expected) {
+        if (_expected < 0 || _expected >= MAX_CAPACITY * LOAD_FACTOR)
+            throw new IllegalArgumentException("cannot index " + _expected + " words");
+
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR <= _expected) capacity <<= 1;
+
+        return capacity;
+    }
+
+    /**
+     * Spreads the bits of String.hashCode() so that similar words don't cluster in neighbouring slots
+     */
+    private static int mix(int _hash) {
+        int h = _hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,110 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntToDoubleFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class AnalogyEvaluatorTest {
+    @TempDir
+    Path myDir;
+
+    /**
+     * 500 random 16-dimensional words w0..w499
+     */
+    private static EmbeddingModel randomModel() {
+        Random myRandom = new Random(5);
+        List<String> myWords = new ArrayList<>();
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(16);
+        for (int i = 0; i < 500; i++) {
+            double[] row = new double[16];
+            for (int j = 0; j < 16; j++) row[j] = myRandom.nextGaussian();
+            myWords.add("w" + i);
+            myMatrix.addRow(row);
+        }
+
+        return EmbeddingModel.of(myWords, myMatrix);
+    }
+
+    /**
+     * @return the row maximising a score over the first _rows rows, leaving out a, b and c
+     */
+    private static int best(int _rows, int _a, int _b, int _c, IntToDoubleFunction _score) {
+        int myBest = -1;
+        for (int row = 0; row < _rows; row++) {
+            if (row == _a || row == _b || row == _c) continue;
+            if (myBest < 0 || _score.applyAsDouble(row) > _score.applyAsDouble(myBest)) myBest = row;
+        }
+
+        return myBest;
+    }
+
+    @Test
+    void readQuestions() throws IOException {
+        Path myPath = myDir.resolve("questions.txt");
+        Files.writeString(myPath, "a b c d\n: capital-common-countries\nAthens Greece Baghdad Iraq\n\n"
+                + ": family\nboy girl brother sister\n");
+
+        List<AnalogyEvaluator.Question> myQuestions = AnalogyEvaluator.readQuestions(myPath);
+        assertEquals(3, myQuestions.size());
+        assertEquals("default", myQuestions.get(0).getCategory());
+        assertEquals("capital-common-countries", myQuestions.get(1).getCategory());
+        assertEquals("Iraq", myQuestions.get(1).getD());
+        assertEquals("boy girl brother sister", myQuestions.get(2).toString());
+
+        Files.writeString(myPath, ": family\nboy girl brother\n");
+        assertThrows(IOException.class, () -> AnalogyEvaluator.readQuestions(myPath));
+    }
+
+    @Test
+    void evaluate() {
+        EmbeddingModel myModel = randomModel();
+        EmbeddingMatrix myMatrix = myModel.getMatrix();
+        SimilarityKernel myKernel = SimilarityKernels.scalar();
+        Random myRandom = new Random(9);
+
+        //questions whose expected word is the brute-force answer of one method: every one is right by that method
+        List<AnalogyEvaluator.Question> myQuestions = new ArrayList<>();
+        int myAddRight = 0, myMulRight = 0;
+        for (int i = 0; i < 100; i++) {
+            int a = myRandom.nextInt(400), b = myRandom.nextInt(400), c = myRandom.nextInt(400);
+            if (a == b || b == c || a == c) continue;
+
+            int myAdd = best(400, a, b, c, row -> myMatrix.cosineRows(row, b, myKernel)
+                    - myMatrix.cosineRows(row, a, myKernel) + myMatrix.cosineRows(row, c, myKernel));
+            int myMul = best(400, a, b, c, row -> (myMatrix.cosineRows(row, b, myKernel) + 1) / 2
+                    * (myMatrix.cosineRows(row, c, myKernel) + 1) / 2
+                    / ((myMatrix.cosineRows(row, a, myKernel) + 1) / 2 + 0.001));
+            String myCategory = i % 2 == 0 ? "add" : "mul";
+            int myExpected = i % 2 == 0 ? myAdd : myMul;
+            myQuestions.add(new AnalogyEvaluator.Question(myCategory, "w" + a, "w" + b, "W" + c, "w" + myExpected));
+            if (myAdd == myExpected) myAddRight++;
+            if (myMul == myExpected) myMulRight++;
+        }
+        myQuestions.add(new AnalogyEvaluator.Question("add", "w1", "w2", "w3", "nope")); //out of the vocabulary
+        myQuestions.add(new AnalogyEvaluator.Question("mul", "w1", "w2", "w3", "w450")); //past the rows searched
+
+        AnalogyEvaluator.Report myReport = AnalogyEvaluator.evaluate(myModel, myQuestions, 400);
+        AnalogyEvaluator.Category myAdd = myReport.getCategories().get(0);
+        AnalogyEvaluator.Category myMul = myReport.getCategories().get(1);
+        assertEquals("add", myAdd.getName());
+        assertEquals(myAdd.getQuestions() - 1, myAdd.getAnswered());
+        assertEquals(myMul.getQuestions() - 1, myMul.getAnswered());
+        assertEquals(1.0, myAdd.getAccuracyAdd());
+        assertEquals(1.0, myMul.getAccuracyMul());
+        assertEquals(myAddRight, myReport.getTotal().getCorrectAdd());
+        assertEquals(myMulRight, myReport.getTotal().getCorrectMul());
+        assertEquals(myQuestions.size(), myReport.getTotal().getQuestions());
+        assertTrue(myReport.getQuestionsPerSecond() > 0);
+        assertTrue(myReport.toString().contains("\ntotal "));
+    }
+}
@@ -0,0 +1,84 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+class BatchSearchTest {
+    private EmbeddingMatrix createMatrix(int _rows, int _dims) {
+        Random myRandom = new Random(42);
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(_dims);
+        for (int i = 0; i < _rows; i++) {
+            double[] row = new double[_dims];
+            for (int j = 0; j < _dims; j++) row[j] = myRandom.nextGaussian();
+            myMatrix.addRow(row);
+        }
+        return myMatrix;
+    }
+
+    private float[] unitRow(EmbeddingMatrix _matrix, int _row) {
+        double[] row = _matrix.getRow(_row);
+        float[] result = new float[row.length];
+        for (int i = 0; i < row.length; i++) result[i] = (float) (row[i] / _matrix.norm(_row));
+        return result;
+    }
+
+    private String bruteForce(EmbeddingMatrix _matrix, int[] _rows, float[] _query, int _k, int _excluded) {
+        HeapSort.TopK myTopK = new HeapSort.TopK(_k);
+        myTopK.setExcluded(_excluded);
+        for (int row : _rows) myTopK.offer(row, _matrix.cosine(row, _query, SimilarityKernels.scalar()));
+        return ids(myTopK);
+    }
+
+    private String ids(HeapSort.TopK _topK) {
+        _topK.sort();
+        StringBuilder mySB = new StringBuilder();
+        for (int i = 0; i < _topK.size(); i++) mySB.append(_topK.getId(i)).append(",");
+        return mySB.toString();
+    }
+
+    @Test
+    void search() {
+        EmbeddingMatrix myMatrix = createMatrix(3000, 50);
+        int[] myRows = IntStream.range(0, 3000).filter(i -> i % 7 != 0).toArray();
+        float[][] myQueries = new float[75][]; //not a multiple of the block size or of 4
+        int[][] myExcluded = new int[75][];
+        for (int i = 0; i < myQueries.length; i++) {
+            myQueries[i] = unitRow(myMatrix, i * 13);
+            myExcluded[i] = new int[]{i * 13};
+        }
+
+        HeapSort.TopK[] myResult = BatchSearch.search(myMatrix, myRows, myQueries, 10, myExcluded, null,
+                SimilarityKernels.get());
+
+        assertEquals(75, myResult.length);
+        for (int i = 0; i < myQueries.length; i++)
+            assertEquals(bruteForce(myMatrix, myRows, myQueries[i], 10, i * 13), ids(myResult[i]));
+    }
+
+    @Test
+    void search_SkipEqual() {
+        EmbeddingMatrix myMatrix = createMatrix(500, 8);
+        int[] myRows = IntStream.range(0, 500).toArray();
+        float[][] myQueries = new float[][]{unitRow(myMatrix, 5), unitRow(myMatrix, 6)};
+        double[][] mySkip = new double[][]{myMatrix.getRow(5), null};
+
+        HeapSort.TopK[] myResult = BatchSearch.search(myMatrix, myRows, myQueries, 3, null, mySkip,
+                SimilarityKernels.scalar());
+
+        myResult[0].sort();
+        myResult[1].sort();
+        assertEquals(false, myResult[0].getId(0) == 5);
+        assertEquals(6, myResult[1].getId(0));
+    }
+
+    @Test
+    void search_SmallK() {
+        EmbeddingMatrix myMatrix = createMatrix(20, 4);
+        HeapSort.TopK[] myResult = BatchSearch.search(myMatrix, new int[]{1, 2, 3}, new float[][]{unitRow(myMatrix, 1)},
+                10, null, null, SimilarityKernels.get());
+        assertEquals(3, myResult[0].size());
+    }
+}
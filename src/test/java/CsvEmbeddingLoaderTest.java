@@ -0,0 +1,109 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+class CsvEmbeddingLoaderTest {
+    @TempDir
+    Path myDir;
+
+    private float parse(String _number) {
+        byte[] bytes = ("," + _number + ",").getBytes(StandardCharsets.ISO_8859_1);
+        return CsvEmbeddingLoader.parseFloat(bytes, 1, bytes.length - 1);
+    }
+
+    @Test
+    void parseFloat() {
+        String[] myNumbers = {"0", "-0", "-0.0", "+1", "1.", ".5", "-.25", "0.91020", "-0.00682", "1.36120", "3e-2",
+                "1E10", "-2.5e+3", "16777217", "0.1", "123456789012345678901234", "0.000000000000000000000000001",
+                "3.4028235e38", "1e39", "1.17549435E-38", "1.4e-45", "NaN", "-Infinity", "7.0f", " 2.5 "};
+        for (String number : myNumbers)
+            assertEquals(Float.floatToIntBits(Float.parseFloat(number)), Float.floatToIntBits(parse(number)), number);
+
+        Random myRandom = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            float value = (float) (myRandom.nextGaussian() * Math.pow(10, myRandom.nextInt(13) - 6));
+            for (String number : new String[]{Float.toString(value), String.format(Locale.ROOT, "%.5f", value),
+                    String.format(Locale.ROOT, "%.3e", value)})
+                assertEquals(Float.parseFloat(number), parse(number), number);
+        }
+
+        for (String number : new String[]{"", "-", ".", "1e", "1.2.3", "abc", "1-2"})
+            assertThrows(NumberFormatException.class, () -> parse(number), number);
+    }
+
+    @Test
+    void load() throws IOException {
+        Random myRandom = new Random(42);
+        List<String> myWords = new ArrayList<>();
+        List<float[]> myRows = new ArrayList<>();
+        StringBuilder mySB = new StringBuilder("\n");
+        for (int i = 0; i < 2000; i++) {
+            float[] row = new float[7];
+            mySB.append("w").append(i);
+            for (int j = 0; j < 7; j++) {
+                String number = String.format(Locale.ROOT, "%.5f", myRandom.nextGaussian());
+                row[j] = Float.parseFloat(number);
+                mySB.append(',').append(number);
+            }
+            mySB.append(i % 3 == 0 ? "\r\n" : "\n");
+            if (i % 100 == 0) mySB.append('\n');
+
+            myWords.add("w" + i);
+            myRows.add(row);
+        }
+        mySB.setLength(mySB.length() - 1); //no line feed after the last row
+
+        Path myCsv = myDir.resolve("vectors.csv");
+        Files.writeString(myCsv, mySB);
+
+        for (int chunkBytes : new int[]{1, 37, 1000, 1 << 20, -1000}) {
+            //a negative size loads the ranges off the heap
+            CsvEmbeddingLoader myLoader = CsvEmbeddingLoader.load(myCsv, Math.abs(chunkBytes), chunkBytes < 0);
+            assertEquals(chunkBytes < 0, myLoader.getMatrix().isOffHeap());
+            assertEquals(myWords, myLoader.getVocabulary());
+            assertEquals(2000, myLoader.getMatrix().getRowCount());
+            assertEquals(7, myLoader.getMatrix().getDimensions());
+
+            float[] row = new float[7];
+            for (int i = 0; i < 2000; i++) {
+                myLoader.getMatrix().copyRow(i, row, 0);
+                assertArrayEquals(myRows.get(i), row);
+            }
+        }
+
+        assertEquals(myWords, CsvEmbeddingLoader.load(myCsv).getVocabulary());
+    }
+
+    @Test
+    void load_Malformed() throws IOException {
+        Path myCsv = myDir.resolve("vectors.csv");
+
+        Files.writeString(myCsv, "");
+        assertThrows(IOException.class, () -> CsvEmbeddingLoader.load(myCsv));
+
+        Files.writeString(myCsv, "\n\r\n");
+        assertThrows(IOException.class, () -> CsvEmbeddingLoader.load(myCsv));
+
+        Files.writeString(myCsv, "a,1,2\nb,1\n");
+        assertThrows(IOException.class, () -> CsvEmbeddingLoader.load(myCsv, 4));
+
+        Files.writeString(myCsv, "a,1,2\nb,1,2,3\n");
+        assertThrows(IOException.class, () -> CsvEmbeddingLoader.load(myCsv, 4));
+
+        Files.writeString(myCsv, "a,1,2\nb,1,x\n");
+        assertThrows(IOException.class, () -> CsvEmbeddingLoader.load(myCsv, 4));
+    }
+}
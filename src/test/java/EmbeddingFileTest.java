@@ -0,0 +1,129 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class EmbeddingFileTest {
+    @TempDir
+    Path myDir;
+
+    private EmbeddingMatrix createMatrix(int _rows, int _dims, boolean _normalized) {
+        Random myRandom = new Random(42);
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(_dims, _normalized);
+        for (int i = 0; i < _rows; i++) {
+            double[] row = new double[_dims];
+            for (int j = 0; j < _dims; j++) row[j] = myRandom.nextGaussian();
+            myMatrix.addRow(row);
+        }
+        myMatrix.addRow(new double[_dims]); //a zero row
+        return myMatrix;
+    }
+
+    private List<String> createVocabulary(int _size) {
+        List<String> myVocabulary = new ArrayList<>();
+        for (int i = 0; i < _size; i++) myVocabulary.add(i % 3 == 0 ? "caf\u00e9" + i : "word" + i);
+        return myVocabulary;
+    }
+
+    @Test
+    void write_Open() throws IOException {
+        for (boolean normalized : new boolean[]{false, true}) {
+            EmbeddingMatrix myMatrix = createMatrix(500, 50, normalized);
+            List<String> myVocabulary = createVocabulary(501);
+            Path myPath = myDir.resolve("vectors" + normalized + ".bin");
+
+            EmbeddingFile.write(myPath, myVocabulary, myMatrix);
+            EmbeddingFile myFile = EmbeddingFile.open(myPath);
+            EmbeddingMatrix myMapped = myFile.getMatrix();
+
+            assertEquals(myVocabulary, myFile.getVocabulary());
+            assertTrue(myMapped.isReadOnly());
+            assertEquals(normalized, myMapped.isNormalized());
+            assertEquals(501, myMapped.getRowCount());
+            assertEquals(50, myMapped.getDimensions());
+
+            SimilarityKernel kernel = SimilarityKernels.get();
+            float[] query = new float[50];
+            myMatrix.copyUnitRow(7, query, 0);
+            float[] expected = new float[4], actual = new float[4];
+            for (int row = 0; row < 501; row++) {
+                assertArrayEquals(myMatrix.getRow(row), myMapped.getRow(row));
+                assertEquals(myMatrix.norm(row), myMapped.norm(row));
+                assertEquals(myMatrix.cosine(row, query, kernel), myMapped.cosine(row, query, kernel), 1e-6);
+                assertEquals(myMatrix.cosineRows(row, 7, kernel), myMapped.cosineRows(row, 7, kernel), 1e-6);
+                assertTrue(myMapped.rowEquals(row, myMatrix.getRow(row)));
+            }
+
+            float[] queries = new float[200];
+            for (int q = 0; q < 4; q++) myMatrix.copyUnitRow(q, queries, q * 50);
+            myMatrix.cosine4(42, queries, 0, kernel, expected);
+            myMapped.cosine4(42, queries, 0, kernel, actual);
+            assertArrayEquals(expected, actual, 1e-6f);
+        }
+    }
+
+    @Test
+    void readOnly() throws IOException {
+        Path myPath = myDir.resolve("vectors.bin");
+        EmbeddingFile.write(myPath, createVocabulary(11), createMatrix(10, 4, false));
+        EmbeddingMatrix myMapped = EmbeddingFile.open(myPath).getMatrix();
+
+        assertThrows(UnsupportedOperationException.class, () -> myMapped.addRow(new double[4]));
+        assertThrows(UnsupportedOperationException.class, () -> myMapped.addRow(new float[4], 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> myMapped.getRow(11));
+    }
+
+    @Test
+    void convert() throws IOException {
+        Path myCsv = myDir.resolve("vectors.csv");
+        Path myPath = myDir.resolve("vectors.bin");
+        Files.writeString(myCsv, "apple,1.5,-2,0.25\nbanana,0,0,0\n\ncherry,3e-2,4,-1\n");
+
+        EmbeddingFile.convert(myCsv, myPath);
+        EmbeddingFile myFile = EmbeddingFile.open(myPath);
+
+        assertEquals(List.of("apple", "banana", "cherry"), myFile.getVocabulary());
+        assertArrayEquals(new double[]{1.5, -2, 0.25}, myFile.getMatrix().getRow(0));
+        assertArrayEquals(new double[]{0.03f, 4, -1}, myFile.getMatrix().getRow(2));
+        assertEquals(0.0, myFile.getMatrix().norm(1));
+        assertEquals(Math.sqrt(1.5 * 1.5 + 4 + 0.0625), myFile.getMatrix().norm(0), 1e-12);
+
+        Files.writeString(myCsv, "apple,1,2,3\nbanana,1,2\n");
+        assertThrows(IOException.class, () -> EmbeddingFile.convert(myCsv, myPath));
+        assertFalse(Files.exists(myDir.resolve("vectors.bin.tmp")));
+        assertEquals(3, EmbeddingFile.open(myPath).getVocabulary().size()); //the old file is left as it was
+    }
+
+    @Test
+    void open_Invalid() throws IOException {
+        Path myPath = myDir.resolve("vectors.bin");
+        Files.write(myPath, new byte[10]);
+        assertThrows(IOException.class, () -> EmbeddingFile.open(myPath));
+
+        Files.write(myPath, new byte[100]);
+        assertThrows(IOException.class, () -> EmbeddingFile.open(myPath));
+
+        EmbeddingFile.write(myPath, createVocabulary(11), createMatrix(10, 4, false));
+        byte[] bytes = Files.readAllBytes(myPath);
+        bytes[4] = 2; //a later version
+        Files.write(myPath, bytes);
+        assertThrows(IOException.class, () -> EmbeddingFile.open(myPath));
+
+        bytes[4] = 1;
+        Files.write(myPath, Arrays.copyOf(bytes, bytes.length - 3)); //cut off in the vocabulary
+        assertThrows(IOException.class, () -> EmbeddingFile.open(myPath));
+    }
+}
@@ -0,0 +1,202 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class EmbeddingMatrixTest {
+    private EmbeddingMatrix createMatrix() {
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(3);
+        myMatrix.addRow(new double[]{1.0, 2.0, 3.0});
+        myMatrix.addRow(new double[]{0.1, 0.2, 0.3});
+        myMatrix.addRow(new float[]{0f, 6.0f, 7.0f, 8.0f}, 1);
+        return myMatrix;
+    }
+
+    @Test
+    void addRow() {
+        EmbeddingMatrix myMatrix = createMatrix();
+        assertEquals(3, myMatrix.getRowCount());
+        assertEquals(3, myMatrix.getDimensions());
+        assertEquals(7.0f, myMatrix.get(2, 1));
+        assertThrows(IllegalArgumentException.class, () -> myMatrix.addRow(new double[]{1.0, 2.0}));
+    }
+
+    @Test
+    void addRow_Growth() {
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(50);
+        for (int i = 0; i < 5000; i++) {
+            double[] row = new double[50];
+            row[i % 50] = i;
+            myMatrix.addRow(row);
+        }
+        myMatrix.trimToSize();
+        assertEquals(5000, myMatrix.getRowCount());
+        assertEquals(4321.0f, myMatrix.get(4321, 4321 % 50));
+        assertEquals(0.0f, myMatrix.get(4321, 0));
+    }
+
+    @Test
+    void offHeap() {
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(50, false, true);
+        for (int i = 0; i < 5000; i++) {
+            double[] row = new double[50];
+            row[i % 50] = i;
+            myMatrix.addRow(row);
+        }
+        myMatrix.trimToSize();
+        assertTrue(myMatrix.isOffHeap());
+        assertFalse(myMatrix.isReadOnly());
+        assertEquals(5000, myMatrix.getRowCount());
+        assertEquals(4321.0f, myMatrix.get(4321, 4321 % 50));
+        assertEquals(0.0f, myMatrix.get(4321, 0));
+        assertEquals(4321.0, myMatrix.norm(4321));
+
+        float[] myQuery = new float[50];
+        myQuery[21] = 1;
+        assertEquals(1.0f, myMatrix.cosine(4321, myQuery, new ScalarKernel()));
+        assertEquals(0.0f, myMatrix.cosineRows(4321, 4322, new ScalarKernel()));
+
+        EmbeddingMatrix myNormalized = new EmbeddingMatrix(3, true, true);
+        myNormalized.addRow(new float[]{3, 0, 4}, 0);
+        assertEquals(0.6f, myNormalized.get(0, 0) / 5, 1e-7);
+        assertEquals("3.00000,0.00000,4.00000", myNormalized.getVector(0).toString());
+    }
+
+    @Test
+    void ensureCapacity() {
+        for (boolean offHeap : new boolean[]{false, true}) {
+            EmbeddingMatrix myMatrix = new EmbeddingMatrix(3, false, offHeap);
+            myMatrix.addRow(new double[]{1, 2, 3});
+            myMatrix.ensureCapacity(10000);
+            for (int i = 1; i < 12000; i++) myMatrix.addRow(new double[]{i, 0, 0}); //past the reserved rows too
+            myMatrix.trimToSize();
+
+            assertEquals(12000, myMatrix.getRowCount());
+            assertEquals(2.0f, myMatrix.get(0, 1));
+            assertEquals(11999.0f, myMatrix.get(11999, 0));
+        }
+        assertThrows(IllegalArgumentException.class, () -> new EmbeddingMatrix(0, false, true));
+    }
+
+    @Test
+    void extend() {
+        EmbeddingMatrix myBase = createMatrix();
+        EmbeddingMatrix myMatrix = myBase.extend(2);
+        assertEquals(2, myMatrix.getRowCount());
+        assertEquals(2, myMatrix.addRow(new double[]{3.0, 0.0, 4.0}));
+        for (int i = 3; i < 2000; i++) myMatrix.addRow(new double[]{i, 1, 0});
+
+        //the base keeps its rows, and the new rows come after the first two of them
+        assertEquals(3, myBase.getRowCount());
+        assertEquals(7.0f, myBase.get(2, 1));
+        assertEquals(2000, myMatrix.getRowCount());
+        assertEquals(2.0f, myMatrix.get(0, 1));
+        assertEquals(4.0f, myMatrix.get(2, 2));
+        assertEquals(1999.0f, myMatrix.get(1999, 0));
+        assertEquals(5.0, myMatrix.norm(2));
+        assertEquals(Math.sqrt(14), myMatrix.norm(0), 1e-6);
+        assertTrue(myMatrix.rowEquals(1, new double[]{0.1, 0.2, 0.3}));
+        assertTrue(myMatrix.rowEquals(2, new double[]{3, 0, 4}));
+
+        ScalarKernel myKernel = new ScalarKernel();
+        float[] myQuery = {0.6f, 0.0f, 0.8f};
+        assertEquals(1.0f, myMatrix.cosine(2, myQuery, myKernel), 1e-6);
+        assertEquals(myBase.cosine(0, myQuery, myKernel), myMatrix.cosine(0, myQuery, myKernel));
+        assertEquals(myMatrix.cosineRows(0, 2, myKernel), myMatrix.cosineRows(2, 0, myKernel), 1e-6);
+        assertEquals((3 + 12) / (5 * Math.sqrt(14)), myMatrix.cosineRows(0, 2, myKernel), 1e-6);
+
+        float[] myRows = new float[12];
+        myMatrix.copyUnitRow(0, myRows, 0);
+        myMatrix.copyUnitRow(2, myRows, 3);
+        float[] myScores = new float[4];
+        myMatrix.cosine4(2, myRows, 0, myKernel, myScores);
+        assertEquals(1.0f, myScores[1], 1e-6);
+        assertEquals(myMatrix.cosineRows(0, 2, myKernel), myScores[0], 1e-6);
+
+        //a read-only matrix can be extended too
+        ByteBuffer myBuffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putFloat(2).putFloat(-3);
+        EmbeddingMatrix myMapped = EmbeddingMatrix.wrap(1, false, new ByteBuffer[]{myBuffer}, 2, new double[]{2, 3});
+        assertThrows(UnsupportedOperationException.class, () -> myMapped.addRow(new double[]{1}));
+        EmbeddingMatrix myExtended = myMapped.extend(2);
+        assertEquals(2, myExtended.addRow(new double[]{5}));
+        assertEquals(-3.0f, myExtended.get(1, 0));
+        assertEquals(-1.0f, myExtended.cosineRows(1, 2, myKernel), 1e-6);
+        assertThrows(IndexOutOfBoundsException.class, () -> myBase.extend(4));
+    }
+
+    @Test
+    void getRow() {
+        EmbeddingMatrix myMatrix = createMatrix();
+        assertEquals("1.00000,2.00000,3.00000", myMatrix.getVector(0).toString());
+        assertEquals("0.10000,0.20000,0.30000", myMatrix.getVector(1).toString());
+        assertThrows(IndexOutOfBoundsException.class, () -> myMatrix.getRow(3));
+
+        double[] myRow = {9.0, 9.0, 9.0, 9.0};
+        myMatrix.copyRow(1, myRow, 1);
+        assertEquals("9.00000,0.10000,0.20000,0.30000", new Vector(myRow).toString());
+    }
+
+    @Test
+    void dot() {
+        EmbeddingMatrix myMatrix = createMatrix();
+        assertEquals("44.00000", String.format("%.5f", myMatrix.dot(2, new double[]{1.0, 2.0, 3.0})));
+        assertEquals("3.74166", String.format("%.5f", myMatrix.norm(0)));
+    }
+
+    @Test
+    void rowEquals() {
+        EmbeddingMatrix myMatrix = createMatrix();
+        assertEquals(true, myMatrix.rowEquals(1, new double[]{0.1, 0.2, 0.3}));
+        assertEquals(false, myMatrix.rowEquals(1, new double[]{0.1, 0.2, 0.4}));
+        assertEquals(false, myMatrix.rowEquals(1, new double[]{0.1, 0.2}));
+    }
+
+    @Test
+    void asList() {
+        EmbeddingMatrix myMatrix = createMatrix();
+        List<double[]> myList = myMatrix.asList();
+        assertEquals(3, myList.size());
+        assertEquals(8.0, myList.get(2)[2]);
+        assertSame(myMatrix, EmbeddingMatrix.of(myList));
+
+        //a view of the first rows keeps its size when rows are added
+        List<double[]> myFirst = myMatrix.asList(2);
+        myMatrix.addRow(new double[]{4.0, 5.0, 6.0});
+        assertEquals(2, myFirst.size());
+        assertEquals(4, myList.size());
+        assertThrows(IndexOutOfBoundsException.class, () -> myFirst.get(2));
+        assertThrows(IndexOutOfBoundsException.class, () -> myMatrix.asList(5));
+        assertEquals(2, EmbeddingMatrix.of(List.of(new double[]{1, 2}, new double[]{3, 4})).getRowCount());
+    }
+
+    @Test
+    void cosine() {
+        EmbeddingMatrix myMatrix = createMatrix();
+        double norm = Math.sqrt(14);
+        double[] myUnit = new double[]{1 / norm, 2 / norm, 3 / norm};
+        assertEquals("3.74166", String.format("%.5f", myMatrix.norm(0)));
+        assertEquals("1.00000", String.format("%.5f", myMatrix.cosine(1, myUnit)));
+        assertEquals("0.96338", String.format("%.5f", myMatrix.cosine(2, myUnit)));
+    }
+
+    @Test
+    void cosine_Normalized() {
+        EmbeddingMatrix myMatrix = EmbeddingMatrix.of(createMatrix().asList(), false);
+        EmbeddingMatrix myNormalized = EmbeddingMatrix.of(List.of(new double[]{1, 2, 3}, new double[]{6, 7, 8}), true);
+        double norm = Math.sqrt(14);
+        double[] myUnit = new double[]{1 / norm, 2 / norm, 3 / norm};
+        assertEquals(true, myNormalized.isNormalized());
+        assertEquals("0.96338", String.format("%.5f", myNormalized.cosine(1, myUnit)));
+        assertEquals(String.format("%.5f", myMatrix.cosine(2, myUnit)), String.format("%.5f", myNormalized.cosine(1, myUnit)));
+        assertEquals("6.00000,7.00000,8.00000", myNormalized.getVector(1).toString());
+        assertEquals(true, myNormalized.rowEquals(1, new double[]{6, 7, 8}));
+    }
+}
\ No newline at end of file
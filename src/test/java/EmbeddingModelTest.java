@@ -0,0 +1,62 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+class EmbeddingModelTest {
+    @TempDir
+    Path myDir;
+
+    private EmbeddingMatrix createMatrix() {
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(2);
+        myMatrix.addRow(new double[]{1.0, 2.0});
+        myMatrix.addRow(new double[]{3.0, 4.0});
+        myMatrix.addRow(new double[]{5.0, 6.0});
+        return myMatrix;
+    }
+
+    @Test
+    void of() {
+        EmbeddingMatrix myMatrix = createMatrix();
+        EmbeddingModel myModel = EmbeddingModel.of(List.of("a", "b", "c"), myMatrix);
+        assertEquals(3, myModel.size());
+        assertEquals(1, myModel.getVocabularyIndex().get("b"));
+        assertSame(myMatrix, myModel.getMatrix());
+        assertSame(myMatrix, EmbeddingMatrix.of(myModel.getVectors()));
+        assertSame(myModel.getVectors(), myModel.getVectors());
+        assertArrayEquals(new double[]{5.0, 6.0}, myModel.getVectors().get(2));
+
+        //rows appended to the matrix afterwards are not part of the model
+        myMatrix.addRow(new double[]{7.0, 8.0});
+        assertEquals(3, myModel.getVectors().size());
+        assertThrows(UnsupportedOperationException.class, () -> myModel.getVocabulary().add("d"));
+        assertThrows(IllegalArgumentException.class, () -> EmbeddingModel.of(List.of("a", "b"), createMatrix()));
+    }
+
+    @Test
+    void load() throws IOException {
+        Path myCsv = myDir.resolve("vectors.csv");
+        Files.writeString(myCsv, "a,1,2\nb,3,4\nc,5,6\n");
+        EmbeddingModel myModel = EmbeddingModel.load(myCsv);
+        assertEquals(List.of("a", "b", "c"), myModel.getVocabulary());
+        assertArrayEquals(new double[]{3.0, 4.0}, myModel.getVectors().get(1));
+
+        Path myBinary = myDir.resolve("vectors.bin");
+        EmbeddingFile.write(myBinary, myModel.getVocabulary(), myModel.getMatrix());
+        EmbeddingModel myLoaded = EmbeddingModel.load(myBinary);
+        assertEquals(myModel.getVocabulary(), myLoaded.getVocabulary());
+        assertEquals(2, myLoaded.getVocabularyIndex().get("c"));
+        assertArrayEquals(new double[]{5.0, 6.0}, myLoaded.getVectors().get(2));
+
+        assertThrows(IOException.class, () -> EmbeddingModel.load(myDir.resolve("missing.bin")));
+    }
+}
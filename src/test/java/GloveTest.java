@@ -28,4 +28,16 @@ class GloveTest {
         myGlove.setVector(new Vector(new double[]{4,5,6}));
         assertEquals("4.00000,5.00000,6.00000",myGlove.getVector().toString());
     }
+
+    @Test
+    void getVector_MatrixRow() {
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(3);
+        myMatrix.addRow(new double[]{1, 2, 3});
+        myMatrix.addRow(new double[]{4, 5, 6});
+        Glove myRowGlove = new Glove(strWord1, myMatrix, 1);
+        assertEquals("4.00000,5.00000,6.00000", myRowGlove.getVector().toString());
+        assertEquals(1, myRowGlove.getRow());
+        myRowGlove.setVector(new Vector(new double[]{7, 8, 9}));
+        assertEquals("7.00000,8.00000,9.00000", myRowGlove.getVector().toString());
+    }
 }
\ No newline at end of file
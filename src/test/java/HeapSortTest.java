@@ -47,4 +47,70 @@ class HeapSortTest {
         assertEquals("Word6", myList_Sorted.get(5).getWord2());
         assertEquals(-0.1, myList_Sorted.get(5).getCosineSimilarity());
     }
-}
\ No newline at end of file
+
+    @Test
+    void TopK() {
+        HeapSort.TopK myTopK = new HeapSort.TopK(3);
+        float[] myScores = new float[]{0.4f, 0.6f, -0.1f, 0.9f, 0.5f, 0.2f};
+        for (int i = 0; i < myScores.length; i++) myTopK.offer(i, myScores[i]);
+
+        assertEquals(3, myTopK.size());
+        assertEquals(0.5f, myTopK.getThreshold());
+        myTopK.sort();
+        assertEquals(3, myTopK.getId(0));
+        assertEquals(1, myTopK.getId(1));
+        assertEquals(4, myTopK.getId(2));
+        assertEquals(0.9f, myTopK.getScore(0));
+    }
+
+    @Test
+    void TopK_Excluded() {
+        HeapSort.TopK myTopK = new HeapSort.TopK(2);
+        myTopK.setExcluded(3, 1);
+        float[] myScores = new float[]{0.4f, 0.6f, -0.1f, 0.9f, 0.5f, 0.2f};
+        for (int i = 0; i < myScores.length; i++) myTopK.offer(i, myScores[i]);
+
+        myTopK.sort();
+        assertEquals(2, myTopK.size());
+        assertEquals(4, myTopK.getId(0));
+        assertEquals(0, myTopK.getId(1));
+
+        myTopK.setAllowed(new long[]{1L << 2 | 1L << 3});
+        assertEquals(false, myTopK.accepts(3)); //excluded
+        assertEquals(true, myTopK.accepts(2));
+        assertEquals(false, myTopK.accepts(4)); //left out of the bitmap
+        assertEquals(false, myTopK.accepts(66)); //past its end
+    }
+
+    @Test
+    void TopK_NotFull() {
+        HeapSort.TopK myTopK = new HeapSort.TopK(10);
+        myTopK.offer(7, 0.3f);
+        myTopK.offer(8, 0.7f);
+        assertEquals(Float.NEGATIVE_INFINITY, myTopK.getThreshold());
+        myTopK.sort();
+        assertEquals(8, myTopK.getId(0));
+        assertEquals(7, myTopK.getId(1));
+        assertEquals(0, new HeapSort.TopK(0).getCapacity());
+        assertEquals(false, new HeapSort.TopK(0).offer(1, 1f));
+    }
+
+    @Test
+    void TopK_Deleted() {
+        HeapSort.TopK myTopK = new HeapSort.TopK(3);
+        myTopK.setExcluded(5);
+        myTopK.setDeleted(new long[]{1L << 3 | 1L << 1, 1L}); //ids 1, 3 and 64
+        float[] myScores = new float[]{0.4f, 0.6f, -0.1f, 0.9f, 0.5f, 0.8f};
+        for (int i = 0; i < myScores.length; i++) myTopK.offer(i, myScores[i]);
+        assertEquals(false, myTopK.offer(64, 1f));
+        assertEquals(false, myTopK.accepts(3));
+        assertEquals(true, myTopK.offer(65, 0.45f)); //past the deleted ids that were set
+        assertEquals(true, myTopK.offer(1000, 0.7f));
+
+        myTopK.sort();
+        assertEquals(3, myTopK.size());
+        assertEquals(1000, myTopK.getId(0));
+        assertEquals(4, myTopK.getId(1));
+        assertEquals(65, myTopK.getId(2));
+    }
+}
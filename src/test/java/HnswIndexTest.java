@@ -0,0 +1,170 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class HnswIndexTest {
+    private EmbeddingMatrix createMatrix(int _rows, int _dims) {
+        Random myRandom = new Random(42);
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(_dims);
+        for (int i = 0; i < _rows; i++) {
+            double[] row = new double[_dims];
+            for (int j = 0; j < _dims; j++) row[j] = myRandom.nextGaussian();
+            myMatrix.addRow(row);
+        }
+        return myMatrix;
+    }
+
+    private float[] unitRow(EmbeddingMatrix _matrix, int _row) {
+        float[] result = new float[_matrix.getDimensions()];
+        _matrix.copyUnitRow(_row, result, 0);
+        return result;
+    }
+
+    private int[] ids(HeapSort.TopK _topK) {
+        int[] result = new int[_topK.size()];
+        for (int i = 0; i < result.length; i++) result[i] = _topK.getId(i);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private double recall(EmbeddingMatrix _matrix, int[] _rows, HnswIndex _index, int _k) {
+        int found = 0;
+        for (int q = 0; q < 200; q++) {
+            float[] myQuery = unitRow(_matrix, _rows[q * 7]);
+
+            HeapSort.TopK myExact = new HeapSort.TopK(_k);
+            for (int row : _rows) myExact.offer(row, _matrix.cosine(row, myQuery, SimilarityKernels.scalar()));
+            HeapSort.TopK myApproximate = new HeapSort.TopK(_k);
+            _index.search(myQuery, myApproximate);
+
+            int[] myTruth = ids(myExact);
+            for (int id : ids(myApproximate)) if (Arrays.binarySearch(myTruth, id) >= 0) found++;
+        }
+        return found / (200.0 * _k);
+    }
+
+    @Test
+    void search_Recall() {
+        EmbeddingMatrix myMatrix = createMatrix(5000, 16);
+        int[] myRows = IntStream.range(0, 5000).filter(i -> i % 5 != 0).toArray();
+        HnswIndex myIndex = HnswIndex.build(myMatrix, myRows, 16, 200);
+        assertEquals(4000, myIndex.size());
+
+        myIndex.setEfSearch(100);
+        assertTrue(recall(myMatrix, myRows, myIndex, 10) >= 0.9);
+    }
+
+    @Test
+    void search_EfSearch() {
+        EmbeddingMatrix myMatrix = createMatrix(5000, 16);
+        int[] myRows = IntStream.range(0, 5000).toArray();
+        HnswIndex myIndex = HnswIndex.build(myMatrix, myRows, 8, 100);
+
+        myIndex.setEfSearch(10);
+        double myLow = recall(myMatrix, myRows, myIndex, 10);
+        myIndex.setEfSearch(200);
+        double myHigh = recall(myMatrix, myRows, myIndex, 10);
+        assertTrue(myHigh >= myLow);
+        assertTrue(myHigh >= 0.95);
+    }
+
+    @Test
+    void search_Excluded() {
+        EmbeddingMatrix myMatrix = createMatrix(1000, 8);
+        int[] myRows = IntStream.range(0, 1000).toArray();
+        HnswIndex myIndex = HnswIndex.build(myMatrix, myRows, 12, 100);
+
+        HeapSort.TopK myTopK = new HeapSort.TopK(5);
+        myTopK.setExcluded(42);
+        myIndex.search(unitRow(myMatrix, 42), myTopK);
+
+        assertEquals(5, myTopK.size());
+        for (int id : ids(myTopK)) assertTrue(id != 42);
+    }
+
+    @Test
+    void search_Deleted() {
+        EmbeddingMatrix myMatrix = createMatrix(3000, 16);
+        HnswIndex myIndex = HnswIndex.build(myMatrix, IntStream.range(0, 3000).toArray(), 16, 100);
+
+        //delete the 60 rows nearest to every query, which would otherwise fill most of the 64 candidates
+        for (int q = 0; q < 20; q++) {
+            float[] myQuery = unitRow(myMatrix, q);
+            HeapSort.TopK myNearest = new HeapSort.TopK(60);
+            for (int row = 0; row < 3000; row++)
+                myNearest.offer(row, myMatrix.cosine(row, myQuery, SimilarityKernels.scalar()));
+            long[] myDeleted = new long[(3000 + 63) / 64];
+            for (int id : ids(myNearest)) myDeleted[id >>> 6] |= 1L << id;
+
+            HeapSort.TopK myTopK = new HeapSort.TopK(10);
+            myTopK.setDeleted(myDeleted);
+            myIndex.search(myQuery, myTopK);
+            assertEquals(10, myTopK.size());
+            for (int id : ids(myTopK)) assertEquals(0, myDeleted[id >>> 6] & 1L << id);
+        }
+    }
+
+    @Test
+    void search_SharedContext() {
+        EmbeddingMatrix mySmallMatrix = createMatrix(300, 4);
+        EmbeddingMatrix myLargeMatrix = createMatrix(3000, 16);
+        HnswIndex mySmall = HnswIndex.build(mySmallMatrix, IntStream.range(0, 300).toArray(), 4, 50);
+        HnswIndex myLarge = HnswIndex.build(myLargeMatrix, IntStream.range(0, 3000).toArray(), 16, 100);
+
+        String[] myExpected = new String[20];
+        for (int q = 0; q < 20; q++) {
+            HeapSort.TopK myTopK = new HeapSort.TopK(10);
+            mySmall.search(unitRow(mySmallMatrix, q), myTopK);
+            myExpected[q] = Arrays.toString(ids(myTopK));
+        }
+
+        //the scratch space of the thread now alternates between indexes of other sizes, and the visits don't mix
+        for (int q = 0; q < 20; q++) {
+            HeapSort.TopK myTopK = new HeapSort.TopK(10);
+            myLarge.search(unitRow(myLargeMatrix, q), new HeapSort.TopK(10));
+            mySmall.search(unitRow(mySmallMatrix, q), myTopK);
+            assertEquals(myExpected[q], Arrays.toString(ids(myTopK)));
+        }
+    }
+
+    @Test
+    void search_Empty() {
+        HnswIndex myIndex = HnswIndex.build(createMatrix(10, 4), new int[0], 16, 200);
+        HeapSort.TopK myTopK = new HeapSort.TopK(5);
+        myIndex.search(new float[4], myTopK);
+        assertEquals(0, myTopK.size());
+    }
+
+    @Test
+    void withRows() {
+        EmbeddingMatrix myMatrix = createMatrix(5000, 16);
+        HnswIndex myIndex = HnswIndex.build(myMatrix, IntStream.range(0, 4000).toArray(), 16, 200);
+        HnswIndex myExtended = myIndex.withRows(myMatrix, IntStream.range(4000, 5000).toArray());
+        assertEquals(4000, myIndex.size());
+        assertEquals(5000, myExtended.size());
+
+        //the new rows are linked into the graph like built ones, and the old index still answers over its own rows
+        int[] myRows = IntStream.range(0, 5000).map(i -> 4999 - i).toArray();
+        myExtended.setEfSearch(100);
+        assertTrue(recall(myMatrix, myRows, myExtended, 10) >= 0.9);
+        myIndex.setEfSearch(100);
+        assertTrue(recall(myMatrix, IntStream.range(0, 4000).toArray(), myIndex, 10) >= 0.9);
+
+        //deleted rows are skipped wherever they are found
+        long[] myDeleted = new long[(5000 + 63) / 64];
+        for (int row = 0; row < 5000; row += 2) myDeleted[row >>> 6] |= 1L << row;
+        for (int q = 0; q < 20; q++) {
+            HeapSort.TopK myTopK = new HeapSort.TopK(10);
+            myTopK.setDeleted(myDeleted);
+            myExtended.search(unitRow(myMatrix, 4000 + q), myTopK);
+            assertEquals(10, myTopK.size());
+            for (int id : ids(myTopK)) assertTrue(id % 2 == 1);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class IndexFileTest {
+    @TempDir
+    Path myDir;
+
+    private EmbeddingMatrix createMatrix(int _rows, int _dims) {
+        Random myRandom = new Random(42);
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(_dims);
+        for (int i = 0; i < _rows; i++) {
+            double[] row = new double[_dims];
+            for (int j = 0; j < _dims; j++) row[j] = myRandom.nextGaussian();
+            myMatrix.addRow(row);
+        }
+        return myMatrix;
+    }
+
+    private void assertSameResults(EmbeddingMatrix _matrix, NearestNeighbourIndex _expected,
+                                   NearestNeighbourIndex _actual) {
+        assertEquals(_expected.getName(), _actual.getName());
+
+        float[] myQuery = new float[_matrix.getDimensions()];
+        for (int q = 0; q < 50; q++) {
+            _matrix.copyUnitRow(q * 17 % _matrix.getRowCount(), myQuery, 0);
+            HeapSort.TopK myExpected = new HeapSort.TopK(10), myActual = new HeapSort.TopK(10);
+            _expected.search(myQuery, myExpected);
+            _actual.search(myQuery, myActual);
+
+            assertEquals(myExpected.size(), myActual.size());
+            for (int i = 0; i < myExpected.size(); i++) {
+                assertEquals(myExpected.getId(i), myActual.getId(i));
+                assertEquals(myExpected.getScore(i), myActual.getScore(i));
+            }
+        }
+    }
+
+    @Test
+    void save_Load() throws IOException {
+        EmbeddingMatrix myMatrix = createMatrix(1500, 24);
+        int[] myRows = IntStream.range(0, 1500).filter(row -> row % 10 != 3).toArray();
+        long myFingerprint = IndexFile.fingerprint(myMatrix, myRows);
+
+        for (SearchMode mode : SearchMode.values()) {
+            NearestNeighbourIndex myIndex = mode.build(myMatrix, myRows);
+            if (myIndex == null) continue;
+
+            Path myPath = myDir.resolve("vectors.bin." + mode.name().toLowerCase() + ".idx");
+            IndexFile.save(myPath, myIndex, mode.name(), myFingerprint);
+            assertFalse(Files.exists(myDir.resolve(myPath.getFileName() + ".tmp")));
+
+            NearestNeighbourIndex myLoaded = IndexFile.load(myPath, mode.name(), myMatrix, myRows);
+            assertEquals(myIndex.getClass(), myLoaded.getClass());
+            assertSameResults(myMatrix, myIndex, myLoaded);
+        }
+    }
+
+    @Test
+    void save_Load_Mapped() throws IOException {
+        EmbeddingMatrix myMatrix = createMatrix(1200, 16);
+        int[] myRows = IntStream.range(0, 1000).toArray();
+        int[] myNewRows = IntStream.range(1000, 1200).toArray();
+        long myFingerprint = IndexFile.fingerprint(myMatrix, myRows);
+
+        for (SearchMode mode : SearchMode.values()) {
+            NearestNeighbourIndex myIndex = mode.build(myMatrix, myRows);
+            if (myIndex == null) continue;
+
+            Path myPath = myDir.resolve(mode.name() + ".idx");
+            IndexFile.save(myPath, myIndex, mode.name(), myFingerprint);
+            NearestNeighbourIndex myLoaded = IndexFile.load(myPath, mode.name(), myMatrix, myRows);
+
+            //the mapped sections outlive the file: a snapshot saved over it is moved in, not written into it
+            IndexFile.save(myPath, myLoaded, mode.name(), myFingerprint);
+            assertSameResults(myMatrix, myIndex, myLoaded);
+            assertSameResults(myMatrix, myIndex, IndexFile.load(myPath, mode.name(), myMatrix, myRows));
+
+            //extending a loaded index copies its sections to the heap, leaving the loaded one as it was
+            NearestNeighbourIndex myExtended = myLoaded.withRows(myMatrix, myNewRows);
+            float[] myQuery = new float[16];
+            for (int row = 1000; row < 1200; row += 20) {
+                myMatrix.copyUnitRow(row, myQuery, 0);
+                HeapSort.TopK myTopK = new HeapSort.TopK(1);
+                myExtended.search(myQuery, myTopK);
+                assertEquals(row, myTopK.getId(0));
+            }
+            assertSameResults(myMatrix, myIndex, myLoaded);
+        }
+    }
+
+    @Test
+    void save_Load_Parameters() throws IOException {
+        EmbeddingMatrix myMatrix = createMatrix(800, 16);
+        int[] myRows = IntStream.range(0, 800).toArray();
+        long myFingerprint = IndexFile.fingerprint(myMatrix, myRows);
+        Path myPath = myDir.resolve("index.idx");
+
+        HnswIndex myHnsw = HnswIndex.build(myMatrix, myRows, 8, 50);
+        myHnsw.setEfSearch(77);
+        IndexFile.save(myPath, myHnsw, "custom", myFingerprint);
+        assertEquals(77, ((HnswIndex) IndexFile.load(myPath, "custom", myMatrix, myRows)).getEfSearch());
+
+        LshIndex myLsh = new LshIndex(myMatrix, 3, 10, 7);
+        for (int row = 0; row < 500; row++) myLsh.add(row); //fewer rows than the matrix has room for
+        myLsh.setProbeRadius(2);
+        IndexFile.save(myPath, myLsh, "custom", myFingerprint);
+        LshIndex myLoaded = (LshIndex) IndexFile.load(myPath, "custom", myMatrix, myRows);
+        assertEquals(500, myLoaded.size());
+        assertEquals(2, myLoaded.getProbeRadius());
+        assertSameResults(myMatrix, myLsh, myLoaded);
+    }
+
+    @Test
+    void load_Mismatch() throws IOException {
+        EmbeddingMatrix myMatrix = createMatrix(500, 8);
+        int[] myRows = IntStream.range(0, 500).toArray();
+        Path myPath = myDir.resolve("index.idx");
+        IndexFile.save(myPath, IvfIndex.build(myMatrix, myRows), "IVF", IndexFile.fingerprint(myMatrix, myRows));
+
+        assertThrows(IOException.class, () -> IndexFile.load(myPath, "HNSW", myMatrix, myRows));
+        assertThrows(IOException.class, () -> IndexFile.load(myPath, "IVF", myMatrix, Arrays.copyOf(myRows, 499)));
+        assertThrows(IOException.class, () -> IndexFile.load(myPath, "IVF", createMatrix(500, 8 + 1), myRows));
+
+        EmbeddingMatrix myChanged = createMatrix(500, 8);
+        myChanged.addRow(new double[]{1, 2, 3, 4, 5, 6, 7, 8});
+        assertNotEquals(IndexFile.fingerprint(myMatrix, myRows), IndexFile.fingerprint(myChanged, myRows));
+        assertThrows(IOException.class, () -> IndexFile.load(myPath, "IVF", myChanged, myRows));
+    }
+
+    @Test
+    void load_Damaged() throws IOException {
+        EmbeddingMatrix myMatrix = createMatrix(500, 8);
+        int[] myRows = IntStream.range(0, 500).toArray();
+        Path myPath = myDir.resolve("index.idx");
+        IndexFile.save(myPath, PqIndex.build(myMatrix, myRows, 4), "PQ", IndexFile.fingerprint(myMatrix, myRows));
+        byte[] myBytes = Files.readAllBytes(myPath);
+
+        byte[] myFlipped = myBytes.clone();
+        myFlipped[myFlipped.length / 2] ^= 1;
+        Files.write(myPath, myFlipped);
+        assertThrows(IOException.class, () -> IndexFile.load(myPath, "PQ", myMatrix, myRows));
+
+        Files.write(myPath, Arrays.copyOf(myBytes, myBytes.length - 100));
+        assertThrows(IOException.class, () -> IndexFile.load(myPath, "PQ", myMatrix, myRows));
+
+        Files.write(myPath, Arrays.copyOf(myBytes, 20));
+        assertThrows(IOException.class, () -> IndexFile.load(myPath, "PQ", myMatrix, myRows));
+
+        Files.write(myPath, myBytes);
+        assertTrue(IndexFile.load(myPath, "PQ", myMatrix, myRows) instanceof PqIndex);
+    }
+
+    @Test
+    void pathFor() {
+        assertEquals(myDir.resolve("glove.bin.hnsw.idx"), IndexFile.pathFor(myDir.resolve("glove.bin"), "HNSW"));
+    }
+}
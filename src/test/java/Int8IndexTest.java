@@ -0,0 +1,121 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class Int8IndexTest {
+    private EmbeddingMatrix createMatrix(int _rows, int _dims) {
+        Random myRandom = new Random(42);
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(_dims);
+        for (int i = 0; i < _rows; i++) {
+            double[] row = new double[_dims];
+            for (int j = 0; j < _dims; j++) row[j] = myRandom.nextGaussian();
+            myMatrix.addRow(row);
+        }
+        return myMatrix;
+    }
+
+    private float[] unitRow(EmbeddingMatrix _matrix, int _row) {
+        float[] result = new float[_matrix.getDimensions()];
+        _matrix.copyUnitRow(_row, result, 0);
+        return result;
+    }
+
+    private int[] ids(HeapSort.TopK _topK) {
+        int[] result = new int[_topK.size()];
+        for (int i = 0; i < result.length; i++) result[i] = _topK.getId(i);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private double recall(EmbeddingMatrix _matrix, int[] _rows, Int8Index _index, int _k) {
+        int found = 0;
+        for (int q = 0; q < 100; q++) {
+            float[] myQuery = unitRow(_matrix, _rows[q * 11]);
+
+            HeapSort.TopK myExact = new HeapSort.TopK(_k);
+            for (int row : _rows) myExact.offer(row, _matrix.cosine(row, myQuery, SimilarityKernels.scalar()));
+            HeapSort.TopK myApproximate = new HeapSort.TopK(_k);
+            _index.search(myQuery, myApproximate);
+
+            int[] myTruth = ids(myExact);
+            for (int id : ids(myApproximate)) if (Arrays.binarySearch(myTruth, id) >= 0) found++;
+        }
+        return found / (100.0 * _k);
+    }
+
+    @Test
+    void build() {
+        EmbeddingMatrix myMatrix = createMatrix(3000, 50);
+        Int8Index myIndex = Int8Index.build(myMatrix, IntStream.range(0, 3000).toArray());
+        assertEquals(3000, myIndex.size());
+        assertEquals(3000 * 50, myIndex.getCodeBytes());
+    }
+
+    @Test
+    void search_Rerank() {
+        EmbeddingMatrix myMatrix = createMatrix(3000, 50);
+        int[] myRows = IntStream.range(0, 3000).filter(i -> i % 4 != 0).toArray();
+        Int8Index myIndex = Int8Index.build(myMatrix, myRows);
+
+        myIndex.setRerank(0);
+        assertTrue(recall(myMatrix, myRows, myIndex, 10) >= 0.8); //the integer pass alone is already close
+        myIndex.setRerank(256);
+        assertEquals(1.0, recall(myMatrix, myRows, myIndex, 10));
+    }
+
+    @Test
+    void search_Excluded() {
+        EmbeddingMatrix myMatrix = createMatrix(1000, 8);
+        Int8Index myIndex = Int8Index.build(myMatrix, IntStream.range(0, 1000).toArray());
+
+        for (int rerank : new int[]{0, 20}) {
+            myIndex.setRerank(rerank);
+            HeapSort.TopK myTopK = new HeapSort.TopK(5);
+            myTopK.setExcluded(42);
+            myIndex.search(unitRow(myMatrix, 42), myTopK);
+
+            assertEquals(5, myTopK.size());
+            for (int id : ids(myTopK)) assertTrue(id != 42);
+        }
+    }
+
+    @Test
+    void search_Empty() {
+        Int8Index myIndex = Int8Index.build(createMatrix(10, 4), new int[0]);
+        HeapSort.TopK myTopK = new HeapSort.TopK(5);
+        myIndex.search(new float[4], myTopK);
+        assertEquals(0, myTopK.size());
+    }
+
+    @Test
+    void withRows() {
+        EmbeddingMatrix myMatrix = createMatrix(5000, 50);
+        Int8Index myIndex = Int8Index.build(myMatrix, IntStream.range(0, 4000).toArray());
+        myIndex.setRerank(256);
+        Int8Index myExtended = myIndex.withRows(myMatrix, IntStream.range(4000, 5000).toArray());
+        assertEquals(4000, myIndex.size());
+        assertEquals(5000, myExtended.size());
+        assertEquals(5000 * 50, myExtended.getCodeBytes());
+
+        //the new rows are quantized with the ranges of the old ones
+        int[] myRows = IntStream.range(0, 5000).map(i -> 4999 - i).toArray();
+        assertTrue(recall(myMatrix, myRows, myExtended, 10) >= 0.9);
+
+        //deleted rows are skipped wherever they are found
+        long[] myDeleted = new long[(5000 + 63) / 64];
+        for (int row = 0; row < 5000; row += 2) myDeleted[row >>> 6] |= 1L << row;
+        for (int q = 0; q < 20; q++) {
+            HeapSort.TopK myTopK = new HeapSort.TopK(10);
+            myTopK.setDeleted(myDeleted);
+            myExtended.search(unitRow(myMatrix, 4000 + q), myTopK);
+            assertEquals(10, myTopK.size());
+            for (int id : ids(myTopK)) assertTrue(id % 2 == 1);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class IvfIndexTest {
+    private EmbeddingMatrix createMatrix(int _rows, int _dims) {
+        Random myRandom = new Random(42);
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(_dims);
+        for (int i = 0; i < _rows; i++) {
+            double[] row = new double[_dims];
+            for (int j = 0; j < _dims; j++) row[j] = myRandom.nextGaussian();
+            myMatrix.addRow(row);
+        }
+        return myMatrix;
+    }
+
+    private float[] unitRow(EmbeddingMatrix _matrix, int _row) {
+        float[] result = new float[_matrix.getDimensions()];
+        _matrix.copyUnitRow(_row, result, 0);
+        return result;
+    }
+
+    private int[] ids(HeapSort.TopK _topK) {
+        int[] result = new int[_topK.size()];
+        for (int i = 0; i < result.length; i++) result[i] = _topK.getId(i);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private double recall(EmbeddingMatrix _matrix, int[] _rows, IvfIndex _index, int _k) {
+        int found = 0;
+        for (int q = 0; q < 100; q++) {
+            float[] myQuery = unitRow(_matrix, _rows[q * 11]);
+
+            HeapSort.TopK myExact = new HeapSort.TopK(_k);
+            for (int row : _rows) myExact.offer(row, _matrix.cosine(row, myQuery, SimilarityKernels.scalar()));
+            HeapSort.TopK myApproximate = new HeapSort.TopK(_k);
+            _index.search(myQuery, myApproximate);
+
+            int[] myTruth = ids(myExact);
+            for (int id : ids(myApproximate)) if (Arrays.binarySearch(myTruth, id) >= 0) found++;
+        }
+        return found / (100.0 * _k);
+    }
+
+    @Test
+    void build() {
+        EmbeddingMatrix myMatrix = createMatrix(3000, 16);
+        int[] myRows = IntStream.range(0, 3000).filter(i -> i % 3 != 0).toArray();
+        IvfIndex myIndex = IvfIndex.build(myMatrix, myRows, 40);
+
+        assertEquals(40, myIndex.getNlist());
+        assertEquals(2000, myIndex.size());
+        int myTotal = 0;
+        for (int c = 0; c < 40; c++) myTotal += myIndex.getListSize(c);
+        assertEquals(2000, myTotal);
+    }
+
+    @Test
+    void search_Nprobe() {
+        EmbeddingMatrix myMatrix = createMatrix(3000, 16);
+        int[] myRows = IntStream.range(0, 3000).toArray();
+        IvfIndex myIndex = IvfIndex.build(myMatrix, myRows, 40);
+
+        myIndex.setNprobe(1);
+        double myLow = recall(myMatrix, myRows, myIndex, 10);
+        myIndex.setNprobe(10);
+        double myHigh = recall(myMatrix, myRows, myIndex, 10);
+        assertTrue(myHigh >= myLow);
+
+        //scanning every cluster is the exact search
+        myIndex.setNprobe(1000);
+        assertEquals(40, myIndex.getNprobe());
+        assertEquals(1.0, recall(myMatrix, myRows, myIndex, 10));
+    }
+
+    @Test
+    void search_Excluded() {
+        EmbeddingMatrix myMatrix = createMatrix(1000, 8);
+        IvfIndex myIndex = IvfIndex.build(myMatrix, IntStream.range(0, 1000).toArray());
+
+        HeapSort.TopK myTopK = new HeapSort.TopK(5);
+        myTopK.setExcluded(42);
+        myIndex.search(unitRow(myMatrix, 42), myTopK);
+
+        assertEquals(5, myTopK.size());
+        for (int id : ids(myTopK)) assertTrue(id != 42);
+    }
+
+    @Test
+    void search_Empty() {
+        IvfIndex myIndex = IvfIndex.build(createMatrix(10, 4), new int[0]);
+        HeapSort.TopK myTopK = new HeapSort.TopK(5);
+        myIndex.search(new float[4], myTopK);
+        assertEquals(0, myTopK.size());
+    }
+
+    @Test
+    void withRows() {
+        EmbeddingMatrix myMatrix = createMatrix(3000, 16);
+        IvfIndex myIndex = IvfIndex.build(myMatrix, IntStream.range(0, 2000).toArray(), 40);
+        myIndex.setNprobe(5);
+        IvfIndex myExtended = myIndex.withRows(myMatrix, IntStream.range(2000, 3000).toArray());
+
+        assertEquals(2000, myIndex.size());
+        assertEquals(3000, myExtended.size());
+        assertEquals(5, myExtended.getNprobe());
+        int myTotal = 0;
+        for (int c = 0; c < 40; c++) myTotal += myExtended.getListSize(c);
+        assertEquals(3000, myTotal);
+
+        //every new row went into some list, so scanning every list is still the exact search
+        int[] myRows = IntStream.range(0, 3000).map(i -> 2999 - i).toArray();
+        myExtended.setNprobe(1000);
+        assertEquals(1.0, recall(myMatrix, myRows, myExtended, 10));
+    }
+}
@@ -0,0 +1,80 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class KMeansTest {
+    //rows scattered tightly around four orthogonal directions
+    private EmbeddingMatrix createClusters(int _perCluster) {
+        Random myRandom = new Random(42);
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(8);
+        for (int i = 0; i < 4 * _perCluster; i++) {
+            double[] row = new double[8];
+            for (int j = 0; j < 8; j++) row[j] = myRandom.nextGaussian() * 0.05;
+            row[i % 4] += 1;
+            myMatrix.addRow(row);
+        }
+        return myMatrix;
+    }
+
+    @Test
+    void train() {
+        EmbeddingMatrix myMatrix = createClusters(100);
+        int[] myRows = IntStream.range(0, 400).toArray();
+        float[] myCentroids = KMeans.train(myMatrix, myRows, 4, 10, 7);
+        int[] myAssignment = KMeans.assign(myMatrix, myRows, myCentroids, 4);
+
+        //rows of the same direction share a cluster and the four directions get different clusters
+        for (int i = 4; i < 400; i++) assertEquals(myAssignment[i % 4], myAssignment[i]);
+        assertEquals(4, IntStream.of(myAssignment).distinct().count());
+
+        for (int c = 0; c < 4; c++) {
+            double norm = 0;
+            for (int j = 0; j < 8; j++) norm += myCentroids[c * 8 + j] * myCentroids[c * 8 + j];
+            assertEquals(1, norm, 1e-5);
+        }
+    }
+
+    @Test
+    void assign_NotMultipleOfFour() {
+        EmbeddingMatrix myMatrix = createClusters(10);
+        int[] myRows = IntStream.range(0, 40).toArray();
+        float[] myCentroids = KMeans.train(myMatrix, myRows, 3, 5, 7);
+        int[] myAssignment = KMeans.assign(myMatrix, myRows, myCentroids, 3);
+        for (int c : myAssignment) assertTrue(c >= 0 && c < 3);
+    }
+
+    @Test
+    void group() {
+        int[] myOffsets = new int[4];
+        int[] myGrouped = KMeans.group(new int[]{10, 11, 12, 13, 14}, new int[]{2, 0, 2, 0, 1}, 3, myOffsets);
+        assertEquals("[11, 13, 14, 10, 12]", Arrays.toString(myGrouped));
+        assertEquals("[0, 2, 3, 5]", Arrays.toString(myOffsets));
+    }
+
+    @Test
+    void trainPoints() {
+        //two groups of points on a line, around 0 and around 10
+        float[] myPoints = new float[]{-0.5f, 0, 0.5f, 9.5f, 10, 10.5f};
+        float[] myCentroids = KMeans.trainPoints(myPoints, 6, 1, 2, 10, 7);
+        Arrays.sort(myCentroids);
+        assertEquals(0, myCentroids[0], 1e-6);
+        assertEquals(10, myCentroids[1], 1e-6);
+        assertEquals(1, KMeans.nearest(new float[]{0, 10}, 2, myPoints, 4, 1));
+
+        //more centroids than points
+        assertEquals(8, KMeans.trainPoints(myPoints, 2, 1, 8, 3, 7).length);
+    }
+
+    @Test
+    void train_InvalidK() {
+        EmbeddingMatrix myMatrix = createClusters(1);
+        assertThrows(IllegalArgumentException.class, () -> KMeans.train(myMatrix, new int[]{0, 1}, 3, 5, 7));
+    }
+}
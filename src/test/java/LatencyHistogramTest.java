@@ -0,0 +1,58 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class LatencyHistogramTest {
+    @Test
+    void bucketOf() {
+        for (long value = 0; value < 100000; value++) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(LatencyHistogram.lowerBound(bucket) <= value && value < LatencyHistogram.lowerBound(bucket + 1),
+                    "value " + value);
+        }
+        assertEquals(487, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+        assertTrue(LatencyHistogram.lowerBound(487) > 0);
+    }
+
+    @Test
+    void percentile() {
+        LatencyHistogram myHistogram = new LatencyHistogram();
+        assertEquals(0, myHistogram.snapshot().getP99Nanos());
+
+        for (int i = 1; i <= 1000; i++) myHistogram.record(i * 1000L);
+        myHistogram.record(-5); //a clock going backwards counts as 0
+
+        LatencyHistogram.Snapshot mySnapshot = myHistogram.snapshot();
+        assertEquals(1001, mySnapshot.getCount());
+        assertEquals(1000000, mySnapshot.getMaxNanos());
+        assertEquals(500500000L / 1001, mySnapshot.getMeanNanos());
+        assertEquals(0, mySnapshot.percentile(0));
+        assertEquals(1000000, mySnapshot.percentile(1));
+
+        //a percentile is rounded up to the end of its bucket, at most an eighth above the exact value
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            long exact = (long) Math.ceil(quantile * 1001 - 1) * 1000;
+            long found = mySnapshot.percentile(quantile);
+            assertTrue(found >= exact && found <= exact + exact / 8, quantile + ": " + found + " for " + exact);
+        }
+
+        myHistogram.reset();
+        assertEquals(0, myHistogram.snapshot().getCount());
+        assertEquals(0, myHistogram.snapshot().getMaxNanos());
+    }
+
+    @Test
+    void record_Concurrent() {
+        LatencyHistogram myHistogram = new LatencyHistogram();
+        IntStream.range(0, 8).parallel().forEach(t -> {
+            Random myRandom = new Random(t);
+            for (int i = 0; i < 100000; i++) myHistogram.record(myRandom.nextInt(1 << 20));
+        });
+        assertEquals(800000, myHistogram.snapshot().getCount());
+    }
+}
@@ -0,0 +1,186 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class LshIndexTest {
+    private EmbeddingMatrix createMatrix(int _rows, int _dims) {
+        Random myRandom = new Random(42);
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(_dims);
+        for (int i = 0; i < _rows; i++) {
+            double[] row = new double[_dims];
+            for (int j = 0; j < _dims; j++) row[j] = myRandom.nextGaussian();
+            myMatrix.addRow(row);
+        }
+        return myMatrix;
+    }
+
+    private float[] unitRow(EmbeddingMatrix _matrix, int _row) {
+        float[] result = new float[_matrix.getDimensions()];
+        _matrix.copyUnitRow(_row, result, 0);
+        return result;
+    }
+
+    private int[] ids(HeapSort.TopK _topK) {
+        int[] result = new int[_topK.size()];
+        for (int i = 0; i < result.length; i++) result[i] = _topK.getId(i);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private double recall(EmbeddingMatrix _matrix, int[] _rows, LshIndex _index, int _k) {
+        int found = 0;
+        for (int q = 0; q < 100; q++) {
+            float[] myQuery = unitRow(_matrix, _rows[q * 11]);
+
+            HeapSort.TopK myExact = new HeapSort.TopK(_k);
+            for (int row : _rows) myExact.offer(row, _matrix.cosine(row, myQuery, SimilarityKernels.scalar()));
+            HeapSort.TopK myApproximate = new HeapSort.TopK(_k);
+            _index.search(myQuery, myApproximate);
+
+            int[] myTruth = ids(myExact);
+            for (int id : ids(myApproximate)) if (Arrays.binarySearch(myTruth, id) >= 0) found++;
+        }
+        return found / (100.0 * _k);
+    }
+
+    @Test
+    void build() {
+        EmbeddingMatrix myMatrix = createMatrix(2000, 16);
+        LshIndex myIndex = LshIndex.build(myMatrix, IntStream.range(0, 2000).toArray());
+        assertEquals(2000, myIndex.size());
+        assertEquals(16, myIndex.getTables());
+        assertEquals(8, myIndex.getBits());
+
+        assertThrows(IllegalArgumentException.class, () -> new LshIndex(myMatrix, 4, 65, 1));
+        assertThrows(IllegalArgumentException.class, () -> new LshIndex(myMatrix, 0, 8, 1));
+    }
+
+    @Test
+    void search_ProbeRadius() {
+        EmbeddingMatrix myMatrix = createMatrix(3000, 16);
+        int[] myRows = IntStream.range(0, 3000).toArray();
+        LshIndex myIndex = LshIndex.build(myMatrix, myRows, 8, 10);
+
+        myIndex.setProbeRadius(0);
+        double myLow = recall(myMatrix, myRows, myIndex, 10);
+        myIndex.setProbeRadius(2);
+        double myHigh = recall(myMatrix, myRows, myIndex, 10);
+        assertTrue(myHigh >= myLow);
+        assertTrue(myHigh >= 0.8);
+    }
+
+    @Test
+    void search_Prefilter() {
+        EmbeddingMatrix myMatrix = createMatrix(3000, 16);
+        int[] myRows = IntStream.range(0, 3000).toArray();
+        LshIndex myIndex = LshIndex.build(myMatrix, myRows, 4, 64);
+
+        //a slack as large as the signatures never skips a row, which is the exact scan
+        myIndex.setPrefilterSlack(256);
+        assertEquals(1.0, recall(myMatrix, myRows, myIndex, 10));
+        myIndex.setPrefilterSlack(16);
+        assertTrue(recall(myMatrix, myRows, myIndex, 10) >= 0.9);
+    }
+
+    @Test
+    void add() {
+        EmbeddingMatrix myMatrix = createMatrix(500, 8);
+        LshIndex myBuilt = LshIndex.build(myMatrix, IntStream.range(0, 500).toArray(), 4, 6);
+        LshIndex myAdded = new LshIndex(myMatrix, 4, 6, 42);
+        for (int i = 0; i < 500; i++) myAdded.add(i);
+
+        //the same seed gives the same signatures, so both find the same rows
+        for (int q = 0; q < 20; q++) {
+            HeapSort.TopK myFirst = new HeapSort.TopK(5);
+            HeapSort.TopK mySecond = new HeapSort.TopK(5);
+            myBuilt.search(unitRow(myMatrix, q), myFirst);
+            myAdded.search(unitRow(myMatrix, q), mySecond);
+            assertEquals(Arrays.toString(ids(myFirst)), Arrays.toString(ids(mySecond)));
+        }
+    }
+
+    @Test
+    void add_Concurrent() throws InterruptedException {
+        EmbeddingMatrix myMatrix = createMatrix(4000, 8);
+        LshIndex myIndex = new LshIndex(myMatrix, 4, 6, 42);
+        myIndex.setProbeRadius(1);
+        AtomicBoolean myDone = new AtomicBoolean();
+        AtomicReference<Throwable> myFailure = new AtomicReference<>();
+
+        //searches run while the buckets and node arrays grow, and only ever see rows added before
+        Thread[] myReaders = new Thread[3];
+        for (int i = 0; i < myReaders.length; i++) {
+            int mySeed = i;
+            myReaders[i] = new Thread(() -> {
+                Random myRandom = new Random(mySeed);
+                try {
+                    while (!myDone.get()) {
+                        HeapSort.TopK myTopK = new HeapSort.TopK(10);
+                        myIndex.search(unitRow(myMatrix, myRandom.nextInt(4000)), myTopK);
+                        int mySize = myIndex.size();
+                        for (int id : ids(myTopK)) assertTrue(id >= 0 && id < mySize, "row " + id);
+                    }
+                } catch (Throwable e) {
+                    myFailure.compareAndSet(null, e);
+                }
+            });
+            myReaders[i].start();
+        }
+
+        for (int row = 0; row < 4000; row++) myIndex.add(row);
+        myDone.set(true);
+        for (Thread reader : myReaders) reader.join();
+
+        if (myFailure.get() != null) throw new AssertionError(myFailure.get());
+        assertEquals(4000, myIndex.size());
+        for (int q = 0; q < 4000; q += 97) {
+            HeapSort.TopK myTopK = new HeapSort.TopK(1);
+            myIndex.search(unitRow(myMatrix, q), myTopK);
+            assertEquals(q, myTopK.getId(0)); //a row always shares its own buckets
+        }
+    }
+
+    @Test
+    void search_Excluded() {
+        EmbeddingMatrix myMatrix = createMatrix(1000, 8);
+        LshIndex myIndex = LshIndex.build(myMatrix, IntStream.range(0, 1000).toArray());
+
+        HeapSort.TopK myTopK = new HeapSort.TopK(5);
+        myTopK.setExcluded(42);
+        myIndex.search(unitRow(myMatrix, 42), myTopK);
+
+        assertEquals(5, myTopK.size());
+        for (int id : ids(myTopK)) assertTrue(id != 42);
+    }
+
+    @Test
+    void search_Empty() {
+        LshIndex myIndex = LshIndex.build(createMatrix(10, 4), new int[0]);
+        HeapSort.TopK myTopK = new HeapSort.TopK(5);
+        myIndex.search(new float[4], myTopK);
+        assertEquals(0, myTopK.size());
+    }
+
+    @Test
+    void withRows() {
+        EmbeddingMatrix myMatrix = createMatrix(3000, 16);
+        LshIndex myIndex = LshIndex.build(myMatrix, IntStream.range(0, 2000).toArray(), 4, 64);
+        myIndex.setPrefilterSlack(256);
+        LshIndex myExtended = myIndex.withRows(myMatrix, IntStream.range(2000, 3000).toArray());
+        assertEquals(2000, myIndex.size());
+        assertEquals(3000, myExtended.size());
+
+        //with a slack that never skips a row, the extended index is the exact search over all the rows
+        int[] myRows = IntStream.range(0, 3000).map(i -> 2999 - i).toArray();
+        assertEquals(1.0, recall(myMatrix, myRows, myExtended, 10));
+    }
+}
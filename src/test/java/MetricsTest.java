@@ -0,0 +1,105 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class MetricsTest {
+    @TempDir
+    Path myDir;
+
+    @AfterEach
+    void TearDown() {
+        Metrics.setEnabled(true);
+        Metrics.reset();
+    }
+
+    @Test
+    void record() {
+        Metrics.reset();
+        long myStart = Metrics.start();
+        assertTrue(myStart != 0);
+        Metrics.record(Metrics.Stage.SCAN, myStart);
+        Metrics.count(Metrics.Counter.ROWS_SCORED, 42);
+        assertEquals(1, Metrics.snapshot(Metrics.Stage.SCAN).getCount());
+        assertEquals(42, Metrics.getCount(Metrics.Counter.ROWS_SCORED));
+
+        //a stage started while the metrics were off isn't recorded, even if they are on when it ends
+        Metrics.setEnabled(false);
+        assertEquals(0, Metrics.start());
+        Metrics.count(Metrics.Counter.ROWS_SCORED, 1);
+        Metrics.setEnabled(true);
+        Metrics.record(Metrics.Stage.SCAN, 0);
+        assertEquals(1, Metrics.snapshot(Metrics.Stage.SCAN).getCount());
+        assertEquals(42, Metrics.getCount(Metrics.Counter.ROWS_SCORED));
+
+        String myDump = Metrics.dump();
+        assertTrue(myDump.startsWith("stage"));
+        assertTrue(myDump.contains("\nscan "));
+        assertFalse(myDump.contains("\nload ")); //stages never recorded are left out
+        assertTrue(myDump.contains("rows_scored    42"));
+    }
+
+    @Test
+    void stages() throws Exception {
+        Path myCsv = myDir.resolve("vectors.csv");
+        StringBuilder mySB = new StringBuilder("error,1,1\n"); //what unknown words are searched as
+        for (int i = 0; i < 100; i++) mySB.append("w").append(i).append(',').append(i % 7).append(",1\n");
+        Files.writeString(myCsv, mySB);
+
+        Metrics.reset();
+        Toolkit.loadGLOVE(myCsv);
+        for (Metrics.Stage stage : List.of(Metrics.Stage.LOAD, Metrics.Stage.LOAD_SPLIT, Metrics.Stage.LOAD_PARSE,
+                Metrics.Stage.LOAD_INDEX))
+            assertEquals(1, Metrics.snapshot(stage).getCount(), stage.name());
+
+        //a search goes through every search stage
+        Path myBinary = myDir.resolve("vectors.bin");
+        EmbeddingFile.write(myBinary, Toolkit.getModel().getVocabulary(), Toolkit.getModel().getMatrix());
+        SemanticMain mySM = new SemanticMain(myBinary);
+        mySM.setModel(Toolkit.getModel());
+        Metrics.reset();
+        mySM.WordsNearest("w3", 5);
+        mySM.WordsNearest("nope", 5);
+        for (Metrics.Stage stage : List.of(Metrics.Stage.RESOLVE, Metrics.Stage.SCAN, Metrics.Stage.TOP_K))
+            assertEquals(2, Metrics.snapshot(stage).getCount(), stage.name());
+        assertEquals(2, Metrics.getCount(Metrics.Counter.QUERIES));
+        assertEquals(1, Metrics.getCount(Metrics.Counter.UNKNOWN_WORDS));
+        assertEquals(202, Metrics.getCount(Metrics.Counter.ROWS_SCORED));
+    }
+
+    @Test
+    void registerMBean() throws Exception {
+        Metrics.reset();
+        Metrics.count(Metrics.Counter.QUERIES, 3);
+        Metrics.record(Metrics.Stage.NEAREST, Metrics.start());
+
+        ObjectName myName = Metrics.registerMBean();
+        assertEquals(myName, Metrics.registerMBean());
+
+        MBeanServer myServer = ManagementFactory.getPlatformMBeanServer();
+        TabularData myCounters = (TabularData) myServer.getAttribute(myName, "Counters");
+        assertEquals(3L, myCounters.get(new Object[]{"QUERIES"}).get("value"));
+
+        TabularData myStages = (TabularData) myServer.getAttribute(myName, "Stages");
+        CompositeData myNearest = (CompositeData) myStages.get(new Object[]{"NEAREST"}).get("value");
+        assertEquals(1L, myNearest.get("count"));
+        assertTrue((long) myNearest.get("p99Nanos") >= (long) myNearest.get("p50Nanos"));
+        assertTrue(((String) myServer.getAttribute(myName, "Dump")).contains("nearest"));
+
+        myServer.invoke(myName, "reset", null, null);
+        assertEquals(0, Metrics.getCount(Metrics.Counter.QUERIES));
+    }
+}
@@ -0,0 +1,169 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class ModelSearchTest {
+    private final AtomicInteger mySearches = new AtomicInteger();
+
+    /**
+     * Creates a snapshot of 2000 random 8-dimensional words named w0 to w1999, searched through an HNSW index that
+     * counts its searches in mySearches, or by the exact scan
+     */
+    private ModelSnapshot createSnapshot(boolean _indexed) {
+        Random myRandom = new Random(42);
+        List<String> myWords = new ArrayList<>();
+        List<double[]> myVectors = new ArrayList<>();
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(8);
+        for (int i = 0; i < 2000; i++) {
+            double[] row = new double[8];
+            for (int j = 0; j < 8; j++) row[j] = myRandom.nextGaussian();
+            myWords.add("w" + i);
+            myVectors.add(row);
+            myMatrix.addRow(row);
+        }
+
+        int[] myRows = IntStream.range(0, 2000).toArray();
+        ModelSnapshot.LazyIndex myIndex = new ModelSnapshot.LazyIndex((matrix, rows) -> {
+            HnswIndex myHnsw = HnswIndex.build(matrix, rows, 16, 100);
+            return new NearestNeighbourIndex() {
+                @Override
+                public void search(float[] _unitQuery, HeapSort.TopK _topK) {
+                    mySearches.incrementAndGet();
+                    myHnsw.search(_unitQuery, _topK);
+                }
+
+                @Override
+                public String getName() { return "counted"; }
+            };
+        }, _indexed ? null : SearchMode.EXACT, null, myMatrix, myRows);
+
+        return new ModelSnapshot(myWords, myVectors, new ArrayList<>(), myMatrix, VocabularyIndex.of(myWords), myRows,
+                myIndex, new VocabularyIndex());
+    }
+
+    private float[] unitRow(ModelSnapshot _snapshot, int _row) {
+        return ModelSearch.toFloats(ModelSearch.unit(_snapshot.matrix.getRow(_row)));
+    }
+
+    private String bruteForce(ModelSnapshot _snapshot, float[] _query, int _k, int... _excluded) {
+        HeapSort.TopK myTopK = new HeapSort.TopK(_k);
+        myTopK.setExcluded(_excluded);
+        for (int row : _snapshot.liveRows(0))
+            myTopK.offer(row, _snapshot.matrix.cosine(row, _query, SimilarityKernels.get()));
+        return ids(myTopK);
+    }
+
+    private String ids(HeapSort.TopK _topK) {
+        _topK.sort();
+        StringBuilder mySB = new StringBuilder();
+        for (int i = 0; i < _topK.size(); i++) mySB.append(_topK.getId(i)).append(",");
+        return mySB.toString();
+    }
+
+    @Test
+    void scan_Exact() {
+        ModelSnapshot mySnapshot = createSnapshot(false);
+        for (int row = 0; row < 50; row++) {
+            float[] myQuery = unitRow(mySnapshot, row);
+            assertEquals(bruteForce(mySnapshot, myQuery, 10, row),
+                    ids(ModelSearch.scan(mySnapshot, myQuery, null, 10, null, row)));
+        }
+    }
+
+    @Test
+    void scan_Index() {
+        ModelSnapshot mySnapshot = createSnapshot(true);
+        HeapSort.TopK myTopK = ModelSearch.scan(mySnapshot, unitRow(mySnapshot, 7), null, 10, null);
+        assertEquals(1, mySearches.get());
+        assertEquals(10, myTopK.size());
+        assertTrue(ids(myTopK).startsWith("7,"));
+    }
+
+    @Test
+    void scan_NarrowFilter() {
+        //a filter that keeps fewer rows than an eighth of the index is scanned exactly, without the index
+        ModelSnapshot mySnapshot = createSnapshot(true);
+        RowFilter myFilter = RowFilter.rankBelow(100);
+        HeapSort.TopK myTopK = ModelSearch.scan(mySnapshot, unitRow(mySnapshot, 500), null, 10, myFilter);
+        assertEquals(0, mySearches.get());
+        assertEquals(100, myTopK.getScanned());
+
+        HeapSort.TopK myExpected = new HeapSort.TopK(10);
+        for (int row = 0; row < 100; row++)
+            myExpected.offer(row, mySnapshot.matrix.cosine(row, unitRow(mySnapshot, 500), SimilarityKernels.get()));
+        assertEquals(ids(myExpected), ids(myTopK));
+
+        //a filter keeping fewer rows than asked for fills a smaller heap
+        myTopK = ModelSearch.scan(mySnapshot, unitRow(mySnapshot, 500), null, 10, RowFilter.rankBelow(3));
+        assertEquals(3, myTopK.getCapacity());
+        assertEquals(3, myTopK.size());
+    }
+
+    @Test
+    void scan_WideFilter() {
+        //a wider filter goes through the index, which skips the rows the filter leaves out
+        ModelSnapshot mySnapshot = createSnapshot(true);
+        HeapSort.TopK myTopK = ModelSearch.scan(mySnapshot, unitRow(mySnapshot, 5), null, 10,
+                RowFilter.rankBelow(1000));
+        assertEquals(1, mySearches.get());
+        assertEquals(10, myTopK.size());
+        for (int i = 0; i < myTopK.size(); i++) assertTrue(myTopK.getId(i) < 1000);
+    }
+
+    @Test
+    void scan_Deleted() {
+        ModelSnapshot mySnapshot = createSnapshot(true);
+        float[] myQuery = unitRow(mySnapshot, 11);
+        ModelSnapshot myRemoved = mySnapshot.withoutWord("w11");
+
+        assertTrue(ids(ModelSearch.scan(mySnapshot, myQuery, null, 10, null)).startsWith("11,"));
+        assertFalse(ids(ModelSearch.scan(myRemoved, myQuery, null, 10, null)).contains(",11,"));
+        assertFalse(ids(ModelSearch.scan(myRemoved, myQuery, null, 10, null)).startsWith("11,"));
+        assertFalse(ids(ModelSearch.scan(myRemoved, myQuery, null, 10, RowFilter.rankBelow(50))).startsWith("11,"));
+
+        ModelSnapshot myExact = createSnapshot(false).withoutWord("w11");
+        assertEquals(bruteForce(myExact, myQuery, 10), ids(ModelSearch.scan(myExact, myQuery, null, 10, null)));
+    }
+
+    @Test
+    void searchAll() {
+        for (boolean indexed : new boolean[]{false, true}) {
+            ModelSnapshot mySnapshot = createSnapshot(indexed).withoutWord("w3");
+            float[][] myQueries = new float[20][];
+            int[][] myExcluded = new int[20][];
+            for (int i = 0; i < myQueries.length; i++) {
+                myQueries[i] = unitRow(mySnapshot, i * 17);
+                myExcluded[i] = new int[]{i * 17};
+            }
+
+            HeapSort.TopK[] myResult = ModelSearch.searchAll(mySnapshot, myQueries, 10, null, myExcluded, null);
+            for (int i = 0; i < myQueries.length; i++) {
+                String myExpected = indexed ? ids(ModelSearch.scan(mySnapshot, myQueries[i], null, 10, null, i * 17))
+                        : bruteForce(mySnapshot, myQueries[i], 10, i * 17);
+                assertEquals(myExpected, ids(myResult[i]));
+            }
+        }
+    }
+
+    @Test
+    void nearestToWord() {
+        ModelSnapshot mySnapshot = createSnapshot(false);
+        List<CosSimilarityPair> myPairs = ModelSearch.nearestToWord(mySnapshot, "w9", 5, null, null);
+        assertEquals(5, myPairs.size());
+        for (CosSimilarityPair pair : myPairs) {
+            assertEquals("w9", pair.getWord1());
+            assertFalse(pair.getWord2().equals("w9"));
+        }
+        assertEquals(bruteForce(mySnapshot, unitRow(mySnapshot, 9), 5, 9), myPairs.stream()
+                .map(pair -> pair.getWord2().substring(1) + ",").reduce("", String::concat));
+    }
+}
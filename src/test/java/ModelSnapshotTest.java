@@ -0,0 +1,159 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiFunction;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class ModelSnapshotTest {
+    private final Random myRandom = new Random(42);
+
+    private double[] randomRow() {
+        double[] row = new double[8];
+        for (int j = 0; j < row.length; j++) row[j] = myRandom.nextGaussian();
+        return row;
+    }
+
+    /**
+     * Creates a snapshot of 500 random 8-dimensional words named w0 to w499, with w1 as its only stop word
+     */
+    private ModelSnapshot createSnapshot(BiFunction<EmbeddingMatrix, int[], NearestNeighbourIndex> _factory,
+                                         SearchMode _mode) {
+        List<String> myWords = new ArrayList<>();
+        List<double[]> myVectors = new ArrayList<>();
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(8);
+        for (int i = 0; i < 500; i++) {
+            myWords.add("w" + i);
+            myVectors.add(randomRow());
+            myMatrix.addRow(myVectors.get(i));
+        }
+
+        int[] myRows = IntStream.range(0, 500).toArray();
+        return new ModelSnapshot(myWords, myVectors, new ArrayList<>(), myMatrix, VocabularyIndex.of(myWords), myRows,
+                new ModelSnapshot.LazyIndex(_factory, _mode, null, myMatrix, myRows),
+                VocabularyIndex.of(List.of("w1")));
+    }
+
+    private int nearest(ModelSnapshot _snapshot, int _row) {
+        double[] myRow = _snapshot.matrix.getRow(_row);
+        float[] myQuery = ModelSearch.toFloats(ModelSearch.unit(myRow));
+        HeapSort.TopK myTopK = new HeapSort.TopK(1);
+        _snapshot.index.get().search(myQuery, myTopK);
+        return myTopK.getId(0);
+    }
+
+    @Test
+    void withWord() {
+        ModelSnapshot myFirst = createSnapshot(null, SearchMode.EXACT);
+        ModelSnapshot myExtended = myFirst.extended();
+        assertTrue(myExtended.boolExtended);
+        assertFalse(myFirst.boolExtended);
+        assertNotSame(myFirst.matrix, myExtended.matrix);
+
+        double[] myVector = randomRow();
+        ModelSnapshot myAdded = myExtended.withWord("new", myVector, true, -1);
+        assertEquals(500, myAdded.rowOf("new"));
+        assertArrayEquals(myVector, myAdded.matrix.getRow(500), 1e-6);
+        assertEquals(501, myAdded.size());
+        assertEquals(501, myAdded.intScanCount);
+        assertEquals("new", myAdded.wordOf(500));
+
+        //the earlier snapshots never see the word
+        assertEquals(-1, myExtended.rowOf("new"));
+        assertEquals(500, myExtended.size());
+        assertEquals(500, myExtended.intScanCount);
+
+        //a replaced word moves to a new row and its old row is deleted
+        ModelSnapshot myUpdated = myAdded.withWord("w5", randomRow(), true, 5);
+        assertEquals(501, myUpdated.rowOf("w5"));
+        assertTrue(myUpdated.isDeleted(5));
+        assertFalse(myAdded.isDeleted(5));
+        assertEquals(5, myAdded.rowOf("w5"));
+
+        //a stop word is looked up but never searched
+        ModelSnapshot myStopword = myUpdated.withWord("the", randomRow(), false, -1);
+        assertEquals(502, myStopword.rowOf("the"));
+        assertEquals(myUpdated.intScanCount, myStopword.intScanCount);
+    }
+
+    @Test
+    void withoutWord() {
+        ModelSnapshot myFirst = createSnapshot(null, SearchMode.EXACT);
+        ModelSnapshot myRemoved = myFirst.withoutWord("w6");
+        assertEquals(-1, myRemoved.rowOf("w6"));
+        assertTrue(myRemoved.isDeleted(6));
+        assertEquals(6, myFirst.rowOf("w6"));
+        assertFalse(myFirst.isDeleted(6));
+
+        int[] myLive = myRemoved.liveRows(0);
+        assertEquals(499, myLive.length);
+        assertEquals(499, myRemoved.liveRowCount(0, myRemoved.intScanCount));
+        assertEquals(5, myLive[5]);
+        assertEquals(7, myLive[6]);
+        assertEquals(6, myRemoved.liveRows(new long[]{0b11111110L}).length); //rows 1 to 7 but 6
+
+        //a word that isn't there deletes nothing
+        assertSame(myRemoved.tombstones, myRemoved.withoutWord("missing").tombstones);
+    }
+
+    @Test
+    void Compaction() {
+        ModelSnapshot myStart = createSnapshot((matrix, rows) -> HnswIndex.build(matrix, rows, 8, 50), null)
+                .extended().withWord("a", randomRow(), true, -1).withWord("w3", randomRow(), true, 3);
+        ModelSnapshot.Compaction myCompaction = new ModelSnapshot.Compaction(myStart, false);
+        assertFalse(myCompaction.isEmpty());
+
+        //the updates made while the compaction runs are kept as updates
+        ModelSnapshot myCurrent = myStart.withWord("b", randomRow(), true, -1).withoutWord("w4");
+        assertTrue(myCompaction.isStartOf(myCurrent));
+        ModelSnapshot myCompacted = myCompaction.applyTo(myCurrent, null);
+
+        assertEquals(500, myCompacted.rowOf("a"));
+        assertEquals(501, myCompacted.rowOf("w3"));
+        assertEquals(502, myCompacted.rowOf("b"));
+        assertEquals(-1, myCompacted.rowOf("w4"));
+        assertEquals("b", myCompacted.wordOf(502));
+        assertTrue(myCompacted.isDeleted(3) && myCompacted.isDeleted(4));
+
+        //the index holds the live rows as of the start, the rows added since are scanned after them
+        assertEquals(501, myCompacted.intIndexedCount);
+        assertEquals(502, myCompacted.intScanCount);
+        assertEquals(502, myCompacted.intScanRows[501]);
+        assertEquals(500, nearest(myCompacted, 500));
+        assertEquals(501, nearest(myCompacted, 501));
+
+        //another compaction of the same start comes too late
+        assertFalse(myCompaction.isStartOf(myCompacted));
+        assertTrue(new ModelSnapshot.Compaction(myCompacted, false).isStartOf(myCompacted));
+    }
+
+    @Test
+    void Compaction_Rebuild() {
+        ModelSnapshot myStart = createSnapshot(null, SearchMode.EXACT);
+        assertNull(myStart.index.get());
+        assertTrue(new ModelSnapshot.Compaction(myStart, false).isEmpty());
+
+        ModelSnapshot.LazyIndex mySettings = new ModelSnapshot.LazyIndex(
+                (matrix, rows) -> HnswIndex.build(matrix, rows, 8, 50), null, null, null, null);
+        ModelSnapshot myRemoved = myStart.withoutWord("w8");
+        ModelSnapshot myCompacted = new ModelSnapshot.Compaction(myRemoved, true).applyTo(myRemoved, mySettings);
+
+        assertNotNull(myCompacted.index.get());
+        assertTrue(myCompacted.index.hasSettingsOf(mySettings));
+        assertEquals(499, myCompacted.intIndexedCount);
+        assertEquals(499, myCompacted.intScanCount);
+        assertEquals(7, nearest(myCompacted, 7));
+        assertSame(myRemoved.index, myStart.index);
+    }
+}
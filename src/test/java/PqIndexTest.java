@@ -0,0 +1,165 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class PqIndexTest {
+    @TempDir
+    Path myDir;
+
+    private EmbeddingMatrix createMatrix(int _rows, int _dims) {
+        Random myRandom = new Random(42);
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(_dims);
+        for (int i = 0; i < _rows; i++) {
+            double[] row = new double[_dims];
+            for (int j = 0; j < _dims; j++) row[j] = myRandom.nextGaussian();
+            myMatrix.addRow(row);
+        }
+        return myMatrix;
+    }
+
+    private float[] unitRow(EmbeddingMatrix _matrix, int _row) {
+        float[] result = new float[_matrix.getDimensions()];
+        _matrix.copyUnitRow(_row, result, 0);
+        return result;
+    }
+
+    private int[] ids(HeapSort.TopK _topK) {
+        int[] result = new int[_topK.size()];
+        for (int i = 0; i < result.length; i++) result[i] = _topK.getId(i);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private double recall(EmbeddingMatrix _matrix, int[] _rows, PqIndex _index, int _k) {
+        int found = 0;
+        for (int q = 0; q < 100; q++) {
+            float[] myQuery = unitRow(_matrix, _rows[q * 11]);
+
+            HeapSort.TopK myExact = new HeapSort.TopK(_k);
+            for (int row : _rows) myExact.offer(row, _matrix.cosine(row, myQuery, SimilarityKernels.scalar()));
+            HeapSort.TopK myApproximate = new HeapSort.TopK(_k);
+            _index.search(myQuery, myApproximate);
+
+            int[] myTruth = ids(myExact);
+            for (int id : ids(myApproximate)) if (Arrays.binarySearch(myTruth, id) >= 0) found++;
+        }
+        return found / (100.0 * _k);
+    }
+
+    @Test
+    void build() {
+        EmbeddingMatrix myMatrix = createMatrix(2000, 16);
+        int[] myRows = IntStream.range(0, 2000).toArray();
+        PqIndex myIndex = PqIndex.build(myMatrix, myRows);
+
+        assertEquals(4, myIndex.getSubspaces());
+        assertEquals(2000, myIndex.size());
+        assertEquals(2000 * 4 + 256 * 16 * 4, myIndex.getCodeBytes());
+        assertEquals(100, myIndex.getRerank());
+        assertThrows(IllegalArgumentException.class, () -> PqIndex.build(myMatrix, myRows, 17));
+    }
+
+    @Test
+    void decode() {
+        EmbeddingMatrix myMatrix = createMatrix(2000, 16);
+        PqIndex myIndex = PqIndex.build(myMatrix, IntStream.range(0, 2000).toArray(), 8);
+
+        //the decoded rows point in about the same direction as the rows
+        float[] myDecoded = new float[16];
+        double mySum = 0;
+        for (int i = 0; i < 100; i++) {
+            myIndex.decode(i, myDecoded);
+            double myNorm = 0;
+            for (float x : myDecoded) myNorm += x * x;
+            mySum += myMatrix.cosine(i, myDecoded, SimilarityKernels.scalar()) / Math.sqrt(myNorm);
+        }
+        assertTrue(mySum / 100 > 0.8);
+    }
+
+    @Test
+    void search_Rerank() {
+        EmbeddingMatrix myMatrix = createMatrix(3000, 16);
+        int[] myRows = IntStream.range(0, 3000).toArray();
+        PqIndex myIndex = PqIndex.build(myMatrix, myRows, 8);
+
+        myIndex.setRerank(0);
+        double myPlain = recall(myMatrix, myRows, myIndex, 10);
+        myIndex.setRerank(100);
+        double myReranked = recall(myMatrix, myRows, myIndex, 10);
+        assertTrue(myReranked >= myPlain);
+        assertTrue(myReranked >= 0.9);
+    }
+
+    @Test
+    void search_Mapped() throws IOException {
+        Path myPath = myDir.resolve("random.bin");
+        EmbeddingFile.write(myPath, Collections.nCopies(3000, "w"), createMatrix(3000, 16));
+        EmbeddingMatrix myMatrix = EmbeddingFile.open(myPath).getMatrix();
+        int[] myRows = IntStream.range(0, 3000).toArray();
+
+        //the rows are re-ranked from the mapped file rather than from heap copies
+        PqIndex myIndex = PqIndex.build(myMatrix, myRows, 8);
+        assertTrue(myMatrix.isReadOnly());
+        assertTrue(recall(myMatrix, myRows, myIndex, 10) >= 0.9);
+    }
+
+    @Test
+    void search_Excluded() {
+        EmbeddingMatrix myMatrix = createMatrix(1000, 8);
+        PqIndex myIndex = PqIndex.build(myMatrix, IntStream.range(0, 1000).toArray());
+
+        for (int rerank : new int[]{0, 20}) {
+            myIndex.setRerank(rerank);
+            HeapSort.TopK myTopK = new HeapSort.TopK(5);
+            myTopK.setExcluded(42);
+            myIndex.search(unitRow(myMatrix, 42), myTopK);
+
+            assertEquals(5, myTopK.size());
+            for (int id : ids(myTopK)) assertTrue(id != 42);
+        }
+    }
+
+    @Test
+    void search_Empty() {
+        PqIndex myIndex = PqIndex.build(createMatrix(10, 4), new int[0]);
+        HeapSort.TopK myTopK = new HeapSort.TopK(5);
+        myIndex.search(new float[4], myTopK);
+        assertEquals(0, myTopK.size());
+    }
+
+    @Test
+    void withRows() {
+        EmbeddingMatrix myMatrix = createMatrix(5000, 16);
+        PqIndex myIndex = PqIndex.build(myMatrix, IntStream.range(0, 4000).toArray(), 8);
+        myIndex.setRerank(100);
+        PqIndex myExtended = myIndex.withRows(myMatrix, IntStream.range(4000, 5000).toArray());
+        assertEquals(4000, myIndex.size());
+        assertEquals(5000, myExtended.size());
+
+        //the new rows are encoded with the trained codebooks
+        int[] myRows = IntStream.range(0, 5000).map(i -> 4999 - i).toArray();
+        assertTrue(recall(myMatrix, myRows, myExtended, 10) >= 0.9);
+
+        //deleted rows are skipped wherever they are found
+        long[] myDeleted = new long[(5000 + 63) / 64];
+        for (int row = 0; row < 5000; row += 2) myDeleted[row >>> 6] |= 1L << row;
+        for (int q = 0; q < 20; q++) {
+            HeapSort.TopK myTopK = new HeapSort.TopK(10);
+            myTopK.setDeleted(myDeleted);
+            myExtended.search(unitRow(myMatrix, 4000 + q), myTopK);
+            assertEquals(10, myTopK.size());
+            for (int id : ids(myTopK)) assertTrue(id % 2 == 1);
+        }
+    }
+}
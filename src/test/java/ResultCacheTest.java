@@ -0,0 +1,73 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class ResultCacheTest {
+    @Test
+    void computeIfAbsent() {
+        ResultCache<String, String> myCache = new ResultCache<>(1000, String::length);
+        AtomicInteger myLoads = new AtomicInteger();
+
+        assertEquals("abc", myCache.computeIfAbsent("abc", key -> { myLoads.incrementAndGet(); return key; }));
+        assertEquals("abc", myCache.computeIfAbsent("abc", key -> { myLoads.incrementAndGet(); return key; }));
+        assertEquals(1, myLoads.get());
+        assertEquals(1, myCache.getHits());
+        assertEquals(1, myCache.getMisses());
+        assertEquals(1, myCache.size());
+        assertEquals(3, myCache.getWeight());
+
+        assertNull(myCache.get("xyz"));
+        assertEquals(2, myCache.getMisses());
+        assertThrows(IllegalArgumentException.class, () -> new ResultCache<String, String>(0, String::length));
+    }
+
+    @Test
+    void evictLeastRecentlyUsed() {
+        //keys whose hash codes land in the same segment, each of weight 10 with 3 fitting in a segment
+        ResultCache<Integer, List<Integer>> myCache = new ResultCache<>(16 * 30, List::size);
+        List<Integer> myValue = IntStream.range(0, 10).boxed().toList();
+
+        myCache.put(0, myValue);
+        myCache.put(16, myValue);
+        myCache.put(32, myValue);
+        assertSame(myValue, myCache.get(0)); //0 is now used more recently than 16
+
+        myCache.put(48, myValue);
+        assertEquals(1, myCache.getEvictions());
+        assertNull(myCache.get(16));
+        assertSame(myValue, myCache.get(0));
+        assertSame(myValue, myCache.get(32));
+        assertSame(myValue, myCache.get(48));
+        assertEquals(30, myCache.getWeight());
+
+        //a value heavier than a segment's share is never cached
+        myCache.put(64, IntStream.range(0, 31).boxed().toList());
+        assertNull(myCache.get(64));
+        assertEquals(3, myCache.size());
+
+        myCache.clear();
+        assertEquals(0, myCache.size());
+        assertEquals(0, myCache.getWeight());
+    }
+
+    @Test
+    void concurrent() {
+        ResultCache<Integer, Integer> myCache = new ResultCache<>(160, value -> 1);
+        IntStream.range(0, 100000).parallel()
+                .forEach(i -> assertEquals(i % 500, myCache.computeIfAbsent(i % 500, key -> key)));
+
+        assertTrue(myCache.getWeight() <= 160);
+        assertEquals(100000, myCache.getHits() + myCache.getMisses());
+        //two threads missing the same key both put it, and the second put replaces rather than evicts
+        assertTrue(myCache.getEvictions() <= myCache.getMisses() - myCache.size());
+    }
+}
@@ -0,0 +1,227 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class RowFilterTest {
+    @TempDir
+    Path myDir;
+
+    private final List<String> listWords = new ArrayList<>();
+    private final List<double[]> listVectors = new ArrayList<>();
+
+    /**
+     * Rows of words, with "the" and "and" as stop words
+     */
+    private static RowFilter.Rows rows(Object _key, List<String> _words) {
+        return new RowFilter.Rows() {
+            @Override
+            public Object getKey() { return _key; }
+
+            @Override
+            public int size() { return _words.size(); }
+
+            @Override
+            public String wordOf(int _row) { return _words.get(_row); }
+
+            @Override
+            public boolean isStopword(int _row) { return Set.of("the", "and").contains(_words.get(_row)); }
+        };
+    }
+
+    /**
+     * Writes the words error, the, and, Paris, then 2000 random 8-dimensional words w0..w1999 as a binary embedding
+     * file, keeping the words and vectors for the brute-force search
+     */
+    private Path writeRandom() throws IOException {
+        Random myRandom = new Random(11);
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(8);
+        List<String> myWords = new ArrayList<>(List.of("error", "the", "and", "Paris"));
+        for (int i = 0; i < 2000; i++) myWords.add("w" + i);
+
+        for (String word : myWords) {
+            double[] row = new double[8];
+            for (int j = 0; j < 8; j++) row[j] = myRandom.nextGaussian();
+            listWords.add(word);
+            listVectors.add(row);
+            myMatrix.addRow(row);
+        }
+
+        Path myPath = myDir.resolve("random.bin");
+        EmbeddingFile.write(myPath, myWords, myMatrix);
+        return myPath;
+    }
+
+    private SemanticMain semanticMain() throws IOException {
+        SemanticMain mySM = new SemanticMain(writeRandom());
+        mySM.setModel(Toolkit.getModel());
+        return mySM;
+    }
+
+    /**
+     * @return the _k words nearest to a word among the rows a filter keeps, scoring every row
+     */
+    private List<String> bruteForce(String _word, int _k, RowFilter _filter, RowFilter.Rows _rows) {
+        double[] myQuery = listVectors.get(listWords.indexOf(_word));
+        long[] myBits = _filter.bits(_rows);
+        return IntStream.range(0, listWords.size())
+                .filter(row -> (myBits[row >>> 6] & 1L << row) != 0 && !listWords.get(row).equals(_word))
+                .boxed()
+                .sorted(Comparator.comparingDouble(row -> -cosine(myQuery, listVectors.get(row))))
+                .limit(_k)
+                .map(listWords::get)
+                .collect(Collectors.toList());
+    }
+
+    private static double cosine(double[] _a, double[] _b) {
+        double dot = 0, a = 0, b = 0;
+        for (int i = 0; i < _a.length; i++) {
+            dot += _a[i] * _b[i];
+            a += _a[i] * _a[i];
+            b += _b[i] * _b[i];
+        }
+
+        return dot / Math.sqrt(a * b);
+    }
+
+    private static List<String> words(List<CosSimilarityPair> _pairs) {
+        return _pairs.stream().map(CosSimilarityPair::getWord2).collect(Collectors.toList());
+    }
+
+    @Test
+    void bits() {
+        RowFilter.Rows myRows = rows(new Object(), List.of("error", "the", "Paris", "and", "london"));
+        assertArrayEquals(new long[]{0b00111}, RowFilter.rankBelow(3).bits(myRows));
+        assertArrayEquals(new long[]{0b11011}, RowFilter.lowercase().bits(myRows));
+        assertArrayEquals(new long[]{0b01010}, RowFilter.stopwords().bits(myRows));
+        assertArrayEquals(new long[]{0b10100}, RowFilter.words(List.of("Paris", "london", "rome")).bits(myRows));
+        assertArrayEquals(new long[]{0b11111}, RowFilter.all().bits(myRows));
+        assertEquals(2, RowFilter.stopwords().count(myRows));
+    }
+
+    @Test
+    void and_Or_Not() {
+        List<String> myWords = IntStream.range(0, 70).mapToObj(i -> i % 2 == 0 ? "w" + i : "W" + i)
+                .collect(Collectors.toList());
+        RowFilter.Rows myRows = rows(new Object(), myWords);
+        RowFilter myLower = RowFilter.lowercase();
+        RowFilter myTop = RowFilter.rankBelow(10);
+
+        assertEquals(5, myLower.and(myTop).count(myRows));
+        assertEquals(40, myLower.or(myTop).count(myRows));
+        assertEquals(35, myLower.not().count(myRows));
+        assertEquals(0, myLower.not().bits(myRows)[1] >>> 6); //no rows past the last one
+        assertEquals(70, myLower.or(myLower.not()).count(myRows));
+        assertEquals("(lowercase and not rank<10)", myLower.and(myTop.not()).toString());
+    }
+
+    @Test
+    void compile_Incremental() {
+        AtomicInteger myCalls = new AtomicInteger();
+        RowFilter myFilter = RowFilter.matching("short", word -> myCalls.incrementAndGet() > 0 && word.length() < 3);
+        List<String> myWords = new ArrayList<>();
+        for (int i = 0; i < 100; i++) myWords.add("w" + i);
+        Object myKey = new Object();
+
+        assertEquals(10, myFilter.count(rows(myKey, myWords)));
+        assertEquals(100, myCalls.get());
+        long[] myBits = myFilter.bits(rows(myKey, myWords));
+        assertSame(myBits, myFilter.bits(rows(myKey, myWords))); //compiled once for the same rows
+        assertEquals(100, myCalls.get());
+
+        //new rows under the same key only test the new rows
+        myWords.add("x");
+        myWords.add("long");
+        assertEquals(11, myFilter.count(rows(myKey, myWords)));
+        assertEquals(102, myCalls.get());
+
+        //other rows are compiled from scratch
+        assertEquals(11, myFilter.count(rows(new Object(), myWords)));
+        assertEquals(204, myCalls.get());
+    }
+
+    @Test
+    void WordsNearest_Filtered() throws IOException {
+        SemanticMain mySM = semanticMain();
+        RowFilter.Rows myRows = rows(new Object(), listWords);
+        RowFilter myBroad = RowFilter.rankBelow(1500).and(RowFilter.words(List.of("w10", "w11")).not());
+        RowFilter myNarrow = RowFilter.rankBelow(150).and(RowFilter.lowercase());
+
+        for (SearchMode mode : new SearchMode[]{SearchMode.EXACT, SearchMode.IVF, SearchMode.HNSW}) {
+            mySM.setSearchMode(mode);
+
+            //a filter keeping few rows is scanned exactly in every mode
+            assertEquals(bruteForce("w3", 10, myNarrow, myRows), words(mySM.WordsNearest("w3", 10, myNarrow)),
+                    mode.name());
+
+            //a filter just wide enough to be left to the index still fills every list
+            RowFilter myThin = RowFilter.rankBelow(listWords.size() / 7);
+            for (int q = 0; q < 50; q++)
+                assertEquals(10, mySM.WordsNearest("w" + (q * 37), 10, myThin).size(), mode + " w" + (q * 37));
+
+            List<String> myResult = words(mySM.WordsNearest("w3", 10, myBroad));
+            if (mode == SearchMode.EXACT) assertEquals(bruteForce("w3", 10, myBroad, myRows), myResult);
+            assertEquals(10, myResult.size());
+            for (String word : myResult) {
+                int row = listWords.indexOf(word);
+                assertTrue(row < 1500 && !word.equals("w10") && !word.equals("w11"), mode + " " + word);
+            }
+        }
+    }
+
+    @Test
+    void WordsNearest_Stopwords() throws IOException {
+        SemanticMain mySM = semanticMain();
+        Vector myThe = new Vector(listVectors.get(1));
+
+        //stop words are never searched without a filter, and can be with one
+        assertTrue(words(mySM.WordsNearest(myThe, 50)).stream().noneMatch(word -> word.equals("and")));
+        assertEquals(List.of("and"), words(mySM.WordsNearest("the", 5, RowFilter.stopwords())));
+        assertFalse(words(mySM.WordsNearest(myThe, 5, RowFilter.stopwords())).contains("the")); //equal to the input
+
+        List<String> myResult = words(mySM.WordsNearest("w3", 2003, RowFilter.lowercase().and(RowFilter.stopwords()
+                .not())));
+        assertEquals(2000, myResult.size()); //every word but w3, the, and, Paris
+        assertTrue(myResult.contains("error") && !myResult.contains("Paris"));
+    }
+
+    @Test
+    void Batch_Analogies_AddWord() throws IOException {
+        SemanticMain mySM = semanticMain();
+        mySM.setSearchMode(SearchMode.IVF);
+        RowFilter myFilter = RowFilter.rankBelow(200);
+        RowFilter.Rows myRows = rows(new Object(), listWords);
+
+        List<List<CosSimilarityPair>> myBatch = mySM.WordsNearestBatch(List.of("w3", "w4"), 5, myFilter);
+        assertEquals(bruteForce("w3", 5, myFilter, myRows), words(myBatch.get(0)));
+        assertEquals(bruteForce("w4", 5, myFilter, myRows), words(myBatch.get(1)));
+
+        assertTrue(words(mySM.LogicalAnalogies("w1", "w2", "w3", 10, myFilter)).stream()
+                .allMatch(word -> listWords.indexOf(word) < 200));
+
+        //a word added after the filter was compiled is kept by it, and a removed one isn't
+        RowFilter myNew = RowFilter.words(List.of("new", "w5"));
+        assertEquals(List.of("w5"), words(mySM.WordsNearest("w3", 5, myNew)));
+        mySM.addWord("new", listVectors.get(3));
+        assertEquals(List.of("new", "w5"), words(mySM.WordsNearest("w3", 5, myNew)).stream().sorted()
+                .collect(Collectors.toList()));
+        mySM.removeWord("w5");
+        assertEquals(List.of("new"), words(mySM.WordsNearest("w3", 5, myNew)));
+    }
+}
@@ -0,0 +1,128 @@
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class SemanticEventsTest {
+    @TempDir
+    Path myDir;
+
+    /**
+     * Writes 2000 random 8-dimensional words w0..w1999 as a binary embedding file
+     */
+    private Path writeRandom() throws IOException {
+        Random myRandom = new Random(7);
+        List<String> myWords = new ArrayList<>();
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(8);
+        for (int i = 0; i < 2000; i++) {
+            double[] row = new double[8];
+            for (int j = 0; j < 8; j++) row[j] = myRandom.nextGaussian();
+            myWords.add("w" + i);
+            myMatrix.addRow(row);
+        }
+
+        Path myPath = myDir.resolve("random.bin");
+        EmbeddingFile.write(myPath, myWords, myMatrix);
+        return myPath;
+    }
+
+    private List<RecordedEvent> events(Recording _recording, String _name) throws IOException {
+        Path myFile = myDir.resolve("recording.jfr");
+        _recording.dump(myFile);
+        return RecordingFile.readAllEvents(myFile).stream()
+                .filter(event -> event.getEventType().getName().equals(_name)).collect(Collectors.toList());
+    }
+
+    @Test
+    void beginQuery() {
+        assertNull(SemanticEvents.beginQuery("nearest", 5, 1)); //nothing is created while no recording wants it
+
+        try (Recording myRecording = new Recording()) {
+            myRecording.enable(SemanticEvents.Query.class).withoutThreshold();
+            myRecording.start();
+            assertEquals("nearest", SemanticEvents.beginQuery("nearest", 5, 1).strKind);
+        }
+    }
+
+    @Test
+    void modelLoad() throws IOException {
+        Path myPath = writeRandom();
+        try (Recording myRecording = new Recording()) {
+            myRecording.enable(SemanticEvents.ModelLoad.class).withoutThreshold();
+            myRecording.start();
+            EmbeddingModel.load(myPath);
+            myRecording.stop();
+
+            List<RecordedEvent> myEvents = events(myRecording, "semantic.ModelLoad");
+            assertEquals(1, myEvents.size());
+            assertEquals("binary", myEvents.get(0).getString("strFormat"));
+            assertEquals(2000, myEvents.get(0).getInt("intRows"));
+            assertEquals(8, myEvents.get(0).getInt("intDimensions"));
+            assertEquals(Files.size(myPath), myEvents.get(0).getLong("lngBytes"));
+        }
+    }
+
+    @Test
+    void query() throws IOException {
+        SemanticMain mySM = new SemanticMain(writeRandom());
+        mySM.setModel(Toolkit.getModel());
+        mySM.setResultCache(1000);
+
+        try (Recording myRecording = new Recording()) {
+            myRecording.enable(SemanticEvents.Query.class).withoutThreshold();
+            myRecording.enable(SemanticEvents.IndexBuild.class).withoutThreshold();
+            myRecording.start();
+            mySM.WordsNearest("w1", 5);
+            mySM.WordsNearest("w1", 5); //answered from the cache
+            mySM.WordsNearestBatch(List.of("w2", "w3"), 4);
+            mySM.setSearchMode(SearchMode.IVF);
+            mySM.LogicalAnalogies("w1", "w2", "w3", 3);
+            myRecording.stop();
+
+            List<RecordedEvent> myQueries = events(myRecording, "semantic.Query");
+            assertEquals(List.of("nearest", "nearest", "batch", "analogy"), myQueries.stream()
+                    .map(event -> event.getString("strKind")).collect(Collectors.toList()));
+
+            RecordedEvent myNearest = myQueries.get(0);
+            assertEquals("w1", myNearest.getString("strWords"));
+            assertEquals(5, myNearest.getInt("intK"));
+            assertEquals(2000, myNearest.getLong("lngScanned"));
+            assertEquals("exact", myNearest.getString("strIndexMode"));
+            assertFalse(myNearest.getBoolean("boolCacheHit"));
+            assertEquals(5, myNearest.getInt("intResults"));
+
+            assertTrue(myQueries.get(1).getBoolean("boolCacheHit"));
+            assertEquals(0, myQueries.get(1).getLong("lngScanned"));
+
+            assertEquals(2, myQueries.get(2).getInt("intQueries"));
+            assertEquals(4000, myQueries.get(2).getLong("lngScanned"));
+            assertEquals(8, myQueries.get(2).getInt("intResults"));
+
+            //the index only scores the rows of the clusters it probes
+            RecordedEvent myAnalogy = myQueries.get(3);
+            assertEquals("w1,w2,w3", myAnalogy.getString("strWords"));
+            assertTrue(myAnalogy.getString("strIndexMode").startsWith("ivf"));
+            assertTrue(myAnalogy.getLong("lngScanned") > 0 && myAnalogy.getLong("lngScanned") < 2000);
+
+            List<RecordedEvent> myBuilds = events(myRecording, "semantic.IndexBuild");
+            assertEquals(1, myBuilds.size());
+            assertEquals("IVF", myBuilds.get(0).getString("strMode"));
+            assertEquals(2000, myBuilds.get(0).getInt("intRows"));
+        }
+    }
+}
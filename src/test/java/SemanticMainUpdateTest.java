@@ -0,0 +1,308 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class SemanticMainUpdateTest {
+    @TempDir
+    Path myDir;
+
+    private String GetString(List<CosSimilarityPair> _list) {
+        StringBuilder mySB = new StringBuilder();
+        if (_list.size() > 0) {
+            for (int i = 0; i < Math.min(10, _list.size()); i++) {
+                mySB.append(_list.get(i).getWord2()).append(",")
+                        .append(String.format("%.5f", _list.get(i).getCosineSimilarity())).append("\n");
+            }
+            mySB.delete(mySB.length() - 1, mySB.length());
+        }
+        return mySB.toString();
+    }
+
+    @Test
+    void ResultCache() throws IOException {
+        SemanticMain mySM = createRandom(SearchMode.EXACT);
+        mySM.setResultCache(10000);
+        List<CosSimilarityPair> myFirst = mySM.WordsNearest("w7", 10);
+        String myNearest = myFirst.get(0).getWord2();
+        assertEquals(GetString(myFirst), GetString(mySM.WordsNearest("w7", 10)));
+        assertEquals(GetString(mySM.LogicalAnalogies("w1", "w2", "w3", 5)),
+                GetString(mySM.LogicalAnalogies("w1", "w2", "w3", 5)));
+        assertEquals(2, mySM.getResultCache().getHits());
+        assertEquals(2, mySM.getResultCache().getMisses());
+
+        myFirst.get(0).setWord2("changed"); //the cache hands out copies
+        assertEquals(myNearest, mySM.WordsNearest("w7", 10).get(0).getWord2());
+
+        mySM.listGlove = mySM.CreateGloveList(); //a new list of gloves empties the cache
+        mySM.WordsNearest("w7", 10);
+        assertEquals(3, mySM.getResultCache().getMisses());
+        assertEquals(1, mySM.getResultCache().size());
+    }
+
+
+    /**
+     * Starts a SemanticMain from a binary embedding file of 3000 random words w0..w2999, so that the words it finds
+     * don't depend on the glove vectors
+     */
+    private SemanticMain createRandom(SearchMode _mode) throws IOException {
+        SemanticMain mySemantic = new SemanticMain(writeRandom("random.bin", "w", 42));
+        mySemantic.listVocabulary = Toolkit.getListVocabulary();
+        mySemantic.listVectors = Toolkit.getlistVectors();
+        mySemantic.listGlove = mySemantic.CreateGloveList();
+        mySemantic.setSearchMode(_mode);
+        mySemantic.setIndexSnapshot(myDir.resolve(_mode + ".idx"));
+        return mySemantic;
+    }
+
+    /**
+     * Writes a binary embedding file of 3000 random 8-dimensional words, named by the prefix and their row
+     */
+    private Path writeRandom(String _name, String _prefix, long _seed) throws IOException {
+        Random myRandom = new Random(_seed);
+        List<String> myWords = new ArrayList<>();
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(8);
+        for (int i = 0; i < 3000; i++) {
+            double[] row = new double[8];
+            for (int j = 0; j < 8; j++) row[j] = myRandom.nextGaussian();
+            myWords.add(_prefix + i);
+            myMatrix.addRow(row);
+        }
+
+        Path myPath = myDir.resolve(_name);
+        EmbeddingFile.write(myPath, myWords, myMatrix);
+        return myPath;
+    }
+
+    private double[] scaled(double[] _v, double _factor) {
+        double[] result = new double[_v.length];
+        for (int i = 0; i < _v.length; i++) result[i] = _v[i] * _factor;
+        return result;
+    }
+
+    @Test
+    void addWord_UpdateWord_RemoveWord() throws IOException {
+        for (SearchMode mode : new SearchMode[]{SearchMode.EXACT, SearchMode.HNSW}) {
+            SemanticMain mySemantic = createRandom(mode);
+            mySemantic.setResultCache(10000);
+            List<double[]> myVectors = mySemantic.listVectors;
+            assertEquals("w7", mySemantic.WordsNearest("w7", 1).get(0).getWord1());
+
+            //a word pointing the same way as w7 is its nearest word, and w7 is the nearest word of the new word
+            mySemantic.addWord("twin", scaled(myVectors.get(7), 2));
+            assertEquals("twin,1.00000", GetString(mySemantic.WordsNearest("w7", 1)));
+            assertEquals("w7,1.00000", GetString(mySemantic.WordsNearest("twin", 1)));
+            if (mode == SearchMode.EXACT) assertEquals(3000, mySemantic.WordsNearest("w7").size());
+            assertEquals(3000, mySemantic.listGlove.size()); //the lists are left as they are
+
+            mySemantic.updateWord("twin", scaled(myVectors.get(9), 3));
+            assertEquals("twin,1.00000", GetString(mySemantic.WordsNearest("w9", 1)));
+            assertNotEquals("twin", mySemantic.WordsNearest("w7", 1).get(0).getWord2());
+            if (mode == SearchMode.EXACT) assertEquals(3000, mySemantic.WordsNearest("w7").size());
+
+            assertTrue(mySemantic.removeWord("twin"));
+            assertFalse(mySemantic.removeWord("twin"));
+            assertNotEquals("twin", mySemantic.WordsNearest("w9", 1).get(0).getWord2());
+            assertEquals("", GetString(mySemantic.LogicalAnalogies("twin", "w1", "w2", 5)));
+
+            assertTrue(mySemantic.removeWord("w9"));
+            for (CosSimilarityPair pair : mySemantic.WordsNearest("w8")) assertNotEquals("w9", pair.getWord2());
+            if (mode == SearchMode.EXACT) assertEquals(2998, mySemantic.WordsNearest("w8").size());
+            List<List<CosSimilarityPair>> myBatch = mySemantic.WordsNearestBatchKnown(List.of("w9", "w8"), 3);
+            assertNull(myBatch.get(0)); //removed words are unknown rather than searched as "error"
+            assertEquals(GetString(mySemantic.WordsNearest("w8", 3)), GetString(myBatch.get(1)));
+
+            assertThrows(IllegalArgumentException.class, () -> mySemantic.addWord("w7", new double[8]));
+            assertThrows(IllegalArgumentException.class, () -> mySemantic.updateWord("w9", new double[8]));
+            assertThrows(IllegalArgumentException.class, () -> mySemantic.addWord("short", new double[7]));
+
+            //folding the updates into the vocabulary and the index changes nothing that can be seen
+            mySemantic.addWord("w9", scaled(myVectors.get(5), 2));
+            mySemantic.compact();
+            assertEquals("w9,1.00000", GetString(mySemantic.WordsNearest("w5", 1)));
+            assertEquals("w5,1.00000", GetString(mySemantic.WordsNearest("w9", 1)));
+            if (mode == SearchMode.EXACT) assertEquals(2999, mySemantic.WordsNearest("w8").size());
+            assertEquals(5, mySemantic.LogicalAnalogies("w9", "w1", "w2", 5).size());
+        }
+    }
+
+    @Test
+    void addWord_Concurrent() throws Exception {
+        SemanticMain mySemantic = createRandom(SearchMode.HNSW);
+        List<double[]> myVectors = mySemantic.listVectors;
+        AtomicBoolean myDone = new AtomicBoolean();
+        AtomicReference<Throwable> myFailure = new AtomicReference<>();
+
+        //readers keep searching while the writer adds a twin of every word, which compacts in the background
+        Thread[] myReaders = new Thread[2];
+        for (int t = 0; t < myReaders.length; t++) {
+            int seed = t;
+            myReaders[t] = new Thread(() -> {
+                Random myRandom = new Random(seed);
+                try {
+                    while (!myDone.get()) {
+                        List<CosSimilarityPair> myPairs = mySemantic.WordsNearest("w" + myRandom.nextInt(3000), 10);
+                        if (myPairs.size() != 10) throw new AssertionError("found " + myPairs.size() + " words");
+                    }
+                } catch (Throwable e) {
+                    myFailure.set(e);
+                }
+            });
+            myReaders[t].start();
+        }
+
+        for (int i = 0; i < 3000; i++) mySemantic.addWord("twin" + i, scaled(myVectors.get(i), 2));
+        myDone.set(true);
+        for (Thread reader : myReaders) reader.join();
+        assertNull(myFailure.get());
+
+        mySemantic.compact();
+        for (int i = 0; i < 3000; i += 100)
+            assertEquals("twin" + i, mySemantic.WordsNearest("w" + i, 1).get(0).getWord2());
+    }
+
+    @Test
+    void setModel() throws IOException {
+        SemanticMain mySemantic = createRandom(SearchMode.HNSW);
+        mySemantic.setResultCache(10000);
+        mySemantic.addWord("twin", scaled(mySemantic.listVectors.get(7), 2));
+        assertEquals("twin", mySemantic.WordsNearest("w7", 1).get(0).getWord2());
+
+        EmbeddingModel myModel = EmbeddingModel.load(writeRandom("other.bin", "v", 7));
+        mySemantic.setModel(myModel);
+        assertSame(myModel.getVocabulary(), mySemantic.listVocabulary);
+        assertSame(myModel.getVectors(), mySemantic.listVectors);
+        assertEquals(3000, mySemantic.listGlove.size());
+        assertEquals(0, mySemantic.getResultCache().size());
+
+        //the words of the old model and the words added to it are gone
+        assertTrue(mySemantic.WordsNearest("v7", 10).stream().allMatch(pair -> pair.getWord2().startsWith("v")));
+        assertEquals("", GetString(mySemantic.LogicalAnalogies("twin", "v1", "v2", 5)));
+        assertEquals(5, mySemantic.LogicalAnalogies("v3", "v1", "v2", 5).size());
+        assertNotNull(mySemantic.getIndex());
+        assertEquals(3000, mySemantic.addWord("twin", scaled(myModel.getVectors().get(7), 2)));
+    }
+
+    @Test
+    void setModel_AfterAddWord() throws IOException {
+        //a model on the heap, whose matrix the snapshots could append to
+        EmbeddingModel myLoaded = EmbeddingModel.load(writeRandom("heap.bin", "w", 42));
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(8);
+        for (double[] row : myLoaded.getVectors()) myMatrix.addRow(row);
+        EmbeddingModel myModel = EmbeddingModel.of(myLoaded.getVocabulary(), myMatrix);
+
+        SemanticMain mySemantic = createRandom(SearchMode.EXACT);
+        mySemantic.setModel(myModel);
+        mySemantic.addWord("twin", scaled(myModel.getVectors().get(7), 2));
+        assertEquals(3000, myMatrix.getRowCount()); //the added word is not written into the model
+
+        //the same model swapped in again starts from its own rows, without the added word
+        mySemantic.setModel(myModel);
+        RowFilter myFilter = RowFilter.rankBelow(100);
+        assertEquals(10, mySemantic.WordsNearest("w7", 10, myFilter).size());
+        assertEquals("", GetString(mySemantic.WordsNearest("w7", 1, RowFilter.words(List.of("twin")))));
+        assertEquals(3000, mySemantic.addWord("twin", scaled(myModel.getVectors().get(7), 2)));
+        assertEquals("twin", mySemantic.WordsNearest("w7", 1, RowFilter.words(List.of("twin"))).get(0).getWord2());
+    }
+
+    @Test
+    void setSearchMode_Pq() throws IOException {
+        //a model on the heap, as loaded from a CSV
+        EmbeddingModel myLoaded = EmbeddingModel.load(writeRandom("heap.bin", "w", 42));
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(8);
+        for (double[] row : myLoaded.getVectors()) myMatrix.addRow(row);
+        EmbeddingModel myModel = EmbeddingModel.of(myLoaded.getVocabulary(), myMatrix);
+
+        SemanticMain mySemantic = createRandom(SearchMode.EXACT);
+        mySemantic.setModel(myModel);
+        mySemantic.addWord("twin", scaled(myModel.getVectors().get(7), 2));
+        mySemantic.removeWord("w9");
+        String myExpected = GetString(mySemantic.WordsNearest("w7", 10));
+
+        //the PQ mode moves the rows to a mapped file, with the words changed since
+        mySemantic.setSearchMode(SearchMode.PQ);
+        assertTrue(EmbeddingMatrix.of(mySemantic.listVectors).isOffHeap());
+        assertEquals(3000, mySemantic.listVocabulary.size());
+        assertTrue(mySemantic.listVocabulary.contains("twin"));
+        assertFalse(mySemantic.listVocabulary.contains("w9"));
+        assertEquals("twin", mySemantic.WordsNearest("w7", 1).get(0).getWord2());
+
+        mySemantic.setSearchMode(SearchMode.EXACT);
+        assertEquals(myExpected, GetString(mySemantic.WordsNearest("w7", 10)));
+
+        //a heap model swapped in while in PQ mode is mapped too
+        mySemantic.setSearchMode(SearchMode.PQ);
+        mySemantic.setModel(myModel);
+        assertTrue(EmbeddingMatrix.of(mySemantic.listVectors).isOffHeap());
+        assertEquals(10, mySemantic.WordsNearest("w7", 10).size());
+        assertFalse(mySemantic.listVocabulary.contains("twin"));
+    }
+
+    @Test
+    void reload_Concurrent() throws Exception {
+        SemanticMain mySemantic = createRandom(SearchMode.HNSW);
+        Path myOther = writeRandom("other.bin", "v", 7);
+        AtomicBoolean myDone = new AtomicBoolean();
+        AtomicReference<Throwable> myFailure = new AtomicReference<>();
+
+        //every search runs against one model, so its words never mix the old and the new vocabulary
+        Thread[] myReaders = new Thread[2];
+        for (int t = 0; t < myReaders.length; t++) {
+            int seed = t;
+            myReaders[t] = new Thread(() -> {
+                Random myRandom = new Random(seed);
+                try {
+                    while (!myDone.get()) {
+                        Vector myQuery = new Vector(new double[]{myRandom.nextGaussian(), myRandom.nextGaussian(), 1,
+                                0, 0, 0, 0, 0});
+                        List<CosSimilarityPair> myPairs = mySemantic.WordsNearest(myQuery, 10);
+                        if (myPairs.size() != 10) throw new AssertionError("found " + myPairs.size() + " words");
+                        String myPrefix = myPairs.get(0).getWord2().substring(0, 1);
+                        for (CosSimilarityPair pair : myPairs)
+                            if (!pair.getWord2().startsWith(myPrefix)) throw new AssertionError("mixed models");
+                    }
+                } catch (Throwable e) {
+                    myFailure.set(e);
+                }
+            });
+            myReaders[t].start();
+        }
+
+        mySemantic.reload(myOther).get();
+        assertEquals("v", mySemantic.WordsNearest("v5", 1).get(0).getWord2().substring(0, 1));
+        mySemantic.reload(myDir.resolve("random.bin")).get();
+        assertEquals("w", mySemantic.WordsNearest("w5", 1).get(0).getWord2().substring(0, 1));
+        myDone.set(true);
+        for (Thread reader : myReaders) reader.join();
+        assertNull(myFailure.get());
+
+        //the index of a reloaded file is kept next to it
+        mySemantic.setIndexSnapshot(null);
+        mySemantic.reload(myOther).get();
+        assertTrue(Files.exists(IndexFile.pathFor(myOther, SearchMode.HNSW.name())));
+
+        ExecutionException myError = assertThrows(ExecutionException.class,
+                () -> mySemantic.reload(myDir.resolve("missing.bin")).get());
+        assertTrue(myError.getCause() instanceof UncheckedIOException);
+        assertEquals("v", mySemantic.WordsNearest("v5", 1).get(0).getWord2().substring(0, 1));
+    }
+}
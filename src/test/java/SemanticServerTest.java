@@ -0,0 +1,198 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class SemanticServerTest {
+    @TempDir
+    Path myDir;
+    private SemanticMain mySM;
+    private SemanticServer myServer;
+    private final HttpClient myClient = HttpClient.newHttpClient();
+
+    /**
+     * Serves 3000 random 8-dimensional words w0..w2999 on a free port of localhost
+     */
+    @BeforeEach
+    void SetUp() throws IOException {
+        Random myRandom = new Random(42);
+        List<String> myWords = new ArrayList<>();
+        EmbeddingMatrix myMatrix = new EmbeddingMatrix(8);
+        for (int i = 0; i < 3000; i++) {
+            double[] row = new double[8];
+            for (int j = 0; j < 8; j++) row[j] = myRandom.nextGaussian();
+            myWords.add("w" + i);
+            myMatrix.addRow(row);
+        }
+
+        Path myPath = myDir.resolve("random.bin");
+        EmbeddingFile.write(myPath, myWords, myMatrix);
+        mySM = new SemanticMain(myPath);
+        mySM.setModel(Toolkit.getModel());
+        myServer = SemanticServer.start(mySM, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+    }
+
+    @AfterEach
+    void TearDown() { myServer.stop(Duration.ZERO); }
+
+    private HttpResponse<byte[]> get(String _path) throws Exception {
+        URI myURI = URI.create("http://localhost:" + myServer.getPort() + _path);
+        return myClient.send(HttpRequest.newBuilder(myURI).build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private HttpResponse<byte[]> post(String _path, String _body) throws Exception {
+        URI myURI = URI.create("http://localhost:" + myServer.getPort() + _path);
+        HttpRequest myRequest = HttpRequest.newBuilder(myURI).POST(HttpRequest.BodyPublishers.ofString(_body)).build();
+        return myClient.send(myRequest, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private String expectedJson(String _word, List<CosSimilarityPair> _pairs) {
+        return new String(SemanticServer.toJson(List.of(_word), List.of(_pairs)));
+    }
+
+    @Test
+    void nearest() throws Exception {
+        HttpResponse<byte[]> myResponse = get("/nearest?word=w7&k=3");
+        assertEquals(200, myResponse.statusCode());
+        assertEquals("application/json", myResponse.headers().firstValue("Content-Type").orElse(""));
+        assertEquals(expectedJson("w7", mySM.WordsNearest("w7", 3)), new String(myResponse.body()));
+        assertTrue(new String(myResponse.body()).startsWith("{\"word\":\"w7\",\"results\":[{\"word\":\"w"));
+
+        assertEquals(400, get("/nearest?k=3").statusCode());
+        assertEquals(400, get("/nearest?word=w7&k=0").statusCode());
+        assertEquals(400, get("/nearest?word=w7&k=ten").statusCode());
+        assertEquals(405, post("/nearest?word=w7", "").statusCode());
+        assertEquals(404, get("/farthest?word=w7").statusCode());
+
+        myResponse = get("/nearest?word=nope");
+        assertEquals(404, myResponse.statusCode());
+        assertEquals("unknown word nope", new String(myResponse.body()));
+    }
+
+    @Test
+    void analogy() throws Exception {
+        HttpResponse<byte[]> myResponse = get("/analogy?a=w1&b=w2&c=w3&k=5");
+        assertEquals(200, myResponse.statusCode());
+        assertEquals(expectedJson("w3", mySM.LogicalAnalogies("w3", "w1", "w2", 5)), new String(myResponse.body()));
+        assertEquals(404, get("/analogy?a=w1&b=w2&c=nope").statusCode());
+        assertEquals(404, get("/analogy?a=nope&b=w2&c=w3").statusCode());
+        assertEquals(400, get("/analogy?a=w1&b=w2").statusCode());
+    }
+
+    @Test
+    void batch() throws Exception {
+        HttpResponse<byte[]> myResponse = post("/batch?k=4", "w1\nw2\r\n\nw3\n");
+        assertEquals(200, myResponse.statusCode());
+        List<List<CosSimilarityPair>> myExpected = mySM.WordsNearestBatch(List.of("w1", "w2", "w3"), 4);
+        assertEquals(new String(SemanticServer.toJson(List.of("w1", "w2", "w3"), myExpected)),
+                new String(myResponse.body()));
+        assertEquals(405, get("/batch").statusCode());
+
+        //the binary form holds the same pairs
+        DataInputStream myIn = new DataInputStream(new ByteArrayInputStream(post("/batch?format=bin&k=4",
+                "w1\nw2\nw3").body()));
+        assertEquals(3, myIn.readInt());
+        for (List<CosSimilarityPair> pairs : myExpected) {
+            assertEquals(4, myIn.readInt());
+            for (CosSimilarityPair pair : pairs) {
+                assertEquals(pair.getWord2(), myIn.readUTF());
+                assertEquals((float) pair.getCosineSimilarity(), myIn.readFloat());
+            }
+        }
+        assertEquals(-1, myIn.read());
+    }
+
+    @Test
+    void batch_Unknown() throws Exception {
+        //the unknown words are flagged one by one and the others are still searched
+        HttpResponse<byte[]> myResponse = post("/batch?k=2", "w1\nnope\nw3");
+        assertEquals(200, myResponse.statusCode());
+        List<List<CosSimilarityPair>> myExpected = mySM.WordsNearestBatch(List.of("w1", "w3"), 2);
+        String myBody = new String(myResponse.body());
+        assertEquals(new String(SemanticServer.toJson(List.of("w1", "nope", "w3"), Arrays.asList(
+                myExpected.get(0), null, myExpected.get(1)))), myBody);
+        assertTrue(myBody.contains("{\"word\":\"nope\",\"unknown\":true,\"results\":[]}"));
+
+        DataInputStream myIn = new DataInputStream(new ByteArrayInputStream(post("/batch?format=bin&k=2",
+                "nope").body()));
+        assertEquals(1, myIn.readInt());
+        assertEquals(-1, myIn.readInt());
+        assertEquals(-1, myIn.read());
+    }
+
+    @Test
+    void batch_Limits() throws Exception {
+        StringBuilder myWords = new StringBuilder();
+        for (int i = 0; i <= SemanticServer.MAX_BATCH_WORDS; i++) myWords.append('w').append(i).append('\n');
+        assertEquals(400, post("/batch", myWords.toString()).statusCode());
+
+        HttpResponse<byte[]> myResponse = post("/batch", "w1\n".repeat(SemanticServer.MAX_BATCH_BYTES / 3 + 1));
+        assertEquals(413, myResponse.statusCode());
+        assertEquals(0, myServer.getServed()); //neither was searched
+        assertEquals(200, post("/batch", "w1\n".repeat(SemanticServer.MAX_BATCH_WORDS)).statusCode());
+    }
+
+    @Test
+    void overload() throws Exception {
+        assertTrue(myServer.tryEnter()); //the only permit is taken, as if a search were running
+        HttpResponse<byte[]> myResponse = get("/nearest?word=w7");
+        assertEquals(429, myResponse.statusCode());
+        assertEquals("1", myResponse.headers().firstValue("Retry-After").orElse(""));
+        assertEquals(1, myServer.getRejected());
+
+        myServer.exit();
+        assertEquals(200, get("/nearest?word=w7").statusCode());
+        assertEquals(1, myServer.getServed());
+    }
+
+    @Test
+    void metrics() throws Exception {
+        Metrics.reset();
+        assertTrue(myServer.tryEnter()); //the metrics are served even when every permit is taken
+        get("/nearest?word=w7");
+        HttpResponse<byte[]> myResponse = get("/metrics");
+        myServer.exit();
+
+        assertEquals(200, myResponse.statusCode());
+        assertTrue(myResponse.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+        assertEquals(Metrics.dump(), new String(myResponse.body()));
+    }
+
+    @Test
+    void stop() throws Exception {
+        assertTrue(myServer.tryEnter());
+        CompletableFuture<Boolean> myStopped = CompletableFuture.supplyAsync(() ->
+                myServer.stop(Duration.ofSeconds(30)));
+
+        //the search in flight holds the server open, and new requests are turned away meanwhile
+        Thread.sleep(200);
+        assertFalse(myStopped.isDone());
+        assertEquals(503, get("/nearest?word=w7").statusCode());
+
+        myServer.exit();
+        assertTrue(myStopped.get());
+        assertTrue(myServer.stop(Duration.ZERO)); //stopping again changes nothing
+    }
+}
@@ -0,0 +1,149 @@
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+class SimilarityKernelTest {
+    private SimilarityKernel scalar = SimilarityKernels.scalar();
+    private SimilarityKernel vectorApi = SimilarityKernels.vectorApi();
+    //without the incubator module the tests below compare the scalar kernel with itself
+    private SimilarityKernel vector = vectorApi != null ? vectorApi : scalar;
+
+    @Test
+    void vectorApi() {
+        Assumptions.assumeTrue(vectorApi != null, "jdk.incubator.vector is unavailable");
+
+        //whichever kernel was chosen agrees with the scalar one
+        float[] a = {1, 2, 3, 4, 5, 6, 7, 8, 9}, b = {9, 8, 7, 6, 5, 4, 3, 2, 1};
+        assertEquals(scalar.dot(a, 0, b, 0, 9), SimilarityKernels.get().dot(a, 0, b, 0, 9), 1e-4);
+        double[] c = {1, -2, 3, -4, 5, -6, 7, -8, 9}, d = {9, 8, 7, 6, 5, 4, 3, 2, 1};
+        assertEquals(scalar.cosine(c, d, 9), SimilarityKernels.get().cosine(c, d, 9), 1e-9);
+    }
+
+    @Test
+    void dot_Float() {
+        Random myRandom = new Random(1);
+        for (int length : new int[]{0, 1, 3, 7, 8, 50, 300}) {
+            float[] a = new float[length + 5];
+            float[] b = new float[length + 2];
+            for (int i = 0; i < a.length; i++) a[i] = (float) myRandom.nextGaussian();
+            for (int i = 0; i < b.length; i++) b[i] = (float) myRandom.nextGaussian();
+
+            double expected = 0;
+            for (int i = 0; i < length; i++) expected += (double) a[i + 5] * b[i + 2];
+
+            assertEquals(expected, scalar.dot(a, 5, b, 2, length), 1e-4);
+            assertEquals(expected, vector.dot(a, 5, b, 2, length), 1e-4);
+        }
+    }
+
+    @Test
+    void dot_Buffer() {
+        Random myRandom = new Random(1);
+        for (int length : new int[]{0, 1, 3, 7, 8, 50, 300}) {
+            ByteBuffer a = ByteBuffer.allocateDirect((length + 5) * 4).order(ByteOrder.LITTLE_ENDIAN);
+            float[] queries = new float[4 * length + 2];
+            for (int i = 0; i < length + 5; i++) a.putFloat(i * 4, (float) myRandom.nextGaussian());
+            for (int i = 0; i < queries.length; i++) queries[i] = (float) myRandom.nextGaussian();
+
+            float[] expected = new float[4];
+            for (int q = 0; q < 4; q++)
+                for (int i = 0; i < length; i++) expected[q] += a.getFloat((i + 5) * 4) * queries[2 + q * length + i];
+
+            assertEquals(expected[0], scalar.dot(a, 5, queries, 2, length), 1e-4);
+            assertEquals(expected[0], vector.dot(a, 5, queries, 2, length), 1e-4);
+
+            float[] scalarOut = new float[4], vectorOut = new float[4];
+            scalar.dot4(a, 5, queries, 2, length, scalarOut);
+            vector.dot4(a, 5, queries, 2, length, vectorOut);
+            for (int q = 0; q < 4; q++) {
+                assertEquals(expected[q], scalarOut[q], 1e-4);
+                assertEquals(expected[q], vectorOut[q], 1e-4);
+            }
+        }
+    }
+
+    @Test
+    void dot_Byte() {
+        Random myRandom = new Random(1);
+        for (int length : new int[]{0, 1, 3, 7, 8, 50, 300}) {
+            byte[] a = new byte[length + 5];
+            byte[] b = new byte[length + 2];
+            myRandom.nextBytes(a);
+            myRandom.nextBytes(b);
+
+            int expected = 0;
+            for (int i = 0; i < length; i++) expected += a[i + 5] * b[i + 2];
+
+            assertEquals(expected, scalar.dot(a, 5, b, 2, length));
+            assertEquals(expected, vector.dot(a, 5, b, 2, length));
+
+            ByteBuffer myMapped = ByteBuffer.allocateDirect(a.length).put(a);
+            assertEquals(expected, scalar.dot(myMapped, 5, b, 2, length));
+            assertEquals(expected, vector.dot(myMapped, 5, b, 2, length));
+        }
+
+        byte[] myExtremes = new byte[]{-128, -128, 127, 127};
+        assertEquals(2 * 16384 + 2 * 16129, vector.dot(myExtremes, 0, myExtremes, 0, 4));
+    }
+
+    @Test
+    void dot_Double() {
+        double[] a = new double[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0, 9.0};
+        double[] b = new double[]{0.1, 0.2, 0.3, 0.4, 0.5, 0.6, 0.7, 0.8, 0.9};
+        assertEquals("28.50000", String.format("%.5f", scalar.dot(a, 0, b, 0, 9)));
+        assertEquals("28.50000", String.format("%.5f", vector.dot(a, 0, b, 0, 9)));
+        assertEquals("24.00000", String.format("%.5f", vector.dot(a, 1, b, 0, 8)));
+    }
+
+    @Test
+    void cosine() {
+        double[] a = new double[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0, 9.0, 0.0};
+        double[] b = new double[]{-9.0, 2.5, 3.0, 4.0, -5.0, 6.0, 7.0, 1.0, 9.0, 4.0};
+        assertEquals(String.format("%.10f", scalar.cosine(a, b, 10)), String.format("%.10f", vector.cosine(a, b, 10)));
+        assertEquals("1.00000", String.format("%.5f", vector.cosine(a, a, 10)));
+        assertEquals(String.format("%.10f", scalar.cosine(a, 1, b, 2, 8)),
+                String.format("%.10f", vector.cosine(a, 1, b, 2, 8)));
+        assertEquals("1.00000", String.format("%.5f", vector.cosine(a, 1, a, 1, 9)));
+    }
+
+    @Test
+    void axpy() {
+        Random myRandom = new Random(3);
+        for (int length : new int[]{0, 1, 3, 8, 50, 300}) {
+            double[] x = new double[length + 3];
+            double[] myScalar = new double[length + 1];
+            for (int i = 0; i < x.length; i++) x[i] = myRandom.nextGaussian();
+            for (int i = 0; i < myScalar.length; i++) myScalar[i] = myRandom.nextGaussian();
+            double[] myVector = myScalar.clone();
+
+            scalar.axpy(-1.5, x, 3, myScalar, 1, length);
+            vector.axpy(-1.5, x, 3, myVector, 1, length);
+            assertEquals(new Vector(myScalar), new Vector(myVector));
+            if (length > 0) assertEquals(myScalar[length], myVector[length]);
+        }
+    }
+
+    @Test
+    void add_Subtract() {
+        double[] a = new double[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0, 9.0};
+        double[] b = new double[]{0.5, 0.5, 0.5, 0.5, 0.5, 0.5, 0.5, 0.5, 0.5};
+        double[] myScalar = new double[9];
+        double[] myVector = new double[9];
+
+        scalar.add(a, b, myScalar, 9);
+        vector.add(a, b, myVector, 9);
+        assertEquals(new Vector(myScalar), new Vector(myVector));
+        assertEquals(9.5, myVector[8]);
+
+        scalar.subtract(a, b, myScalar, 9);
+        vector.subtract(a, b, myVector, 9);
+        assertEquals(new Vector(myScalar), new Vector(myVector));
+        assertEquals(0.5, myVector[0]);
+    }
+}
@@ -0,0 +1,43 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class TombstonesTest {
+    @Test
+    void with() {
+        Tombstones myFirst = Tombstones.NONE.with(3);
+        Tombstones mySecond = myFirst.with(200000).with(64);
+
+        //every copy keeps the rows it was created with, and nothing else
+        assertEquals(0, Tombstones.NONE.size());
+        assertFalse(Tombstones.NONE.contains(3));
+        assertEquals(1, myFirst.size());
+        assertTrue(myFirst.contains(3));
+        assertFalse(myFirst.contains(64));
+        assertFalse(myFirst.contains(200000));
+        assertEquals(3, mySecond.size());
+        assertTrue(mySecond.contains(3) && mySecond.contains(64) && mySecond.contains(200000));
+        assertFalse(mySecond.contains(200001));
+        assertFalse(mySecond.contains(-1));
+
+        assertSame(mySecond, mySecond.with(64));
+        assertThrows(IndexOutOfBoundsException.class, () -> myFirst.with(-1));
+    }
+
+    @Test
+    void word() {
+        Tombstones myTombstones = Tombstones.of(new long[]{1L << 3 | 1L << 1, 0, 1L << 63});
+        assertEquals(3, myTombstones.size());
+        assertEquals(1L << 3 | 1L << 1, myTombstones.word(0));
+        assertEquals(0, myTombstones.word(1));
+        assertEquals(1L << 63, myTombstones.word(2));
+        assertEquals(0, myTombstones.word(100000)); //past the last chunk
+        assertTrue(myTombstones.contains(191));
+        assertEquals(0, Tombstones.of(new long[0]).size());
+    }
+}
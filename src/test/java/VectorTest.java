@@ -1,5 +1,8 @@
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
 class VectorTest {
@@ -91,4 +94,59 @@ class VectorTest {
         assertEquals("0.24658", String.format("%.5f",myVector1.cosineSimilarity(myVector3)));
         assertEquals("-0.39831", String.format("%.5f",myVector2.cosineSimilarity(myVector4)));
     }
+
+    @Test
+    void addInto_SubInto() {
+        Vector myVector = new Vector(new double[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0});
+        assertSame(myVector, myVector.addInto(myVector2));
+        assertEquals(myVector1.add(myVector2), myVector);
+        myVector.subInto(myVector2);
+        assertEquals(myVector1.add(myVector2).subtraction(myVector2), myVector);
+
+        //a shorter input is padded with -1, as add() and subtraction() do
+        assertEquals(myVector1.add(myVector3), new Vector(myVector1.getAllElements().clone()).addInto(myVector3));
+        assertEquals(myVector1.subtraction(myVector3), new Vector(myVector1.getAllElements().clone())
+                .subInto(myVector3));
+        assertThrows(IllegalArgumentException.class, () -> myVector3.addInto(myVector1));
+    }
+
+    @Test
+    void axpy() {
+        Vector myVector = new Vector(new double[]{1.0, 2.0, 3.0});
+        assertEquals("13.00000,16.00000,19.00000", myVector.axpy(2, myVector3).toString());
+
+        double[] myY = {0, 0, 1.0, 1.0, 1.0};
+        Vector.axpy(-0.5, myVector1.getAllElements(), 3, myY, 2, 3);
+        assertEquals("0.00000,0.00000,-1.00000,-1.50000,-2.00000", new Vector(myY).toString());
+        Vector.addInto(myY, 0, myVector3.getAllElements(), 1, 2);
+        Vector.subInto(myY, 2, myVector3.getAllElements(), 0, 1);
+        assertEquals("7.00000,8.00000,-7.00000,-1.50000,-2.00000", new Vector(myY).toString());
+    }
+
+    @Test
+    void normalizeInPlace() {
+        Vector myVector = new Vector(new double[]{3.0, 4.0});
+        assertEquals("0.60000,0.80000", myVector.normalizeInPlace().toString());
+        assertEquals("0.00000,0.00000", new Vector(new double[2]).normalizeInPlace().toString());
+
+        double[] myElements = {9.0, 3.0, 4.0, 9.0};
+        assertEquals(5.0, Vector.normalizeInPlace(myElements, 1, 2));
+        assertEquals("9.00000,0.60000,0.80000,9.00000", new Vector(myElements).toString());
+    }
+
+    @Test
+    void dot_Cosine() {
+        double[] myA = {0.0, 1.0, 2.0, 3.0};
+        double[] myB = {2.0, 4.0, 6.0, 0.0};
+        assertEquals("16.00000", String.format("%.5f", Vector.dot(myA, 1, myB, 1, 2)));
+        assertEquals("1.00000", String.format("%.5f", Vector.cosine(myA, 1, myB, 0, 3)));
+
+        //a row held in a longer buffer compares like the vector it holds
+        double[] myRow = Vector.scratch(20);
+        assertTrue(myRow.length >= 20);
+        assertSame(myRow, Vector.scratch(10));
+        System.arraycopy(myVector3.getAllElements(), 0, myRow, 0, 3);
+        assertEquals(myVector1.cosineSimilarity(myVector3), myVector1.cosineSimilarity(myRow, 3));
+        assertEquals(myVector3.cosineSimilarity(myVector1), myVector3.cosineSimilarity(myVector1.getAllElements(), 6));
+    }
 }
\ No newline at end of file
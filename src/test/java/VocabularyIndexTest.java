@@ -0,0 +1,60 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+class VocabularyIndexTest {
+    private List<String> listWords = List.of("apple", "banana", "cherry", "banana", "date");
+
+    @Test
+    void of() {
+        VocabularyIndex myIndex = VocabularyIndex.of(listWords);
+        assertEquals(4, myIndex.size());
+        assertEquals(0, myIndex.get("apple"));
+        assertEquals(1, myIndex.get("banana"));
+        assertEquals(2, myIndex.get("cherry"));
+        assertEquals(4, myIndex.get("date"));
+    }
+
+    @Test
+    void get_Missing() {
+        VocabularyIndex myIndex = VocabularyIndex.of(listWords);
+        assertEquals(-1, myIndex.get("O_O"));
+        assertEquals(-1, myIndex.get(null));
+        assertEquals(false, myIndex.contains("O_O"));
+        assertEquals(true, myIndex.contains("cherry"));
+    }
+
+    @Test
+    void put() {
+        VocabularyIndex myIndex = VocabularyIndex.of(listWords);
+        assertEquals(1, myIndex.put("banana", 7));
+        assertEquals(7, myIndex.get("banana"));
+        assertEquals(-1, myIndex.put("elderberry", 5));
+        assertEquals(5, myIndex.get("elderberry"));
+        assertEquals(2, myIndex.putIfAbsent("cherry", 9));
+        assertEquals(2, myIndex.get("cherry"));
+    }
+
+    @Test
+    void rehash() {
+        List<String> myList = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) myList.add("word" + i);
+
+        VocabularyIndex myIndex = VocabularyIndex.of(myList);
+        assertEquals(100000, myIndex.size());
+        for (int i = 0; i < 100000; i += 997) assertEquals(i, myIndex.get("word" + i));
+        assertEquals(-1, myIndex.get("word100000"));
+    }
+
+    @Test
+    void tooLarge() {
+        assertThrows(IllegalArgumentException.class, () -> new VocabularyIndex(1 << 29));
+        assertThrows(IllegalArgumentException.class, () -> new VocabularyIndex(Integer.MAX_VALUE));
+        assertThrows(IllegalArgumentException.class, () -> new VocabularyIndex(-1));
+    }
+}